@@ -0,0 +1,153 @@
+package RMIGameOfNim;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+/**
+ * Measures the time the event dispatch thread spends per client message, for a
+ * growing message history. Compares the old behaviour (one task per message,
+ * unbounded text area) with {@link CoalescingTextAreaLog}. With the coalescing
+ * log the time per message should stay flat however long the session gets.
+ * <p>
+ * Run with: ant bench-client-log
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ClientMessageLogBenchmark {
+
+    private static final int[] HISTORY_SIZES = {0, 1000, 10000, 50000, 100000};
+    private static final int MESSAGES_PER_RUN = 5000;
+    private static final int HISTORY_CHUNK = 500;
+    private static final int RUNS = 3; //the median of the runs is reported
+    private static final int BURST = 20; //messages the "server" sends back to back
+    private static final String MESSAGE = NimRules.otherPlayerTook(3, 12);
+
+    private static final AtomicLong edtBusyNanos = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(new EventQueue() {
+            @Override
+            protected void dispatchEvent(AWTEvent event) {
+                long start = System.nanoTime();
+                super.dispatchEvent(event);
+                edtBusyNanos.addAndGet(System.nanoTime() - start);
+            }
+        });
+        runOld(0); //warm up
+        runCoalescing(0);
+        System.out.println("history\tper-message EDT us (old)\tper-message EDT us (coalescing, " + GameClientJFrame.SCROLLBACK_LINES + " lines)");
+        for (int history : HISTORY_SIZES) {
+            double[] old = new double[RUNS];
+            double[] coalescing = new double[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                old[run] = runOld(history);
+                coalescing[run] = runCoalescing(history);
+            }
+            System.out.printf("%d\t%.2f\t%.2f%n", history, median(old), median(coalescing));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * One invokeLater per message into a text area that is never trimmed
+     */
+    private static double runOld(int history) throws Exception {
+        final JTextArea area = new JTextArea();
+        fill(area, history);
+        return measure(new Sink() {
+            @Override
+            public void accept(final String message) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        area.append("\n" + message);
+                    }
+                });
+            }
+        });
+    }
+
+    private static double runCoalescing(int history) throws Exception {
+        JTextArea area = new JTextArea();
+        final CoalescingTextAreaLog log = new CoalescingTextAreaLog(area, GameClientJFrame.SCROLLBACK_LINES);
+        for (int i = 0; i < history; i++) { //the history arrives through the log, so it is trimmed like a real session
+            log.append("\n" + MESSAGE);
+            if (i % HISTORY_CHUNK == 0) {
+                SwingUtilities.invokeAndWait(new Runnable() { //let the log catch up, as it would over a real session
+                    @Override
+                    public void run() {
+                    }
+                });
+            }
+        }
+        return measure(new Sink() {
+            @Override
+            public void accept(String message) {
+                log.append("\n" + message);
+            }
+        });
+    }
+
+    private static void fill(final JTextArea area, final int history) throws Exception {
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < history; i++) {
+                    text.append('\n').append(MESSAGE);
+                }
+                area.setText(text.toString());
+            }
+        });
+    }
+
+    /**
+     * Sends {@link ClientMessageLogBenchmark#MESSAGES_PER_RUN} messages in
+     * bursts, one burst per millisecond, and returns the EDT time per message
+     * in microseconds
+     */
+    private static double measure(Sink sink) throws Exception {
+        settle();
+        edtBusyNanos.set(0);
+        for (int i = 0; i < MESSAGES_PER_RUN; i += BURST) {
+            for (int j = 0; j < BURST; j++) {
+                sink.accept(MESSAGE);
+            }
+            Thread.sleep(1);
+        }
+        settle();
+        return edtBusyNanos.get() / 1000.0 / MESSAGES_PER_RUN;
+    }
+
+    /**
+     * Waits for pending frame timers, drains the event queue and collects the
+     * garbage left by the previous run so it is not charged to the next one
+     */
+    private static void settle() throws InterruptedException, InvocationTargetException {
+        for (int i = 0; i < 2; i++) {
+            Thread.sleep(CoalescingTextAreaLog.FRAME_MILLIS * 4);
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        }
+        System.gc();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        java.util.Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private interface Sink {
+
+        void accept(String message);
+    }
+}
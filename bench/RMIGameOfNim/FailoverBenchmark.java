@@ -0,0 +1,234 @@
+package RMIGameOfNim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures hot-standby replication with two local JVMs: a primary
+ * {@link GameServer} with a replication port and a {@link StandbyServer}
+ * following it. Pairs of players play matches against each other on the
+ * primary for the duration, then the primary is halted as if it had crashed.
+ * Reported are the latency of a move with the chosen ack mode, the time the
+ * standby took to acknowledge the changes as measured by the primary, the
+ * time from the crash until a client could resume its session on the
+ * standby, how many sessions could be resumed and how many moves of the
+ * matches going on were lost.
+ * <p>
+ * Run with: ant bench-failover -Dfailover.args="pairs=20 duration=10 ack=written"
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class FailoverBenchmark {
+
+    private static final Pattern MATCH_LINE = Pattern.compile("Match #(\\d+) .* marbles left after (\\d+) move");
+    private static final String READY = "ready";
+
+    /**
+     * Two players playing one match after the other
+     */
+    private static final class Pair {
+
+        final int one, two;
+        final String oneToken, twoToken;
+        boolean playing = false;
+
+        Pair(String oneToken, String twoToken) {
+            this.oneToken = oneToken;
+            this.twoToken = twoToken;
+            this.one = ResumedSession.playerNumberOf(oneToken);
+            this.two = ResumedSession.playerNumberOf(twoToken);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        if ("primary".equals(config.get("role"))) {
+            runPrimary(config);
+            return;
+        }
+        int pairCount = config.getInt("pairs", 20);
+        int durationSeconds = config.getInt("duration", 10);
+        String ack = config.get("ack") == null ? Replicator.ACK_WRITTEN : config.get("ack");
+        int port = config.getInt("port", 2099);
+        int replicationPort = config.getInt(ServerConfig.REPLICATION_PORT, 2199);
+        String url = "rmi://localhost:" + port + "/" + GameEngineRemoteInterface.SERVICE_NAME;
+        File primaryDir = Files.createTempDirectory("nim-primary").toFile();
+        File standbyDir = Files.createTempDirectory("nim-standby").toFile();
+
+        Process primary = launch("primary", Arrays.asList(FailoverBenchmark.class.getName(), "role=primary", "port=" + port,
+                "replication.port=" + replicationPort, "replication.ack=" + ack, "journal.dir=" + primaryDir, "log.sink=none",
+                "snapshot.interval=0", "restore=false", "matchmaking.window=1000000"));
+        BlockingQueue<String> primaryLines = pump(primary, null);
+        await(primaryLines, READY, 30);
+        Process standby = launch("standby", Arrays.asList(StandbyServer.class.getName(), "replication.primary=localhost:" + replicationPort,
+                "port=" + port, "journal.dir=" + standbyDir, "log.sink=stdout", "snapshot.interval=0", "drain.timeout=0", "drain.flushTimeout=0",
+                "matchmaking.window=1000000"));
+        BlockingQueue<String> standbyLines = pump(standby, "standby| ");
+        await(standbyLines, "Replicating from", 30);
+
+        GameEngineRemoteInterface server = (GameEngineRemoteInterface) Naming.lookup(url);
+        List<Pair> pairs = new ArrayList<>(pairCount);
+        for (int i = 0; i < pairCount; i++) {
+            pairs.add(new Pair(server.registerSession(), server.registerSession()));
+        }
+        System.out.println(pairs.size() * 2 + " players registered, playing for " + durationSeconds + " seconds with ack=" + ack);
+        LatencyHistogram moveLatency = new LatencyHistogram();
+        long finished = 0;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < end) {
+            for (Pair pair : pairs) {
+                if (!pair.playing) {
+                    server.executeCommand(pair.one, "start");
+                    server.executeCommand(pair.two, "start");
+                    pair.playing = true;
+                    continue;
+                }
+                long start = System.nanoTime();
+                String one = server.executeCommand(pair.one, "1");
+                String reply = one.isEmpty() ? one : server.executeCommand(pair.two, "1");
+                if (reply.isEmpty()) {
+                    moveLatency.recordSince(start);
+                } else if (one.startsWith("You are not currently") && reply.startsWith("You are not currently")) {
+                    pair.playing = false;
+                    finished++;
+                }
+            }
+        }
+        System.out.println(moveLatency.getCount() + " moves, " + finished + " matches finished, move latency " + moveLatency.summary());
+        primary.getOutputStream().write("stats\n".getBytes());
+        primary.getOutputStream().flush();
+        System.out.println("primary " + await(primaryLines, "replication:", 10));
+
+        Map<Integer, Integer> played = movesByMatch(server.executeCommand(pairs.get(0).one, "matches limit " + AdminQueries.MAX_PAGE_SIZE));
+        primary.getOutputStream().write("crash\n".getBytes());
+        primary.getOutputStream().flush();
+        long crash = System.nanoTime();
+        ResumedSession resumed = null;
+        while (resumed == null && System.nanoTime() - crash < TimeUnit.SECONDS.toNanos(60)) {
+            try {
+                server = (GameEngineRemoteInterface) Naming.lookup(url);
+                resumed = server.resume(pairs.get(0).oneToken);
+            } catch (Exception e) {
+                Thread.sleep(5);
+            }
+        }
+        System.out.println("failover: first session resumed " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - crash) + " ms after the crash");
+        int resumable = 0;
+        for (Pair pair : pairs) {
+            resumable += (server.resume(pair.oneToken) != null ? 1 : 0) + (server.resume(pair.twoToken) != null ? 1 : 0);
+        }
+        Map<Integer, Integer> kept = movesByMatch(server.executeCommand(pairs.get(0).one, "matches limit " + AdminQueries.MAX_PAGE_SIZE));
+        long made = 0, lost = 0;
+        for (Map.Entry<Integer, Integer> match : played.entrySet()) {
+            made += match.getValue();
+            Integer moves = kept.get(match.getKey());
+            lost += Math.max(0, match.getValue() - (moves == null ? 0 : moves));
+        }
+        System.out.println("sessions resumed: " + resumable + " of " + pairs.size() * 2 + ", moves lost: " + lost + " of " + made + " made in the "
+                + played.size() + " matches going on");
+        standby.destroy();
+        standby.waitFor();
+        System.exit(0);
+    }
+
+    /**
+     * @param listing the answer to the "matches" command
+     * @return the moves made in every match that has started, by match
+     */
+    private static Map<Integer, Integer> movesByMatch(String listing) {
+        Map<Integer, Integer> moves = new HashMap<>();
+        Matcher matcher = MATCH_LINE.matcher(listing);
+        while (matcher.find()) {
+            moves.put(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+        }
+        return moves;
+    }
+
+    /**
+     * The primary: a server that prints its replication on "stats" and halts
+     * without running any shutdown hook on "crash"
+     */
+    private static void runPrimary(ServerConfig config) throws Exception {
+        GameServer server = new GameServer(config, new AsyncServerLog(LogSinks.fromSpec(config.getLogSink()), config.getLogBufferSize()));
+        server.start();
+        System.out.println(READY);
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in));
+        for (String command; (command = commands.readLine()) != null;) {
+            if (command.equals("stats")) {
+                System.out.println("replication: " + server.getReplicator());
+            } else if (command.equals("crash")) {
+                Runtime.getRuntime().halt(1);
+            }
+        }
+    }
+
+    private static Process launch(String name, List<String> arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.addAll(arguments);
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    /**
+     * Reads the output of a process on a background thread
+     *
+     * @param echo prefix the lines are printed with, null to keep them quiet
+     * @return the lines, to wait for
+     */
+    private static BlockingQueue<String> pump(final Process process, final String echo) {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final PrintStream out = System.out;
+        Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    for (String line; (line = reader.readLine()) != null;) {
+                        if (echo != null) {
+                            out.println(echo + line);
+                        }
+                        lines.add(line);
+                    }
+                } catch (IOException e) {
+                    //the process has gone
+                }
+            }
+        }, "FailoverBenchmark-output");
+        pump.setDaemon(true);
+        pump.start();
+        return lines;
+    }
+
+    /**
+     * @return the first line containing the text
+     * @throws IllegalStateException if none came within the time
+     */
+    private static String await(BlockingQueue<String> lines, String text, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (true) {
+            String line = lines.poll(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (line == null) {
+                throw new IllegalStateException("Gave up waiting for \"" + text + "\"");
+            }
+            if (line.contains(text)) {
+                return line;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package RMIGameOfNim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Move validation and execution in {@link GameLogicEngine} and the move
+ * computation of the {@link ComputerControlledPlayer}.
+ * <p>
+ * Run with: ant bench
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameLogicEngineJmhBenchmark {
+
+    private static final int PLAYER_ONE = 1;
+    private static final int PLAYER_TWO = 2;
+
+    @Param({"20", "100", "100000", "9223372036854775807"})
+    public long marbles;
+
+    private GameLogicEngine engine;
+    private ComputerControlledPlayer cpu;
+    private int nextPlayer;
+    private long move;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        silenceConsole();
+        engine = new GameLogicEngine(1, null, PLAYER_ONE, PLAYER_TWO, true);
+        engine.setCurrentMarbles(marbles);
+        engine.updateNextTurn();
+        nextPlayer = engine.checkIfItIsMyTurn(PLAYER_ONE) ? PLAYER_ONE : PLAYER_TWO;
+        cpu = new ComputerControlledPlayer(marbles, engine);
+        move = Math.max(1, marbles / 4);
+    }
+
+    @Benchmark
+    public boolean determineLegalMove() {
+        return engine.determineLegalMove(move);
+    }
+
+    @Benchmark
+    public boolean pickMarblesLegal() {
+        if (engine.getCurrentMarbles() < 2) { //start a new game once this one is over
+            engine.setCurrentMarbles(marbles);
+        }
+        boolean legal = engine.pickMarbles(nextPlayer, 1);
+        nextPlayer = nextPlayer == PLAYER_ONE ? PLAYER_TWO : PLAYER_ONE;
+        return legal;
+    }
+
+    @Benchmark
+    public boolean pickMarblesWrongPlayer() {
+        int waiting = nextPlayer == PLAYER_ONE ? PLAYER_TWO : PLAYER_ONE;
+        boolean legal = engine.pickMarbles(waiting, 1);
+        Player player = waiting == PLAYER_ONE ? engine.getPlayerOne() : engine.getPlayerTwo();
+        if (player.getMessages().size() > 1000) { //the engine queues a message for every rejected move
+            player.getMessages().clear();
+        }
+        return legal;
+    }
+
+    @Benchmark
+    public long makeSmartMove() {
+        return cpu.makeSmartMove(marbles);
+    }
+
+    /**
+     * The engine prints every move, keep that out of the benchmark output
+     * while still paying for building the strings
+     */
+    static void silenceConsole() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+}
@@ -0,0 +1,103 @@
+package RMIGameOfNim;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hot paths of {@link GameServer}: command dispatch, player look up for a
+ * growing registry and message polling from many threads at once. The server
+ * is called directly, without going through RMI, and is never bound to a
+ * registry.
+ * <p>
+ * Run with: ant bench
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameServerJmhBenchmark {
+
+    private static final String[] DISPATCHED_COMMANDS = {"help", "human", "cpu", "hard", "easy", "3"};
+
+    @State(Scope.Benchmark)
+    public static class Registry {
+
+        @Param({"10", "1000", "100000"})
+        public int players;
+
+        GameServer server;
+
+        @Setup(Level.Trial)
+        public void setUp() throws RemoteException {
+            GameLogicEngineJmhBenchmark.silenceConsole();
+            server = new GameServer(new ServerConfig(), new AsyncServerLog(LogSinks.none(), AsyncServerLog.DEFAULT_BUFFER_SIZE));
+            for (int i = 0; i < players; i++) {
+                server.registerPlayer();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws NoSuchObjectException {
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+
+        int randomPlayer() {
+            return ThreadLocalRandom.current().nextInt(players) + 1;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Commands {
+
+        int next;
+
+        String nextCommand() {
+            next = (next + 1) % DISPATCHED_COMMANDS.length;
+            return DISPATCHED_COMMANDS[next];
+        }
+    }
+
+    @Benchmark
+    public String executeCommand(Registry registry, Commands commands) throws RemoteException {
+        return registry.server.executeCommand(registry.randomPlayer(), commands.nextCommand());
+    }
+
+    @Benchmark
+    public Player findPlayerById(Registry registry) {
+        return registry.server.findPlayerById(registry.randomPlayer());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String communicateWithServerEmpty(Registry registry) throws RemoteException {
+        return registry.server.communicateWithServer(registry.randomPlayer());
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String communicateWithServerMessage(Registry registry) throws RemoteException {
+        int player = registry.randomPlayer();
+        registry.server.findPlayerById(player).addMessage("The other player has taken 3 marbles.");
+        return registry.server.communicateWithServer(player);
+    }
+}
@@ -0,0 +1,290 @@
+package RMIGameOfNim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives a {@link GameServer} with N simulated players to find out how many it
+ * can sustain. Every player registers, chooses a mode and difficulty and then
+ * plays full matches back to back, waiting the configured think time before
+ * each move. At the end the throughput and the p50 / p99 / p99.9 latencies of
+ * every remote call and of the turn hand over are reported, together with the
+ * thread count and heap used during the run.
+ * <p>
+ * RMI is the only transport the server offers. By default an embedded server
+ * is started in this JVM, so its threads and heap are part of the samples; set
+ * url=rmi://host:port/RMIGameServer to load an external one instead.
+ * <p>
+ * Usage: ant load-test -Dload.args="clients=200 mode=mixed difficulty=mixed
+ * think=100 duration=30"
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class LoadGenerator {
+
+    private static final Pattern LAST_NUMBER = Pattern.compile("(\\d+)\\D*$");
+    private static final Pattern MARBLES_LEFT = Pattern.compile(Pattern.quote(NimRules.MARBLES_LEFT) + "(\\d+)");
+
+    private final int clients;
+    private final String mode;
+    private final String difficulty;
+    private final long thinkMillis;
+    private final long durationSeconds;
+    private final ClientConnectionPool pool;
+    private final ConcurrentMap<String, LatencyHistogram> callLatency = new ConcurrentHashMap<>();
+    private final LatencyHistogram turnLatency = new LatencyHistogram(); //from sending a move until the turn comes back, without the opponent's think time
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong matchesFinished = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final List<Bot> bots = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public LoadGenerator(ServerConfig config) {
+        clients = config.getInt("clients", 100);
+        mode = config.get("mode") == null ? "mixed" : config.get("mode");
+        difficulty = config.get("difficulty") == null ? "mixed" : config.get("difficulty");
+        thinkMillis = config.getInt("think", 100);
+        durationSeconds = config.getInt("duration", 30);
+        pool = new ClientConnectionPool(config.getInt("threads", Runtime.getRuntime().availableProcessors() * 2), config.getInt("poll", 20));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        String url = config.get("url");
+        GameServer embedded = null;
+        if (url == null) {
+            if (config.get(ServerConfig.LOG_SINK) == null || LogSinks.STDOUT.equals(config.getLogSink())) {
+                config.set(ServerConfig.LOG_SINK, LogSinks.NONE); //the server log would drown the report
+            }
+            if ("journal".equals(config.get(ServerConfig.JOURNAL_DIR))) { //the default, keep the journal out of the working directory
+                config.set(ServerConfig.JOURNAL_DIR, Files.createTempDirectory("nim-journal").toString());
+            }
+            embedded = new GameServer(config, new AsyncServerLog(LogSinks.fromSpec(config.getLogSink()), config.getLogBufferSize()));
+            embedded.start();
+            url = "rmi://localhost:" + config.getPort() + "/" + config.getServiceName();
+        }
+        LoadGenerator generator = new LoadGenerator(config);
+        generator.run(url);
+        if (embedded != null) {
+            System.out.println("server: " + embedded.getMetrics() + " pending messages=" + embedded.getMetrics().getPendingMessagesTotal());
+            if (embedded.getJournal() != null) {
+                embedded.getJournal().close();
+                System.out.println("journal: " + embedded.getJournal().getRecordsWritten() + " records, " + embedded.getJournal().getBytesWritten() + " bytes in " + embedded.getJournal().getDirectory());
+            }
+            UnicastRemoteObject.unexportObject(embedded, true);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts the players, samples the JVM once a second for the duration of
+     * the run and prints the report
+     *
+     * @param url
+     * @throws Exception
+     */
+    public void run(String url) throws Exception {
+        GameEngineRemoteInterface server = timed(pool.lookup(url));
+        System.out.println("Starting " + clients + " players against " + url + " (mode=" + mode + ", difficulty=" + difficulty + ", think=" + thinkMillis + "ms)");
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Bot bot = new Bot(pool.newSession(server), pick(mode, "human", "cpu", random), pick(difficulty, "easy", "hard", random));
+            bots.add(bot);
+            bot.begin();
+        }
+        System.out.println("All players registered after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int peakThreads = 0;
+        long peakHeap = 0;
+        long lastMoves = 0;
+        System.out.println("second\tmoves/s\tmatches\tthreads\theap MB");
+        for (long second = 1; second <= durationSeconds; second++) {
+            Thread.sleep(1000);
+            long currentMoves = moves.get();
+            int threadCount = threads.getThreadCount();
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            peakThreads = Math.max(peakThreads, threadCount);
+            peakHeap = Math.max(peakHeap, heap);
+            System.out.println(second + "\t" + (currentMoves - lastMoves) + "\t" + matchesFinished.get() + "\t" + threadCount + "\t" + heap / (1024 * 1024));
+            lastMoves = currentMoves;
+        }
+        running = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int stalled = 0;
+        long rejectedLocally = 0;
+        for (Bot bot : bots) {
+            if (System.nanoTime() - bot.lastEventNanos > TimeUnit.SECONDS.toNanos(10)) {
+                stalled++;
+            }
+            rejectedLocally += bot.session.getMovesRejectedLocally();
+        }
+        System.out.println();
+        System.out.printf("players=%d moves=%d (%.1f/s) matches finished=%d (%.1f/s) errors=%d stalled players=%d%n", clients, moves.get(), moves.get() / seconds, matchesFinished.get(), matchesFinished.get() / seconds, errors.get(), stalled);
+        System.out.println("moves turned down by the client=" + rejectedLocally);
+        System.out.println("peak threads=" + peakThreads + " peak heap=" + peakHeap / (1024 * 1024) + " MB");
+        for (String method : callLatency.keySet()) {
+            System.out.println(method + ": " + callLatency.get(method).summary());
+        }
+        System.out.println("turn hand over: " + turnLatency.summary());
+        pool.shutdown();
+    }
+
+    private static String pick(String choice, String first, String second, Random random) {
+        if ("mixed".equals(choice)) {
+            return random.nextBoolean() ? first : second;
+        }
+        return choice;
+    }
+
+    /**
+     * Wraps the remote reference so the latency of every call is recorded per
+     * method
+     */
+    private GameEngineRemoteInterface timed(final GameEngineRemoteInterface server) {
+        return (GameEngineRemoteInterface) Proxy.newProxyInstance(GameEngineRemoteInterface.class.getClassLoader(), new Class<?>[]{GameEngineRemoteInterface.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                LatencyHistogram histogram = callLatency.get(method.getName());
+                if (histogram == null) {
+                    callLatency.putIfAbsent(method.getName(), new LatencyHistogram());
+                    histogram = callLatency.get(method.getName());
+                }
+                long start = System.nanoTime();
+                try {
+                    return method.invoke(server, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                } finally {
+                    histogram.recordSince(start);
+                }
+            }
+        });
+    }
+
+    /**
+     * One simulated player, reacting to the messages of its session
+     */
+    private class Bot implements GameEventListener, CommandCallback {
+
+        private final ClientSession session;
+        private final String mode;
+        private final String difficulty;
+        private volatile int marbles;
+        private volatile long moveSentNanos = 0;
+        private volatile long lastEventNanos = System.nanoTime();
+
+        private Bot(ClientSession session, String mode, String difficulty) {
+            this.session = session;
+            this.mode = mode;
+            this.difficulty = difficulty;
+            session.addListener(this);
+        }
+
+        private void begin() throws RemoteException {
+            session.register();
+            session.execute(difficulty);
+            session.execute(mode);
+            session.executeAsync("start", this);
+        }
+
+        @Override
+        public void messageReceived(ClientSession session, String message) {
+            lastEventNanos = System.nanoTime();
+            if (message.startsWith(NimRules.MATCH_FOUND)) {
+                marbles = lastNumber(message);
+            } else if (message.startsWith(NimRules.YOUR_TURN)) {
+                scheduleMove();
+            } else if (message.startsWith(NimRules.OTHER_PLAYER_TOOK)) {
+                Matcher left = MARBLES_LEFT.matcher(message);
+                if (left.find()) {
+                    marbles = Integer.parseInt(left.group(1));
+                }
+                turnCameBack(thinkMillis);
+                scheduleMove();
+            } else if (message.startsWith(NimRules.CPU_TOOK)) {
+                marbles = lastNumber(message);
+                turnCameBack(0);
+                if (marbles > 0) {
+                    scheduleMove();
+                }
+            } else if (message.startsWith(NimRules.INVALID_MOVE)) {
+                marbles = lastNumber(message);
+                scheduleMove();
+            } else if (message.startsWith(NimRules.MATCH_ENDED)) {
+                matchesFinished.incrementAndGet();
+                moveSentNanos = 0;
+                if (running) {
+                    schedule("start");
+                }
+            }
+        }
+
+        @Override
+        public void connectionLost(ClientSession session, Exception cause) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void completed(ClientSession session, String command, String reply) {
+        }
+
+        @Override
+        public void failed(ClientSession session, String command, Exception cause) {
+            errors.incrementAndGet();
+        }
+
+        private void turnCameBack(long opponentThinkMillis) {
+            long sent = moveSentNanos;
+            if (sent != 0) {
+                turnLatency.record(System.nanoTime() - sent - TimeUnit.MILLISECONDS.toNanos(opponentThinkMillis));
+            }
+        }
+
+        private void scheduleMove() {
+            if (!running || marbles <= 0) {
+                return;
+            }
+            int max = (int) Math.max(1, NimRules.maxMove(marbles));
+            schedule(Integer.toString(1 + ThreadLocalRandom.current().nextInt(max)));
+        }
+
+        private void schedule(final String command) {
+            pool.getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!command.equals("start")) {
+                        moves.incrementAndGet();
+                        moveSentNanos = System.nanoTime();
+                    }
+                    session.executeAsync(command, Bot.this);
+                }
+            }, thinkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private int lastNumber(String message) {
+            Matcher matcher = LAST_NUMBER.matcher(message);
+            return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package RMIGameOfNim;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a {@link Matchmaker} takes to decide where a player goes
+ * while tens of thousands of lobbies are waiting. The lobbies get ratings
+ * spread like those of real players, around {@link Leaderboard#INITIAL_RATING}
+ * with the odd very strong or very weak player. Every arriving player either
+ * joins a lobby or opens a new one, so the queue stays about as long as it
+ * started. The clock is moved on by hand, so the windows widen as they would
+ * over the given number of seconds. custom=N makes N percent of the lobbies
+ * set up wait for a total of marbles of their own, which the arriving players
+ * do not choose.
+ * <p>
+ * Run with: ant bench-matchmaking -Dmatchmaking.args="lobbies=50000
+ * arrivals=200000 seconds=60 custom=50"
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MatchmakingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        int lobbies = config.getInt("lobbies", 50000);
+        int arrivals = config.getInt("arrivals", 200000);
+        long seconds = config.getInt("seconds", 60);
+        int customPercent = config.getInt("custom", 0);
+        Matchmaker matchmaker = new Matchmaker(config.getMatchmakingWindow(), config.getMatchmakingWiden(), 2);
+        Random random = new Random(42);
+        long now = 0;
+        long step = TimeUnit.SECONDS.toNanos(seconds) / (lobbies + arrivals); //virtual time between two players
+        int matchID = 0;
+        for (int i = 0; i < lobbies; i++) {
+            now += step;
+            GameLogicEngine lobby = lobby(++matchID, random);
+            if (random.nextInt(100) < customPercent) {
+                lobby.setTotalMarbles(1000 + matchID); //a total of its own
+            }
+            matchmaker.add(lobby, rating(random), now);
+        }
+        System.out.println("set up: " + matchmaker);
+
+        LatencyHistogram pairing = new LatencyHistogram();
+        int joined = 0;
+        for (int i = 0; i < arrivals; i++) {
+            now += step;
+            GameLogicEngine lobby = lobby(++matchID, random);
+            int rating = rating(random);
+            long start = System.nanoTime();
+            if (matchmaker.pair(lobby.getChosenDifficulty(), 0, rating, now) != null) {
+                joined++;
+            } else {
+                matchmaker.add(lobby, rating, now);
+            }
+            pairing.recordSince(start);
+        }
+        System.out.printf("%d arrivals, %d joined a lobby: %s%n", arrivals, joined, pairing.summary());
+
+        long start = System.nanoTime();
+        int swept = matchmaker.sweep(now).size();
+        System.out.printf("sweep: %d lobbies paired in %.2f ms%n", swept * 2, (System.nanoTime() - start) / 1e6);
+        System.out.println("done: " + matchmaker);
+    }
+
+    private static GameLogicEngine lobby(int matchID, Random random) {
+        return new GameLogicEngine(matchID, null, matchID, random.nextBoolean(), false);
+    }
+
+    private static int rating(Random random) {
+        return (int) Math.round(Leaderboard.INITIAL_RATING + random.nextGaussian() * 300);
+    }
+}
@@ -0,0 +1,399 @@
+package RMIGameOfNim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.rmi.AlreadyBoundException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Plays thousands of simulated players against a {@link GameServer} run by a
+ * {@link Simulation}, so that a run is decided by its seed alone: the
+ * matches, computer players, clocks and lobby sweeps of the server and the
+ * players themselves are tasks on one thread under a virtual clock. Every
+ * player registers, chooses a mode and difficulty and plays matches back to
+ * back, polling its messages like the client does and thinking a random
+ * time before each move, now and then giving up instead.
+ * <p>
+ * Every reply and message, with the virtual time it was received at, goes
+ * into a digest of the run. While it runs the marble counts the players are
+ * told are checked. Once the time is up the players finish their matches
+ * and start no more, then every match has to have ended with nothing
+ * running it any more, and the results on the leaderboard have to be those
+ * the players were told about. A seed that breaks one of them is reported
+ * as FAILED and runs the same way again when given as seed=N. With
+ * verify=true every seed is run twice and the digests compared.
+ * <p>
+ * Run with: ant bench-simulation -Dsimulation.args="clients=2000 duration=300
+ * seed=1 seeds=10 verify=true"
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class SimulatedLoadTest {
+
+    private static final Pattern LAST_NUMBER = Pattern.compile("(\\d+)\\D*$");
+    private static final Pattern MARBLES_LEFT = Pattern.compile(Pattern.quote(NimRules.MARBLES_LEFT) + "(\\d+)");
+    private static final PrintStream REPORT = System.out;
+    private static final long DRAIN_MILLIS = TimeUnit.MINUTES.toMillis(10); //virtual time the matches going on at the end get to finish
+
+    private final ServerConfig config;
+    private final int clients;
+    private final String mode;
+    private final String difficulty;
+    private final long thinkMillis;
+    private final long pollMillis;
+    private final double giveUp;
+    private final long durationMillis;
+
+    /**
+     * What a run has come to
+     */
+    private static final class Outcome {
+
+        long digest = 0xCBF29CE484222325L;
+        long moves = 0;
+        long results = 0;
+        long gaveUp = 0;
+        long tasks = 0;
+        long virtualMillis = 0; //including the time the last matches took to finish
+        long realMillis = 0;
+        String failure = null; //the first invariant broken, null if none was
+        boolean stopping = false; //the time is up, the players finish their matches and start no more
+    }
+
+    public SimulatedLoadTest(ServerConfig config) {
+        this.config = config;
+        clients = config.getInt("clients", 1000);
+        mode = config.get("mode") == null ? "mixed" : config.get("mode");
+        difficulty = config.get("difficulty") == null ? "mixed" : config.get("difficulty");
+        thinkMillis = config.getInt("think", 200);
+        pollMillis = config.getInt("poll", 50);
+        giveUp = config.get("giveup") == null ? 0.01 : Double.parseDouble(config.get("giveup"));
+        durationMillis = TimeUnit.SECONDS.toMillis(config.getInt("duration", 120));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        if (config.get(ServerConfig.LOG_SINK) == null || LogSinks.STDOUT.equals(config.getLogSink())) {
+            config.set(ServerConfig.LOG_SINK, LogSinks.NONE); //the server log would drown the report
+        }
+        if (config.get(ServerConfig.JOURNAL_DIR) == null || "journal".equals(config.get(ServerConfig.JOURNAL_DIR))) {
+            config.set(ServerConfig.JOURNAL_DIR, ServerConfig.NONE); //the journal writes on a thread of its own, outside the simulation
+        }
+        config.set(ServerConfig.RESTORE, "false");
+        long firstSeed = Long.parseLong(config.get("seed") == null ? "1" : config.get("seed"));
+        int seeds = config.getInt("seeds", 1);
+        boolean verify = Boolean.parseBoolean(config.get("verify"));
+        SimulatedLoadTest test = new SimulatedLoadTest(config);
+        REPORT.println("Simulating " + test.clients + " players for " + TimeUnit.MILLISECONDS.toSeconds(test.durationMillis) + " seconds (mode=" + test.mode
+                + ", difficulty=" + test.difficulty + ", think=" + test.thinkMillis + "ms, giveup=" + test.giveUp + ")");
+        int failed = 0;
+        for (long seed = firstSeed; seed < firstSeed + seeds; seed++) {
+            Outcome outcome = test.run(seed);
+            if (verify && outcome.failure == null) {
+                Outcome again = test.run(seed);
+                if (again.digest != outcome.digest || again.tasks != outcome.tasks) {
+                    outcome.failure = "a second run gave digest " + Long.toHexString(again.digest) + " after " + again.tasks + " tasks";
+                }
+            }
+            REPORT.printf("seed=%d digest=%016x moves=%d results=%d gave up=%d tasks=%d virtual=%ds real=%dms (%.0fx)%n", seed, outcome.digest, outcome.moves,
+                    outcome.results, outcome.gaveUp, outcome.tasks, TimeUnit.MILLISECONDS.toSeconds(outcome.virtualMillis), outcome.realMillis,
+                    outcome.virtualMillis / (double) Math.max(1, outcome.realMillis));
+            if (outcome.failure != null) {
+                failed++;
+                REPORT.println("FAILED seed=" + seed + ": " + outcome.failure);
+                REPORT.println("replay with: ant bench-simulation -Dsimulation.args=\"" + test.describe(seed) + "\"");
+            }
+        }
+        REPORT.println(failed == 0 ? seeds + " seeds passed" + (verify ? ", each replayed identically" : "") : failed + " of " + seeds + " seeds FAILED");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return the arguments running the seed again
+     */
+    private String describe(long seed) {
+        return "seed=" + seed + " clients=" + clients + " mode=" + mode + " difficulty=" + difficulty + " think=" + thinkMillis + " poll=" + pollMillis
+                + " giveup=" + giveUp + " duration=" + TimeUnit.MILLISECONDS.toSeconds(durationMillis)
+                + (config.get(ServerConfig.CLOCK_TIME) == null ? "" : " clock.time=" + config.get(ServerConfig.CLOCK_TIME))
+                + (config.get(ServerConfig.MATCH_SEATS) == null ? "" : " match.seats=" + config.get(ServerConfig.MATCH_SEATS));
+    }
+
+    /**
+     * Runs one seed on a server of its own
+     *
+     * @param seed
+     * @return what the run has come to
+     */
+    private Outcome run(long seed) throws RemoteException, AlreadyBoundException {
+        Simulation simulation = new Simulation(seed);
+        AsyncServerLog log = new AsyncServerLog(LogSinks.fromSpec(config.getLogSink()), config.getLogBufferSize());
+        GameServer server = new GameServer(config, log, simulation);
+        Outcome outcome = new Outcome();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() { //the computer players print every move
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long start = System.nanoTime();
+        try {
+            server.start();
+            List<Client> players = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                Client client = new Client(server, simulation, outcome, simulation.newRandom(Long.MIN_VALUE + i));
+                players.add(client);
+                simulation.schedule(client, client.random.nextInt(1000)); //not all in the same instant
+            }
+            long until = 0;
+            while (until < durationMillis && outcome.failure == null) {
+                simulation.runUntil(until += 1000);
+            }
+            outcome.stopping = true;
+            for (Client client : players) {
+                client.stop();
+            }
+            while (!server.getLiveMatches().isEmpty() && until < durationMillis + DRAIN_MILLIS && outcome.failure == null) {
+                simulation.runUntil(until += 1000);
+            }
+            for (Client client : players) { //the results of the last matches
+                client.step();
+            }
+            check(server, players, outcome);
+        } catch (RuntimeException e) {
+            outcome.failure = e + " at " + simulation;
+            e.printStackTrace(REPORT);
+        } finally {
+            outcome.realMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            outcome.tasks = simulation.getTasksRun();
+            outcome.virtualMillis = simulation.currentTimeMillis();
+            System.setOut(out);
+            UnicastRemoteObject.unexportObject(server, true);
+            log.close();
+        }
+        return outcome;
+    }
+
+    /**
+     * Checks the server once the players have stopped: every match has
+     * finished and nothing runs any of them any more, and every player has
+     * as many wins and losses on the leaderboard as they have been told about
+     */
+    private void check(GameServer server, List<Client> players, Outcome outcome) {
+        if (outcome.failure != null) {
+            return;
+        }
+        ServerMetrics metrics = server.getMetrics();
+        long live = server.getLiveMatches().size();
+        if (live > 0) {
+            outcome.failure = live + " matches still going " + TimeUnit.MILLISECONDS.toMinutes(DRAIN_MILLIS) + " minutes after the players stopped, i.e. #"
+                    + server.getLiveMatches().iterator().next().getMatchID();
+            return;
+        }
+        if (metrics.getEngineThreads() != 0 || metrics.getCpuPlayerThreads() != 0) {
+            outcome.failure = metrics.getEngineThreads() + " match and " + metrics.getCpuPlayerThreads() + " computer player tasks left running";
+            return;
+        }
+        Leaderboard leaderboard = server.getLeaderboard();
+        outcome.results = leaderboard.copyStandings(new ArrayList<Leaderboard.Standing>());
+        for (Client client : players) {
+            Leaderboard.Standing standing = leaderboard.getStanding(client.playerID);
+            int wins = standing == null ? 0 : standing.getWins();
+            int losses = standing == null ? 0 : standing.getLosses();
+            if (wins != client.wins || losses != client.losses) {
+                outcome.failure = "Player #" + client.playerID + " has " + wins + " wins and " + losses + " losses on the leaderboard but was told of "
+                        + client.wins + " and " + client.losses;
+                return;
+            }
+        }
+    }
+
+    /**
+     * One simulated player, polling its messages and reacting to them like
+     * the client would. Runs first to register and then every poll.
+     */
+    private final class Client implements Runnable, Simulation.Task {
+
+        private final GameServer server;
+        private final Simulation simulation;
+        private final Outcome outcome;
+        private final Random random;
+        private int playerID;
+        private long marbles = 0; //as the player was last told, 0 if not in a match
+        private boolean playing = false;
+        private int game = 0; //counts the matches and lobbies left, what the player meant to do in one is not done in the next
+        private int wins = 0, losses = 0; //as the leaderboard counts them, a win over several players for each of them
+        private int beaten = 1; //players there are to beat in a match of the mode chosen
+
+        private Client(GameServer server, Simulation simulation, Outcome outcome, Random random) {
+            this.server = server;
+            this.simulation = simulation;
+            this.outcome = outcome;
+            this.random = random;
+        }
+
+        @Override
+        public void run() {
+            try {
+                playerID = server.registerPlayer();
+                command(pick(difficulty, "easy", "hard"));
+                String chosen = pick(mode, "human", "cpu");
+                command(chosen);
+                beaten = chosen.equals("human") ? config.getMatchSeats() - 1 : 1;
+                command("start");
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+            simulation.repeat(this, pollMillis);
+        }
+
+        @Override
+        public boolean step() {
+            try {
+                for (String message; !(message = server.communicateWithServer(playerID)).isEmpty();) {
+                    received(message);
+                }
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+            return outcome.failure == null;
+        }
+
+        private void received(String message) {
+            digest(message);
+            if (message.startsWith(NimRules.MATCH_FOUND)) {
+                marbles = lastNumber(message);
+                playing = true;
+            } else if (message.startsWith(NimRules.YOUR_TURN) || message.contains(NimRules.IS_OUT)) {
+                scheduleMove();
+            } else if (message.startsWith(NimRules.OTHER_PLAYER_TOOK)) {
+                Matcher left = MARBLES_LEFT.matcher(message);
+                if (left.find()) {
+                    told(Long.parseLong(left.group(1)), message);
+                }
+                scheduleMove();
+            } else if (message.startsWith(NimRules.CPU_TOOK)) {
+                told(lastNumber(message), message);
+                scheduleMove();
+            } else if (message.startsWith(NimRules.WON)) {
+                wins += beaten;
+                over();
+            } else if (message.startsWith(NimRules.LOST)) {
+                losses++;
+                over();
+            } else if (message.startsWith(NimRules.GAVE_UP) || message.startsWith(NimRules.OUT_OF_TIME)) {
+                outcome.gaveUp++;
+                losses += playing ? 1 : 0; //leaving a lobby is not a result
+                over();
+            } else if (message.startsWith(NimRules.LOBBY_CLOSED)) {
+                over();
+            }
+        }
+
+        /**
+         * The match is over for the player, they start the next one
+         */
+        private void over() {
+            marbles = 0;
+            playing = false;
+            game++;
+            if (!outcome.stopping) {
+                later("start");
+            }
+        }
+
+        /**
+         * Leaves the lobby the player may be waiting in once the time is up,
+         * a match is played to the end
+         */
+        private void stop() {
+            if (!playing) {
+                later("exit");
+            }
+        }
+
+        /**
+         * Checks a count of marbles the player has been told against the
+         * one before: it never grows during a match and never goes below 0
+         */
+        private void told(long left, String message) {
+            if (playing && (left > marbles || left < 0) && outcome.failure == null) {
+                outcome.failure = "Player #" + playerID + " was told \"" + message.replace('\n', ' ') + "\" with " + marbles + " marbles left at "
+                        + TurnClocks.format(simulation.currentTimeMillis());
+            }
+            marbles = left;
+        }
+
+        private void scheduleMove() {
+            if (!playing || marbles <= 0) {
+                return;
+            }
+            if (random.nextDouble() < giveUp) {
+                later("exit");
+                return;
+            }
+            long max = Math.max(1, NimRules.maxMove(marbles));
+            later(Long.toString(1 + (long) (random.nextDouble() * max)));
+        }
+
+        /**
+         * Sends a command or move after thinking about it
+         */
+        private void later(final String command) {
+            final int meantFor = game;
+            simulation.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (meantFor != game || (outcome.stopping && command.equals("start"))) { //the match is over meanwhile, or the time
+                        return;
+                    }
+                    try {
+                        if (Character.isDigit(command.charAt(0))) {
+                            long amount = Long.parseLong(command);
+                            String reply = server.executeCommand(playerID, command);
+                            digest(reply);
+                            if (reply.isEmpty()) {
+                                outcome.moves++;
+                                told(marbles - amount, amount + NimRules.MARBLES_PICKED);
+                            } else if (reply.startsWith(NimRules.ILLEGAL_MOVE) && amount > 1) { //with more players, one who is out only says it is the next one's turn
+                                later("1");
+                            }
+                        } else {
+                            command(command);
+                        }
+                    } catch (RemoteException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, 1 + random.nextInt((int) Math.max(1, 2 * thinkMillis)));
+        }
+
+        private void command(String command) throws RemoteException {
+            digest(command);
+            digest(server.executeCommand(playerID, command));
+        }
+
+        private void digest(String text) {
+            long value = ((long) playerID << 32) ^ text.hashCode() ^ (simulation.currentTimeMillis() * 31);
+            outcome.digest = (outcome.digest ^ value) * 0x100000001B3L;
+        }
+
+        private String pick(String choice, String first, String second) {
+            if ("mixed".equals(choice)) {
+                return random.nextBoolean() ? first : second;
+            }
+            return choice;
+        }
+
+        private long lastNumber(String message) {
+            Matcher matcher = LAST_NUMBER.matcher(message);
+            return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+        }
+    }
+}
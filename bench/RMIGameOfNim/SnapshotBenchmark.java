@@ -0,0 +1,134 @@
+package RMIGameOfNim;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures taking a {@link ServerSnapshot} of a server full of matches that
+ * are being played, and restoring it together with the journal written after
+ * it. While the snapshot is written a thread keeps making moves, and the
+ * latency of those moves is compared with the moves made before, which shows
+ * the snapshot does not stop the server. After the restore every match is compared with the original.
+ * <p>
+ * The matches are put into the server without their threads, so the numbers
+ * are for the state alone and not for starting thousands of threads.
+ * <p>
+ * Run with: ant bench-snapshot -Dsnapshot.args="matches=100000"
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class SnapshotBenchmark {
+
+    private static final long TAIL_MILLIS = 500; //moves made after the snapshot, restored from the journal
+
+    public static void main(String[] args) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        int matchCount = config.getInt("matches", 100000);
+        File directory = Files.createTempDirectory("nim-snapshot").toFile();
+        config.set(ServerConfig.JOURNAL_DIR, directory.getPath());
+        config.set(ServerConfig.SNAPSHOT_INTERVAL, "0");
+        config.set(ServerConfig.LOG_SINK, LogSinks.NONE);
+        GameServer server = new GameServer(config, new AsyncServerLog(LogSinks.fromSpec(LogSinks.NONE), config.getLogBufferSize()));
+        server.start();
+
+        long start = System.nanoTime();
+        Random random = new Random(42);
+        final List<GameLogicEngine> matches = new ArrayList<>(matchCount);
+        for (int i = 1; i <= matchCount; i++) {
+            Player one = server.findPlayerById(server.registerPlayer());
+            Player two = server.findPlayerById(server.registerPlayer());
+            GameLogicEngine match = new GameLogicEngine(i, server, one, random.nextBoolean(), false);
+            long total = match.getTotalMarbles();
+            match.restore(Collections.singletonList(two), total, total, random.nextBoolean() ? one.getPlayerID() : two.getPlayerID(), Collections.<Long>emptyList(), 0,
+                    Collections.<Integer>emptyList());
+            for (int moves = random.nextInt(3); moves > 0; moves--) {
+                move(match, random);
+            }
+            one.addMessage(NimRules.matchFound(total));
+            two.addMessage(NimRules.matchFound(total));
+            server.adopt(match);
+            matches.add(match);
+        }
+        System.out.printf("%d matches and %d players set up in %d ms%n", matchCount, server.getPlayerCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong moves = new AtomicLong();
+        final LatencyHistogram before = new LatencyHistogram();
+        final LatencyHistogram during = new LatencyHistogram();
+        final AtomicReference<LatencyHistogram> latencies = new AtomicReference<>(before);
+        Thread mover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(7);
+                while (running.get()) {
+                    GameLogicEngine match = matches.get(random.nextInt(matches.size()));
+                    long start = System.nanoTime();
+                    if (move(match, random)) {
+                        latencies.get().recordSince(start);
+                        moves.incrementAndGet();
+                    }
+                }
+            }
+        }, "SnapshotBenchmark-mover");
+        mover.start();
+        Thread.sleep(TAIL_MILLIS); //the moves made before the snapshot, to compare with
+        latencies.set(during);
+        start = System.nanoTime();
+        File snapshot = server.takeSnapshot();
+        long snapshotNanos = System.nanoTime() - start;
+        latencies.set(new LatencyHistogram());
+        Thread.sleep(TAIL_MILLIS);
+        running.set(false);
+        mover.join();
+        server.getJournal().close();
+        System.out.printf("snapshot: %d ms, %d bytes%n", TimeUnit.NANOSECONDS.toMillis(snapshotNanos), snapshot.length());
+        System.out.println("moves before the snapshot: " + before.summary());
+        System.out.println("moves during the snapshot: " + during.summary());
+
+        System.gc();
+        start = System.nanoTime();
+        ServerSnapshot loaded = ServerSnapshot.load(directory);
+        long loadNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        GameServer restored = new GameServer(config, new AsyncServerLog(LogSinks.fromSpec(LogSinks.NONE), config.getLogBufferSize()));
+        restored.rebuild(loaded);
+        long rebuildNanos = System.nanoTime() - start;
+        System.out.printf("restore: %d ms reading the snapshot and %d journal records, %d ms rebuilding, %d ms in total%n",
+                TimeUnit.NANOSECONDS.toMillis(loadNanos), loaded.getTailRecords(), TimeUnit.NANOSECONDS.toMillis(rebuildNanos),
+                TimeUnit.NANOSECONDS.toMillis(loadNanos + rebuildNanos));
+
+        int mismatches = 0;
+        for (GameLogicEngine match : matches) {
+            GameLogicEngine copy = restored.findPlayerById(match.getPlayerOne().getPlayerID()).getCurrentMatch();
+            if (copy == null || copy.getCurrentMarbles() != match.getCurrentMarbles() || copy.getNextTurn() != match.getNextTurn()
+                    || copy.getMoveChecksum() != match.getMoveChecksum() || copy.getCompletedMoves().size() != match.getCompletedMoves().size()) {
+                mismatches++;
+            }
+        }
+        System.out.printf("%d of %d matches restored as they were, %d moves made in total%n", matchCount - mismatches, matchCount, moves.get());
+        UnicastRemoteObject.unexportObject(server, true);
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    /**
+     * Makes a random legal move for the player whose turn it is
+     *
+     * @return false if the match has no marbles left
+     */
+    private static boolean move(GameLogicEngine match, Random random) {
+        long marbles = match.getCurrentMarbles();
+        if (marbles <= 0) {
+            return false;
+        }
+        return match.pickMarbles(match.getNextTurn(), marbles == 1 ? 1 : 1 + random.nextInt((int) (marbles / 2)));
+    }
+}
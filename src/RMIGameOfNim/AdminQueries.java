@@ -0,0 +1,203 @@
+package RMIGameOfNim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The "matches" and "players" admin commands: lists of the matches going on
+ * and of the registered players, a page at a time and filtered by mode,
+ * difficulty and whether they are waiting or playing.
+ * <p>
+ * Nothing is locked while a list is made. Every match is read through the
+ * {@link MatchSummary} it published last, so a move is never held up and
+ * each line shows a state the match really was in. Pages are continued with
+ * "after N" rather than numbered: the matches are kept by their ID in a
+ * sorted map the next page starts in without counting the ones before it,
+ * and the players are numbered without gaps. No query looks at more than
+ * {@link #MAX_SCANNED} entries, so even with a hundred thousand matches an
+ * answer takes the same bounded time; a filter that matches few of them
+ * hands back where to carry on from instead.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class AdminQueries {
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+    public static final int MAX_SCANNED = 10000; //entries looked at per query, filtered out or not
+
+    private static final int ANY = -1;
+    private static final int IDLE = 0, WAITING = 1, PLAYING = 2; //the states of a player, a match is only ever waiting or playing
+
+    private final GameServer server;
+
+    /**
+     * @param server
+     */
+    public AdminQueries(GameServer server) {
+        this.server = server;
+    }
+
+    /**
+     * A query as typed after the command
+     */
+    private static final class Filter {
+
+        int mode = ANY, difficulty = ANY, state = ANY;
+        int after = 0;
+        int limit = DEFAULT_PAGE_SIZE;
+        final StringBuilder words = new StringBuilder(); //the filter again, for the next page
+
+        /**
+         * @return null if the argument could not be read
+         */
+        static Filter parse(String argument, boolean players) {
+            Filter filter = new Filter();
+            String[] words = argument == null ? new String[0] : argument.trim().split("\\s+");
+            for (int i = 0; i < words.length; i++) {
+                switch (words[i]) {
+                    case "":
+                        continue;
+                    case "human":
+                        filter.mode = GameEngineRemoteInterface.HUMAN_MODE;
+                        break;
+                    case "cpu":
+                        filter.mode = GameEngineRemoteInterface.CPU_MODE;
+                        break;
+                    case "easy":
+                        filter.difficulty = GameEngineRemoteInterface.EASY_DIFFICULYT;
+                        break;
+                    case "hard":
+                        filter.difficulty = GameEngineRemoteInterface.HARD_DIFFICULTY;
+                        break;
+                    case "idle":
+                        if (!players) {
+                            return null;
+                        }
+                        filter.state = IDLE;
+                        break;
+                    case "waiting":
+                        filter.state = WAITING;
+                        break;
+                    case "playing":
+                        filter.state = PLAYING;
+                        break;
+                    case "after":
+                    case "limit":
+                        if (i + 1 == words.length) {
+                            return null;
+                        }
+                        try {
+                            int number = Integer.parseInt(words[++i]);
+                            if (words[i - 1].equals("after")) {
+                                filter.after = Math.max(0, number);
+                            } else {
+                                filter.limit = Math.max(1, Math.min(MAX_PAGE_SIZE, number));
+                            }
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                        if (words[i - 1].equals("limit")) {
+                            filter.words.append(" limit ").append(filter.limit);
+                        }
+                        continue;
+                    default:
+                        return null;
+                }
+                filter.words.append(' ').append(words[i]);
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * @param argument i.e. "human waiting after 120 limit 50"
+     * @return a page of the matches that have not ended, by ID
+     */
+    public String matches(String argument) {
+        Filter filter = Filter.parse(argument, false);
+        if (filter == null) {
+            return "Try \"matches [human|cpu] [easy|hard] [waiting|playing] [after N] [limit N]\".";
+        }
+        List<String> lines = new ArrayList<>(filter.limit);
+        int scanned = 0;
+        int last = filter.after;
+        for (GameLogicEngine match : server.getMatchesAfter(filter.after)) {
+            if (lines.size() == filter.limit || scanned == MAX_SCANNED) {
+                return page("matches", lines, filter, last, scanned == MAX_SCANNED && lines.size() < filter.limit);
+            }
+            scanned++;
+            MatchSummary summary = match.getSummary();
+            last = summary.getMatchID();
+            if (summary.isOver()
+                    || (filter.mode != ANY && summary.getChosenMode() != filter.mode)
+                    || (filter.difficulty != ANY && summary.getChosenDifficulty() != filter.difficulty)
+                    || (filter.state == WAITING && !summary.isWaiting())
+                    || (filter.state == PLAYING && !summary.isPlaying())) {
+                continue;
+            }
+            lines.add(summary.format());
+        }
+        return page("matches", lines, filter, -1, false);
+    }
+
+    /**
+     * @param argument i.e. "hard idle after 5000"
+     * @return a page of the registered players, by number
+     */
+    public String players(String argument) {
+        Filter filter = Filter.parse(argument, true);
+        if (filter == null) {
+            return "Try \"players [human|cpu] [easy|hard] [idle|waiting|playing] [after N] [limit N]\".";
+        }
+        List<String> lines = new ArrayList<>(filter.limit);
+        int newest = server.getPlayerCount();
+        int scanned = 0;
+        for (int playerID = filter.after + 1; playerID <= newest; playerID++) {
+            if (lines.size() == filter.limit || scanned == MAX_SCANNED) {
+                return page("players", lines, filter, playerID - 1, scanned == MAX_SCANNED && lines.size() < filter.limit);
+            }
+            scanned++;
+            Player player = server.findPlayerById(playerID);
+            if (player == null
+                    || (filter.mode != ANY && player.getChosenMode() != filter.mode)
+                    || (filter.difficulty != ANY && player.getChosenDifficulty() != filter.difficulty)) {
+                continue;
+            }
+            GameLogicEngine current = player.getCurrentMatch();
+            MatchSummary match = current == null ? null : current.getSummary();
+            int state = match == null || match.isOver() ? IDLE : match.isWaiting() ? WAITING : PLAYING;
+            if (filter.state != ANY && state != filter.state) {
+                continue;
+            }
+            lines.add("Player #" + playerID + (player.getChosenMode() == GameEngineRemoteInterface.CPU_MODE ? " cpu " : " human ")
+                    + (player.getChosenDifficulty() == GameEngineRemoteInterface.HARD_DIFFICULTY ? "hard " : "easy ")
+                    + (state == IDLE ? "idle" : (state == WAITING ? "waiting in match #" : "playing match #") + match.getMatchID())
+                    + ", " + player.getPendingMessageCount() + " messages waiting");
+        }
+        return page("players", lines, filter, -1, false);
+    }
+
+    /**
+     * @param next the last entry looked at if there may be more, -1 at the
+     * end of the list
+     * @param cutShort true if the page is not full because too many entries
+     * were filtered out
+     */
+    private static String page(String command, List<String> lines, Filter filter, int next, boolean cutShort) {
+        StringBuilder page = new StringBuilder();
+        for (String line : lines) {
+            page.append(line).append('\n');
+        }
+        if (lines.isEmpty()) {
+            page.append(next < 0 ? "No " + command + " found.\n" : "");
+        }
+        if (next < 0) {
+            return page.append("End of the list.").toString();
+        }
+        if (cutShort) {
+            page.append("Looked at ").append(MAX_SCANNED).append(' ').append(command).append(" without filling the page. ");
+        }
+        return page.append("More with \"").append(command).append(filter.words).append(" after ").append(next).append("\".").toString();
+    }
+}
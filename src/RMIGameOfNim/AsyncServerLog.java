@@ -0,0 +1,199 @@
+package RMIGameOfNim;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server log. Any thread may call
+ * {@link AsyncServerLog#append(String)}, which only claims a slot in a lock
+ * free ring buffer and never blocks. A single consumer thread drains the buffer
+ * in batches, formats the entries and hands every batch to the configured
+ * {@link LogSink} and, if set, to the display (the server GUI). When the buffer
+ * is full new entries are dropped and counted instead of slowing down the
+ * caller.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class AsyncServerLog {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final AtomicLong tail = new AtomicLong(); //next sequence to be claimed by a producer
+    private volatile long head = 0; //next sequence to be read by the consumer
+    private final AtomicLong dropped = new AtomicLong();
+    private final LogSink sink;
+    private volatile LogSink display; //the GUI, may be null when running without one
+    private volatile boolean running = true;
+    private final Thread consumer;
+    private final TimeOfDayFormat timeFormat = new TimeOfDayFormat();
+
+    /**
+     * Creates a log using the buffer size from the nim.log.bufferSize system
+     * property and the sink from the nim.log.sink property
+     */
+    public AsyncServerLog() {
+        this(LogSinks.fromSpec(System.getProperty("nim.log.sink")), Integer.getInteger("nim.log.bufferSize", DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * @param sink where the formatted log is written to
+     * @param bufferSize number of entries that can be waiting for the
+     * consumer, rounded up to a power of two
+     */
+    public AsyncServerLog(LogSink sink, int bufferSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FLUSH_INTERVAL_MILLIS);
+        this.sink = sink;
+        timeFormat.format(System.currentTimeMillis()); //load the calendar classes now rather than on the first drain
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "AsyncServerLog");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Queue a message for the log. Never blocks; if the buffer is full the
+     * message is dropped and counted.
+     *
+     * @param message
+     * @return true if the message was queued
+     */
+    public boolean append(String message) {
+        Entry entry = new Entry(System.currentTimeMillis(), message);
+        while (true) {
+            long sequence = tail.get();
+            if (sequence - head > mask) { //the consumer is a whole buffer behind
+                dropped.incrementAndGet();
+                return false;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.lazySet((int) sequence & mask, entry);
+                if (sequence - head == (mask >> 1)) { //half full, wake the consumer up early instead of waiting for the flush interval
+                    LockSupport.unpark(consumer);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets the display which receives every batch in addition to the sink,
+     * i.e. the server GUI
+     *
+     * @param display
+     */
+    public void setDisplay(LogSink display) {
+        this.display = display;
+    }
+
+    /**
+     * @return how many messages have been dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Drains the remaining entries, then stops the consumer thread and closes
+     * the sink.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Consumer loop: drain a batch, hand it out and park for the flush interval
+     * once the buffer is empty.
+     */
+    private void consume() {
+        StringBuilder batch = new StringBuilder(4096);
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = !running;
+            int lines = drain(batch);
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                batch.append(timeFormat.format(System.currentTimeMillis())).append("-> ").append(drops - reportedDrops).append(" log messages dropped, the log buffer was full.\n");
+                reportedDrops = drops;
+                lines++;
+            }
+            if (lines > 0) {
+                publish(batch.toString(), lines);
+                batch.setLength(0);
+            }
+            if (lines < batchSize) { //caught up with the producers
+                sink.flush();
+                if (stopping) {
+                    sink.close();
+                    return;
+                }
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@link AsyncServerLog#batchSize} published entries into the
+     * given builder
+     *
+     * @param batch
+     * @return number of entries drained
+     */
+    private int drain(StringBuilder batch) {
+        int lines = 0;
+        long sequence = head;
+        while (lines < batchSize) {
+            int index = (int) sequence & mask;
+            Entry entry = slots.get(index);
+            if (entry == null) { //not claimed yet, or claimed but not yet published
+                break;
+            }
+            slots.lazySet(index, null);
+            sequence++;
+            head = sequence; //frees the slot for the producers
+            batch.append(timeFormat.format(entry.time)).append("-> ").append(entry.message).append('\n');
+            lines++;
+        }
+        return lines;
+    }
+
+    private void publish(String text, int lines) {
+        sink.write(text, lines);
+        LogSink currentDisplay = display;
+        if (currentDisplay != null) {
+            currentDisplay.write(text, lines);
+        }
+    }
+
+    private static final class Entry {
+
+        private final long time;
+        private final String message;
+
+        private Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
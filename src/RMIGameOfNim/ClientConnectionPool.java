@@ -0,0 +1,129 @@
+package RMIGameOfNim;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resources shared by any number of {@link ClientSession}s in one JVM: one
+ * remote reference per server URL (RMI reuses the underlying connections for
+ * every call made through it) and a small pool of daemon threads that polls
+ * every session for messages and runs asynchronous commands. Used to drive
+ * bots and scripted games without a GUI.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ClientConnectionPool {
+
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 50;
+    private static ClientConnectionPool defaultPool;
+
+    private final ConcurrentMap<String, GameEngineRemoteInterface> servers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final long pollIntervalMillis;
+
+    /**
+     * @param threads number of threads shared by all sessions of this pool
+     * @param pollIntervalMillis how long a session waits before asking the
+     * server again after it had no message
+     */
+    public ClientConnectionPool(int threads, long pollIntervalMillis) {
+        this.pollIntervalMillis = pollIntervalMillis;
+        final AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(Math.max(1, threads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ClientConnectionPool-" + threadCount.incrementAndGet());
+                t.setDaemon(true); //never keep a script alive
+                return t;
+            }
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        executor = pool;
+    }
+
+    /**
+     * @return a pool shared by the whole JVM, using one thread per processor
+     */
+    public static synchronized ClientConnectionPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new ClientConnectionPool(Runtime.getRuntime().availableProcessors(), DEFAULT_POLL_INTERVAL_MILLIS);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Creates a new, unregistered session for the server at the given URL
+     *
+     * @param url RMI URL of the server, i.e.
+     * {@link GameEngineRemoteInterface#FIXEDURL}
+     * @return the session
+     * @throws RemoteException if the server cannot be reached
+     */
+    public ClientSession newSession(String url) throws RemoteException {
+        return new ClientSession(this, lookup(url));
+    }
+
+    /**
+     * Creates a new, unregistered session using an existing remote reference
+     *
+     * @param server
+     * @return the session
+     */
+    public ClientSession newSession(GameEngineRemoteInterface server) {
+        return new ClientSession(this, server);
+    }
+
+    /**
+     * Looks up the server once per URL and shares the remote reference between
+     * sessions
+     *
+     * @param url
+     * @return the remote reference
+     * @throws RemoteException
+     */
+    public GameEngineRemoteInterface lookup(String url) throws RemoteException {
+        GameEngineRemoteInterface server = servers.get(url);
+        if (server != null) {
+            return server;
+        }
+        try {
+            server = (GameEngineRemoteInterface) Naming.lookup(url);
+        } catch (NotBoundException | MalformedURLException e) {
+            throw new RemoteException("Could not find the server at " + url, e);
+        }
+        GameEngineRemoteInterface existing = servers.putIfAbsent(url, server);
+        return existing == null ? server : existing;
+    }
+
+    /**
+     * Forget the cached reference, i.e. after the server has been restarted
+     *
+     * @param url
+     */
+    public void invalidate(String url) {
+        servers.remove(url);
+    }
+
+    /**
+     * Stops the threads of this pool, every session stops polling
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+}
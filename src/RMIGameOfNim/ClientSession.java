@@ -0,0 +1,298 @@
+package RMIGameOfNim;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One logical player talking to the server without a GUI. Sessions are created
+ * by a {@link ClientConnectionPool} and share its remote references and
+ * threads, so a single JVM can run thousands of them, i.e. for bots or scripted
+ * regression games.
+ * <p>
+ * Typical use: create the session, add a {@link GameEventListener}, call
+ * {@link ClientSession#register()} and then send commands with
+ * {@link ClientSession#execute(String)} or
+ * {@link ClientSession#executeAsync(String, CommandCallback)}.
+ * <p>
+ * After losing the connection, a new session picks up where the old one was
+ * with {@link ClientSession#resume(String)} and the token of the old one:
+ * same player, same match, and the messages that were not delivered.
+ * <p>
+ * Moves are checked against a {@link MatchMirror} of the match before they are
+ * sent: one the session can tell is out of turn or against the
+ * {@link NimRules} is answered there and then, with the same reply the server
+ * would have given, without a round trip. The message the server would have
+ * sent with it comes with the next poll.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ClientSession {
+
+    public static final int MAX_MESSAGES_PER_POLL = 16; //messages taken in one go before giving the thread to another session
+
+    private final ClientConnectionPool pool;
+    private final GameEngineRemoteInterface server;
+    private final List<GameEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final MatchMirror mirror = new MatchMirror();
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>(); //messages from the session itself, delivered by the poll before the server's
+    private final AtomicLong movesRejectedLocally = new AtomicLong();
+    private volatile int playerNumber = -1;
+    private volatile String sessionToken = null;
+    private volatile boolean active = false;
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            pollMessages();
+        }
+    };
+
+    ClientSession(ClientConnectionPool pool, GameEngineRemoteInterface server) {
+        this.pool = pool;
+        this.server = server;
+        listeners.add(mirror); //first, so it knows of every message before anybody answers it with a move
+    }
+
+    /**
+     * Registers a new player with the server and starts listening for its
+     * messages
+     *
+     * @return the player number given by the server
+     * @throws RemoteException
+     */
+    public int register() throws RemoteException {
+        String token = server.registerSession();
+        sessionToken = token;
+        playerNumber = ResumedSession.playerNumberOf(token);
+        active = true;
+        schedulePoll(0);
+        return playerNumber;
+    }
+
+    /**
+     * Becomes the player of an earlier session again, i.e. after the
+     * connection was lost, in a single call. The messages that were waiting
+     * are handed to the listeners by the first poll, before any others.
+     *
+     * @param token {@link ClientSession#getSessionToken()} of the earlier
+     * session
+     * @return false if the server does not know the session, register
+     * instead
+     * @throws RemoteException
+     */
+    public boolean resume(String token) throws RemoteException {
+        ResumedSession resumed = server.resume(token);
+        if (resumed == null) {
+            return false;
+        }
+        sessionToken = token;
+        playerNumber = resumed.getPlayerNumber();
+        active = true;
+        pending.addAll(resumed.getMessages());
+        schedulePoll(0);
+        return true;
+    }
+
+    /**
+     * Sends a command and waits for the reply
+     *
+     * @param command any command from {@link GameEngineRemoteInterface#COMMANDS}
+     * or the number of marbles to pick
+     * @return status message returned by the server
+     * @throws RemoteException
+     */
+    public String execute(String command) throws RemoteException {
+        checkRegistered();
+        String rejected = rejectLocally(command);
+        return rejected != null ? rejected : server.executeCommand(playerNumber, command);
+    }
+
+    /**
+     * Sends a command on one of the pool's threads
+     *
+     * @param command
+     * @param callback notified with the reply or the failure, may be null
+     * @return a future holding the reply
+     */
+    public Future<String> executeAsync(final String command, final CommandCallback callback) {
+        checkRegistered();
+        return pool.getExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    String reply = rejectLocally(command);
+                    if (reply == null) {
+                        reply = server.executeCommand(playerNumber, command);
+                    }
+                    if (callback != null) {
+                        callback.completed(ClientSession.this, command, reply);
+                    }
+                    return reply;
+                } catch (RemoteException | RuntimeException e) {
+                    if (callback != null) {
+                        callback.failed(ClientSession.this, command, e);
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * @param listener notified of every message for this session
+     */
+    public void addListener(GameEventListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     */
+    public void removeListener(GameEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stops listening for messages. The player stays registered on the server.
+     */
+    public void close() {
+        active = false;
+    }
+
+    /**
+     * @return the player number, or -1 before {@link ClientSession#register()}
+     */
+    public int getPlayerNumber() {
+        return playerNumber;
+    }
+
+    /**
+     * @return the token to resume this session with, or null before
+     * {@link ClientSession#register()}
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * @return true while the session is listening for messages
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return the state of the match as far as this session has been told
+     */
+    public MatchMirror getMirror() {
+        return mirror;
+    }
+
+    /**
+     * @return moves answered by the session without asking the server
+     */
+    public long getMovesRejectedLocally() {
+        return movesRejectedLocally.get();
+    }
+
+    /**
+     * @return the remote reference used by this session
+     */
+    public GameEngineRemoteInterface getServer() {
+        return server;
+    }
+
+    private void checkRegistered() {
+        if (playerNumber == -1) {
+            throw new IllegalStateException("The session has not been registered yet");
+        }
+    }
+
+    /**
+     * Checks a move against the mirror of the match. A move it turns down is
+     * answered like the server would have: the reply says the move has not
+     * been made and the message explaining why is delivered by the next poll.
+     *
+     * @param command
+     * @return the reply if the move has been turned down, null to send the
+     * command to the server
+     */
+    private String rejectLocally(String command) {
+        long move;
+        try {
+            move = Long.parseLong(command); //parsed like the server does, anything else is for the server to answer
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (move == GameEngineRemoteInterface.GIVE_UP) { //giving up is always the server's business
+            return null;
+        }
+        String message = mirror.check(move);
+        if (message == null) {
+            return null;
+        }
+        movesRejectedLocally.incrementAndGet();
+        pending.add(message);
+        return NimRules.ILLEGAL_MOVE;
+    }
+
+    private void schedulePoll(long delayMillis) {
+        try {
+            pool.getExecutor().schedule(poll, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) { //the pool has been shut down
+            active = false;
+        }
+    }
+
+    /**
+     * Hands the session's own messages and then the ones waiting on the server
+     * to the listeners. Only one poll per session is ever scheduled and no
+     * message is delivered anywhere else, so they go out one at a time and in
+     * order. Polls again straight away if there may be more messages,
+     * otherwise after the pool's poll interval.
+     */
+    private void pollMessages() {
+        if (!active) {
+            return;
+        }
+        int received = 0;
+        try {
+            for (String message; received < MAX_MESSAGES_PER_POLL && (message = pending.poll()) != null;) {
+                received++;
+                deliver(message);
+            }
+            while (received < MAX_MESSAGES_PER_POLL) {
+                String message = server.communicateWithServer(playerNumber);
+                if (message == null || message.isEmpty()) {
+                    break;
+                }
+                received++;
+                deliver(message);
+            }
+        } catch (RemoteException e) {
+            active = false;
+            for (GameEventListener listener : listeners) {
+                listener.connectionLost(this, e);
+            }
+            return;
+        } catch (RuntimeException e) { //a faulty listener must not stop the session
+            e.printStackTrace();
+        }
+        if (active) {
+            schedulePoll(received == MAX_MESSAGES_PER_POLL ? 0 : pool.getPollIntervalMillis());
+        }
+    }
+
+    private void deliver(String message) {
+        for (GameEventListener listener : listeners) {
+            listener.messageReceived(this, message);
+        }
+    }
+}
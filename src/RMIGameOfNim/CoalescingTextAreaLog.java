@@ -0,0 +1,127 @@
+package RMIGameOfNim;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Appends text to a {@link JTextArea} from any thread. Text arriving while an
+ * update is already waiting for the event dispatch thread is merged into that
+ * update, so there is at most one pending task no matter how many messages
+ * arrive. If the text area has been updated less than a frame ago the next
+ * update is held back until the frame is over. Once the text area holds a
+ * quarter more lines than configured, the oldest lines are removed in one go.
+ * Trimming moves the whole document, so doing it in steps rather than on every
+ * update keeps the cost per message independent of the scrollback size.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class CoalescingTextAreaLog {
+
+    public static final int FRAME_MILLIS = 16; //roughly one frame at 60 frames per second
+
+    private final JTextArea textArea;
+    private final int maxLines;
+    private final int trimThreshold; //line count at which the oldest lines are removed
+    private final StringBuilder pending = new StringBuilder(); //text waiting for the event dispatch thread, guarded by itself
+    private boolean updateScheduled = false; //guarded by pending
+    private volatile long lastUpdateNanos = 0;
+    private final Runnable update = new Runnable() {
+        @Override
+        public void run() {
+            flushPending();
+        }
+    };
+    private final Timer frameTimer = new Timer(FRAME_MILLIS, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            flushPending();
+        }
+    });
+
+    /**
+     * @param textArea text area the log is shown in
+     * @param maxLines number of lines kept in the text area
+     */
+    public CoalescingTextAreaLog(JTextArea textArea, int maxLines) {
+        this.textArea = textArea;
+        this.maxLines = Math.max(1, maxLines);
+        this.trimThreshold = this.maxLines + Math.max(1, this.maxLines / 4);
+        frameTimer.setRepeats(false);
+    }
+
+    /**
+     * Queue text for the text area, may be called from any thread
+     *
+     * @param text
+     */
+    public void append(String text) {
+        synchronized (pending) {
+            pending.append(text);
+            if (updateScheduled) {
+                return;
+            }
+            updateScheduled = true;
+        }
+        if (System.nanoTime() - lastUpdateNanos < TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS)) {
+            frameTimer.restart(); //updated within this frame already, wait for the next one
+        } else {
+            SwingUtilities.invokeLater(update);
+        }
+    }
+
+    /**
+     * @return the number of lines kept in the text area after trimming
+     */
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Appends everything queued so far in one go, must run on the event
+     * dispatch thread
+     */
+    private void flushPending() {
+        String text;
+        synchronized (pending) {
+            text = pending.toString();
+            pending.setLength(0);
+            updateScheduled = false;
+        }
+        textArea.append(text);
+        trim();
+        lastUpdateNanos = System.nanoTime();
+    }
+
+    /**
+     * Once {@link CoalescingTextAreaLog#trimThreshold} is reached, removes the
+     * oldest lines so that {@link CoalescingTextAreaLog#maxLines} are kept
+     */
+    private void trim() {
+        int lines = textArea.getLineCount();
+        if (lines < trimThreshold) {
+            return;
+        }
+        int excess = lines - maxLines;
+        try {
+            int end = textArea.getLineEndOffset(excess - 1);
+            int length = textArea.getDocument().getLength();
+            if (end > length - end) { //most of the text goes, start a fresh document so the oversized buffer can be collected
+                Document fresh = new PlainDocument();
+                fresh.insertString(0, textArea.getText(end, length - end), null);
+                textArea.setDocument(fresh);
+                textArea.setCaretPosition(fresh.getLength());
+            } else {
+                textArea.replaceRange(null, 0, end);
+            }
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
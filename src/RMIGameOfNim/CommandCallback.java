@@ -0,0 +1,28 @@
+package RMIGameOfNim;
+
+/**
+ * Receives the outcome of a command sent with
+ * {@link ClientSession#executeAsync(String, CommandCallback)}
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public interface CommandCallback {
+
+    /**
+     * The server has executed the command
+     *
+     * @param session
+     * @param command
+     * @param reply status message returned by the server
+     */
+    public void completed(ClientSession session, String command, String reply);
+
+    /**
+     * The command could not be sent to the server
+     *
+     * @param session
+     * @param command
+     * @param cause
+     */
+    public void failed(ClientSession session, String command, Exception cause);
+}
@@ -0,0 +1,128 @@
+package RMIGameOfNim;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latency distribution of every command a {@link GameServer} executes, one
+ * {@link LatencyHistogram} per command plus one for all moves and one for
+ * {@link GameServer#communicateWithServer(int)}. The set of histograms is fixed
+ * when the server starts, so recording never allocates or locks and the memory
+ * used does not grow with the number of calls.
+ * <p>
+ * Values go into the current window. {@link CommandLatencies#snapshotWindow()}
+ * closes the window, adds it to the totals and starts a new one, so tail
+ * latency can be looked at for a peak only rather than since the start.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class CommandLatencies {
+
+    public static final String MOVE = "move"; //any command that is not in COMMANDS is taken as a move
+    public static final String COMMUNICATE_WITH_SERVER = "communicateWithServer";
+
+    private final Map<String, LatencyHistogram> window = new LinkedHashMap<>(); //filled in the constructor, only read afterwards
+    private final Map<String, LatencyHistogram> totals = new LinkedHashMap<>();
+    private volatile long windowStartMillis = System.currentTimeMillis();
+
+    /**
+     * @param commands the commands understood by the server
+     */
+    public CommandLatencies(String[] commands) {
+        for (String command : commands) {
+            add(command);
+        }
+        add(MOVE);
+        add(COMMUNICATE_WITH_SERVER);
+    }
+
+    private void add(String name) {
+        window.put(name, new LatencyHistogram());
+        totals.put(name, new LatencyHistogram());
+    }
+
+    /**
+     * Records the time passed since the command started
+     *
+     * @param command one of the commands given to the constructor,
+     * {@link CommandLatencies#MOVE} or
+     * {@link CommandLatencies#COMMUNICATE_WITH_SERVER}
+     * @param startNanos value of {@link System#nanoTime()} when the command was
+     * received
+     */
+    public void record(String command, long startNanos) {
+        LatencyHistogram histogram = window.get(command);
+        if (histogram == null) {
+            histogram = window.get(MOVE);
+        }
+        histogram.recordSince(startNanos);
+    }
+
+    /**
+     * Ends the current window and starts a new one
+     *
+     * @return the values recorded in the window that has just ended, by
+     * command
+     */
+    public Map<String, LatencyHistogram> snapshotWindow() {
+        Map<String, LatencyHistogram> snapshot = new LinkedHashMap<>();
+        windowStartMillis = System.currentTimeMillis();
+        for (Map.Entry<String, LatencyHistogram> entry : window.entrySet()) {
+            LatencyHistogram interval = entry.getValue().snapshotAndReset();
+            totals.get(entry.getKey()).add(interval);
+            snapshot.put(entry.getKey(), interval);
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * @return the values recorded in the current window so far, by command,
+     * without ending it
+     */
+    public Map<String, LatencyHistogram> getWindow() {
+        Map<String, LatencyHistogram> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : window.entrySet()) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.add(entry.getValue());
+            copy.put(entry.getKey(), histogram);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return every value recorded since the server started, by command
+     */
+    public Map<String, LatencyHistogram> getTotals() {
+        Map<String, LatencyHistogram> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : totals.entrySet()) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.add(entry.getValue());
+            histogram.add(window.get(entry.getKey()));
+            copy.put(entry.getKey(), histogram);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return when the current window started, in milliseconds since the epoch
+     */
+    public long getWindowStartMillis() {
+        return windowStartMillis;
+    }
+
+    /**
+     * @param histograms i.e. from {@link CommandLatencies#getTotals()}
+     * @return one line per command that has been called, with count, mean and
+     * percentiles
+     */
+    public static String format(Map<String, LatencyHistogram> histograms) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                text.append(entry.getKey()).append(": ").append(entry.getValue().summary()).append('\n');
+            }
+        }
+        return text.length() == 0 ? "no calls yet\n" : text.toString();
+    }
+}
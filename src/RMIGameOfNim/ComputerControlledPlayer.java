@@ -1,8 +1,5 @@
 package RMIGameOfNim;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * The computer controlled player extends the player class and implements
  * runable, so it can be assigned to a thread. It will always make the best
@@ -13,23 +10,17 @@ import java.util.List;
 public class ComputerControlledPlayer extends Player implements Runnable {
 
     private final GameLogicEngine myMatch;
-    private int lastMove;
-    private final List<Double> smartMoves = new LinkedList<>();
+    private long lastMove;
 
     /**
-     * Default construtor used to populate the list
-     * {@link ComputerControlledPlayer#smartMoves}
+     * Default construtor
      *
      * @param totalMarbles
      * @param myMatch
      */
-    public ComputerControlledPlayer(int totalMarbles, GameLogicEngine myMatch) {
+    public ComputerControlledPlayer(long totalMarbles, GameLogicEngine myMatch) {
         this.myMatch = myMatch;
         super.setPlayerID(Integer.MIN_VALUE); //setting default ID to something the server would never assign
-        for (int i = 1; i < 10; i++) { //find 10 smart moves
-            smartMoves.add((Math.pow(2, i) - 1)); //finding values of i to the power of 2 minus 1 and adding them to the smart moves list
-        }
-        System.out.println("Smart moves: " + smartMoves.toString());
     }
 
     /**
@@ -38,55 +29,124 @@ public class ComputerControlledPlayer extends Player implements Runnable {
      * 63, etc.
      *
      * @param currentMarbles Count of the current marbles to select from
-     * @return Integer value of a smart move that will be based upon the winning
-     * strategy for this game of nim
+     * @return the smart move that will be based upon the winning strategy for
+     * this game of nim
+     */
+    public long makeSmartMove(long currentMarbles) {
+        Object event = GameEvents.cpuMoveStarted();
+        long move = chooseSmartMove(currentMarbles);
+        GameEvents.cpuMoveComputed(event, myMatch.getMatchID(), currentMarbles, move);
+        return move;
+    }
+
+    /**
+     * Works out the move for
+     * {@link ComputerControlledPlayer#makeSmartMove(long)}: the move leaving
+     * the largest count of the winning strategy below the current marbles.
+     * Found from the highest bit of the count, so it takes the same time for
+     * 20 marbles as for {@link Long#MAX_VALUE}.
+     *
+     * @param currentMarbles
+     * @return the smart move
      */
-    public int makeSmartMove(int currentMarbles) {
+    private long chooseSmartMove(long currentMarbles) {
         if (currentMarbles == 1) {
-            System.out.println("Cpu making smart move: " + 1);
+            GameLogicEngine.debug("Cpu making smart move: " + 1);
             lastMove = 1;
             return 1; //pick the last marble
         }
-        int smartMove = 1; //default move
-        lastMove = smartMove;
-        for (double d : smartMoves) {
-            if ((int) d >= (currentMarbles / 2) && (int) d <= (currentMarbles - 1)) { //the smart move result must be greater than half of the marbles, but no larger than the current Marbles - 1
-                smartMove = (currentMarbles - (int) d); //the smart move is the result
-                lastMove = smartMove;
-            }
+        long smartMove = 1; //default move
+        long leave = leaveFor(currentMarbles, myMatch.isLastMoverWins());
+        long move = currentMarbles - leave; //the move leaving that many marbles
+        if (leave > 0 && NimRules.isLegalMove(move, currentMarbles)) { //the smart move must be legal: at least one marble and no more than half of the current marbles
+            smartMove = move; //the smart move is the result
         }
-        System.out.println("Cpu making smart move: " + smartMove);
+        lastMove = smartMove;
+        GameLogicEngine.debug("Cpu making smart move: " + smartMove);
         return smartMove;
     }
 
+    /**
+     * @param currentMarbles at least 2
+     * @param lastMoverWins
+     * @return the largest count below the current marbles the other player
+     * should be left with, 0 if there is none: 1, 3, 7, 15, etc. (2 to the
+     * power of n minus 1) or, if taking the last marble wins, 2, 5, 11, 23,
+     * etc. (3 times 2 to the power of n minus 1)
+     */
+    static long leaveFor(long currentMarbles, boolean lastMoverWins) {
+        if (lastMoverWins) {
+            long third = currentMarbles / 3; //3 * 2^n - 1 < currentMarbles exactly when 2^n <= currentMarbles / 3
+            return third == 0 ? 0 : 3 * Long.highestOneBit(third) - 1;
+        }
+        return Long.highestOneBit(currentMarbles) - 1; //2^n - 1 < currentMarbles exactly when 2^n <= currentMarbles
+    }
+
     /**
      * Thread start / run method
      */
     @Override
     public void run() {
-        waitForTurn();
+        myMatch.getMetrics().cpuPlayerThreadStarted();
+        try {
+            waitForTurn();
+        } finally {
+            myMatch.getMetrics().cpuPlayerThreadStopped();
+        }
+    }
+
+    /**
+     * Runs the player as a task of a simulation rather than on a thread of
+     * its own
+     *
+     * @param simulation
+     */
+    void simulate(Simulation simulation) {
+        myMatch.getMetrics().cpuPlayerThreadStarted();
+        simulation.repeat(new Simulation.Task() {
+            @Override
+            public boolean step() {
+                if (ComputerControlledPlayer.this.step()) {
+                    return true;
+                }
+                myMatch.getMetrics().cpuPlayerThreadStopped();
+                return false;
+            }
+        }, Simulation.STEP_MILLIS);
     }
 
     /**
-     * The CPU controlled player will wait for their turn, checking endlessly.
-     * Once it's their turn they will pick a smart move according to the winning
-     * strategy.
+     * The CPU controlled player will wait for their turn, blocked on the
+     * match until it changes. Once it's their turn they will pick a smart move
+     * according to the winning strategy.
      */
     private void waitForTurn() {
-        System.out.println("CPU started waiting for it's turn.");
-        while (!myMatch.isGameOver()) {
-            float busy = 1; //this enables the thread to run, if you take this line out this while-true loop will not be executed
-            if (myMatch.checkIfItIsMyTurn(super.getPlayerID())) {
-                System.out.println("Cpu making a move.");
+        GameLogicEngine.debug("CPU started waiting for it's turn.");
+        while (step() && myMatch.awaitTurn(super.getPlayerID())) {
+            //a move each time it is the CPU's turn
+        }
+        GameLogicEngine.debug("CPU-Enemy: The game has ended, terminating my thread.");
+    }
+
+    /**
+     * Makes a smart move if it is the CPU's turn
+     *
+     * @return false once the match is over
+     */
+    boolean step() {
+        if (myMatch.isGameOver()) {
+            return false;
+        }
+        synchronized (myMatch) { //the player is told of the move before the match can tell them who has won
+            if (myMatch.getCurrentMarbles() > 0 && myMatch.checkIfItIsMyTurn(super.getPlayerID())) { //no move left once the last marble is gone, the match thread declares the winner
+                GameLogicEngine.debug("Cpu making a move.");
                 if (!myMatch.pickMarbles(super.getPlayerID(), makeSmartMove(myMatch.getCurrentMarbles()))) { //make a smart move pased upon the current marbles 
-                    System.out.println("Trying to make move: " + lastMove);
+                    GameLogicEngine.debug("Trying to make move: " + lastMove);
                 } else {
-                    myMatch.getPlayerOne().addMessage("The CPU has taken " + lastMove + " marbles.\nThe total is now " + myMatch.getCurrentMarbles());
+                    myMatch.getPlayerOne().addMessage(NimRules.cpuTook(lastMove, myMatch.getCurrentMarbles()));
                 }
             }
         }
-        System.out.println("CPU-Enemy: The game has ended, terminating my thread.");
-        Thread.currentThread().interrupt(); //terminate this thread
-        return;
+        return true;
     }
 }
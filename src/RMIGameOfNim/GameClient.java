@@ -11,7 +11,10 @@ import java.util.logging.Logger;
  * GameClient class that communicates with the server via RMI
  *
  * @author Alexander.Keidel@go.edgehill.ac.uk
+ * @deprecated Ties the connection to {@link GameClientJFrame}, use a
+ * {@link ClientSession} from a {@link ClientConnectionPool} instead
  */
+@Deprecated
 public class GameClient extends UnicastRemoteObject implements Runnable {
 
     private int playerNumber;
@@ -4,7 +4,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.rmi.ConnectException;
 import java.rmi.RemoteException;
-import java.util.Calendar;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.SwingUtilities;
@@ -16,12 +15,15 @@ import javax.swing.SwingUtilities;
  */
 public class GameClientJFrame extends javax.swing.JFrame {
 
-    private GameClient myGameClient;
+    private ClientSession mySession;
     private int interfaceState;
     public final int CONNECTED_STATE = 0;
     public final int DISCONNECTED_STATE = 1;
     private final String GAME_INSTRUCTIONS = "In order to start a game please first select \"easy\" or \"hard\", then \"human\" or \"cpu\" \nto choose your\n type of enemy. Typing \"start\" will let the server know that you are ready to play!";
     private final String WELCOME_MESSAGE = "Welcome to the Game of Nim\nPress the Connect button to establish a connection to the server.";
+    public static final int SCROLLBACK_LINES = Integer.getInteger("nim.client.scrollback", 2000);
+    private final TimeOfDayFormat timeFormat = new TimeOfDayFormat();
+    private CoalescingTextAreaLog messageLog;
 
     /**
      * Creates new form GameClientJFrame
@@ -30,6 +32,7 @@ public class GameClientJFrame extends javax.swing.JFrame {
      */
     public GameClientJFrame() throws RemoteException {
         initComponents();
+        messageLog = new CoalescingTextAreaLog(ClientMessageLog, SCROLLBACK_LINES);
         initCommandline();
         updateMessageLog(WELCOME_MESSAGE); //Display the welcome message
     }
@@ -64,7 +67,7 @@ public class GameClientJFrame extends javax.swing.JFrame {
             return;
         }
         try {
-            updateMessageLog(myGameClient.getInterface().executeCommand(myGameClient.getPlayerNumber(), command)); //send the command to be executed to the server, which will process it and return a message back to the user about the status of the command
+            updateMessageLog(mySession.execute(command)); //send the command to be executed to the server, which will process it and return a message back to the user about the status of the command
             ClientInputTextField.setText(null); //reset the content of the command line
         } catch (ConnectException e) {
             updateMessageLog("The connection to the server has been lost.\nClick connect to try and reconnect.");
@@ -101,26 +104,56 @@ public class GameClientJFrame extends javax.swing.JFrame {
     }
 
     /**
-     * Initialise the client and receives a myGameClient number
+     * Initialise the client session and receives a player number. After the
+     * connection was lost the previous session is resumed, so the player
+     * keeps their number and their match.
      *
      * @throws RemoteException
      */
     private boolean connectClient() throws RemoteException {
+        ClientSession previous = mySession;
         try {
-            myGameClient = new GameClient(this);
-            //create a new myGameClient object
-            myGameClient.setPlayerNumber(myGameClient.getInterface().registerPlayer());//register with the server and set the myGameClient number
+            mySession = ClientConnectionPool.getDefault().newSession(GameEngineRemoteInterface.FIXEDURL); //create a new session using the shared connection
+            mySession.addListener(new GameEventListener() {
+                @Override
+                public void messageReceived(ClientSession session, String message) {
+                    updateMessageLog(message);
+                }
+
+                @Override
+                public void connectionLost(ClientSession session, Exception cause) {
+                    ClientConnectionPool.getDefault().invalidate(GameEngineRemoteInterface.FIXEDURL); //look the server up again on the next connect
+                    updateMessageLog("Connection to the server has been lost.");
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            setInterfaceState(DISCONNECTED_STATE);
+                        }
+                    });
+                }
+            });
+            if (previous != null && previous.getSessionToken() != null) {
+                previous.close(); //stops polling if it has not noticed the lost connection
+                if (mySession.resume(previous.getSessionToken())) { //one call, the waiting messages are in the log already
+                    setInterfaceState(CONNECTED_STATE);
+                    updateMessageLog("Reconnected as Player #" + mySession.getPlayerNumber());
+                    return true;
+                }
+            }
+            int playerNumber = mySession.register(); //register with the server and start listening for messages
 
-            if (myGameClient.getPlayerNumber() == -1) { //error code has been found, the server is full
+            if (playerNumber == -1) { //error code has been found, the server is full
                 updateMessageLog("Connection failed: server is full.");
                 return false;
             }
             setInterfaceState(CONNECTED_STATE);
-            updateMessageLog("Connection initialised.\nRegistered as Player #" + myGameClient.getPlayerNumber() + "\n" + GAME_INSTRUCTIONS);
-            Thread t = new Thread(myGameClient);
-            t.start();
+            updateMessageLog("Connection initialised.\nRegistered as Player #" + playerNumber + "\n" + GAME_INSTRUCTIONS);
             return true;
         } catch (Exception e) {
+            if (mySession == null || mySession.getSessionToken() == null) { //the previous session is resumed on the next attempt
+                mySession = previous;
+            }
+            ClientConnectionPool.getDefault().invalidate(GameEngineRemoteInterface.FIXEDURL);
             updateMessageLog("Connection failed.");
             setInterfaceState(DISCONNECTED_STATE);
             e.printStackTrace();
@@ -130,7 +163,9 @@ public class GameClientJFrame extends javax.swing.JFrame {
 
     /**
      * Updates the message log with a message detailing what is happening on the
-     * server
+     * server. Messages arriving within the same frame are appended to
+     * {@link GameClientJFrame#ClientMessageLog} in a single update and only the
+     * last {@link GameClientJFrame#SCROLLBACK_LINES} lines are kept.
      *
      * @param message
      */
@@ -138,30 +173,7 @@ public class GameClientJFrame extends javax.swing.JFrame {
         if (message.isEmpty()) { //don't spam empty messages
             return;
         }
-        System.out.println("Client Message Log update:\n" + message);
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                ClientMessageLog.append("\n" + getTheTime() + "-> " + message);
-            }
-        });
-
-    }
-
-    /**
-     * Get the current time in a HH:MM format
-     *
-     * @return String containing the current time of day in HH:MM format
-     */
-    private String getTheTime() {
-        String time = "" + Calendar.getInstance().get(Calendar.HOUR_OF_DAY); //add the hour of day to a string
-        if (time.length() == 1) { //if time is a single digit, i.e. from 1 to 9 o'clock
-            time = new StringBuilder(time).insert(0, "0").toString(); //append a 0 before the hour if it is a single digit
-        }
-        time += ":" + Calendar.getInstance().get(Calendar.MINUTE); //append a colon and the minutes of the hour
-        if (time.length() == 4) { //if the time is four digits, i.e. 10:1
-            time = new StringBuilder(time).insert(3, "0").toString(); //insert the 0, so 10:1 would become 10:01
-        }
-        return time;
+        messageLog.append("\n" + timeFormat.now() + "-> " + message);
     }
 
     /**
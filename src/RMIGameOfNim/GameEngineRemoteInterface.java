@@ -13,7 +13,9 @@ import java.rmi.RemoteException;
  */
 public interface GameEngineRemoteInterface extends Remote {
 
-    public static final String FIXEDURL = "rmi://localhost/RMIGameServer"; //fixed URL used with the Naming lookup library
+    public static final String SERVICE_NAME = "RMIGameServer"; //name the server is bound under in the registry
+
+    public static final String FIXEDURL = "rmi://localhost/" + SERVICE_NAME; //fixed URL used with the Naming lookup library
 
     public static final int HUMAN_MODE = 0; //chosen when wanting to play against a human player
 
@@ -23,9 +25,11 @@ public interface GameEngineRemoteInterface extends Remote {
 
     public static final int HARD_DIFFICULTY = 1; //chosen when wanting to play with between 2 and 100 marbles
 
-    public static final String[] COMMANDS = {"help", "start", "human", "cpu", "exit", "hard", "easy"};
+    public static final long GIVE_UP = Long.MAX_VALUE; //the move that gives up the match, more than half of any number of marbles
+
+    public static final String[] COMMANDS = {"help", "start", "human", "cpu", "exit", "hard", "easy", "stats", "leaderboard", "rank", "spectate", "unspectate", "tournament", "clock", "matches", "players", "marbles"};
 
-    public static final String[] COMMAND_DESCRIPTIONS = {"help - shows a list of the available commands", "start - tells the server that you are ready to play", "human - tells the server that you wish to play against a human player", "cpu - tells the server that you wish to play against a computer controlled opponent", "exit - exit the current game session", "hard - chooses hard mode: 2 to 100 marbles", "easy - chooses easy mode: 2 to 20 marbles"};
+    public static final String[] COMMAND_DESCRIPTIONS = {"help - shows a list of the available commands", "start - tells the server that you are ready to play", "human - tells the server that you wish to play against a human player", "cpu - tells the server that you wish to play against a computer controlled opponent", "exit - exit the current game session", "hard - chooses hard mode: 2 to 100 marbles", "easy - chooses easy mode: 2 to 20 marbles", "stats - shows the latency percentiles of the server commands", "leaderboard - shows the players with the most wins", "rank - shows your rank, wins and losses", "spectate N - watch match number N as it is played", "unspectate [N] - stop watching match N, or all matches", "tournament [knockout|swiss [rounds]|join|start|leave] - opens, enters, starts or leaves a tournament, or shows yours", "clock - shows the time every player in your match has left", "matches [human|cpu] [easy|hard] [waiting|playing] [after N] [limit N] - lists the matches going on", "players [human|cpu] [easy|hard] [idle|waiting|playing] [after N] [limit N] - lists the registered players", "marbles [N|off] - plays your next matches with N marbles, up to 9223372036854775807, or off for the difficulty"};
 
     /**
      * Registers a player with the server
@@ -36,6 +40,29 @@ public interface GameEngineRemoteInterface extends Remote {
      */
     public int registerPlayer() throws RemoteException;
 
+    /**
+     * Registers a player with a session the client can pick up again after
+     * losing the connection, see {@link #resume(String)}
+     *
+     * @return the session token, the player number followed by a secret, see
+     * {@link ResumedSession#playerNumberOf(String)}
+     * @throws RemoteException
+     */
+    public String registerSession() throws RemoteException;
+
+    /**
+     * Picks up the session of a client that has lost its connection: the
+     * client is the same player again, in the same match, and gets every
+     * message that was waiting for it in the reply. No player or match is
+     * created.
+     *
+     * @param token as returned by {@link #registerSession()}
+     * @return the player and the waiting messages, or null if the server
+     * does not know the session
+     * @throws RemoteException
+     */
+    public ResumedSession resume(String token) throws RemoteException;
+
     /**
      * @deprecated Tries to make a move in the match that the player has been
      * assigned to using their unique identifier and the move they wish to make
@@ -44,13 +71,15 @@ public interface GameEngineRemoteInterface extends Remote {
      * @return
      * @throws RemoteException
      */
-    public String makeMove(int playerNumber, int move) throws RemoteException;
+    @Deprecated
+    public String makeMove(int playerNumber, long move) throws RemoteException;
 
     /**
      * @deprecated Test method used to test the client-server connection
      *
      * @throws RemoteException
      */
+    @Deprecated
     public void test() throws RemoteException;
 
     /**
@@ -0,0 +1,28 @@
+package RMIGameOfNim;
+
+/**
+ * Receives the events of a {@link ClientSession}. Callbacks are made from the
+ * polling threads of the session's {@link ClientConnectionPool}; events of one
+ * session are delivered one at a time and in order, so implementations only
+ * need to be thread safe if they are shared between sessions.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public interface GameEventListener {
+
+    /**
+     * A message from the server has been received for this session
+     *
+     * @param session
+     * @param message
+     */
+    public void messageReceived(ClientSession session, String message);
+
+    /**
+     * The session has lost its connection to the server and stopped polling
+     *
+     * @param session
+     * @param cause
+     */
+    public void connectionLost(ClientSession session, Exception cause);
+}
@@ -0,0 +1,107 @@
+package RMIGameOfNim;
+
+/**
+ * Emits the Java Flight Recorder events of the game, so CPU and allocation
+ * spikes in a recording can be tied to what the players were doing. The events
+ * themselves live in {@link JfrGameEvents}, which is only loaded when the
+ * running JVM has Flight Recorder, so the server still runs on JVMs without it.
+ * When the events are not enabled in the recording, or no recording is running,
+ * each call is a check of a constant and of the event's enabled flag.
+ * <p>
+ * Record with the bundled settings:
+ * java -XX:StartFlightRecording:settings=game-of-nim.jfc,filename=nim.jfr ...
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+final class GameEvents {
+
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private GameEvents() {
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, GameEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param playerID the number given to the new player
+     */
+    static void playerRegistered(int playerID) {
+        if (AVAILABLE) {
+            JfrGameEvents.playerRegistered(playerID);
+        }
+    }
+
+    /**
+     * @param match the match that has just been created, with its first player
+     */
+    static void matchCreated(GameLogicEngine match) {
+        if (AVAILABLE) {
+            JfrGameEvents.matchCreated(match.getMatchID(), match.getPlayerOne().getPlayerID(), match.getChosenDifficulty(),
+                    match.getChosenMode() == GameEngineRemoteInterface.CPU_MODE, match.getTotalMarbles());
+        }
+    }
+
+    /**
+     * @param match the match a second player, or the computer, has joined
+     * @param playerTwoID
+     */
+    static void opponentPaired(GameLogicEngine match, int playerTwoID) {
+        if (AVAILABLE) {
+            JfrGameEvents.opponentPaired(match.getMatchID(), match.getPlayerOne().getPlayerID(), playerTwoID, match.nanoTime() - match.getCreatedNanos());
+        }
+    }
+
+    /**
+     * @param matchID
+     * @param playerID the player who made the move
+     * @param amount marbles taken
+     * @param remaining marbles left after the move
+     */
+    static void move(int matchID, int playerID, long amount, long remaining) {
+        if (AVAILABLE) {
+            JfrGameEvents.move(matchID, playerID, amount, remaining);
+        }
+    }
+
+    /**
+     * Starts timing a move computed by the {@link ComputerControlledPlayer}
+     *
+     * @return the event to pass to
+     * {@link GameEvents#cpuMoveComputed(Object, int, long, long)}, null if there is
+     * nothing to record
+     */
+    static Object cpuMoveStarted() {
+        return AVAILABLE ? JfrGameEvents.cpuMoveStarted() : null;
+    }
+
+    /**
+     * @param event returned by {@link GameEvents#cpuMoveStarted()}
+     * @param matchID
+     * @param marbles marbles the move has been computed for
+     * @param move the chosen move
+     */
+    static void cpuMoveComputed(Object event, int matchID, long marbles, long move) {
+        if (event != null) {
+            JfrGameEvents.cpuMoveComputed(event, matchID, marbles, move);
+        }
+    }
+
+    /**
+     * @param matchID
+     * @param winnerID 0 if the player gave up before an opponent joined
+     * @param loserID
+     * @param forfeited true if the loser gave up
+     */
+    static void matchFinished(int matchID, int winnerID, int loserID, boolean forfeited) {
+        if (AVAILABLE) {
+            JfrGameEvents.matchFinished(matchID, winnerID, loserID, forfeited);
+        }
+    }
+}
@@ -1,12 +1,32 @@
 package RMIGameOfNim;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
  * Core logic for the Game of Nim Keeps track of the total marbles for the game,
  * the current count of marbles, a list of the comlpeted moves for debugging or
  * error tracking
+ * <p>
+ * A match has between {@link #MIN_SEATS} and {@link #MAX_SEATS} seats, taken
+ * in turn in the order the players sat down, starting with a random one. The
+ * seats are kept in an array and the turn order as a ring of seat numbers, so
+ * handing the turn on and taking a player who gives up out of the ring do not
+ * depend on the number of players. The match ends once only one player is
+ * left, or once the marbles are gone: the player who took the last one loses,
+ * and the player after them wins, unless the match is set up so the last
+ * player to move wins.
+ * <p>
+ * If the server has {@link TurnClocks}, every player's time starts running
+ * down once it is their turn and stops when they have moved, with the
+ * increment added. A player whose time is up has lost as if they had given
+ * up.
  *
  * @author Alexander.Keidel@go.edgehill.ac.uk
  */
@@ -14,16 +34,44 @@ public class GameLogicEngine implements Runnable {
     
     private GameServer myServer;
     private int matchID;
-    private Player playerOne = null, playerTwo = null;
-    private int nextTurn;
-    private boolean playerOneTurn;
+    public static final int MIN_SEATS = 2;
+    public static final int MAX_SEATS = 16;
+    private Player[] seats; //in the order the players sat down, a lobby fills them from the front
+    private volatile int seated = 0; //seats taken, the match starts once all of them are
+    private int[] nextSeat, previousSeat; //the turn order, a ring over the seats still playing, linked once every seat is taken
+    private boolean[] gaveUp; //seats whose player has given up and left the ring
+    private int playing = 0; //seats in the ring
+    private int turnSeat = 0; //the seat whose turn it is
+    private int lastMoverSeat = -1; //the seat that made the last move
+    private final Map<Integer, Integer> seatOf = new HashMap<>(); //the seat of every player by their ID
+    private boolean lastMoverWins = false;
+    private volatile int nextTurn; //read by the match and CPU threads while the players' threads move
     private final int DEFAULT_MARBLE_COUNT = 20;
     private int chosenMode, chosenDifficulty;
-    private final Random randy = new Random();
-    private int totalMarbles; //total marble count
-    private int currentMarbles; //current marble count
-    private List<Integer> completedMoves; //a list of all the consecutive moves
+    private Random randy = null; //draws the marbles and the first player, created when first needed, see random()
+    private long totalMarbles; //total marble count
+    private volatile long currentMarbles; //current marble count
+    private boolean customMarbles = false; //the total has been chosen by the player rather than drawn for the difficulty
+    private final List<Long> completedMoves = Collections.synchronizedList(new ArrayList<Long>()); //a list of all the consecutive moves
     private volatile boolean gameOver = false;
+    private long createdNanos = System.nanoTime(); //when the match was created, used to measure the time spent waiting for an opponent
+    private int moveChecksum = 0; //over every move made, journaled with the outcome so a replay can be verified
+    private volatile boolean started = false; //the first player to move has been picked
+    private volatile int winnerID = 0, loserID = 0; //set once the match is over, 0 if it was given up before it started
+    private volatile boolean forfeited = false;
+    private long resultNumber = 0; //given by the leaderboard when the result was recorded
+    private boolean restored = false; //restored from a snapshot part way through, the match is resumed rather than started
+    private boolean paired = false; //made with every player seated at once, never a lobby
+    private boolean opened = false; //the players have been told the match has started, only used by whatever runs step()
+    private volatile MatchEventLog eventLog = null; //created when the first spectator joins, only appended to under the lock of the match
+    private volatile MatchListener listener = null; //told when the match is over, i.e. by a tournament
+    private TurnClocks clocks = null; //set once the match starts if the server has clocks
+    private long[] timeLeft; //milliseconds each seat has left, as of the start of the current turn
+    private long turnStartedMillis; //when the clock of the current turn started
+    private int turnNumber = 0; //counts the turns the clock has been started for, a timeout for an earlier one is ignored
+    private TurnClocks.Timeout timeout = null; //the clock of the player to move
+    private volatile MatchSummary summary = null; //published under the lock whenever the match changes, read without it
+    private static final boolean DEBUG = Boolean.getBoolean("nim.debug"); //prints every step of the match to the console
 
     /**
      * Use this constructor when creating a new {@link GameLogicEngine} (match)
@@ -37,11 +85,34 @@ public class GameLogicEngine implements Runnable {
      * @param cpu
      */
     public GameLogicEngine(int matchID, GameServer myServer, int playerOneID, boolean hard, boolean cpu) {
+        this(matchID, myServer, new Player(playerOneID), hard, cpu);
+        if (cpu) {
+            getPlayerOne().setChosenMode(GameEngineRemoteInterface.CPU_MODE);
+        }
+    }
+
+    /**
+     * Creates a new match for a player registered on the server, so the
+     * messages of the match end up in the queue the player is polling
+     *
+     * @param matchID
+     * @param myServer server running the match, told when it is over
+     * @param playerOne
+     * @param hard
+     * @param cpu true to play against the computer
+     */
+    public GameLogicEngine(int matchID, GameServer myServer, Player playerOne, boolean hard, boolean cpu) {
         this.matchID = matchID;
-        playerOne = new Player(playerOneID);
+        this.myServer = myServer;
+        if (myServer != null) {
+            createdNanos = myServer.nanoTime(); //the virtual time of a simulated server
+        }
+        allocateSeats(MIN_SEATS);
+        seat(playerOne);
         selectDifficulty(hard);
-        if (cpu) {
-            playerOne.setChosenMode(GameEngineRemoteInterface.CPU_MODE);
+        setChosenMode(cpu ? GameEngineRemoteInterface.CPU_MODE : GameEngineRemoteInterface.HUMAN_MODE);
+        synchronized (this) {
+            publish();
         }
     }
 
@@ -53,10 +124,12 @@ public class GameLogicEngine implements Runnable {
      * @param playerOneID
      * @param playerTwoID
      */
+    @Deprecated
     public GameLogicEngine(int matchID, GameServer myServer, int playerOneID, int playerTwoID) {
         this.matchID = matchID;
-        playerOne = new Player(playerOneID);
-        playerTwo = new Player(playerTwoID);
+        allocateSeats(MIN_SEATS);
+        seat(new Player(playerOneID));
+        seat(new Player(playerTwoID));
         pickPlayerToStart();
         totalMarbles = DEFAULT_MARBLE_COUNT; //default value
     }
@@ -75,15 +148,16 @@ public class GameLogicEngine implements Runnable {
      */
     public GameLogicEngine(int matchID, GameServer myServer, int playerOneID, int playerTwoID, boolean hard) {
         this.matchID = matchID;
-        playerOne = new Player(playerOneID);
-        playerTwo = new Player(playerTwoID);
+        allocateSeats(MIN_SEATS);
+        seat(new Player(playerOneID));
+        seat(new Player(playerTwoID));
         pickPlayerToStart();
         selectDifficulty(hard);
     }
 
     /**
      * Initialises the logic engine with a set amount of marbles Make sure you
-     * choose a positive integer above 2 or it will default to 20
+     * choose a number of at least 2 or it will default to 20
      *
      * @param matchID
      * @param myServer
@@ -91,16 +165,137 @@ public class GameLogicEngine implements Runnable {
      * @param playerTwoID
      * @param amount Chosen amount of total marbles for the game
      */
-    public GameLogicEngine(int matchID, GameServer myServer, int playerOneID, int playerTwoID, int amount) {
+    public GameLogicEngine(int matchID, GameServer myServer, int playerOneID, int playerTwoID, long amount) {
         this.matchID = matchID;
-        playerOne = new Player(playerOneID);
-        playerTwo = new Player(playerTwoID);
+        allocateSeats(MIN_SEATS);
+        seat(new Player(playerOneID));
+        seat(new Player(playerTwoID));
         pickPlayerToStart();
         if (amount >= 2) {
             totalMarbles = amount;
         } else {
             totalMarbles = DEFAULT_MARBLE_COUNT;
         }
+        currentMarbles = totalMarbles;
+    }
+
+    /**
+     * Sets the number of players the match is for and who wins it. Only
+     * called before the first move, the players already seated keep their
+     * seats.
+     *
+     * @param seatCount between {@link #MIN_SEATS} and {@link #MAX_SEATS}
+     * @param lastMoverWins true if the player taking the last marble wins,
+     * otherwise the player after them does
+     */
+    synchronized void setRules(int seatCount, boolean lastMoverWins) {
+        if (seatCount < Math.max(MIN_SEATS, seated) || seatCount > MAX_SEATS) {
+            throw new IllegalArgumentException("A match for " + seatCount + " players cannot seat " + seated);
+        }
+        if (!completedMoves.isEmpty()) {
+            throw new IllegalStateException("Match #" + matchID + " is under way");
+        }
+        Player[] sitting = seats;
+        allocateSeats(seatCount);
+        System.arraycopy(sitting, 0, seats, 0, seated);
+        if (seated == seatCount) {
+            link();
+        }
+        this.lastMoverWins = lastMoverWins;
+        publish();
+    }
+
+    private void allocateSeats(int seatCount) {
+        seats = new Player[seatCount];
+        nextSeat = new int[seatCount];
+        previousSeat = new int[seatCount];
+        gaveUp = new boolean[seatCount];
+    }
+
+    /**
+     * Gives the player the next free seat, the match starts once the last
+     * one is taken
+     *
+     * @param player
+     * @return false if every seat is taken or the match is over
+     */
+    synchronized boolean seat(Player player) {
+        if (gameOver || seated == seats.length || seatOf.containsKey(player.getPlayerID())) {
+            return false;
+        }
+        seats[seated] = player;
+        seatOf.put(player.getPlayerID(), seated);
+        if (seated + 1 == seats.length) {
+            link();
+        }
+        seated++; //publishes the seat to the match thread
+        publish();
+        return true;
+    }
+
+    /**
+     * Lets a player leave a lobby before the match has started, the player
+     * in the last seat takes the free one
+     *
+     * @param playerID
+     * @return false if the match has started or the player is not in it;
+     * the lobby is closed if it was the only player
+     */
+    synchronized boolean leaveLobby(int playerID) {
+        Integer seat = seatOf.get(playerID);
+        if (seat == null || started || gameOver) {
+            return false;
+        }
+        if (seated == 1) {
+            gameOver = true; //the match thread sees it and stops waiting
+            currentMarbles = 0;
+            finished(0, playerID, true);
+            publish();
+            return true;
+        }
+        int last = seated - 1;
+        seatOf.remove(playerID);
+        if (seat != last) {
+            seats[seat] = seats[last];
+            seatOf.put(seats[seat].getPlayerID(), seat);
+        }
+        seats[last] = null;
+        seated = last;
+        if (eventLog != null) {
+            eventLog.append(nameOf(playerID) + " has left the lobby.");
+        }
+        publish();
+        return true;
+    }
+
+    /**
+     * Links the seats into the turn order they were taken in
+     */
+    private void link() {
+        int count = seats.length;
+        for (int seat = 0; seat < count; seat++) {
+            nextSeat[seat] = (seat + 1) % count;
+            previousSeat[seat] = (seat + count - 1) % count;
+            gaveUp[seat] = false;
+        }
+        playing = count;
+    }
+
+    /**
+     * Takes the seat of a player who has given up out of the turn order, the
+     * turn passes on if it was theirs
+     */
+    private void dropOut(int seat) {
+        gaveUp[seat] = true;
+        playing--;
+        nextSeat[previousSeat[seat]] = nextSeat[seat];
+        previousSeat[nextSeat[seat]] = previousSeat[seat];
+        if (seat == turnSeat) {
+            stopClock(false);
+            turnSeat = nextSeat[seat];
+            nextTurn = seats[turnSeat].getPlayerID();
+            startClock();
+        }
     }
 
     /**
@@ -109,11 +304,11 @@ public class GameLogicEngine implements Runnable {
      */
     private void selectDifficulty(boolean hard) {
         if (hard) {
-            totalMarbles = randy.nextInt(99) + 2;
+            totalMarbles = random().nextInt(99) + 2;
             
             setChosenDifficulty(GameEngineRemoteInterface.HARD_DIFFICULTY);
         } else {
-            totalMarbles = randy.nextInt(19) + 2;
+            totalMarbles = random().nextInt(19) + 2;
             setChosenDifficulty(GameEngineRemoteInterface.EASY_DIFFICULYT);
         }
         currentMarbles = totalMarbles; //udpate current marbles
@@ -137,40 +332,58 @@ public class GameLogicEngine implements Runnable {
      * instead!
      * @param hard Boolean to choose hard mode (true) or normal mode (false)
      */
+    @Deprecated
     public void resetGameLogicEngine(boolean hard) {
         selectDifficulty(hard);
         initialiseCoreGame(); //initialise a new game with the new totalMarbles value
     }
-    
-    private boolean determineLegalMove(int move) {
-        if (move == 1 && currentMarbles == 1) { //taking 1 is valid even when there are only 2 marbles left
-            return true;
-        }
-        return (move >= 1 && (move <= (currentMarbles / 2))); //if the move greater or equal to 1 and is smaller or equal to half of the current marbles
+
+    /**
+     * Checks a move against the rules, see
+     * {@link NimRules#isLegalMove(long, long)}. Package private so the
+     * benchmarks can call it directly.
+     *
+     * @param move
+     * @return true if the move is legal
+     */
+    boolean determineLegalMove(long move) {
+        return NimRules.isLegalMove(move, currentMarbles);
     }
 
     /**
      * Getter for {@link GameLogicEngine#totalMarbles}
      *
-     * @return Integer representing the total marbles chosen for this game
+     * @return the total marbles chosen for this game
      */
-    public int getTotalMarbles() {
+    public long getTotalMarbles() {
         return totalMarbles;
     }
 
     /**
-     * Setter for {@link GameLogicEngine#totalMarbles}
+     * Setter for {@link GameLogicEngine#totalMarbles}, replacing the number
+     * drawn for the difficulty with one the player has chosen. Only allowed
+     * before the match has started, the current marbles are set as well.
      *
-     * @param amount
+     * @param amount at least 2, up to {@link Long#MAX_VALUE}
      * @return true if successfully set
      */
-    public boolean setTotalMarbles(int amount) {
-        if (amount <= 2) {
-            totalMarbles = amount;
-            return true;
-        } else {
+    public synchronized boolean setTotalMarbles(long amount) {
+        if (amount < 2 || started) {
             return false;
         }
+        totalMarbles = amount;
+        currentMarbles = amount;
+        customMarbles = true;
+        publish();
+        return true;
+    }
+
+    /**
+     * @return the total marbles if the player opening the match chose them, 0
+     * if they were drawn for the difficulty
+     */
+    public long getCustomMarbles() {
+        return customMarbles ? totalMarbles : 0;
     }
 
     /**
@@ -178,7 +391,7 @@ public class GameLogicEngine implements Runnable {
      *
      * @return
      */
-    public int getCurrentMarbles() {
+    public long getCurrentMarbles() {
         return currentMarbles;
     }
 
@@ -188,9 +401,9 @@ public class GameLogicEngine implements Runnable {
      * @param amount, can't ever be lower than 0
      * @return true if successfully set, i.e. a positive integer
      */
-    private boolean setCurrentMarbles(int amount) {
+    boolean setCurrentMarbles(long amount) {
         currentMarbles = amount;
-        System.out.println("Updated current marbles to " + currentMarbles);
+        debug("Updated current marbles to " + currentMarbles);
         return true;
     }
 
@@ -199,139 +412,158 @@ public class GameLogicEngine implements Runnable {
      *
      * @return
      */
-    public List<Integer> getCompletedMoves() {
+    public List<Long> getCompletedMoves() {
         return completedMoves;
     }
 
     /**
-     * Determines one of the two player IDs to have the first turn using
-     * pseudo-random numbers Warning: Only use this once
-     * {@link GameLogicEngine#playerOneID} and
-     * {@link GameLogicEngine#playerTwoID} have been set!
+     * Determines one of the seats to have the first turn using pseudo-random
+     * numbers Warning: Only use this once every seat has been taken!
      */
     private void pickPlayerToStart() {
-        if (randy.nextInt(2) == 0) {
-            //nextTurn = playerTwo.getPlayerID();
-            playerOneTurn = true;
-        } else {
-            //nextTurn = playerOne.getPlayerID();
-            playerOneTurn = false;
+        turnSeat = random().nextInt(seats.length);
+    }
+
+    /**
+     * @return the random number generator of the match: seeded from the
+     * simulation running the server, so the match is the same every time
+     * it is run, and otherwise seeded differently for every match
+     */
+    private Random random() {
+        if (randy == null) {
+            randy = myServer == null ? new Random() : myServer.newMatchRandom(matchID);
         }
+        return randy;
     }
 
     /**
-     * Running the core game logic. It waits for a second player to be assigned
-     * to the match before starting It then waits until the marble count has
-     * reached zero and will declare the winner
+     * Running the core game logic once, as the thread running the match
+     * does over and over. It waits for every seat to be taken before starting
+     * It then waits until the marble count has reached zero and will declare
+     * the winner
      *
-     * @param humanMode boolean declaring if {@link GameLogicEngine#playerOne}
-     * is playing against a human (true) or a cpu (false).
+     * @return false once the match is over and nothing is left to do
      */
-    private void runCoreGameLogic(boolean humanMode) {
-        System.out.println("runCoreGameLogic started");
-        if (humanMode) { //Human player mode
-            while (true) {
-                //System.out.println("Searching for a second player!"); //this line is needed in order for the true-while loop to run, otherwise the workload is too little and the priority of the thread is so low it won't be executed (?)
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+    boolean step() {
+        if (!opened) {
+            if (chosenMode != GameEngineRemoteInterface.HUMAN_MODE) { //Cpu game mode
+                openComputerMatch();
+            } else if (!restored) { //Human player mode
+                if (isGameOver()) { //the last player gave up before the lobby was full
+                    return false;
                 }
-                if (playerTwo != null) { //wait for a second player to be assigned
-                    System.out.println("Found a second player!");
-                    pickPlayerToStart(); //pick a player to start
-                    updateNextTurn(); //update the variable that the players ID will be checked against
-                    break;
+                if (seated < seats.length || !begin()) { //wait for every seat to be taken
+                    return true;
                 }
-            }
-            playerOne.addMessage("Match found!\nThe total amount of marbles is " + totalMarbles);
-            playerTwo.addMessage("Match found!\nThe total amount of marbles is " + totalMarbles);
-            if (playerOne.getPlayerID() == nextTurn) { //tell the players who is starting the game
-                playerOne.addMessage("It is your turn.");
-                playerTwo.addMessage("It is the other players turn.");
-            } else {
-                playerTwo.addMessage("It is your turn.");
-                playerOne.addMessage("It is the other players turn.");
-            }
-            while (!isGameOver()) {
-                float busy = 1;
-                if (currentMarbles <= 0) {
-                    System.out.println("A winner has been found.");
-                    //the player who's turn it was loses, in other words if we update the next turn one more time we have the ID of the winning player
-                    //updateNextTurn();
-                    if (playerOne.getPlayerID() == nextTurn) {
-                        System.out.println("Player One has won.");
-                        playerOne.addMessage("You have won the game!");
-                        playerTwo.addMessage("You have lost the game!");
-                    } else {
-                        System.out.println("Player Two has won.");
-                        playerTwo.addMessage("You have won the game!");
-                        playerOne.addMessage("You have lost the game!");
-                    }
-                    //tell the player with playerID == nextTurn that they have won, and the other player that they have lost and then exit the match
-                    gameOver = true;
-                    String message = "The match has ended, you can now start a new game!";
-                    playerOne.addMessage(message);
-                    playerTwo.addMessage(message);
-                    //myServer.removeMatch(matchID); //removes iteself from the list of matches
-                    Thread.currentThread().interrupt(); //close this thread
-                    return;
-                    //END the game here
+                debug("Every seat has been taken!");
+                for (Player player : seats) { //tell the players who is starting the game
+                    player.addMessage(NimRules.matchFound(totalMarbles));
+                    player.addMessage(player.getPlayerID() == nextTurn ? NimRules.YOUR_TURN + describeTimeLeft(nextTurn) : NimRules.OTHER_PLAYERS_TURN);
                 }
             }
-        } else { //Cpu game mode
-            System.out.println("Starting a game against the computer.");
-            playerOne.addMessage("Match with the computer has started.");
-            playerOne.addMessage("Match found!\nThe total amount of marbles is " + totalMarbles);
-            ComputerControlledPlayer cpu = new ComputerControlledPlayer(totalMarbles, this); //assign new computer
-            playerTwo = cpu; //set player 2 as the cpu
-            Thread t = new Thread(cpu); //new therad with the cpu on it
-            t.start(); //start the thread
-            pickPlayerToStart(); //pick a player to start
-            updateNextTurn(); //update the variable that the players ID will be checked against
-            if (playerOne.getPlayerID() == nextTurn) { //tell the players who is starting the game
-                playerOne.addMessage("It is your turn.");
+            opened = true;
+        }
+        if (isGameOver()) {
+            return false;
+        }
+        if (currentMarbles > 0) {
+            return true;
+        }
+        if (!declareWinner()) { //a player has given up
+            return false;
+        }
+        String message = NimRules.MATCH_ENDED;
+        if (chosenMode != GameEngineRemoteInterface.HUMAN_MODE) {
+            getPlayerOne().addMessage(message);
+            return false;
+        }
+        for (int seat = 0; seat < seats.length; seat++) {
+            if (!gaveUp[seat]) {
+                seats[seat].addMessage(message);
+            }
+        }
+        return false; //END the game here
+    }
+
+    /**
+     * Seats the computer in a match against it and starts its thread, or its
+     * task if the server is simulated
+     */
+    private void openComputerMatch() {
+        debug("Starting a game against the computer.");
+        if (!restored) {
+            getPlayerOne().addMessage(NimRules.COMPUTER_MATCH_STARTED);
+            getPlayerOne().addMessage(NimRules.matchFound(totalMarbles));
+            seat(new ComputerControlledPlayer(totalMarbles, this)); //assign new computer, set player 2 as the cpu
+            GameEvents.opponentPaired(this, Integer.MIN_VALUE);
+            begin();
+        }
+        if (!restored) { //before the computer can move, so the player is told of the turn before the move
+            if (getPlayerOne().getPlayerID() == nextTurn) { //tell the players who is starting the game
+                getPlayerOne().addMessage(NimRules.YOUR_TURN + describeTimeLeft(nextTurn));
             } else {
-                playerOne.addMessage("It is the other players turn.");
+                getPlayerOne().addMessage(NimRules.OTHER_PLAYERS_TURN);
             }
-            while (!isGameOver()) {
-                float busy = 1;
-                if (currentMarbles <= 0) {
-                    System.out.println("A winner has been found.");
-                    //the player who's turn it was loses, in other words if we update the next turn one more time we have the ID of the winning player
-                    //updateNextTurn();
-                    if (playerOne.getPlayerID() == nextTurn) {
-                        System.out.println("Player One has won.");
-                        playerOne.addMessage("You have won the game!");
-                    } else {
-                        System.out.println("Computer has won.");
-                        playerOne.addMessage("You have lost the game!");
-                    }
-                    //tell the player with playerID == nextTurn that they have won, and the other player that they have lost and then exit the match
-                    gameOver = true;
-                    String message = "The match has ended, you can now start a new game!";
-                    playerOne.addMessage(message);
-                    playerTwo = null;
-                    Thread.currentThread().interrupt(); //close this thread
-                    return;
-                    //myServer.removeMatch(matchID); //removes iteself from the list of matches
-                    //END the game here
-                }
+        }
+        ComputerControlledPlayer cpu = (ComputerControlledPlayer) seats[1];
+        Simulation simulation = myServer == null ? null : myServer.getSimulation();
+        if (simulation != null) {
+            cpu.simulate(simulation);
+        } else {
+            Thread t = new Thread(cpu, "ComputerControlledPlayer-" + matchID); //new therad with the cpu on it
+            t.start(); //start the thread
+        }
+    }
+
+    /**
+     * Tells every player still in the match whether they have won or lost
+     * once the marbles are gone, and records the outcome. Holds the lock
+     * pickMarbles hands the turn over under, so the turn is up to date here.
+     *
+     * @return false if the match was already over, a player has given up
+     */
+    private synchronized boolean declareWinner() {
+        if (isGameOver()) {
+            return false;
+        }
+        debug("A winner has been found.");
+        int winner = decideWinner();
+        for (int seat = 0; seat < seats.length; seat++) {
+            if (!gaveUp[seat]) {
+                seats[seat].addMessage(seats[seat].getPlayerID() == winner ? NimRules.WON : NimRules.LOST);
             }
         }
+        int loser = seats[lastMoverWins ? turnSeat : lastMoverSeat].getPlayerID(); //the other one of the last move
+        finished(winner, loser, false);
+        journalFinished(winner);
+        gameOver = true;
+        publish();
+        return true;
     }
 
     /**
-     * Update the value holding who's the next turn it is to make a move
+     * @return the player who has won by the moves made so far: the only one
+     * left, or once the marbles are gone the player who took the last one if
+     * the last mover wins and otherwise the player after them; 0 while the
+     * match is still going
      */
-    private void updateNextTurn() {
-        if (playerOneTurn) { //if it is the first players turn
-            nextTurn = playerTwo.getPlayerID();
-            playerOneTurn = false;
-        } else {
-            nextTurn = playerOne.getPlayerID();
-            playerOneTurn = true;
+    synchronized int decideWinner() {
+        if (playing == 1) {
+            return seats[turnSeat].getPlayerID();
         }
+        if (currentMarbles <= 0 && lastMoverSeat >= 0) {
+            return seats[lastMoverWins ? lastMoverSeat : turnSeat].getPlayerID();
+        }
+        return 0;
+    }
+
+    /**
+     * Update the value holding who's the next turn it is to make a move
+     */
+    void updateNextTurn() {
+        lastMoverSeat = turnSeat;
+        turnSeat = nextSeat[turnSeat];
+        nextTurn = seats[turnSeat].getPlayerID();
     }
 
     /**
@@ -347,52 +579,573 @@ public class GameLogicEngine implements Runnable {
     /**
      * Lets a player, defined by the playerID, pick an amount of marbles. First
      * determines if the chosen amount is a legal move and then if the playerID
-     * matches with the player who is up next
+     * matches with the player who is up next. Synchronized, so the marbles and
+     * the turn always change together.
      *
      * @param playerID
      * @param amount
      * @return
      */
-    public boolean pickMarbles(int playerID, int amount) {
-        if (amount == Integer.MAX_VALUE) { //the player is giving up
-            gameOver = true;
-            getPlayerByID(playerID).addMessage("You have given up!");
-            currentMarbles = 0;
+    public synchronized boolean pickMarbles(int playerID, long amount) {
+        if (amount == GameEngineRemoteInterface.GIVE_UP) { //the player is giving up, never a legal move as it is more than half of any count
+            Integer seat = seatOf.get(playerID);
+            if (seat == null || gameOver || gaveUp[seat]) {
+                return false;
+            }
+            seats[seat].addMessage(NimRules.GAVE_UP);
+            if (!started) {
+                if (!paired) { //only a lobby, the others keep waiting
+                    return leaveLobby(playerID);
+                }
+                begin(); //journals the start before the forfeit, the thread of the match finds it over
+            }
+            forfeit(seat, " has given up.");
             return true;
         }
         try {
             if (playerID == nextTurn) { //it is the correct player making a move
                 if (determineLegalMove(amount)) {
-                    System.out.print("The move was valid and the correct player made it.");
+                    debug("The move was valid and the correct player made it.");
                     setCurrentMarbles(currentMarbles - amount); //deduct the selected amount
+                    GameEvents.move(matchID, playerID, amount, currentMarbles);
+                    completedMoves.add(amount);
+                    moveChecksum = nextChecksum(moveChecksum, playerID, amount);
+                    journal(JournalRecord.MOVE, playerID, amount, currentMarbles);
+                    if (eventLog != null) {
+                        eventLog.append(nameOf(playerID) + " took " + amount + (amount == 1 ? " marble, " : " marbles, ") + currentMarbles + " left.");
+                    }
+                    stopClock(true);
                     updateNextTurn(); //update the value expected for the next player ID
+                    startClock();
+                    publish();
                     return true;
                 } else { //correct player making a wrong move
-                    System.out.println("Correct player made an invalid move");
-                    getPlayerByID(playerID).addMessage("This is an invalid move.\nYou may only pick a number greater than one and smaller than half of the marbles left!\nThe total amount of marbles is " + currentMarbles);
+                    debug("Correct player made an invalid move");
+                    getPlayerByID(playerID).addMessage(NimRules.invalidMove(currentMarbles));
                     return false;
                 }
             } else { //wrong player
-                System.out.println("Wrong player trying to make a move.");
-                getPlayerByID(playerID).addMessage("It is not currently your turn. Please wait for the other player to make their move!");
+                debug("Wrong player trying to make a move.");
+                getPlayerByID(playerID).addMessage(NimRules.NOT_YOUR_TURN);
                 return false;
             }
         } catch (NullPointerException e) {
-            System.out.println("Player not found");
+            debug("Player not found");
             return false;
         }
     }
 
+    /**
+     * Takes a player who has given up or run out of time out of the match,
+     * the last one left wins it. Journaled as giving up either way, so a
+     * replay does not depend on the clocks.
+     *
+     * @param seat
+     * @param event what has happened to the player, for the spectators
+     */
+    private void forfeit(int seat, String event) {
+        int playerID = seats[seat].getPlayerID();
+        if (eventLog != null) {
+            eventLog.append(nameOf(playerID) + event);
+        }
+        moveChecksum = nextChecksum(moveChecksum, playerID, Integer.MAX_VALUE); //what giving up has always been counted as, so older journals still verify
+        boolean theirTurn = seat == turnSeat;
+        dropOut(seat);
+        journal(JournalRecord.MOVE, playerID, GameEngineRemoteInterface.GIVE_UP, playing > 1 ? currentMarbles : 0);
+        if (playing > 1) { //the others play on
+            if (theirTurn) {
+                seats[turnSeat].addMessage(NimRules.playerOut(nameOf(playerID)) + describeTimeLeft(nextTurn));
+            }
+            publish();
+            return;
+        }
+        gameOver = true;
+        currentMarbles = 0;
+        Player winner = seats[turnSeat];
+        winner.addMessage(NimRules.WON);
+        finished(winner.getPlayerID(), playerID, true);
+        journalFinished(winner.getPlayerID());
+        publish();
+    }
+
+    /**
+     * Starts the clocks of the match with every player's full time, and the
+     * clock of the player to move. Does nothing if the server has no clocks.
+     */
+    private void startClocks() {
+        TurnClocks serverClocks = myServer == null ? null : myServer.getTurnClocks();
+        if (serverClocks == null) {
+            return;
+        }
+        clocks = serverClocks;
+        timeLeft = new long[seats.length];
+        Arrays.fill(timeLeft, clocks.getTimeMillis());
+        startClock();
+    }
+
+    /**
+     * Starts the clock of the player to move, unless the match is over
+     */
+    private void startClock() {
+        if (clocks == null || gameOver || playing < 2 || currentMarbles <= 0) {
+            return;
+        }
+        turnStartedMillis = clocks.currentTimeMillis();
+        timeout = clocks.schedule(this, ++turnNumber, timeLeft[turnSeat]);
+    }
+
+    /**
+     * Stops the clock of the player to move
+     *
+     * @param moved true if they have made a move and get the increment
+     */
+    private void stopClock(boolean moved) {
+        if (timeout == null) {
+            return;
+        }
+        timeout.stop();
+        timeout = null;
+        timeLeft[turnSeat] = Math.max(0, timeLeft[turnSeat] - (clocks.currentTimeMillis() - turnStartedMillis)) + (moved ? clocks.getIncrementMillis() : 0);
+    }
+
+    /**
+     * Called by the {@link TurnClocks} once the time of a turn is up: the
+     * player to move has lost, as if they had given up. The server is told
+     * once the lock of the match has been let go.
+     *
+     * @param turn the turn the clock was started for
+     * @return true if the player has run out of time, false if they had
+     * moved meanwhile or the match is over
+     */
+    boolean turnTimedOut(int turn) {
+        Player player;
+        synchronized (this) {
+            if (gameOver || turn != turnNumber || timeout == null) {
+                return false;
+            }
+            long left = timeLeft[turnSeat] - (clocks.currentTimeMillis() - turnStartedMillis);
+            if (left > 0) { //the wheel was early, the clock keeps running
+                timeout = clocks.schedule(this, turn, left);
+                return false;
+            }
+            player = seats[turnSeat];
+            player.addMessage(NimRules.OUT_OF_TIME);
+            timeout = null; //stopped without the increment
+            timeLeft[turnSeat] = 0;
+            forfeit(turnSeat, " has run out of time.");
+        }
+        if (myServer != null) {
+            myServer.timedOut(player, this);
+        }
+        return true;
+    }
+
+    /**
+     * @param playerID
+     * @return the time the player has left, i.e. " You have 12.3 seconds
+     * left.", or an empty text if the match has no clocks
+     */
+    synchronized String describeTimeLeft(int playerID) {
+        Integer seat = seatOf.get(playerID);
+        if (clocks == null || seat == null) {
+            return "";
+        }
+        return " You have " + TurnClocks.format(timeLeft(seat)) + " left.";
+    }
+
+    /**
+     * @return the time every player still in the match has left, starting
+     * with the player to move, or null if the match has no clocks
+     */
+    synchronized String describeClocks() {
+        if (clocks == null || playing == 0) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        int seat = turnSeat;
+        do {
+            text.append(text.length() == 0 ? "" : "\n").append(nameOf(seats[seat].getPlayerID())).append(": ").append(TurnClocks.format(timeLeft(seat)))
+                    .append(seat == turnSeat && timeout != null ? " left, to move" : " left");
+            seat = nextSeat[seat];
+        } while (seat != turnSeat);
+        return text.toString();
+    }
+
+    /**
+     * @param playerID
+     * @return where the match has got to, told to a player coming back to
+     * it, or null if the player is not in it any more
+     */
+    synchronized String describeFor(int playerID) {
+        Integer seat = seatOf.get(playerID);
+        if (seat == null || gaveUp[seat] || gameOver) {
+            return null;
+        }
+        if (!started) {
+            int missing = seats.length - seated;
+            return "You are back in the lobby of match #" + matchID + ", waiting for " + missing + (missing == 1 ? " more player." : " more players.");
+        }
+        return "You are back in match #" + matchID + ", " + currentMarbles + " of " + totalMarbles + " marbles are left and "
+                + (nextTurn == playerID ? "it is your turn." + describeTimeLeft(playerID) : "it is the turn of " + nameOf(nextTurn) + ".");
+    }
+
+    /**
+     * @return milliseconds the seat has left at this moment
+     */
+    private long timeLeft(int seat) {
+        return seat == turnSeat && timeout != null ? Math.max(0, timeLeft[seat] - (clocks.currentTimeMillis() - turnStartedMillis)) : timeLeft[seat];
+    }
+
     /**
      * Thread.start()
      */
     @Override
     public void run() {
-        if (playerOne.getChosenMode() == GameEngineRemoteInterface.HUMAN_MODE) {
-            runCoreGameLogic(true);
+        getMetrics().engineThreadStarted();
+        try {
+            while (step() && awaitChange()) {
+                //every change of the match is a step
+            }
+        } finally {
+            ended();
+        }
+    }
+
+    /**
+     * Blocks the thread running the match until there is something for
+     * {@link #step()} to do: every seat of the lobby taken, the marbles gone
+     * or the match over. Every change of the match wakes it, see
+     * {@link #publish()}.
+     *
+     * @return false if the thread has been interrupted, it keeps the
+     * interrupt and stops running the match
+     */
+    private synchronized boolean awaitChange() {
+        try {
+            while (!gameOver && (opened ? currentMarbles > 0 : seated < seats.length)) {
+                wait();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Blocks a player until it is their turn with marbles left to take, or
+     * the match is over
+     *
+     * @param playerID
+     * @return false if the thread has been interrupted, it keeps the
+     * interrupt
+     */
+    synchronized boolean awaitTurn(int playerID) {
+        try {
+            while (!gameOver && (currentMarbles <= 0 || nextTurn != playerID)) {
+                wait();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs the match as a task of a simulation rather than on a thread of
+     * its own, see {@link GameServer#GameServer(ServerConfig, AsyncServerLog, Simulation)}
+     *
+     * @param simulation
+     */
+    void simulate(Simulation simulation) {
+        getMetrics().engineThreadStarted();
+        simulation.repeat(new Simulation.Task() {
+            @Override
+            public boolean step() {
+                if (GameLogicEngine.this.step()) {
+                    return true;
+                }
+                ended();
+                return false;
+            }
+        }, Simulation.STEP_MILLIS);
+    }
+
+    /**
+     * Tells the server the match is over, once nothing runs it any more
+     */
+    private void ended() {
+        getMetrics().engineThreadStopped();
+        if (myServer != null) {
+            myServer.matchEnded(this); //won, lost or given up
+        }
+    }
+
+    /**
+     * Hands a record to the journal of the server running this match, if
+     * there is one, and to the standby following it. Both only queue it, the
+     * move does not wait for the disk or the network.
+     */
+    private void journal(int type, int playerID, long value, long marbles) {
+        MoveJournal journal = myServer == null ? null : myServer.getJournal();
+        if (journal != null) {
+            JournalRecord record = new JournalRecord(type, myServer.currentTimeMillis(), matchID, playerID, value, marbles);
+            journal.append(record);
+            Replicator replicator = myServer.getReplicator();
+            if (replicator != null) { //queued as well, the remote call waits for it if it has to
+                replicator.append(record);
+            }
+        }
+    }
+
+    /**
+     * Picks the player to start and journals the start, with the player who
+     * moves first as the first player and the one after them as the second.
+     * The rules follow, then the further players of a match for more than
+     * two. Holds the lock of the match, so no move can be journaled before
+     * the start.
+     *
+     * @return false if a player has left the lobby meanwhile
+     */
+    private synchronized boolean begin() {
+        if (seated < seats.length || gameOver) { //called off meanwhile
+            return false;
+        }
+        pickPlayerToStart(); //pick a player to start
+        nextTurn = seats[turnSeat].getPlayerID(); //update the variable that the players ID will be checked against
+        started = true;
+        int second = nextSeat[turnSeat];
+        journal(JournalRecord.MATCH_STARTED, nextTurn, seats[second].getPlayerID(), totalMarbles);
+        journal(JournalRecord.MATCH_RULES, chosenDifficulty + 1, seats.length, lastMoverWins ? 1 : 0); //the difficulty cannot be told from a chosen total
+        for (int seat = nextSeat[second], place = 2; seat != turnSeat; seat = nextSeat[seat], place++) {
+            journal(JournalRecord.PLAYER_SEATED, seats[seat].getPlayerID(), place, 0);
+        }
+        if (eventLog != null) {
+            eventLog.append("Started with " + totalMarbles + " marbles, " + nameOf(nextTurn) + " moves first against " + namesInTurnOrder(second, turnSeat) + ".");
+        }
+        startClocks();
+        publish();
+        return true;
+    }
+
+    /**
+     * @return the players still in the match in turn order, from the given
+     * seat up to the stop seat or all the way round
+     */
+    private String namesInTurnOrder(int from, int stop) {
+        List<String> names = new ArrayList<>(playing);
+        int seat = from;
+        do {
+            names.add(nameOf(seats[seat].getPlayerID()));
+            seat = nextSeat[seat];
+        } while (seat != stop);
+        StringBuilder joined = new StringBuilder(names.get(0));
+        for (int i = 1; i < names.size(); i++) {
+            joined.append(i == names.size() - 1 ? " and " : ", ").append(names.get(i));
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Records the outcome and puts it on the leaderboard of the server. Only
+     * called holding the lock of the match, so a snapshot sees the match
+     * either going or over with its result on the leaderboard.
+     *
+     * @param winnerID 0 if the player gave up before the lobby was full
+     * @param loserID the player who gave up last or the other one of the
+     * last move, every other player has lost as well
+     * @param forfeited true if the loser gave up
+     */
+    private void finished(int winnerID, int loserID, boolean forfeited) {
+        this.winnerID = winnerID;
+        this.loserID = loserID;
+        this.forfeited = forfeited;
+        GameEvents.matchFinished(matchID, winnerID, loserID, forfeited);
+        if (eventLog != null) {
+            eventLog.close(winnerID == 0 ? "Given up before an opponent joined." : nameOf(winnerID) + " has won!");
+        }
+        if (myServer != null && winnerID != 0) { //nobody won a lobby that was given up
+            int[] losers = new int[seats.length - 1];
+            boolean[] gaveUpLosers = new boolean[losers.length];
+            for (int seat = 0, i = 0; seat < seats.length; seat++) {
+                if (seats[seat].getPlayerID() != winnerID) {
+                    losers[i] = seats[seat].getPlayerID();
+                    gaveUpLosers[i++] = gaveUp[seat];
+                }
+            }
+            resultNumber = losers.length == 1 ? myServer.getLeaderboard().recordResult(winnerID, losers[0], forfeited)
+                    : myServer.getLeaderboard().recordResults(winnerID, losers, gaveUpLosers);
+        }
+        if (listener != null) {
+            listener.matchFinished(this);
+        }
+    }
+
+    /**
+     * @param listener told once the match is over, set before the match is
+     * started
+     */
+    public void setListener(MatchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Marks a match made with both its players at once, see
+     * {@link GameServer#createPairedMatch}. Giving up before its thread has
+     * started it forfeits the match rather than leaving a lobby.
+     */
+    synchronized void setPaired() {
+        paired = true;
+    }
+
+    /**
+     * @return the number the leaderboard gave the result of this match, 0 if
+     * it has none
+     */
+    synchronized long getResultNumber() {
+        return resultNumber;
+    }
+
+    /**
+     * @return the winner of the match, 0 if it is not over or was given up
+     * before it started
+     */
+    public int getWinnerID() {
+        return winnerID;
+    }
+
+    /**
+     * @return the loser of the match, the player who gave up last or the
+     * other one of the last move in a match between more than two players; 0
+     * if it is not over
+     */
+    public int getLoserID() {
+        return loserID;
+    }
+
+    /**
+     * @return true if the loser gave up
+     */
+    public boolean isForfeited() {
+        return forfeited;
+    }
+
+    /**
+     * Journals the outcome: the winner, the number of moves and the checksum
+     * of all moves
+     */
+    private void journalFinished(int winnerID) {
+        journal(JournalRecord.MATCH_FINISHED, winnerID, completedMoves.size(), moveChecksum);
+    }
+
+    /**
+     * Adds a move to a checksum over all moves of a match, the same function
+     * is used when replaying the journal
+     *
+     * @param checksum checksum of the moves so far, 0 for none
+     * @param playerID
+     * @param amount folded into 32 bits, which leaves any amount that fits
+     * into an int as it is
+     * @return the checksum including the move
+     */
+    static int nextChecksum(int checksum, int playerID, long amount) {
+        return 31 * (31 * checksum + playerID) + (int) (amount ^ (amount >>> 32));
+    }
+
+    /**
+     * @return checksum of all moves made so far, see
+     * {@link GameLogicEngine#nextChecksum(int, int, long)}
+     */
+    int getMoveChecksum() {
+        return moveChecksum;
+    }
+
+    /**
+     * @return the ID of the player whose turn it is
+     */
+    int getNextTurn() {
+        return nextTurn;
+    }
+
+    /**
+     * Gives the turn to the given player, used when replaying a match whose
+     * first move is known. The match counts as started from here on.
+     *
+     * @param playerID
+     */
+    synchronized void setNextTurn(int playerID) {
+        turnSeat = seatOf.get(playerID);
+        nextTurn = playerID;
+        started = true;
+        publish();
+    }
+
+    /**
+     * @return true once the player to move first has been picked
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Puts a match that has not been run yet into the state of a match that
+     * was already going, i.e. from a snapshot. When run, it carries on from
+     * this state instead of starting over.
+     *
+     * @param others the players after the first one in the order they sat
+     * down, ignored against the computer
+     * @param totalMarbles
+     * @param currentMarbles
+     * @param nextTurn the player to move next
+     * @param moves the moves made so far
+     * @param checksum of the moves made so far
+     * @param givenUp the players who have given up without ending the match
+     */
+    synchronized void restore(List<Player> others, long totalMarbles, long currentMarbles, int nextTurn, List<Long> moves, int checksum,
+            Collection<Integer> givenUp) {
+        if (chosenMode == GameEngineRemoteInterface.CPU_MODE) {
+            seat(new ComputerControlledPlayer(totalMarbles, this));
         } else {
-            runCoreGameLogic(false);
+            for (Player player : others) {
+                seat(player);
+            }
         }
+        for (int playerID : givenUp) {
+            Integer seat = seatOf.get(playerID);
+            if (seat != null && !gaveUp[seat]) {
+                dropOut(seat);
+            }
+        }
+        this.totalMarbles = totalMarbles;
+        this.currentMarbles = currentMarbles;
+        setNextTurn(nextTurn);
+        lastMoverSeat = previousSeat[turnSeat];
+        completedMoves.clear();
+        completedMoves.addAll(moves);
+        moveChecksum = checksum;
+        restored = true;
+        startClocks(); //the times left are not in the snapshot, every player starts over with the full time
+        publish();
+    }
+
+    /**
+     * Prints the message if the server runs with -Dnim.debug=true, also used
+     * by the {@link ComputerControlledPlayer}
+     *
+     * @param message
+     */
+    static void debug(String message) {
+        if (DEBUG) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * @return the metrics of the server running this match
+     */
+    ServerMetrics getMetrics() {
+        return myServer == null ? ServerMetrics.DETACHED : myServer.getMetrics();
     }
 
     /**
@@ -402,45 +1155,110 @@ public class GameLogicEngine implements Runnable {
      * @return
      */
     private Player getPlayerByID(int playerID) {
-        try {
-            if (playerOne.getPlayerID() == playerID) {
-                return playerOne;
-            } else if (playerTwo.getPlayerID() == playerID) {
-                return playerTwo;
-            } else {
-                return null;
+        Integer seat = seatOf.get(playerID);
+        return seat == null ? null : seats[seat];
+    }
+
+    /**
+     * @param playerID
+     * @return the player, or null if they have no seat in the match
+     */
+    synchronized Player getPlayer(int playerID) {
+        return getPlayerByID(playerID);
+    }
+
+    /**
+     * @param playerID
+     * @return the player who moves after the given one, or null if the match
+     * has not started or the player is not in it
+     */
+    synchronized Player getPlayerAfter(int playerID) {
+        Integer seat = seatOf.get(playerID);
+        return seat == null || playing == 0 ? null : seats[nextSeat[seat]];
+    }
+
+    /**
+     * @return the players seated so far in the order they sat down, including
+     * those who have given up
+     */
+    public synchronized Player[] getSeatedPlayers() {
+        return Arrays.copyOf(seats, seated);
+    }
+
+    /**
+     * @return the players who have given up without ending the match
+     */
+    synchronized List<Integer> getGivenUpIDs() {
+        List<Integer> givenUp = new ArrayList<>();
+        for (int seat = 0; seat < seated; seat++) {
+            if (gaveUp[seat]) {
+                givenUp.add(seats[seat].getPlayerID());
             }
-        } catch (NullPointerException e) {
-            return null;
         }
+        return givenUp;
+    }
+
+    /**
+     * @return the number of players the match is for
+     */
+    public int getSeatCount() {
+        return seats.length;
+    }
+
+    /**
+     * @return the number of seats taken
+     */
+    public int getSeatedCount() {
+        return seated;
+    }
+
+    /**
+     * @return true once every seat is taken
+     */
+    public boolean isFull() {
+        return seated == seats.length;
+    }
+
+    /**
+     * @return true if the player taking the last marble wins
+     */
+    public boolean isLastMoverWins() {
+        return lastMoverWins;
     }
 
     /**
-     * @return the playerOne
+     * @return the player in the first seat
      */
     public Player getPlayerOne() {
-        return playerOne;
+        return seats[0];
     }
 
     /**
      * @param playerOne the playerOne to set
      */
-    public void setPlayerOne(Player playerOne) {
-        this.playerOne = playerOne;
+    public synchronized void setPlayerOne(Player playerOne) {
+        if (seated == 0) {
+            seat(playerOne);
+            return;
+        }
+        seatOf.remove(seats[0].getPlayerID());
+        seats[0] = playerOne;
+        seatOf.put(playerOne.getPlayerID(), 0);
     }
 
     /**
-     * @return the playerTwo
+     * @return the player in the second seat, null until it is taken
      */
     public Player getPlayerTwo() {
-        return playerTwo;
+        return seated > 1 ? seats[1] : null;
     }
 
     /**
-     * @param playerTwo the playerTwo to set
+     * @param playerTwo takes the next free seat, see
+     * {@link #seat(RMIGameOfNim.Player)}
      */
     public void setPlayerTwo(Player playerTwo) {
-        this.playerTwo = playerTwo;
+        seat(playerTwo);
     }
 
     /**
@@ -448,7 +1266,7 @@ public class GameLogicEngine implements Runnable {
      * @param playerID playerTwo ID
      */
     public void setPlayerTwo(int playerID) {
-        this.playerTwo = new Player(playerID);
+        seat(new Player(playerID));
     }
 
     /**
@@ -479,6 +1297,142 @@ public class GameLogicEngine implements Runnable {
         this.chosenDifficulty = chosenDifficulty;
     }
 
+    /**
+     * @return value of {@link #nanoTime()} when the match was created
+     */
+    public long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * @return {@link GameServer#nanoTime()} of the server running this match,
+     * {@link System#nanoTime()} without one
+     */
+    long nanoTime() {
+        return myServer == null ? System.nanoTime() : myServer.nanoTime();
+    }
+
+    /**
+     * Ends the match straight away, when the server is shutting down: a match
+     * that has not started is called off without a result, otherwise the
+     * player to move loses as if their time had run out, and then the next
+     * one, until one is left.
+     *
+     * @param message told to every player still in the match
+     * @return false if the match was over already
+     */
+    synchronized boolean endNow(String message) {
+        if (gameOver) {
+            return false;
+        }
+        for (int seat = 0; seat < seated; seat++) {
+            if (!gaveUp[seat]) {
+                seats[seat].addMessage(message);
+            }
+        }
+        if (!started) {
+            gameOver = true; //the match thread sees it and stops waiting
+            if (eventLog != null) {
+                eventLog.close("Called off, the server is shutting down.");
+            }
+            publish();
+            return true;
+        }
+        if (currentMarbles <= 0) { //decided already, the match thread has not got round to it
+            return declareWinner();
+        }
+        stopClock(false);
+        while (!gameOver) {
+            seats[turnSeat].addMessage(NimRules.LOST);
+            forfeit(turnSeat, " has run out of time, the server is shutting down.");
+        }
+        return true;
+    }
+
+    /**
+     * Closes a lobby that is not full without a result, when its players are
+     * moved into another lobby
+     *
+     * @return the players to move, or null if every seat has been taken or
+     * the match is over
+     */
+    synchronized Player[] cancelLobby() {
+        if (seated == seats.length || gameOver) {
+            return null;
+        }
+        gameOver = true; //the match thread sees it and stops waiting
+        if (eventLog != null) {
+            eventLog.close("The lobby has been closed, its players have joined another match.");
+        }
+        publish();
+        return Arrays.copyOf(seats, seated);
+    }
+
+    /**
+     * Publishes the state of the match for the admin queries and wakes the
+     * threads waiting for it to change. Only called holding the lock of the
+     * match, once a change is complete.
+     */
+    private void publish() {
+        int[] playerIDs = new int[seated];
+        for (int seat = 0; seat < playerIDs.length; seat++) {
+            playerIDs[seat] = seats[seat].getPlayerID();
+        }
+        summary = new MatchSummary(matchID, chosenMode, chosenDifficulty, seats.length, playerIDs, started, gameOver, totalMarbles, currentMarbles,
+                nextTurn, completedMoves.size());
+        notifyAll(); //see awaitChange and awaitTurn
+    }
+
+    /**
+     * @return the state of the match as of its last change, without waiting
+     * for its lock
+     */
+    MatchSummary getSummary() {
+        MatchSummary published = summary;
+        if (published != null) {
+            return published;
+        }
+        synchronized (this) { //only a match made with one of the deprecated constructors has none yet
+            publish();
+            return summary;
+        }
+    }
+
+    /**
+     * Lets a spectator follow the match from this point on
+     *
+     * @return a cursor that starts with the state of the match, then every
+     * event as it happens, or null if the match is over
+     */
+    synchronized MatchEventLog.Cursor spectate() {
+        if (gameOver) {
+            return null;
+        }
+        if (eventLog == null) {
+            eventLog = new MatchEventLog(matchID);
+        }
+        String state;
+        if (!started && seats.length == MIN_SEATS) {
+            state = "Waiting for a second player to join " + nameOf(seats[0].getPlayerID()) + ".";
+        } else if (!started) {
+            state = "Waiting for " + (seats.length - seated) + " more players to join " + seated + (seated == 1 ? " player." : " players.");
+        } else if (seats.length == MIN_SEATS) {
+            state = nameOf(seats[0].getPlayerID()) + " against " + nameOf(seats[1].getPlayerID()) + ", " + currentMarbles + " of " + totalMarbles
+                    + " marbles left, " + nameOf(nextTurn) + " to move.";
+        } else {
+            state = namesInTurnOrder(turnSeat, turnSeat) + " playing, " + currentMarbles + " of " + totalMarbles + " marbles left, " + nameOf(nextTurn) + " to move.";
+        }
+        return eventLog.cursor(state);
+    }
+
+    /**
+     * @param playerID
+     * @return how spectators see the player
+     */
+    private static String nameOf(int playerID) {
+        return playerID == Integer.MIN_VALUE ? "The computer" : "Player #" + playerID; //the id of every ComputerControlledPlayer
+    }
+
     /**
      * @return the gameOver
      */
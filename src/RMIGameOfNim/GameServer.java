@@ -1,12 +1,33 @@
 package RMIGameOfNim;
 
-import java.rmi.Naming;
+import java.io.File;
+import java.io.IOException;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
 
 /**
  * GameServer which implements the remote interface GameEngineInterface It
@@ -17,27 +38,56 @@ import java.util.List;
 public class GameServer extends UnicastRemoteObject implements GameEngineRemoteInterface {
 
     private List<String> commands = new LinkedList<>(); //array of legal commands that user may use to interface with the game
-    private int playerCount = 0; //player count, used to give players their number, which is used to identify them later (ID)
-    private int matchCount = 0; //match count, used to give unique ids to matches
-    private List<Player> registeredPlayers = new LinkedList<>(); //list of all players, including their IDs, chosen modes and if they are ready to play
-    private List<GameLogicEngine> matches = new LinkedList<>(); //list of all matches registered on this server
-    private static int port = 1099; //standart port
-    private static GameServerJFrame myFrame;
+    private final AtomicInteger playerCount = new AtomicInteger(); //player count, used to give players their number, which is used to identify them later (ID)
+    private final AtomicInteger matchCount = new AtomicInteger(); //match count, used to give unique ids to matches
+    private final ConcurrentMap<Integer, Player> registeredPlayers = new ConcurrentHashMap<>(); //all players by their ID, including their chosen modes and the match they are in
+    private final ConcurrentNavigableMap<Integer, GameLogicEngine> matches = new ConcurrentSkipListMap<>(); //matches that have not ended by their ID, sorted so the admin queries can page through them
+    private final Matchmaker matchmaker; //matches waiting for more players by difficulty and rating
+    private final Object matchmaking = new Object(); //held while a player is put into a match
+    private final ServerConfig config;
+    private final AsyncServerLog log;
+    private final ServerMetrics metrics = new ServerMetrics(this);
+    private final CommandLatencies latencies = new CommandLatencies(COMMANDS);
+    private final Leaderboard leaderboard = new Leaderboard();
+    private final AdminQueries adminQueries = new AdminQueries(this);
+    private volatile MoveJournal journal; //null until started, or if journaling is off
+    private volatile Replicator replicator; //streams the changes to a standby, null if there is none
+    private ScheduledExecutorService snapshots; //takes the periodic snapshots, null if there are none
+    private ScheduledExecutorService sweeper; //pairs lobbies whose windows have grown to reach each other
+    private final TurnClocks turnClocks; //the clocks of every match, null if matches are played without
+    private final Simulation simulation; //runs the matches and the clocks under a virtual time, null if they run on threads of their own
+    private final AtomicInteger tournamentCount = new AtomicInteger();
+    private final ConcurrentMap<Integer, Tournament> tournamentsByPlayer = new ConcurrentHashMap<>(); //the tournament each player entered last
+    private volatile Tournament openTournament = null; //taking entrants, at most one at a time
+    private final Object tournaments = new Object(); //held while a tournament is opened or closed for entrants
+    private final ExecutorService tournamentEvents = Executors.newSingleThreadExecutor(new ThreadFactory() { //results of tournament matches, the next rounds are created on it
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Tournaments");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final AtomicBoolean firstConnection = new AtomicBoolean(true);
+    private final SecureRandom sessionSecrets = new SecureRandom(); //the secrets of the session tokens, which cannot be guessed from each other
+    private volatile long launchNanos = System.nanoTime(); //when the process was launched, used to report the startup time
+    private Registry registry; //created by start(), null until then
+    private volatile boolean draining = false; //no new matches are started, set once the server is shutting down
+    private volatile String drainProgress = "Not draining";
 
     /**
-     * Standart comstructor Do not use, as this does not pass a reference to the
-     * JFrame needed to update the Server GUI.
+     * Standart comstructor, creates and binds the server using the default
+     * configuration and logging to the standard output.
      *
      * @throws RemoteException
-     * @deprecated
+     * @deprecated use {@link GameServer#GameServer(ServerConfig, AsyncServerLog)}
+     * followed by {@link GameServer#start()}
      */
     @Deprecated
     public GameServer() throws RemoteException {
+        this(new ServerConfig(), new AsyncServerLog());
         try {
-            initCommandsList(); //initialise the list of legal commands
-            LocateRegistry.createRegistry(port); //locate and create the registry
-            Naming.bind(FIXEDURL, this); //bind the server, using the fixed url provided from the interface
-            System.out.println("RMI registry on port " + port + "\n");
+            start();
         } catch (Exception e) {
             System.out.println("Error when starting the RMI registry");
             e.printStackTrace();
@@ -45,23 +95,619 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
     }
 
     /**
-     * Use this constructor as it passes a reference to the JFrame, which is
-     * needed to update the server's GUI.
+     * Creates the server without binding it, call
+     * {@link GameServer#start()} once it should accept players.
+     *
+     * @param config settings, i.e. the registry port
+     * @param log log every server event is written to
+     * @throws RemoteException
+     */
+    public GameServer(ServerConfig config, AsyncServerLog log) throws RemoteException {
+        this(config, log, null);
+    }
+
+    /**
+     * Creates a server run by a simulation: {@link GameServer#start()} neither
+     * creates a registry nor binds the server, every match, computer player,
+     * clock and sweep of the lobbies is a task of the simulation and every
+     * match draws its random numbers from the seed of the simulation. The
+     * clients call the server directly from tasks of the simulation as well.
      *
-     * @param myFrame
+     * @param config settings, the port is not used
+     * @param log
+     * @param simulation null to run the server on threads of its own
      * @throws RemoteException
      */
-    public GameServer(GameServerJFrame myFrame) throws RemoteException {
+    GameServer(ServerConfig config, AsyncServerLog log, Simulation simulation) throws RemoteException {
+        this.config = config;
+        this.log = log;
+        this.simulation = simulation;
+        initCommandsList(); //initialise the list of legal commands
+        matchmaker = new Matchmaker(config.getMatchmakingWindow(), config.getMatchmakingWiden(), 2); //easy and hard
+        if (config.getClockTime() <= 0) {
+            turnClocks = null;
+        } else if (simulation != null) {
+            turnClocks = simulation.newTurnClocks(TimeUnit.SECONDS.toMillis(config.getClockTime()), TimeUnit.SECONDS.toMillis(config.getClockIncrement()));
+        } else {
+            turnClocks = new TurnClocks(TimeUnit.SECONDS.toMillis(config.getClockTime()), TimeUnit.SECONDS.toMillis(config.getClockIncrement()), config.getClockTick());
+        }
+    }
+
+    /**
+     * Creates the RMI registry on the configured port and binds this server
+     * to it, once the state has been restored
+     *
+     * @throws RemoteException if the registry cannot be created
+     * @throws AlreadyBoundException if another server is already bound
+     */
+    public void start() throws RemoteException, AlreadyBoundException {
+        if (simulation == null) {
+            registry = LocateRegistry.createRegistry(config.getPort()); //create the registry, before anything else so a port in use stops the start
+            try {
+                metrics.register(config.getServiceName());
+            } catch (JMException e) {
+                log.append("Could not publish the JMX metrics: " + e.getMessage());
+            }
+        }
+        if (turnClocks != null) { //before restoring, the restored matches start their clocks
+            turnClocks.start();
+            log.append("Every player has " + config.getClockTime() + " seconds per match and " + config.getClockIncrement() + " more per move");
+        }
+        if (config.getJournalDir() != null) {
+            long loadStart = System.nanoTime();
+            ServerSnapshot snapshot = config.isRestore() ? loadSnapshot(new File(config.getJournalDir())) : null; //read before the journal adds a segment of its own
+            try {
+                journal = new MoveJournal(new File(config.getJournalDir()), config.getJournalSegmentSize(), MoveJournal.DEFAULT_BUFFER_SIZE, log);
+                log.append("Journaling moves to " + journal.getDirectory().getAbsolutePath());
+            } catch (IOException | IllegalArgumentException e) {
+                log.append("Could not open the move journal, moves will not be recorded: " + e.getMessage());
+            }
+            if (snapshot != null) { //once the journal is open, the restored matches journal their first moves
+                restore(snapshot, loadStart);
+            }
+            if (journal != null && config.getSnapshotInterval() > 0) { //a snapshot is only of use with the journal after it
+                scheduleSnapshots(config.getSnapshotInterval());
+            }
+        }
+        if (config.getReplicationPort() > 0) {
+            if (journal == null) {
+                log.append("Replication needs the move journal, no standby can follow this server");
+            } else {
+                try {
+                    Replicator started = new Replicator(this, config.getReplicationPort(), config.getReplicationAck(), config.getReplicationAckTimeout(),
+                            config.getReplicationHeartbeat(), log);
+                    started.start();
+                    replicator = started;
+                    log.append("Waiting for a standby on port " + config.getReplicationPort() + ", ack=" + started.getAckMode());
+                } catch (IOException e) {
+                    log.append("Could not open the replication port, no standby can follow this server: " + e.getMessage());
+                }
+            }
+        }
+        scheduleSweeps();
+        if (simulation != null) {
+            log.append("Simulated with " + simulation);
+            return;
+        }
+        registry.bind(config.getServiceName(), this); //bind the server, using the service name from the configuration, once no client can see it half restored
+        log.append("RMI registry on port " + config.getPort());
+    }
+
+    /**
+     * Shuts the server down gracefully. From here on no new match is started
+     * and the lobbies still waiting for players are closed; the matches going
+     * on may finish until the timeout, after which the player to move in each
+     * of them loses as if their time had run out. The players then get a few
+     * seconds to collect their last messages before a snapshot is taken, the
+     * journal is closed and the server is unbound from the registry, so every
+     * match has a result and nothing that was played is lost.
+     *
+     * @param timeoutSeconds how long the matches going on may take to finish
+     * @return false if the server is being drained already
+     */
+    public boolean drain(int timeoutSeconds) {
+        long start = System.nanoTime();
+        synchronized (matchmaking) { //no player is put into a match from here on
+            if (draining) {
+                return false;
+            }
+            draining = true;
+            closeLobbies();
+        }
+        log.append("Draining, " + matches.size() + " matches have " + timeoutSeconds + " seconds to finish");
+        for (Player player : registeredPlayers.values()) {
+            if (isBusy(player)) {
+                player.addMessage("The server is shutting down, your match has " + timeoutSeconds + " seconds left to finish.");
+            }
+        }
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        if (!awaitMatches(deadline)) {
+            int ended = 0;
+            for (GameLogicEngine match : matches.values()) {
+                if (match.endNow("The server is shutting down, your match has been ended.")) {
+                    ended++;
+                }
+            }
+            log.append("Ended " + ended + " matches that had not finished in " + timeoutSeconds + " seconds");
+            awaitMatches(System.nanoTime() + TimeUnit.SECONDS.toNanos(1)); //their threads only have to notice
+        }
+        long flushDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDrainFlushTimeout());
+        while (metrics.getPendingMessagesTotal() > 0 && System.nanoTime() - flushDeadline < 0) {
+            drainProgress = "Waiting for the players to collect " + metrics.getPendingMessagesTotal() + " messages";
+            pause(100);
+        }
+        MoveJournal current = journal;
+        if (current != null) {
+            try {
+                takeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                log.append("Could not take the last snapshot of the server state: " + e);
+            }
+            current.close(); //write the moves still queued
+        }
+        unbind();
+        Replicator standby = replicator;
+        if (standby != null) { //the standby finds the server gone and takes over
+            standby.stop();
+        }
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+        }
+        tournamentEvents.shutdown();
+        if (turnClocks != null) {
+            turnClocks.stop();
+        }
+        drainProgress = "Drained in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " seconds, "
+                + matches.size() + " matches left, " + metrics.getPendingMessagesTotal() + " messages not collected";
+        log.append(drainProgress);
+        metrics.unregister();
+        return true;
+    }
+
+    /**
+     * Closes the lobbies still waiting for players without a result. Only
+     * called holding the matchmaking lock, so no player can take the last
+     * seat of one meanwhile.
+     */
+    private void closeLobbies() {
+        for (GameLogicEngine match : matches.values()) {
+            if (match.getChosenMode() == HUMAN_MODE && !match.isStarted() && !match.isFull()
+                    && match.endNow("The server is shutting down, your match lobby has been closed.") && matchmaker.remove(match)) {
+                metrics.lobbyClosed(match.getChosenDifficulty());
+            }
+        }
+    }
+
+    /**
+     * Waits for the matches going on to finish, reporting how far the drain
+     * has got once a second
+     *
+     * @param deadline System.nanoTime() to stop waiting at
+     * @return true if every match has finished
+     */
+    private boolean awaitMatches(long deadline) {
+        long nextReport = System.nanoTime();
+        while (!matches.isEmpty()) {
+            long now = System.nanoTime();
+            if (now - deadline >= 0) {
+                return false;
+            }
+            if (now - nextReport >= 0) {
+                drainProgress = matches.size() + " matches left, " + metrics.getPendingMessagesTotal() + " messages waiting, "
+                        + TimeUnit.NANOSECONDS.toSeconds(deadline - now + TimeUnit.SECONDS.toNanos(1) - 1) + " seconds to go";
+                log.append("Draining: " + drainProgress);
+                nextReport = now + TimeUnit.SECONDS.toNanos(1);
+            }
+            pause(100);
+        }
+        return true;
+    }
+
+    private static void pause(long millis) {
         try {
-            initCommandsList(); //initialise the list of legal commands
-            LocateRegistry.createRegistry(port); //locate and create the registry
-            Naming.bind(FIXEDURL, this); //bind the server, using the fixed url provided from the interface
-            System.out.println("RMI registry on port " + port + "\n");
-            this.myFrame = myFrame;
-        } catch (Exception e) {
-            System.out.println("Error when starting the RMI registry");
-            e.printStackTrace();
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Unbinds the server and closes the registry, clients calling it from
+     * here on get a RemoteException
+     */
+    private void unbind() {
+        try {
+            if (registry != null) {
+                registry.unbind(config.getServiceName());
+            }
+        } catch (RemoteException | NotBoundException e) {
+            log.append("Could not unbind the server: " + e.getMessage());
+        }
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+            if (registry != null) {
+                UnicastRemoteObject.unexportObject(registry, true);
+            }
+        } catch (RemoteException e) {
+            log.append("Could not close the registry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true once the server is shutting down and no longer starts new
+     * matches
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * @return how far the drain has got, i.e. "3 matches left, 12 messages
+     * waiting, 41 seconds to go"
+     */
+    public String getDrainProgress() {
+        return drainProgress;
+    }
+
+    /**
+     * Reads the newest snapshot in the directory and the journal written after
+     * it
+     *
+     * @param directory the journal directory
+     * @return the state to restore, null if there is none
+     */
+    private ServerSnapshot loadSnapshot(File directory) {
+        try {
+            return ServerSnapshot.load(directory);
+        } catch (IOException e) {
+            log.append("Could not restore the server state, starting empty: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Restores the players and matches of a snapshot and starts the matches.
+     * Called with the journal open and before the server is bound, so nothing
+     * the restored matches do goes unjournaled and no new player can take the
+     * number of a restored one.
+     *
+     * @param snapshot
+     * @param start when loading the snapshot started, for the log
+     */
+    private void restore(ServerSnapshot snapshot, long start) {
+        List<GameLogicEngine> restored = rebuild(snapshot);
+        for (GameLogicEngine match : restored) {
+            startThread(match);
+        }
+        log.append("Restored " + snapshot + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Registers the players and matches of a snapshot without starting the
+     * matches. Only to be called before the server accepts players.
+     *
+     * @param snapshot
+     * @return the matches, to be started
+     */
+    List<GameLogicEngine> rebuild(ServerSnapshot snapshot) {
+        playerCount.set(Math.max(playerCount.get(), snapshot.getPlayerCount()));
+        matchCount.set(Math.max(matchCount.get(), snapshot.getMatchCount())); //adopt raises it further for matches only the journal knows
+        for (ServerSnapshot.PlayerState state : snapshot.getPlayers()) {
+            Player player = new Player(state.playerID);
+            player.setChosenMode(state.chosenMode);
+            player.setChosenDifficulty(state.chosenDifficulty);
+            player.setChosenMarbles(state.chosenMarbles);
+            Player adopted = registeredPlayers.get(state.playerID); //replicated from a primary, see adoptSession
+            player.setSessionSecret(state.sessionSecret != null || adopted == null ? state.sessionSecret : adopted.getSessionSecret());
+            player.getMessages().addAll(state.messages);
+            if (registeredPlayers.put(state.playerID, player) == null) {
+                metrics.playerRegistered();
+            }
+        }
+        List<Leaderboard.Standing> standings = new ArrayList<>();
+        snapshot.getLeaderboard().copyStandings(standings);
+        for (Leaderboard.Standing standing : standings) {
+            leaderboard.restore(standing.getPlayerID(), standing.getWins(), standing.getLosses(), standing.getForfeits(), standing.getRating());
+        }
+        List<GameLogicEngine> restored = new ArrayList<>(snapshot.getMatches().size());
+        for (ServerSnapshot.MatchState state : snapshot.getMatches()) {
+            boolean cpu = state.chosenMode == CPU_MODE;
+            List<Player> seated = new ArrayList<>(state.seatIDs.size());
+            for (int playerID : cpu ? state.seatIDs.subList(0, 1) : state.seatIDs) {
+                Player player = findPlayerById(playerID);
+                if (player == null) {
+                    break;
+                }
+                seated.add(player);
+            }
+            if (seated.isEmpty() || (!cpu && seated.size() < state.seatIDs.size())) {
+                log.append("Match #" + state.matchID + " refers to a player that is not in the snapshot and has not been restored");
+                continue;
+            }
+            GameLogicEngine match = new GameLogicEngine(state.matchID, this, seated.get(0), state.chosenDifficulty == HARD_DIFFICULTY, cpu);
+            match.setRules(cpu ? GameLogicEngine.MIN_SEATS : state.seatCount, state.lastMoverWins);
+            List<Player> others = seated.subList(1, seated.size());
+            if (state.started) {
+                match.restore(others, state.totalMarbles, state.currentMarbles, state.nextTurn, state.moves, state.checksum, state.givenUp);
+            } else { //the marbles are only announced once it starts, so a new count is as good as the old one unless it was chosen
+                if (state.customMarbles) {
+                    match.setTotalMarbles(state.totalMarbles);
+                }
+                for (Player player : others) {
+                    match.seat(player); //started as soon as it runs once every seat is taken
+                }
+            }
+            adopt(match);
+            restored.add(match);
+        }
+        return restored;
+    }
+
+    /**
+     * Registers a match that has not been created by matchmaking, without
+     * starting it
+     *
+     * @param match
+     */
+    void adopt(GameLogicEngine match) {
+        matches.put(match.getMatchID(), match);
+        int count;
+        while ((count = matchCount.get()) < match.getMatchID() && !matchCount.compareAndSet(count, match.getMatchID())) {
+            //retry, the number is only ever raised
+        }
+        if (match.getChosenMode() == CPU_MODE) {
+            match.getPlayerOne().setCurrentMatch(match);
+            metrics.cpuMatchCreated();
+            return;
+        }
+        List<Integer> givenUp = match.getGivenUpIDs();
+        for (Player player : match.getSeatedPlayers()) {
+            if (!givenUp.contains(player.getPlayerID())) {
+                player.setCurrentMatch(match);
+            }
+        }
+        metrics.lobbyOpened(match.getChosenDifficulty());
+        if (!match.isFull()) {
+            matchmaker.add(match, lobbyRating(match), match.getCreatedNanos());
+        } else {
+            metrics.lobbyClosed(match.getChosenDifficulty());
+        }
+    }
+
+    /**
+     * @param lobby
+     * @return the average rating of the players waiting in the lobby
+     */
+    private int lobbyRating(GameLogicEngine lobby) {
+        Player[] seated = lobby.getSeatedPlayers();
+        long total = 0;
+        for (Player player : seated) {
+            total += leaderboard.getRating(player.getPlayerID());
         }
+        return seated.length == 0 ? Leaderboard.INITIAL_RATING : (int) (total / seated.length);
+    }
+
+    /**
+     * Puts a lobby a player has left back in the index of the matchmaker, at
+     * the rating of the players still waiting
+     *
+     * @param lobby
+     */
+    private void reopenLobby(GameLogicEngine lobby) {
+        synchronized (matchmaking) {
+            if (lobby.isGameOver() || lobby.isStarted() || lobby.isFull()) {
+                return;
+            }
+            if (!matchmaker.contains(lobby)) { //it had been full
+                metrics.lobbyOpened(lobby.getChosenDifficulty());
+            }
+            matchmaker.add(lobby, lobbyRating(lobby), lobby.getCreatedNanos());
+        }
+    }
+
+    /**
+     * Takes a snapshot of the server state every given number of seconds on
+     * a background thread
+     *
+     * @param intervalSeconds
+     */
+    private void scheduleSnapshots(int intervalSeconds) {
+        snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ServerSnapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        snapshots.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    takeSnapshot();
+                } catch (IOException | RuntimeException e) {
+                    log.append("Could not take a snapshot of the server state: " + e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void scheduleSweeps() {
+        if (simulation != null) {
+            simulation.repeat(new Simulation.Task() {
+                @Override
+                public boolean step() {
+                    sweepLobbies();
+                    return true;
+                }
+            }, TimeUnit.SECONDS.toMillis(1));
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Matchmaker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweepLobbies();
+                } catch (RuntimeException e) {
+                    log.append("Could not pair the waiting lobbies: " + e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Pairs lobbies that have waited long enough to accept each other: the
+     * players of the younger lobby join the older one and the younger lobby
+     * is closed without a result
+     */
+    void sweepLobbies() {
+        synchronized (matchmaking) {
+            for (GameLogicEngine[] pair : matchmaker.sweep(nanoTime())) {
+                GameLogicEngine lobby = pair[0];
+                GameLogicEngine left = pair[1];
+                Player[] moving = lobby.isGameOver() || lobby.getSeatCount() - lobby.getSeatedCount() < left.getSeatedCount() ? null : left.cancelLobby();
+                if (moving == null) { //left or given up in the meantime, whichever one is still open keeps waiting
+                    if (!lobby.isGameOver()) {
+                        matchmaker.add(lobby, lobbyRating(lobby), lobby.getCreatedNanos());
+                    }
+                    if (!left.isGameOver()) {
+                        matchmaker.add(left, lobbyRating(left), left.getCreatedNanos());
+                    }
+                    continue;
+                }
+                metrics.lobbyClosed(left.getChosenDifficulty());
+                for (Player player : moving) {
+                    if (!lobby.seat(player)) { //its last player has just given up
+                        player.addMessage(NimRules.LOBBY_CLOSED);
+                        continue;
+                    }
+                    player.setCurrentMatch(lobby);
+                    GameEvents.opponentPaired(lobby, player.getPlayerID());
+                    player.addMessage("You have been moved into the match lobby of another player!");
+                }
+                if (lobby.isFull()) { //starts it
+                    metrics.lobbyClosed(lobby.getChosenDifficulty());
+                } else if (!lobby.isGameOver()) {
+                    matchmaker.add(lobby, lobbyRating(lobby), lobby.getCreatedNanos());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the players and the matches that are going into
+     * the journal directory, without stopping them
+     *
+     * @return the snapshot file
+     * @throws IOException if it cannot be written
+     * @throws IllegalStateException if there is no journal to restore the
+     * moves made after the snapshot from
+     */
+    public File takeSnapshot() throws IOException {
+        MoveJournal current = journal;
+        if (current == null) {
+            throw new IllegalStateException("Snapshots need the move journal");
+        }
+        long start = System.nanoTime();
+        File snapshot = ServerSnapshot.take(this, current.getDirectory());
+        log.append("Snapshot " + snapshot.getName() + " taken in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return snapshot;
+    }
+
+    /**
+     * @return the journal every move is recorded in, null if journaling is off
+     * or the server has not been started
+     */
+    public MoveJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return what streams the changes to a standby, null if there is none
+     */
+    public Replicator getReplicator() {
+        return replicator;
+    }
+
+    /**
+     * Waits for the standby to acknowledge the changes made so far, if the
+     * ack mode asks for that, so a remote call only returns what survives a
+     * failover
+     */
+    private void awaitReplication() {
+        Replicator standby = replicator;
+        if (standby != null) {
+            standby.awaitAcknowledged();
+        }
+    }
+
+    /**
+     * Registers a player replicated from a primary this server takes over
+     * from, with their session. Only to be called before the server is
+     * started; the restore keeps the session of a player it knows only from
+     * the journal.
+     *
+     * @param playerID
+     * @param sessionSecret null for none
+     */
+    void adoptSession(int playerID, String sessionSecret) {
+        Player player = new Player(playerID);
+        player.setSessionSecret(sessionSecret);
+        if (registeredPlayers.put(playerID, player) == null) {
+            metrics.playerRegistered();
+        }
+        playerCount.set(Math.max(playerCount.get(), playerID));
+    }
+
+    /**
+     * @return live counters of this server, also published over JMX once
+     * started
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return wins and losses of every player who has finished a match
+     */
+    public Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * @return the lobbies waiting for more players
+     */
+    public Matchmaker getMatchmaker() {
+        return matchmaker;
+    }
+
+    /**
+     * @return latency histograms of every command, see
+     * {@link CommandLatencies#snapshotWindow()} for interval snapshots
+     */
+    public CommandLatencies getCommandLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Sets the time the process was launched at, so the delay until the first
+     * player connects can be reported
+     *
+     * @param launchNanos value of {@link System#nanoTime()} at launch
+     */
+    public void setLaunchNanos(long launchNanos) {
+        this.launchNanos = launchNanos;
     }
 
     /**
@@ -74,38 +720,86 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * @return Message to both players once the move has been successfully made,
      * otherwise tells the user that their move was invalid
      */
+    @Deprecated
     @Override
-    public String makeMove(int playerNumber, int move) {
+    public String makeMove(int playerNumber, long move) {
+        metrics.remoteCall(ServerMetrics.MAKE_MOVE);
+        String reply = move(playerNumber, move);
+        awaitReplication();
+        return reply;
+    }
+
+    /**
+     * Makes the move in the match the player is currently assigned to
+     *
+     * @param playerNumber
+     * @param move
+     * @return see {@link GameServer#makeMove(int, long)}
+     */
+    private String move(int playerNumber, long move) {
+        Player player = findPlayerById(playerNumber);
+        GameLogicEngine match = player == null ? null : player.getCurrentMatch();
+        if (match == null || match.isGameOver()) {
+            return "You are not currently in a match.";
+        }
         try {
-            for (GameLogicEngine match : matches) {
-                if (match.getPlayerOne().getPlayerID() == playerNumber) { //found the match we have to make the move in
-                    if (match.pickMarbles(playerNumber, move)) {
-                        match.getPlayerOne().addMessage(move + " marbles picked.\nIt is now the other players turn.");
-                        match.getPlayerTwo().addMessage("The other player has taken " + move + " marbles.\nThere are now " + match.getCurrentMarbles() + " marbles left.\nMake your move!");
-                        return "";
-                    } else {
-                        return "Illegal move, try again";
-                    }
-                } else if (match.getPlayerTwo().getPlayerID() == playerNumber) {
-                    if (match.pickMarbles(playerNumber, move)) {
-                        match.getPlayerTwo().addMessage(move + " marbles picked.\nIt is now the other players turn.");
-                        match.getPlayerOne().addMessage("The other player has taken " + move + " marbles.\nThere are now " + match.getCurrentMarbles() + " marbles left.\nMake your move!");
-                        return "";
-                    } else {
-                        return "Illegal move, try again.";
-                    }
+            if (move == GIVE_UP) {
+                if (!match.pickMarbles(playerNumber, move)) {
+                    return NimRules.ILLEGAL_MOVE;
                 }
+                gaveUp(player, match);
+                return "";
+            }
+            synchronized (match) { //the computer waits on the match, so it cannot answer before the players are told of the move
+                Player next = match.getPlayerAfter(playerNumber); //null while the lobby is not full
+                if (!match.pickMarbles(playerNumber, move)) {
+                    return NimRules.ILLEGAL_MOVE;
+                }
+                player.addMessage(NimRules.marblesPicked(move));
+                if (next != null) {
+                    next.addMessage(NimRules.otherPlayerTook(move, match.getCurrentMarbles()) + match.describeTimeLeft(next.getPlayerID()));
+                }
+                return "";
             }
-            return "You are not currently in a match.";
         } catch (NullPointerException e) {
             return "Error trying to make a move. You might not be assigned to a match";
         }
     }
 
+    /**
+     * Lets a player who has given up start another match while the others
+     * play on or keep waiting in the lobby
+     *
+     * @param player
+     * @param match
+     */
+    private void gaveUp(Player player, GameLogicEngine match) {
+        if (match.isGameOver()) { //ended by giving up, the match cleans up after itself
+            return;
+        }
+        if (player.getCurrentMatch() == match) {
+            player.setCurrentMatch(null);
+        }
+        reopenLobby(match);
+    }
+
+    /**
+     * Called by a match once a player has run out of time, lets them start
+     * another match like a player who has given up
+     *
+     * @param player
+     * @param match
+     */
+    void timedOut(Player player, GameLogicEngine match) {
+        log.append("Player #" + player.getPlayerID() + " has run out of time in match #" + match.getMatchID());
+        gaveUp(player, match);
+    }
+
+    @Deprecated
     @Override
     public void test() throws RemoteException {
-        System.out.println("Test successful");
-        myFrame.appendServerLog("Test successful");
+        metrics.remoteCall(ServerMetrics.TEST);
+        log.append("Test successful");
     }
 
     /**
@@ -116,10 +810,83 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      */
     @Override
     public int registerPlayer() throws RemoteException {
-        playerCount++;
-        registeredPlayers.add(new Player(playerCount)); //add the given ID to the list of players
-        myFrame.appendServerLog("A new player has registered.\nGiven the player number " + playerCount);
-        return playerCount;
+        metrics.remoteCall(ServerMetrics.REGISTER_PLAYER);
+        int playerNumber = registerNewPlayer(null).getPlayerID();
+        awaitReplication();
+        return playerNumber;
+    }
+
+    /**
+     * Registers the player with a new player number and a session that can be
+     * resumed
+     *
+     * @return the session token
+     * @throws RemoteException
+     */
+    @Override
+    public String registerSession() throws RemoteException {
+        metrics.remoteCall(ServerMetrics.REGISTER_SESSION);
+        byte[] bytes = new byte[16];
+        sessionSecrets.nextBytes(bytes);
+        StringBuilder secret = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            secret.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        Player player = registerNewPlayer(secret.toString());
+        awaitReplication(); //a session the client holds a token for can be resumed on the standby
+        return player.getPlayerID() + "" + ResumedSession.TOKEN_SEPARATOR + secret;
+    }
+
+    /**
+     * @param sessionSecret the secret of the player's session, null for none
+     * @return the new player
+     */
+    private Player registerNewPlayer(String sessionSecret) {
+        int playerNumber = playerCount.incrementAndGet();
+        Player player = new Player(playerNumber);
+        player.setSessionSecret(sessionSecret); //before it is published, so it can be resumed straight away
+        registeredPlayers.put(playerNumber, player); //add the given ID to the list of players
+        Replicator standby = replicator;
+        if (standby != null) {
+            standby.registered(playerNumber, sessionSecret);
+        }
+        metrics.playerRegistered();
+        GameEvents.playerRegistered(playerNumber);
+        log.append("A new player has registered.\nGiven the player number " + playerNumber);
+        if (firstConnection.compareAndSet(true, false)) {
+            log.append("First player connected " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchNanos) + " ms after launch");
+        }
+        return player;
+    }
+
+    /**
+     * Hands the client back its player, the match the player is in and every
+     * message that has not been collected, including the events of the
+     * matches they watch, followed by where their match has got to
+     *
+     * @param token
+     * @return
+     * @throws RemoteException
+     */
+    @Override
+    public ResumedSession resume(String token) throws RemoteException {
+        metrics.remoteCall(ServerMetrics.RESUME);
+        Player player = findPlayerById(ResumedSession.playerNumberOf(token));
+        if (player == null || !player.isSessionSecret(ResumedSession.secretOf(token))) {
+            log.append("Refused to resume an unknown session");
+            return null;
+        }
+        List<String> messages = player.drainMessages();
+        for (String event; (event = player.pollSpectatorEvent()) != null;) {
+            messages.add(event);
+        }
+        GameLogicEngine match = player.getCurrentMatch();
+        String state = match == null || match.isGameOver() ? null : match.describeFor(player.getPlayerID());
+        if (state != null) {
+            messages.add(state);
+        }
+        log.append("Player #" + player.getPlayerID() + " has resumed their session, " + messages.size() + " messages handed over");
+        return new ResumedSession(player.getPlayerID(), state == null ? 0 : match.getMatchID(), messages);
     }
 
     /**
@@ -132,12 +899,33 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      */
     @Override
     public String executeCommand(int playerNumber, String command) throws RemoteException {
-        if (commands.contains(command)) {
-            myFrame.appendServerLog(command + " received from Player #" + playerNumber);
-            switch (command) {
+        metrics.remoteCall(ServerMetrics.EXECUTE_COMMAND);
+        long start = System.nanoTime();
+        try {
+            String reply = dispatchCommand(playerNumber, command);
+            awaitReplication();
+            return reply;
+        } finally {
+            latencies.record(commandName(command), start); //anything that is not a command counts as a move
+        }
+    }
+
+    /**
+     * Runs the command, see
+     * {@link GameServer#executeCommand(int, String)}
+     */
+    private String dispatchCommand(int playerNumber, String command) {
+        String name = commandName(command);
+        String argument = name.length() < command.length() ? command.substring(name.length()).trim() : null; //i.e. the match to spectate
+        if (commands.contains(name)) {
+            log.append(command + " received from Player #" + playerNumber);
+            switch (name) {
                 case "help":
                     return getFormattedCommands();
                 case "start":
+                    if (draining) {
+                        return "The server is shutting down, no new matches are started.";
+                    }
                     //Give the ready to start command from the player, should wait for both players to be ready
                     if (assignPlayerToMatch(playerNumber)) {
                         return "You will be matched.";
@@ -171,7 +959,7 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
                      * The player has chosen to exit the game, immediatly
                      * forfeiting and disconnecting from the server
                      */
-                    makeMove(playerNumber, Integer.MAX_VALUE); //call the make move method with the code to forfeit
+                    move(playerNumber, GIVE_UP); //call the make move method with the code to forfeit
                     return "Exited from game.";
 
                 case "hard":
@@ -192,24 +980,277 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
                     }
                     return "Error choosing easy mode.";
 
+                case "stats":
+                    /**
+                     * Admin command: latency percentiles of every command
+                     * since the start and in the current window
+                     */
+                    return getFormattedStats();
+
+                case "leaderboard":
+                    return leaderboard.formatTop(Leaderboard.DEFAULT_TOP);
+
+                case "rank":
+                    return getFormattedRank(playerNumber);
+
+                case "spectate":
+                    return spectate(playerNumber, argument);
+
+                case "unspectate":
+                    return unspectate(playerNumber, argument);
+
+                case "tournament":
+                    return tournament(playerNumber, argument);
+
+                case "clock":
+                    return getFormattedClocks(playerNumber);
+
+                case "matches":
+                    return adminQueries.matches(argument);
+
+                case "players":
+                    return adminQueries.players(argument);
+
+                case "marbles":
+                    return chooseMarbles(playerNumber, argument);
+
                 default:
-                    myFrame.appendServerLog("Unsupported command: " + command + " received from Player #" + playerNumber + "\n Please implement this command is it is on the supported commands list!");
+                    log.append("Unsupported command: " + command + " received from Player #" + playerNumber + "\n Please implement this command is it is on the supported commands list!");
                     return command + " should be implemented, but is not. Please contact the support about this.";
             }
         }
         //Presume that the command is the chosen number for the next move.
-        myFrame.appendServerLog("Player #" + playerNumber + " made move: " + command);
+        log.append("Player #" + playerNumber + " made move: " + command);
         try {
-            return makeMove(playerNumber, Integer.parseInt(command));
+            long move = Long.parseLong(command);
+            return move == GIVE_UP ? NimRules.ILLEGAL_MOVE : move(playerNumber, move); //typing a number never gives up
         } catch (NumberFormatException e) {
             findPlayerById(playerNumber).addMessage("Not a valid command.");
             return "Try typing \"help\"";
         }
         //something must have gone wrong.
-        //myFrame.appendServerLog("Illegal command \"" + command + "\" received from Player #" + playerNumber);
+        //log.append("Illegal command \"" + command + "\" received from Player #" + playerNumber);
         //return "\"" + command + "\"" + " is is not a legal command. Try \"help\" for a list of commands.";
     }
 
+    /**
+     * @param command
+     * @return the command without its argument, i.e. "spectate" for
+     * "spectate 12"
+     */
+    private static String commandName(String command) {
+        int space = command.indexOf(' ');
+        return space < 0 ? command : command.substring(0, space);
+    }
+
+    /**
+     * Lets the player watch a match: the events of the match are read from
+     * its {@link MatchEventLog} whenever the player asks for messages
+     *
+     * @param playerID
+     * @param argument the number of the match
+     * @return
+     */
+    private String spectate(int playerID, String argument) {
+        Player player = findPlayerById(playerID);
+        int matchID;
+        try {
+            matchID = Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            return "Tell me which match to watch, i.e. \"spectate 12\".";
+        }
+        GameLogicEngine match = matches.get(matchID);
+        MatchEventLog.Cursor cursor = match == null ? null : match.spectate();
+        if (player == null || cursor == null) {
+            return "There is no match #" + matchID + " going on.";
+        }
+        player.spectate(cursor);
+        return "You are watching match #" + matchID + ".";
+    }
+
+    /**
+     * @param playerID
+     * @param argument the number of the match, or null to stop watching all
+     * of them
+     * @return
+     */
+    private String unspectate(int playerID, String argument) {
+        Player player = findPlayerById(playerID);
+        if (player == null) {
+            return "You are not watching any match.";
+        }
+        if (argument == null) {
+            int count = player.unspectateAll();
+            return count == 0 ? "You are not watching any match." : "You have stopped watching " + count + (count == 1 ? " match." : " matches.");
+        }
+        try {
+            int matchID = Integer.parseInt(argument);
+            return player.unspectate(matchID) ? "You have stopped watching match #" + matchID + "." : "You are not watching match #" + matchID + ".";
+        } catch (NumberFormatException e) {
+            return "Tell me which match to stop watching, i.e. \"unspectate 12\".";
+        }
+    }
+
+    /**
+     * Opens, enters, starts, leaves or shows a tournament
+     *
+     * @param playerID
+     * @param argument "knockout", "swiss [rounds]", "join", "start", "leave"
+     * or null to show the tournament the player has entered
+     * @return
+     */
+    private String tournament(int playerID, String argument) {
+        Player player = findPlayerById(playerID);
+        if (player == null) {
+            return "Register before entering a tournament.";
+        }
+        String[] words = argument == null ? new String[]{""} : argument.split("\\s+");
+        Tournament tournament = tournamentsByPlayer.get(playerID);
+        switch (words[0]) {
+            case "":
+                if (tournament == null) {
+                    tournament = openTournament;
+                }
+                return tournament == null ? "There is no tournament, open one with \"tournament knockout\" or \"tournament swiss\"." : tournament.describe(playerID);
+            case "knockout":
+            case "swiss":
+                int rounds = 0;
+                try {
+                    rounds = words.length > 1 ? Integer.parseInt(words[1]) : 0;
+                } catch (NumberFormatException e) {
+                    return "The number of rounds has to be a number.";
+                }
+                synchronized (tournaments) {
+                    if (openTournament != null) {
+                        return "Tournament #" + openTournament.getTournamentID() + " is open, join it with \"tournament join\".";
+                    }
+                    tournament = new Tournament(tournamentCount.incrementAndGet(), words[0].equals("knockout") ? Tournament.KNOCKOUT : Tournament.SWISS,
+                            player.getChosenDifficulty(), rounds, player, this, simulation == null ? tournamentEvents : simulation);
+                    openTournament = tournament;
+                }
+                tournamentsByPlayer.put(playerID, tournament);
+                log.append("Tournament #" + tournament.getTournamentID() + " opened by Player #" + playerID);
+                return "Tournament #" + tournament.getTournamentID() + " is open, other players join with \"tournament join\" and you start it with \"tournament start\".";
+            case "join":
+                tournament = openTournament;
+                if (tournament == null || !tournament.enter(player)) {
+                    return "There is no tournament to join.";
+                }
+                tournamentsByPlayer.put(playerID, tournament);
+                return "You have entered tournament #" + tournament.getTournamentID() + ", " + tournament.getEntrantCount() + " players so far.";
+            case "start":
+                if (tournament == null) {
+                    return "You have not entered a tournament.";
+                }
+                String refused = tournament.start(playerID);
+                if (refused != null) {
+                    return refused;
+                }
+                synchronized (tournaments) {
+                    if (openTournament == tournament) {
+                        openTournament = null; //the next one can be opened while this one is played
+                    }
+                }
+                log.append("Tournament #" + tournament.getTournamentID() + " started with " + tournament.getEntrantCount() + " players in " + TimeUnit.NANOSECONDS.toMicros(tournament.getRoundNanos()) + " us");
+                return "Tournament #" + tournament.getTournamentID() + " has started.";
+            case "leave":
+                if (tournament == null) {
+                    return "You have not entered a tournament.";
+                }
+                GameLogicEngine match = tournament.withdraw(playerID);
+                tournamentsByPlayer.remove(playerID, tournament);
+                if (match != null) {
+                    match.pickMarbles(playerID, GIVE_UP); //gives up the match of the current round
+                }
+                return "You have left tournament #" + tournament.getTournamentID() + ".";
+            default:
+                return "Try \"tournament knockout\", \"tournament swiss [rounds]\", \"tournament join\", \"tournament start\" or \"tournament leave\".";
+        }
+    }
+
+    /**
+     * @param player
+     * @return true if the player is playing a match that is not just a lobby
+     */
+    boolean isBusy(Player player) {
+        GameLogicEngine current = player.getCurrentMatch();
+        return current != null && !current.isGameOver() && (current.isFull() || current.getChosenMode() == CPU_MODE);
+    }
+
+    /**
+     * Creates a match between two players that starts as soon as its thread
+     * runs, see {@link #startPairedMatches(List)}. A player waiting in a
+     * lobby is taken out of it.
+     *
+     * @param playerOne
+     * @param playerTwo
+     * @param difficulty
+     * @param listener told when the match is over
+     * @return the match, or null if one of the players is playing another
+     * match
+     */
+    GameLogicEngine createPairedMatch(Player playerOne, Player playerTwo, int difficulty, MatchListener listener) {
+        synchronized (matchmaking) {
+            if (draining || isBusy(playerOne) || isBusy(playerTwo)) {
+                return null;
+            }
+            leaveLobby(playerOne);
+            leaveLobby(playerTwo);
+            GameLogicEngine match = new GameLogicEngine(assignNewMatchID(), this, playerOne, difficulty == HARD_DIFFICULTY, false);
+            match.setRules(GameLogicEngine.MIN_SEATS, config.isLastMoverWins());
+            match.seat(playerTwo);
+            match.setPaired();
+            match.setListener(listener);
+            playerOne.setCurrentMatch(match);
+            playerTwo.setCurrentMatch(match);
+            matches.put(match.getMatchID(), match);
+            metrics.pairedMatchCreated();
+            GameEvents.matchCreated(match);
+            GameEvents.opponentPaired(match, playerTwo.getPlayerID());
+            return match;
+        }
+    }
+
+    private void leaveLobby(Player player) {
+        GameLogicEngine lobby = player.getCurrentMatch();
+        if (lobby == null || !lobby.leaveLobby(player.getPlayerID())) {
+            return;
+        }
+        if (!lobby.isGameOver()) { //the others keep waiting
+            reopenLobby(lobby);
+        } else if (matchmaker.remove(lobby)) {
+            metrics.lobbyClosed(lobby.getChosenDifficulty());
+        }
+    }
+
+    /**
+     * Starts the threads of matches made by {@link #createPairedMatch}
+     *
+     * @param round
+     */
+    void startPairedMatches(List<GameLogicEngine> round) {
+        for (GameLogicEngine match : round) {
+            startThread(match);
+        }
+    }
+
+    /**
+     * @param playerID
+     * @return the tournament the player has entered last, or null
+     */
+    Tournament getTournament(int playerID) {
+        return tournamentsByPlayer.get(playerID);
+    }
+
+    /**
+     * Called by a tournament once it has a winner
+     *
+     * @param tournament
+     */
+    void tournamentFinished(Tournament tournament) {
+        log.append("Tournament #" + tournament.getTournamentID() + " won by Player #" + tournament.getChampionID());
+    }
+
     /**
      * Initialise the list of legal commands taken from the remote interface
      */
@@ -226,20 +1267,10 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * playerID has not been found
      */
     private boolean setGameModeChoice(int playerID, int mode) {
-        if (mode == CPU_MODE) { //set choice to cpu for this player
-            for (Player p : registeredPlayers) {
-                if (p.getPlayerID() == playerID) {
-                    p.setChosenMode(mode);
-                    return true;
-                }
-            }
-        } else if (mode == HUMAN_MODE) {
-            for (Player p : registeredPlayers) {
-                if (p.getPlayerID() == playerID) {
-                    p.setChosenMode(mode);
-                    return true;
-                }
-            }
+        Player player = findPlayerById(playerID);
+        if (player != null && (mode == CPU_MODE || mode == HUMAN_MODE)) {
+            player.setChosenMode(mode);
+            return true;
         }
         return false;
     }
@@ -252,87 +1283,162 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * @return true if successful, otherwise false
      */
     private boolean setDifficultyChoice(int playerID, int difficulty) {
-        for (Player p : registeredPlayers) {
-            if (p.getPlayerID() == playerID) {
-                p.setChosenDifficulty(difficulty);
-                return true;
-            }
+        Player player = findPlayerById(playerID);
+        if (player != null) {
+            player.setChosenDifficulty(difficulty);
+            return true;
         }
         return false;
     }
 
+    /**
+     * Chooses the total marbles of the player's next matches, see the
+     * "marbles" command. Lobbies with a chosen total only take players who
+     * chose the same.
+     *
+     * @param playerID
+     * @param argument a number of at least 2, "off" to go back to the
+     * difficulty or null to show the choice
+     * @return the choice
+     */
+    private String chooseMarbles(int playerID, String argument) {
+        Player player = findPlayerById(playerID);
+        if (player == null) {
+            return "Error choosing the marbles.";
+        }
+        if (argument == null) {
+            long marbles = player.getChosenMarbles();
+            return marbles == 0 ? "Your matches are played with the marbles of your difficulty." : "Your matches are played with " + marbles + " marbles.";
+        }
+        if (argument.equals("off")) {
+            player.setChosenMarbles(0);
+            return "Your next matches are played with the marbles of your difficulty.";
+        }
+        long marbles;
+        try {
+            marbles = Long.parseLong(argument);
+        } catch (NumberFormatException e) {
+            marbles = 0;
+        }
+        if (marbles < 2) {
+            return "Usage: marbles N, with N from 2 to " + Long.MAX_VALUE + ", or marbles off";
+        }
+        player.setChosenMarbles(marbles);
+        return "Your next matches are played with " + marbles + " marbles.";
+    }
+
+    /**
+     * Gives a new match the total marbles its player has chosen, if any
+     *
+     * @param player
+     * @param match
+     */
+    private static void chooseTotal(Player player, GameLogicEngine match) {
+        long marbles = player.getChosenMarbles();
+        if (marbles != 0) {
+            match.setTotalMarbles(marbles);
+        }
+    }
+
     private int assignNewMatchID() {
-        matchCount++;
-        return matchCount;
+        return matchCount.incrementAndGet();
     }
 
     /**
-     * Checks the list of matches for a match where the second player has not
-     * been set yet
+     * Assigns the player to a match: a new match against the computer, the
+     * closest rated lobby of the same difficulty willing to take the player or
+     * otherwise a new lobby. Lobbies are kept in a {@link Matchmaker}, so this
+     * does not depend on the number of matches on the server.
      *
-     * @return a match missing a second player, with matching difficulty level
+     * @return true if the player has been assigned to a match
      */
     private boolean assignPlayerToMatch(int playerID) {
-        try {
-            Player requestee = null;
-            for (Player p : registeredPlayers) { //find and assign the player using their ID
-                if (p.getPlayerID() == playerID) {
-                    requestee = p;
-                    break;
-                }
+        Player requestee = findPlayerById(playerID);
+        if (requestee == null) {
+            log.append("Player #" + playerID + " is not registered and cannot be assigned to a match");
+            return false;
+        }
+        synchronized (matchmaking) {
+            if (draining) { //began after the command was checked
+                requestee.addMessage("The server is shutting down, no new matches are started.");
+                return false;
             }
-            //Check if the player is already assigned to a match as player one
-            for (GameLogicEngine match : matches) {
-                if (match.getPlayerOne().getPlayerID() == playerID) { //the player is already assigned to a match
-                    if (match.isGameOver()) {
-                        break; //the match is already over, let the create a new one
-                    }
-                    findPlayerById(playerID).addMessage("You are already in the queue for a match.");
-                    return false;
-                }
+            //Check if the player is already in a match or waiting for one
+            GameLogicEngine current = requestee.getCurrentMatch();
+            if (current != null && !current.isGameOver()) {
+                requestee.addMessage("You are already in the queue for a match.");
+                return false;
             }
             //Check if the player would like to play against the cpu
             if (requestee.getChosenMode() == GameEngineRemoteInterface.CPU_MODE) {
-                GameLogicEngine match = new GameLogicEngine(assignNewMatchID(), this, playerID, determineChosenDifficulty(requestee), true);
-                Thread t = new Thread(match);
-                t.start();
-                matches.add(match);
-                findPlayerById(playerID).addMessage("Computer controlled game started!");
-                return true;
-            }
-
-            //Check if there are any matches with players waiting to play
-            if (matches.isEmpty()) { //there are no matches
-                GameLogicEngine match = new GameLogicEngine(assignNewMatchID(), this, playerID, determineChosenDifficulty(requestee), false);
-                Thread t = new Thread(match);
-                t.start();
-                matches.add(match);
-                findPlayerById(playerID).addMessage("A new match lobby has been created for you.");
+                GameLogicEngine match = new GameLogicEngine(assignNewMatchID(), this, requestee, determineChosenDifficulty(requestee), true);
+                match.setRules(GameLogicEngine.MIN_SEATS, config.isLastMoverWins());
+                chooseTotal(requestee, match);
+                metrics.cpuMatchCreated();
+                startMatch(requestee, match);
+                requestee.addMessage("Computer controlled game started!");
                 return true;
             }
-
-            //Check if they have the same settings as another player and can be matched with them
-            for (GameLogicEngine match : matches) {
-                if (match.getPlayerTwo() == null && match.getPlayerOne().getChosenDifficulty() == requestee.getChosenDifficulty()) { //a second player is missing and
-                    match.setPlayerTwo(playerID); //assign the player to the match with the correct 
-                    findPlayerById(playerID).addMessage("You have been assigned to an existing match lobby!");
-                    return true;
+            //Check if another player with the same difficulty and a close enough rating is waiting and can be matched with them
+            int rating = leaderboard.getRating(playerID);
+            GameLogicEngine lobby = matchmaker.pair(requestee.getChosenDifficulty(), requestee.getChosenMarbles(), rating, nanoTime());
+            if (lobby != null && lobby.seat(requestee)) { //assign the player to the match, which starts it once the last seat is taken
+                requestee.setCurrentMatch(lobby);
+                GameEvents.opponentPaired(lobby, playerID);
+                if (lobby.isFull()) {
+                    metrics.lobbyClosed(lobby.getChosenDifficulty());
+                } else {
+                    matchmaker.add(lobby, lobbyRating(lobby), lobby.getCreatedNanos());
                 }
+                requestee.addMessage("You have been assigned to an existing match lobby!");
+                return true;
+            } else if (lobby != null) { //given up just now, it is out of the index
+                metrics.lobbyClosed(lobby.getChosenDifficulty());
             }
-
             //No available matches, create a new one
-            GameLogicEngine match = new GameLogicEngine(assignNewMatchID(), this, playerID, determineChosenDifficulty(requestee), false);
-            Thread t = new Thread(match);
-            t.start();
-            matches.add(match);
-            findPlayerById(playerID).addMessage("A new match lobby has been created for you.");
+            GameLogicEngine match = new GameLogicEngine(assignNewMatchID(), this, requestee, determineChosenDifficulty(requestee), false);
+            match.setRules(config.getMatchSeats(), config.isLastMoverWins());
+            chooseTotal(requestee, match);
+            matchmaker.add(match, rating, match.getCreatedNanos());
+            metrics.lobbyOpened(match.getChosenDifficulty());
+            startMatch(requestee, match);
+            requestee.addMessage("A new match lobby has been created for you.");
             return true;
+        }
+    }
 
-        } catch (NullPointerException e) {
-            System.out.println("PlayerID had no match when checking for available matches." + "PlayerID = " + playerID);
-            e.printStackTrace();
-            System.out.println("registeredPlayers = " + registeredPlayers.toString());
-            return false;
+    /**
+     * Registers the match and starts its thread
+     *
+     * @param playerOne
+     * @param match
+     */
+    private void startMatch(Player playerOne, GameLogicEngine match) {
+        playerOne.setCurrentMatch(match);
+        matches.put(match.getMatchID(), match);
+        GameEvents.matchCreated(match);
+        startThread(match);
+    }
+
+    private void startThread(GameLogicEngine match) {
+        if (simulation != null) {
+            match.simulate(simulation);
+            return;
+        }
+        Thread t = new Thread(match, "GameLogicEngine-" + match.getMatchID());
+        t.start();
+    }
+
+    /**
+     * Called by a match once it is over, whether it has been won or given up
+     *
+     * @param match
+     */
+    void matchEnded(GameLogicEngine match) {
+        metrics.matchFinished();
+        matches.remove(match.getMatchID(), match);
+        if (matchmaker.remove(match)) { //the only player gave up while waiting
+            metrics.lobbyClosed(match.getChosenDifficulty());
         }
     }
 
@@ -340,10 +1446,11 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * @deprecated Does not work! Do not use! Remove a match via a reference
      * @param match
      */
+    @Deprecated
     public void removeMatch(GameLogicEngine match) {
         try {
             System.out.println("Removing match #" + match.getMatchID());
-            matches.remove(match);
+            matches.remove(match.getMatchID(), match);
         } catch (Exception e) {
             System.out.println("Could not remove match.");
             e.printStackTrace();
@@ -357,12 +1464,7 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      */
     public void removeMatch(int matchID) {
         try {
-            for (GameLogicEngine match : matches) {
-                if (match.getMatchID() == matchID) {
-                    matches.remove(match);
-                    return;
-                }
-            }
+            matches.remove(matchID);
         } catch (Exception e) {
             System.out.println("Could not remove match.");
             e.printStackTrace();
@@ -397,12 +1499,95 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * @param playerTwoID
      * @param difficulty
      */
+    @Deprecated
     private void startGameSession(int playerOneID, int playerTwoID, int difficulty) {
         GameLogicEngine engine = new GameLogicEngine(assignNewMatchID(), this, playerOneID, playerTwoID, difficulty);
         Thread t = new Thread(engine);
         t.start();
     }
 
+    /**
+     * @return latency percentiles of every command called so far, since the
+     * start and in the current window
+     */
+    private String getFormattedStats() {
+        long windowSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - latencies.getWindowStartMillis());
+        return "Since the start:\n" + CommandLatencies.format(latencies.getTotals())
+                + "Current window (" + windowSeconds + " s):\n" + CommandLatencies.format(latencies.getWindow())
+                + "Matchmaking: " + matchmaker;
+    }
+
+    /**
+     * @param playerID
+     * @return the rank and record of the player
+     */
+    private String getFormattedRank(int playerID) {
+        Leaderboard.Placing placing = leaderboard.placing(playerID); //rank and record read together, no result can come in between
+        if (placing == null) {
+            return "You have not finished a match yet.";
+        }
+        Leaderboard.Standing standing = placing.getStanding();
+        return "You are ranked " + placing.getRank() + " of " + placing.getRanked() + " with " + standing.getWins() + " wins and "
+                + standing.getLosses() + " losses (" + standing.getForfeits() + " given up), your rating is " + standing.getRating() + ".";
+    }
+
+    /**
+     * @param playerID
+     * @return the time every player in the player's match has left
+     */
+    private String getFormattedClocks(int playerID) {
+        Player player = findPlayerById(playerID);
+        GameLogicEngine match = player == null ? null : player.getCurrentMatch();
+        if (match == null || match.isGameOver()) {
+            return "You are not currently in a match.";
+        }
+        if (!match.isStarted()) {
+            return "Your match has not started yet.";
+        }
+        String clocks = match.describeClocks();
+        return clocks == null ? "Your match is played without clocks." : clocks;
+    }
+
+    /**
+     * @return the clocks of every match, null if matches are played without
+     */
+    TurnClocks getTurnClocks() {
+        return turnClocks;
+    }
+
+    /**
+     * @return the simulation running the server, null if it runs on threads
+     * of its own
+     */
+    Simulation getSimulation() {
+        return simulation;
+    }
+
+    /**
+     * @return {@link System#nanoTime()}, or the virtual time of the
+     * simulation running the server
+     */
+    long nanoTime() {
+        return simulation == null ? System.nanoTime() : simulation.nanoTime();
+    }
+
+    /**
+     * @return {@link System#currentTimeMillis()}, or the virtual time of the
+     * simulation running the server
+     */
+    long currentTimeMillis() {
+        return simulation == null ? System.currentTimeMillis() : simulation.currentTimeMillis();
+    }
+
+    /**
+     * @param matchID
+     * @return the random number generator a match draws its marbles and first
+     * player from, seeded from the simulation if there is one
+     */
+    Random newMatchRandom(int matchID) {
+        return simulation == null ? new Random() : simulation.newRandom(matchID);
+    }
+
     /**
      *
      * @return String containing all valid commands supported by the server,
@@ -422,39 +1607,46 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * @param playerID
      * @return
      */
-    private Player findPlayerById(int playerID) {
-        try {
-            for (Player p : registeredPlayers) {
-                if (p.getPlayerID() == playerID) {
-                    return p;
-                }
-            }
-        } catch (NullPointerException e) {
-            System.out.println("Player could not be found by using their ID");
-            e.printStackTrace();
-        }
-        return null;
+    Player findPlayerById(int playerID) {
+        return registeredPlayers.get(playerID);
     }
 
     /**
-     * Gets a reference of the player in a match
-     *
-     * @param playerID
-     * @return
+     * @return every registered player, safe to iterate while players register
      */
-    private Player findPlayerInMatchByID(int playerID) {
-        try {
-            for (GameLogicEngine match : matches) {
-                if (match.getPlayerOne().getPlayerID() == playerID) {
-                    return match.getPlayerOne();
-                }
-                if (match.getPlayerTwo().getPlayerID() == playerID) {
-                    return match.getPlayerTwo();
-                }
-            }
-        } catch (NullPointerException e) {
-        }
-        return null;
+    Collection<Player> getRegisteredPlayers() {
+        return registeredPlayers.values();
+    }
+
+    /**
+     * @return the matches that have not ended, safe to iterate while matches
+     * are created and end
+     */
+    Collection<GameLogicEngine> getLiveMatches() {
+        return matches.values();
+    }
+
+    /**
+     * @param matchID
+     * @return the matches that have not ended with a higher ID, in the order
+     * of their IDs, safe to iterate while matches are created and end
+     */
+    Collection<GameLogicEngine> getMatchesAfter(int matchID) {
+        return matches.tailMap(matchID, false).values();
+    }
+
+    /**
+     * @return the highest player number given out
+     */
+    int getPlayerCount() {
+        return playerCount.get();
+    }
+
+    /**
+     * @return the highest match number given out
+     */
+    int getMatchCount() {
+        return matchCount.get();
     }
 
     /**
@@ -467,26 +1659,22 @@ public class GameServer extends UnicastRemoteObject implements GameEngineRemoteI
      * @throws RemoteException
      */
     @Override
-    public synchronized String communicateWithServer(int playerNumber) throws RemoteException {
-        String message = "";
+    public String communicateWithServer(int playerNumber) throws RemoteException {
+        metrics.remoteCall(ServerMetrics.COMMUNICATE_WITH_SERVER);
+        long start = System.nanoTime();
         try {
-            Player player = findPlayerInMatchByID(playerNumber);
-            if (!(player.getMessages() == null) && !player.getMessages().isEmpty()) {
-                message = player.getMessages().get(0); //get the first item of the list and assign it to the String
-                player.getMessages().remove(0); //remove the item from the list
-                System.out.println("Sending message \"" + message + "\" to Player#" + playerNumber);
-                myFrame.appendServerLog("Sending message \"" + message + "\" to Player#" + playerNumber);
-            }
-        } catch (NullPointerException e) {
             Player player = findPlayerById(playerNumber);
-            if (!(player.getMessages() == null) && !player.getMessages().isEmpty()) {
-                message = player.getMessages().get(player.getMessages().size() - 1); //get the last item of the list and assign it to the String
-                player.getMessages().remove(player.getMessages().size() - 1); //remove the item from the list
-                System.out.println("Sending message \"" + message + "\" to Player#" + playerNumber);
-                myFrame.appendServerLog("Sending message \"" + message + "\" to Player#" + playerNumber);
+            String message = player == null ? null : player.pollMessage(); //oldest message first
+            if (message == null && player != null) { //the player's own messages go before those of the matches they watch
+                message = player.pollSpectatorEvent();
+            }
+            if (message == null) {
+                return "";
             }
+            log.append("Sending message \"" + message + "\" to Player#" + playerNumber);
             return message;
+        } finally {
+            latencies.record(CommandLatencies.COMMUNICATE_WITH_SERVER, start);
         }
-        return message;
     }
 }
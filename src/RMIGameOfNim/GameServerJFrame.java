@@ -1,10 +1,8 @@
 package RMIGameOfNim;
 
 import java.rmi.RemoteException;
-import java.util.Calendar;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.SwingUtilities;
 
 /**
  * GameServerJFrame which displays the current state of the server with the help
@@ -13,24 +11,29 @@ import javax.swing.SwingUtilities;
  */
 public class GameServerJFrame extends javax.swing.JFrame {
 
+    public static final int DEFAULT_RETAINED_LINES = 1000;
+    private final AsyncServerLog serverLog = new AsyncServerLog();
+    private CoalescingTextAreaLog textAreaLog;
+
     /**
      * Creates new form GameServerJFrame
      * @throws java.rmi.RemoteException
      */
     public GameServerJFrame() throws RemoteException {
         initComponents();
+        initServerLog();
         initGameServer();
     }
 
     /**
-     * Initialise the GameServer, passing a reference of this JFrame to it
-     * in order for it to be able to access the frames methods, i.e. for updating
-     * the server log.
+     * Initialise the GameServer, passing the log displayed by this JFrame to
+     * it in order for it to be able to update the server log.
      * @throws RemoteException 
      */
     private void initGameServer() throws RemoteException{
         try{
-            GameServer myServer = new GameServer(this); //creating a new GameServer, passing a reference to this JFrame to it
+            GameServer myServer = new GameServer(new ServerConfig(), serverLog); //creating a new GameServer, logging to the log shown by this JFrame
+            myServer.start();
             appendServerLog("Server Started");
         }
         catch(Exception e){
@@ -39,34 +42,42 @@ public class GameServerJFrame extends javax.swing.JFrame {
     }
     
     /**
-     * Get the current time in a HH:MM format
-     * @return String containing the current time of day in HH:MM format
+     * Attach this frame as the display of the {@link AsyncServerLog}, so that
+     * every batch drained by the log is also shown in the server log text area
      */
-    private String getTheTime(){
-        String time = "" + Calendar.getInstance().get(Calendar.HOUR_OF_DAY); //add the hour of day to a string
-        if(time.length() == 1){ //if time is a single digit, i.e. from 1 to 9 o'clock
-            time = new StringBuilder(time).insert(0, "0").toString(); //append a 0 before the hour if it is a single digit
-        }
-        time += ":" + Calendar.getInstance().get(Calendar.MINUTE); //append a colon and the minutes of the hour
-        if(time.length() == 4){ //if the time is four digits, i.e. 10:1
-            time = new StringBuilder(time).insert(3, "0").toString(); //insert the 0, so 10:1 would become 10:01
-        }
-        return time;
+    private void initServerLog() {
+        textAreaLog = new CoalescingTextAreaLog(jTextArea1, Integer.getInteger("nim.log.retainedLines", DEFAULT_RETAINED_LINES));
+        serverLog.setDisplay(new LogSink() {
+            @Override
+            public void write(String batch, int lines) {
+                textAreaLog.append(batch);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
     }
-    
+
     /**
      * Appends the message log JTextArea with the given String
      * @param message Message to be appended in the Server Log
      */
     public void appendServerLog(final String message){
-        System.out.println("Server Message Log update:\n" + message);
-        SwingUtilities.invokeLater(new Runnable() {
-                public void run() {
-                   jTextArea1.append("\n" + getTheTime() + "-> " + message);
-                }
-            });
+        serverLog.append(message);
     }
-    
+
+    /**
+     * @return the asynchronous log shown by this frame
+     */
+    public AsyncServerLog getServerLog() {
+        return serverLog;
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -0,0 +1,53 @@
+package RMIGameOfNim;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point for running the {@link GameServer} without a GUI, i.e. on a
+ * production machine. It never touches AWT or Swing classes, so none of them
+ * are loaded, which keeps the start up quick.
+ * <p>
+ * Usage: java -cp DistributedGameOfNim.jar RMIGameOfNim.HeadlessGameServer
+ * [--config=server.properties] [port=1099] [log.sink=stdout|none|file:path|class:name]
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class HeadlessGameServer {
+
+    /**
+     * @param args the command line arguments, see {@link ServerConfig}
+     */
+    public static void main(String[] args) {
+        long launchNanos = System.nanoTime();
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid configuration: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        final AsyncServerLog log = new AsyncServerLog(LogSinks.fromSpec(config.getLogSink()), config.getLogBufferSize());
+        try {
+            final GameServer server = new GameServer(config, log);
+            final int drainTimeout = config.getDrainTimeout();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    log.append("Server shutting down");
+                    server.drain(drainTimeout); //lets the matches finish and closes the journal, unless drained already
+                    log.close(); //flush whatever is still queued
+                }
+            }, "HeadlessGameServer-shutdown"));
+            server.setLaunchNanos(launchNanos);
+            server.start();
+            log.append("Server Started in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchNanos) + " ms, waiting for players");
+        } catch (Exception e) {
+            System.err.println("Error when starting the server");
+            e.printStackTrace();
+            log.close();
+            System.exit(1);
+        }
+    }
+}
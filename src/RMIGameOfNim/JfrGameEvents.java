@@ -0,0 +1,205 @@
+package RMIGameOfNim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder events of the game. Only {@link GameEvents} uses this
+ * class, and only when Flight Recorder is available. Stack traces are off by
+ * default, the events say what happened, the execution samples say where.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+final class JfrGameEvents {
+
+    private static final String CATEGORY = "Game of Nim";
+
+    private JfrGameEvents() {
+    }
+
+    @Name("RMIGameOfNim.PlayerRegistered")
+    @Label("Player Registered")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class PlayerRegistered extends Event {
+
+        @Label("Player")
+        int playerID;
+    }
+
+    @Name("RMIGameOfNim.MatchCreated")
+    @Label("Match Created")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class MatchCreated extends Event {
+
+        @Label("Match")
+        int matchID;
+
+        @Label("Player One")
+        int playerOneID;
+
+        @Label("Hard")
+        boolean hard;
+
+        @Label("Against The Computer")
+        boolean cpu;
+
+        @Label("Total Marbles")
+        long totalMarbles;
+    }
+
+    @Name("RMIGameOfNim.OpponentPaired")
+    @Label("Opponent Paired")
+    @Description("A second player, or the computer, has joined a match")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class OpponentPaired extends Event {
+
+        @Label("Match")
+        int matchID;
+
+        @Label("Player One")
+        int playerOneID;
+
+        @Label("Player Two")
+        int playerTwoID;
+
+        @Label("Lobby Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lobbyWait;
+    }
+
+    @Name("RMIGameOfNim.Move")
+    @Label("Move")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class Move extends Event {
+
+        @Label("Match")
+        int matchID;
+
+        @Label("Player")
+        int playerID;
+
+        @Label("Amount")
+        long amount;
+
+        @Label("Remaining")
+        long remaining;
+    }
+
+    @Name("RMIGameOfNim.CpuMoveComputation")
+    @Label("CPU Move Computation")
+    @Description("Time the computer controlled player took to choose a move")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class CpuMoveComputation extends Event {
+
+        @Label("Match")
+        int matchID;
+
+        @Label("Marbles")
+        long marbles;
+
+        @Label("Move")
+        long move;
+    }
+
+    @Name("RMIGameOfNim.MatchFinished")
+    @Label("Match Finished")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class MatchFinished extends Event {
+
+        @Label("Match")
+        int matchID;
+
+        @Label("Winner")
+        int winnerID;
+
+        @Label("Loser")
+        int loserID;
+
+        @Label("Forfeited")
+        boolean forfeited;
+    }
+
+    static void playerRegistered(int playerID) {
+        PlayerRegistered event = new PlayerRegistered();
+        if (event.isEnabled()) {
+            event.playerID = playerID;
+            event.commit();
+        }
+    }
+
+    static void matchCreated(int matchID, int playerOneID, int difficulty, boolean cpu, long totalMarbles) {
+        MatchCreated event = new MatchCreated();
+        if (event.isEnabled()) {
+            event.matchID = matchID;
+            event.playerOneID = playerOneID;
+            event.hard = difficulty == GameEngineRemoteInterface.HARD_DIFFICULTY;
+            event.cpu = cpu;
+            event.totalMarbles = totalMarbles;
+            event.commit();
+        }
+    }
+
+    static void opponentPaired(int matchID, int playerOneID, int playerTwoID, long lobbyWaitNanos) {
+        OpponentPaired event = new OpponentPaired();
+        if (event.isEnabled()) {
+            event.matchID = matchID;
+            event.playerOneID = playerOneID;
+            event.playerTwoID = playerTwoID;
+            event.lobbyWait = lobbyWaitNanos;
+            event.commit();
+        }
+    }
+
+    static void move(int matchID, int playerID, long amount, long remaining) {
+        Move event = new Move();
+        if (event.isEnabled()) {
+            event.matchID = matchID;
+            event.playerID = playerID;
+            event.amount = amount;
+            event.remaining = remaining;
+            event.commit();
+        }
+    }
+
+    static Object cpuMoveStarted() {
+        CpuMoveComputation event = new CpuMoveComputation();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void cpuMoveComputed(Object started, int matchID, long marbles, long move) {
+        CpuMoveComputation event = (CpuMoveComputation) started;
+        event.end();
+        if (event.shouldCommit()) { //honours the threshold of the recording
+            event.matchID = matchID;
+            event.marbles = marbles;
+            event.move = move;
+            event.commit();
+        }
+    }
+
+    static void matchFinished(int matchID, int winnerID, int loserID, boolean forfeited) {
+        MatchFinished event = new MatchFinished();
+        if (event.isEnabled()) {
+            event.matchID = matchID;
+            event.winnerID = winnerID;
+            event.loserID = loserID;
+            event.forfeited = forfeited;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package RMIGameOfNim;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the records of a {@link MoveJournal} back, oldest first. The segments
+ * are streamed one after the other through a buffer and only the frame being
+ * decoded is held in memory, so a journal of any size can be read in constant
+ * space. The records are decoded one at a time as {@link #next()} is called.
+ * <p>
+ * Every frame is checked against its CRC32. A frame that does not match, as
+ * left behind when the server died half way through copying it, ends its
+ * segment and is counted in {@link #getCorruptFrames()}; reading carries on
+ * with the next segment.
+ * <p>
+ * Only records made within the given time range are returned. Segments that
+ * were full before the range starts are not read at all, and reading stops at
+ * the first frame that starts after the range ends.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class JournalReader implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final File[] segments;
+    private final long fromMillis;
+    private final long toMillis;
+    private final CRC32 crc = new CRC32();
+    private final long[] varint = new long[1];
+    private int nextSegment;
+    private DataInputStream in;
+    private String segmentName;
+    private long segmentBaseMillis;
+    private byte segmentVersion;
+    private final byte[] payload = new byte[MoveJournal.MAX_FRAME_SIZE];
+    private int payloadLength;
+    private int position;
+    private long previousMillis;
+    private boolean finished;
+    private long recordsRead;
+    private long framesRead;
+    private long segmentsRead;
+    private long corruptFrames;
+
+    /**
+     * Reads the whole journal
+     *
+     * @param directory the directory the {@link MoveJournal} wrote to
+     */
+    public JournalReader(File directory) {
+        this(directory, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the records made from fromMillis to toMillis, both inclusive
+     *
+     * @param directory the directory the {@link MoveJournal} wrote to
+     * @param fromMillis milliseconds since the epoch
+     * @param toMillis milliseconds since the epoch
+     */
+    public JournalReader(File directory, long fromMillis, long toMillis) {
+        this.segments = MoveJournal.listSegments(directory);
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+    }
+
+    /**
+     * @return the next record within the time range, or null once the journal
+     * has been read
+     * @throws IOException if a segment cannot be read or is not a journal
+     * segment
+     */
+    public JournalRecord next() throws IOException {
+        while (!finished) {
+            if (position < payloadLength) {
+                JournalRecord record = decodeRecord();
+                if (record.getTimeMillis() >= fromMillis && record.getTimeMillis() <= toMillis) {
+                    recordsRead++;
+                    return record;
+                }
+            } else if (!readFrame()) {
+                finished = true;
+                close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return records returned so far
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return frames decoded so far, including those skipped by the time
+     * range
+     */
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    /**
+     * @return segment files opened so far
+     */
+    public long getSegmentsRead() {
+        return segmentsRead;
+    }
+
+    /**
+     * @return frames whose checksum did not match
+     */
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Loads the next frame of the current segment into the payload buffer,
+     * moving on to the next segment at the end of one
+     *
+     * @return false if there are no more frames to read
+     */
+    private boolean readFrame() throws IOException {
+        while (true) {
+            if (in == null && !openNextSegment()) {
+                return false;
+            }
+            int length;
+            try {
+                length = (int) MoveJournal.readVarint(in);
+            } catch (EOFException e) { //the writer died before marking the end of the segment
+                length = 0;
+            }
+            if (length <= 0) { //end of the segment
+                close();
+                continue;
+            }
+            if (length > payload.length) { //no frame is that long, the length itself is damaged
+                corruptFrames++;
+                close();
+                continue;
+            }
+            int checksum;
+            try {
+                in.readFully(payload, 0, length);
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                corruptFrames++;
+                close();
+                continue;
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) { //torn write, nothing after it in this segment can be trusted
+                corruptFrames++;
+                close();
+                continue;
+            }
+            framesRead++;
+            payloadLength = length;
+            position = MoveJournal.readVarint(payload, 0, varint);
+            previousMillis = segmentBaseMillis + MoveJournal.decodeZigZag(varint[0]);
+            if (previousMillis > toMillis) { //the frames after it are later still
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private JournalRecord decodeRecord() {
+        int type = payload[position++];
+        position = MoveJournal.readVarint(payload, position, varint);
+        int matchID = (int) varint[0];
+        position = MoveJournal.readVarint(payload, position, varint);
+        int playerID = (int) MoveJournal.decodeZigZag(varint[0]);
+        position = MoveJournal.readVarint(payload, position, varint);
+        long value = MoveJournal.decodeZigZag(varint[0]);
+        position = MoveJournal.readVarint(payload, position, varint);
+        long marbles = MoveJournal.decodeZigZag(varint[0]);
+        if (segmentVersion == 1 && type == JournalRecord.MOVE && value == Integer.MAX_VALUE) { //how giving up was written before marbles were longs
+            value = GameEngineRemoteInterface.GIVE_UP;
+        }
+        position = MoveJournal.readVarint(payload, position, varint);
+        previousMillis += MoveJournal.decodeZigZag(varint[0]);
+        return new JournalRecord(type, previousMillis, matchID, playerID, value, marbles);
+    }
+
+    /**
+     * Opens the next segment that may hold records within the time range and
+     * reads its header
+     *
+     * @return false if there are no segments left
+     */
+    private boolean openNextSegment() throws IOException {
+        while (nextSegment < segments.length) {
+            File file = segments[nextSegment++];
+            if (nextSegment < segments.length && fromMillis != Long.MIN_VALUE && baseMillis(segments[nextSegment]) <= fromMillis) {
+                continue; //the next segment was started before the range, so this one was full before it
+            }
+            DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE));
+            try {
+                readHeader(stream, file);
+            } catch (IOException e) {
+                stream.close();
+                throw e;
+            }
+            in = stream;
+            segmentName = file.getName();
+            segmentsRead++;
+            payloadLength = 0;
+            position = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private void readHeader(DataInputStream stream, File file) throws IOException {
+        try {
+            if (stream.readInt() != MoveJournal.MAGIC) {
+                throw new IOException(file + " is not a move journal segment");
+            }
+            byte version = stream.readByte();
+            if (version != MoveJournal.VERSION && version != 1) {
+                throw new IOException(file + " has version " + version + ", expected " + MoveJournal.VERSION);
+            }
+            segmentVersion = version;
+            stream.readFully(new byte[3]);
+            stream.readLong(); //segment number, already known from the name
+            segmentBaseMillis = stream.readLong();
+        } catch (EOFException e) {
+            throw new IOException(file + " is too short for a move journal segment", e);
+        }
+    }
+
+    /**
+     * @return the base time in the header of the segment
+     */
+    private static long baseMillis(File file) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new FileInputStream(file))) {
+            stream.skipBytes(MoveJournal.HEADER_SIZE - 8);
+            return stream.readLong();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JournalReader[" + (segmentName == null ? "not started" : segmentName) + ", " + recordsRead + " records]";
+    }
+}
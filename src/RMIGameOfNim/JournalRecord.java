@@ -0,0 +1,210 @@
+package RMIGameOfNim;
+
+/**
+ * One entry of the {@link MoveJournal}: the start of a match, a move made in it
+ * or its outcome. Immutable.
+ * <p>
+ * A match is journaled with its start followed by its rules, which include
+ * the difficulty chosen for it, and then every further player of a match for
+ * more than two in the order they take their turns. Journals written before
+ * the rules were recorded have none, the difficulty of their matches is told
+ * from the total.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public final class JournalRecord {
+
+    public static final int MATCH_STARTED = 1;
+    public static final int MOVE = 2;
+    public static final int MATCH_FINISHED = 3;
+    public static final int MATCH_RULES = 4;
+    public static final int PLAYER_SEATED = 5;
+
+    private final int type;
+    private final long timeMillis;
+    private final int matchID;
+    private final int playerID; //the player to move first for a match start, the winner of a finished match, the player of a seat, the difficulty plus one for the rules
+    private final long value; //amount taken for a move, player two for a match start, number of moves for a finished match, seats for the rules, place in the turn order of a seat
+    private final long marbles; //marbles left after a move, total marbles for a match start, checksum of the moves for a finished match, 1 for the rules if the last mover wins
+
+    JournalRecord(int type, long timeMillis, int matchID, int playerID, long value, long marbles) {
+        this.type = type;
+        this.timeMillis = timeMillis;
+        this.matchID = matchID;
+        this.playerID = playerID;
+        this.value = value;
+        this.marbles = marbles;
+    }
+
+    /**
+     * @param matchID
+     * @param firstID the player who moves first
+     * @param secondID the other player, {@link Integer#MIN_VALUE} for the
+     * computer
+     * @param totalMarbles
+     * @return record of a match that has just started
+     */
+    public static JournalRecord matchStarted(int matchID, int firstID, int secondID, long totalMarbles) {
+        return new JournalRecord(MATCH_STARTED, System.currentTimeMillis(), matchID, firstID, secondID, totalMarbles);
+    }
+
+    /**
+     * @param matchID
+     * @param playerID the player who made the move
+     * @param amount marbles taken, {@link GameEngineRemoteInterface#GIVE_UP}
+     * when giving up
+     * @param remaining marbles left after the move
+     * @return record of a move
+     */
+    public static JournalRecord move(int matchID, int playerID, long amount, long remaining) {
+        return new JournalRecord(MOVE, System.currentTimeMillis(), matchID, playerID, amount, remaining);
+    }
+
+    /**
+     * @param matchID
+     * @param winnerID
+     * @param moves number of legal moves made, not counting giving up
+     * @param checksum of all moves including giving up, see
+     * {@link GameLogicEngine#nextChecksum(int, int, long)}
+     * @return record of the outcome of a match
+     */
+    public static JournalRecord matchFinished(int matchID, int winnerID, int moves, int checksum) {
+        return new JournalRecord(MATCH_FINISHED, System.currentTimeMillis(), matchID, winnerID, moves, checksum);
+    }
+
+    /**
+     * @param matchID
+     * @param difficulty the difficulty chosen for the match
+     * @param seats number of players
+     * @param lastMoverWins true if the player taking the last marble wins
+     * @return record of the rules of a match that has just started
+     */
+    public static JournalRecord matchRules(int matchID, int difficulty, int seats, boolean lastMoverWins) {
+        return new JournalRecord(MATCH_RULES, System.currentTimeMillis(), matchID, difficulty + 1, seats, lastMoverWins ? 1 : 0);
+    }
+
+    /**
+     * @param matchID
+     * @param playerID
+     * @param place where the player comes in the turn order, 0 for the player
+     * moving first; the first two are in the start of the match
+     * @return record of a further player of a match that has just started
+     */
+    public static JournalRecord playerSeated(int matchID, int playerID, int place) {
+        return new JournalRecord(PLAYER_SEATED, System.currentTimeMillis(), matchID, playerID, place, 0);
+    }
+
+    /**
+     * @return {@link JournalRecord#MATCH_STARTED}, {@link JournalRecord#MOVE},
+     * {@link JournalRecord#MATCH_FINISHED}, {@link JournalRecord#MATCH_RULES}
+     * or {@link JournalRecord#PLAYER_SEATED}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return when the record was made, in milliseconds since the epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public int getMatchID() {
+        return matchID;
+    }
+
+    /**
+     * @return the player who moved, the player who moves first for a match
+     * start or the winner of a finished match
+     */
+    public int getPlayerID() {
+        return playerID;
+    }
+
+    /**
+     * @return marbles taken by a move
+     */
+    public long getAmount() {
+        return value;
+    }
+
+    /**
+     * @return the player who moves second in a match start
+     */
+    public int getOpponentID() {
+        return (int) value;
+    }
+
+    /**
+     * @return marbles left after a move, or the total marbles of a match start
+     */
+    public long getMarbles() {
+        return marbles;
+    }
+
+    /**
+     * @return legal moves made in a finished match
+     */
+    public int getMoveCount() {
+        return (int) value;
+    }
+
+    /**
+     * @return checksum of the moves of a finished match
+     */
+    public int getChecksum() {
+        return (int) marbles;
+    }
+
+    /**
+     * @return the number of players of the rules of a match
+     */
+    public int getSeatCount() {
+        return (int) value;
+    }
+
+    /**
+     * @return the difficulty of the rules of a match
+     */
+    public int getDifficulty() {
+        return playerID - 1;
+    }
+
+    /**
+     * @return true if the rules of a match let the player taking the last
+     * marble win
+     */
+    public boolean isLastMoverWins() {
+        return marbles == 1;
+    }
+
+    /**
+     * @return where a seated player comes in the turn order
+     */
+    public int getPlace() {
+        return (int) value;
+    }
+
+    long getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        if (type == MATCH_STARTED) {
+            return "match #" + matchID + " started: player #" + playerID + " moves first against #" + value + " with " + marbles + " marbles";
+        }
+        if (type == MATCH_FINISHED) {
+            return "match #" + matchID + " won by player #" + playerID + " after " + value + " moves, checksum " + Integer.toHexString((int) marbles);
+        }
+        if (type == MATCH_RULES) {
+            return "match #" + matchID + " rules: " + value + " players, the last to move " + (marbles == 1 ? "wins" : "loses")
+                    + (playerID == 0 ? "" : ", " + (playerID - 1 == GameEngineRemoteInterface.HARD_DIFFICULTY ? "hard" : "easy"));
+        }
+        if (type == PLAYER_SEATED) {
+            return "match #" + matchID + ": player #" + playerID + " moves in place " + value;
+        }
+        return "match #" + matchID + ": player #" + playerID + " took " + value + ", " + marbles + " left";
+    }
+}
@@ -0,0 +1,346 @@
+package RMIGameOfNim;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Wins, losses and forfeits of every player who has finished a match, kept in
+ * order as the results come in. Players are ranked by their wins, players with
+ * the same number of wins share a rank; the listing puts fewer losses first
+ * among them.
+ * <p>
+ * A result moves the two players within a sorted set and updates a Fenwick
+ * tree counting the players per number of wins, both O(log n). The top K are
+ * the first K of the sorted set and the rank of a player is one more than the
+ * players with more wins, a prefix sum of the tree, so no query looks at all
+ * players.
+ * <p>
+ * Every player also has an Elo rating, starting at {@link #INITIAL_RATING}
+ * and moved by each match between two registered players. As with Glicko, a
+ * rating that rests on few matches is taken to be less certain and moves
+ * faster: the first {@link #PROVISIONAL_MATCHES} matches count twice as much.
+ * Matches against the computer change the record but not the rating.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class Leaderboard {
+
+    public static final int DEFAULT_TOP = 10;
+    public static final int INITIAL_RATING = 1500;
+    public static final int PROVISIONAL_MATCHES = 30;
+    private static final int PROVISIONAL_K = 40; //most a rating can move in a match while it is provisional
+    private static final int ESTABLISHED_K = 20;
+
+    private static final Comparator<Standing> ORDER = new Comparator<Standing>() {
+        @Override
+        public int compare(Standing a, Standing b) {
+            if (a.wins != b.wins) {
+                return a.wins > b.wins ? -1 : 1;
+            }
+            if (a.losses != b.losses) {
+                return a.losses < b.losses ? -1 : 1;
+            }
+            return Integer.compare(a.playerID, b.playerID);
+        }
+    };
+
+    private final Map<Integer, Standing> standings = new HashMap<>();
+    private final TreeSet<Standing> ordered = new TreeSet<>(ORDER);
+    private long[] playersByWins = new long[64]; //Fenwick tree, index wins + 1
+    private long results = 0; //results recorded so far, tells a snapshot which results it has
+
+    /**
+     * The record of one player. Immutable, a result replaces it.
+     */
+    public static final class Standing {
+
+        private final int playerID;
+        private final int wins;
+        private final int losses; //including forfeits
+        private final int forfeits;
+        private final int rating;
+
+        Standing(int playerID, int wins, int losses, int forfeits, int rating) {
+            this.playerID = playerID;
+            this.wins = wins;
+            this.losses = losses;
+            this.forfeits = forfeits;
+            this.rating = rating;
+        }
+
+        public int getPlayerID() {
+            return playerID;
+        }
+
+        public int getWins() {
+            return wins;
+        }
+
+        /**
+         * @return matches lost, including those given up
+         */
+        public int getLosses() {
+            return losses;
+        }
+
+        /**
+         * @return matches given up
+         */
+        public int getForfeits() {
+            return forfeits;
+        }
+
+        public int getRating() {
+            return rating;
+        }
+
+        @Override
+        public String toString() {
+            return "Player #" + playerID + ": " + wins + " wins, " + losses + " losses (" + forfeits + " given up), rating " + rating;
+        }
+    }
+
+    /**
+     * The standing of one player together with their rank, as they were at
+     * the same moment. Immutable.
+     */
+    public static final class Placing {
+
+        private final Standing standing;
+        private final int rank;
+        private final int ranked;
+
+        Placing(Standing standing, int rank, int ranked) {
+            this.standing = standing;
+            this.rank = rank;
+            this.ranked = ranked;
+        }
+
+        public Standing getStanding() {
+            return standing;
+        }
+
+        /**
+         * @return the rank starting at 1
+         */
+        public int getRank() {
+            return rank;
+        }
+
+        /**
+         * @return players ranked at the time
+         */
+        public int getRanked() {
+            return ranked;
+        }
+    }
+
+    /**
+     * Records the result of a finished match. Only registered players are
+     * ranked, the computer is left out.
+     *
+     * @param winnerID
+     * @param loserID
+     * @param forfeited true if the loser gave up
+     * @return the number of results recorded including this one
+     */
+    public synchronized long recordResult(int winnerID, int loserID, boolean forfeited) {
+        record(winnerID, loserID, forfeited);
+        return ++results;
+    }
+
+    /**
+     * Records the result of a finished match between more than two players
+     * as one result, the winner having beaten each of the others. The rating
+     * of the winner is moved by each of them in turn.
+     *
+     * @param winnerID
+     * @param loserIDs
+     * @param forfeited for every loser, true if they gave up
+     * @return the number of results recorded including this one
+     */
+    public synchronized long recordResults(int winnerID, int[] loserIDs, boolean[] forfeited) {
+        for (int i = 0; i < loserIDs.length; i++) {
+            record(winnerID, loserIDs[i], forfeited[i]);
+        }
+        return ++results;
+    }
+
+    private void record(int winnerID, int loserID, boolean forfeited) {
+        Standing winner = standings.get(winnerID);
+        Standing loser = standings.get(loserID);
+        int winnerRating = winner == null ? INITIAL_RATING : winner.rating;
+        int loserRating = loser == null ? INITIAL_RATING : loser.rating;
+        if (winnerID > 0 && loserID > 0) { //only matches between players are rated
+            double surprise = 1 - 1 / (1 + Math.pow(10, (loserRating - winnerRating) / 400.0)); //1 minus the chance the winner had
+            winnerRating += (int) Math.round(kFactor(winner) * surprise);
+            loserRating -= (int) Math.round(kFactor(loser) * surprise);
+        }
+        if (winnerID > 0) {
+            replace(winner, winner == null ? new Standing(winnerID, 1, 0, 0, winnerRating)
+                    : new Standing(winnerID, winner.wins + 1, winner.losses, winner.forfeits, winnerRating));
+        }
+        if (loserID > 0) {
+            int forfeit = forfeited ? 1 : 0;
+            replace(loser, loser == null ? new Standing(loserID, 0, 1, forfeit, loserRating)
+                    : new Standing(loserID, loser.wins, loser.losses + 1, loser.forfeits + forfeit, loserRating));
+        }
+    }
+
+    private static int kFactor(Standing standing) {
+        return standing == null || standing.wins + standing.losses < PROVISIONAL_MATCHES ? PROVISIONAL_K : ESTABLISHED_K;
+    }
+
+    /**
+     * Copies every record at once, for a snapshot
+     *
+     * @param into receives the records
+     * @return the number of results the records include, see
+     * {@link #recordResult(int, int, boolean)}
+     */
+    synchronized long copyStandings(List<Standing> into) {
+        into.addAll(standings.values());
+        return results;
+    }
+
+    /**
+     * Puts a player's record back, i.e. from a snapshot
+     *
+     * @param playerID
+     * @param wins
+     * @param losses
+     * @param forfeits
+     * @param rating
+     */
+    synchronized void restore(int playerID, int wins, int losses, int forfeits, int rating) {
+        if (wins + losses > 0) {
+            replace(standings.get(playerID), new Standing(playerID, wins, losses, forfeits, rating));
+        }
+    }
+
+    private void replace(Standing old, Standing standing) {
+        if (old != null) {
+            ordered.remove(old);
+            addToTree(old.wins, -1);
+        }
+        standings.put(standing.playerID, standing);
+        ordered.add(standing);
+        addToTree(standing.wins, 1);
+    }
+
+    /**
+     * @param k
+     * @return the best k players, best first
+     */
+    public synchronized List<Standing> top(int k) {
+        List<Standing> top = new ArrayList<>(Math.min(k, ordered.size()));
+        Iterator<Standing> iterator = ordered.iterator();
+        while (top.size() < k && iterator.hasNext()) {
+            top.add(iterator.next());
+        }
+        return top;
+    }
+
+    /**
+     * @param playerID
+     * @return the rank of the player starting at 1, or 0 if the player has not
+     * finished a match
+     */
+    public synchronized int rank(int playerID) {
+        Standing standing = standings.get(playerID);
+        if (standing == null) {
+            return 0;
+        }
+        return (int) (ordered.size() - countWithWinsUpTo(standing.wins)) + 1;
+    }
+
+    /**
+     * @param playerID
+     * @return the record, rank and number of ranked players in one go, or null
+     * if the player has not finished a match
+     */
+    public synchronized Placing placing(int playerID) {
+        Standing standing = standings.get(playerID);
+        return standing == null ? null : new Placing(standing, rank(playerID), ordered.size());
+    }
+
+    /**
+     * @param playerID
+     * @return the record of the player, or null if the player has not finished
+     * a match
+     */
+    public synchronized Standing getStanding(int playerID) {
+        return standings.get(playerID);
+    }
+
+    /**
+     * @param playerID
+     * @return the rating of the player, {@link #INITIAL_RATING} if the player
+     * has not finished a match
+     */
+    public synchronized int getRating(int playerID) {
+        Standing standing = standings.get(playerID);
+        return standing == null ? INITIAL_RATING : standing.rating;
+    }
+
+    /**
+     * @return players who have finished at least one match
+     */
+    public synchronized int size() {
+        return ordered.size();
+    }
+
+    private void addToTree(int wins, long delta) {
+        if (wins + 1 >= playersByWins.length) { //a Fenwick tree can grow by doubling, the new upper half starts with the total so far
+            long[] grown = new long[Math.max(playersByWins.length * 2, Integer.highestOneBit(wins + 1) << 1)];
+            System.arraycopy(playersByWins, 0, grown, 0, playersByWins.length);
+            for (int size = playersByWins.length; size < grown.length; size <<= 1) {
+                grown[size] = prefixSum(grown, size - 1);
+            }
+            playersByWins = grown;
+        }
+        for (int i = wins + 1; i < playersByWins.length; i += i & -i) {
+            playersByWins[i] += delta;
+        }
+    }
+
+    private long countWithWinsUpTo(int wins) {
+        return prefixSum(playersByWins, Math.min(wins + 1, playersByWins.length - 1));
+    }
+
+    private static long prefixSum(long[] tree, int index) {
+        long sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param k
+     * @return the best k players, one per line
+     */
+    public String formatTop(int k) {
+        List<Standing> top = top(k);
+        if (top.isEmpty()) {
+            return "Nobody has finished a match yet.";
+        }
+        StringBuilder builder = new StringBuilder("Leaderboard:");
+        int rank = 0;
+        int previousWins = -1;
+        for (int i = 0; i < top.size(); i++) {
+            Standing standing = top.get(i);
+            if (standing.wins != previousWins) { //players with the same wins share a rank
+                rank = i + 1;
+                previousWins = standing.wins;
+            }
+            builder.append('\n').append(rank).append(". ").append(standing);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package RMIGameOfNim;
+
+/**
+ * Destination for the formatted server log. The {@link AsyncServerLog}
+ * consumer thread is the only caller, so implementations do not have to be
+ * thread safe. Each call receives a whole batch of lines, already separated by
+ * new lines, so a sink can write it in one go.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public interface LogSink {
+
+    /**
+     * Write a batch of formatted log lines
+     *
+     * @param batch one or more lines, each terminated by a new line
+     * @param lines number of log entries contained in the batch
+     */
+    public void write(String batch, int lines);
+
+    /**
+     * Flush anything buffered by the sink, called once the log has been
+     * drained
+     */
+    public void flush();
+
+    /**
+     * Release any resources held by the sink, i.e. open files
+     */
+    public void close();
+}
@@ -0,0 +1,162 @@
+package RMIGameOfNim;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Factory for the {@link LogSink} implementations supported by the server: the
+ * standard output, an append only file or no output at all.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public final class LogSinks {
+
+    public static final String STDOUT = "stdout";
+    public static final String NONE = "none";
+    public static final String FILE_PREFIX = "file:";
+    public static final String CLASS_PREFIX = "class:";
+
+    private LogSinks() {
+    }
+
+    /**
+     * Creates a sink from its textual description, as used by the
+     * nim.log.sink system property: "stdout", "none", "file:path/to/log" or
+     * "class:fully.qualified.Name" for a custom {@link LogSink} with a public
+     * no argument constructor. Unknown values fall back to the standard output.
+     *
+     * @param spec
+     * @return the sink described by spec
+     */
+    public static LogSink fromSpec(String spec) {
+        if (spec == null || spec.isEmpty() || STDOUT.equals(spec)) {
+            return stdout();
+        }
+        if (NONE.equals(spec)) {
+            return none();
+        }
+        if (spec.startsWith(FILE_PREFIX)) {
+            try {
+                return file(spec.substring(FILE_PREFIX.length()));
+            } catch (IOException e) {
+                System.out.println("Could not open log file " + spec + ", logging to the standard output instead.");
+                e.printStackTrace();
+                return stdout();
+            }
+        }
+        if (spec.startsWith(CLASS_PREFIX)) {
+            try {
+                return (LogSink) Class.forName(spec.substring(CLASS_PREFIX.length())).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                System.out.println("Could not create log sink " + spec + ", logging to the standard output instead.");
+                e.printStackTrace();
+                return stdout();
+            }
+        }
+        System.out.println("Unknown log sink \"" + spec + "\", logging to the standard output instead.");
+        return stdout();
+    }
+
+    /**
+     * @return a sink writing to {@link System#out}
+     */
+    public static LogSink stdout() {
+        return new PrintStreamSink(System.out);
+    }
+
+    /**
+     * @return a sink discarding every line
+     */
+    public static LogSink none() {
+        return new NullSink();
+    }
+
+    /**
+     * @param path file the log is appended to, created if missing
+     * @return a sink appending to the given file
+     * @throws IOException if the file cannot be opened
+     */
+    public static LogSink file(String path) throws IOException {
+        return new WriterSink(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), Charset.forName("UTF-8")), 64 * 1024));
+    }
+
+    private static final class PrintStreamSink implements LogSink {
+
+        private final PrintStream out;
+
+        private PrintStreamSink(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(String batch, int lines) {
+            out.print(batch);
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.flush(); //never close System.out
+        }
+    }
+
+    private static final class WriterSink implements LogSink {
+
+        private final Writer out;
+
+        private WriterSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(String batch, int lines) {
+            try {
+                out.write(batch);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class NullSink implements LogSink {
+
+        @Override
+        public void write(String batch, int lines) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
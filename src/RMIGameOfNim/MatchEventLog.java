@@ -0,0 +1,153 @@
+package RMIGameOfNim;
+
+/**
+ * What happens in a match, as spectators are told about it. Every event is
+ * formatted once and appended to the log, which never changes what it holds
+ * afterwards; each spectator reads it through their own {@link Cursor}. No
+ * matter how many are watching, a move appends one event and the spectators
+ * pick it up when they next poll, without a lock shared with the players or
+ * with each other.
+ * <p>
+ * The events are kept in chunks of {@link #CHUNK_SIZE}, linked one after the
+ * other. Only the match appends, holding its own lock; a new event is written
+ * into its slot before the count of published events is raised, and a cursor
+ * reads no further than that count, so it never sees a slot being filled.
+ * <p>
+ * The log is only created once somebody wants to watch, a match nobody
+ * watches does not build one.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MatchEventLog {
+
+    static final int CHUNK_SIZE = 32;
+
+    private final int matchID;
+    private final Chunk first = new Chunk();
+    private Chunk last = first; //only used by the match
+    private int lastCount = 0; //events in the last chunk
+    private volatile long published = 0; //events the cursors may read
+    private volatile boolean closed = false; //no events will follow
+
+    private static final class Chunk {
+
+        final String[] events = new String[CHUNK_SIZE];
+        volatile Chunk next;
+    }
+
+    /**
+     * @param matchID the match whose events are logged
+     */
+    public MatchEventLog(int matchID) {
+        this.matchID = matchID;
+    }
+
+    /**
+     * Adds an event for every spectator. Only called by the match, holding
+     * its lock.
+     *
+     * @param event
+     */
+    void append(String event) {
+        if (closed) {
+            return;
+        }
+        if (lastCount == CHUNK_SIZE) {
+            Chunk chunk = new Chunk();
+            last.next = chunk;
+            last = chunk;
+            lastCount = 0;
+        }
+        last.events[lastCount++] = "[Match #" + matchID + "] " + event;
+        published++; //publishes the slot, only the match writes it
+    }
+
+    /**
+     * Adds the last event, the cursors stop once they have read it
+     *
+     * @param event
+     */
+    void close(String event) {
+        append(event);
+        closed = true;
+    }
+
+    /**
+     * Starts reading at the next event. Only called by the match, holding its
+     * lock, so no event is appended meanwhile.
+     *
+     * @param greeting handed out before the first event, i.e. the state of
+     * the match at this point
+     * @return a cursor for one spectator
+     */
+    Cursor cursor(String greeting) {
+        return new Cursor(this, last, lastCount, published, "[Match #" + matchID + "] " + greeting);
+    }
+
+    public int getMatchID() {
+        return matchID;
+    }
+
+    /**
+     * @return events appended so far
+     */
+    public long size() {
+        return published;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Where one spectator has got to in the log
+     */
+    public static final class Cursor {
+
+        private final MatchEventLog log;
+        private Chunk chunk;
+        private int index;
+        private long position;
+        private String greeting;
+
+        private Cursor(MatchEventLog log, Chunk chunk, int index, long position, String greeting) {
+            this.log = log;
+            this.chunk = chunk;
+            this.index = index;
+            this.position = position;
+            this.greeting = greeting;
+        }
+
+        /**
+         * @return the next event, or null if the spectator has read all of
+         * them so far
+         */
+        public synchronized String next() {
+            if (greeting != null) {
+                String first = greeting;
+                greeting = null;
+                return first;
+            }
+            if (position >= log.published) {
+                return null;
+            }
+            if (index == CHUNK_SIZE) { //linked before the event in it was published
+                chunk = chunk.next;
+                index = 0;
+            }
+            position++;
+            return chunk.events[index++];
+        }
+
+        /**
+         * @return true once the match is over and every event has been read
+         */
+        public synchronized boolean isFinished() {
+            return log.closed && greeting == null && position >= log.published; //closed is set after the last event is published
+        }
+
+        public int getMatchID() {
+            return log.matchID;
+        }
+    }
+}
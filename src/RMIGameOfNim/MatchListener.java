@@ -0,0 +1,20 @@
+package RMIGameOfNim;
+
+/**
+ * Told by a {@link GameLogicEngine} as soon as it is over, whether it has been
+ * won or given up. The call is made by whichever thread ended the match while
+ * it holds the lock of the match, so implementations should only hand the
+ * event on and not call back into the match.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public interface MatchListener {
+
+    /**
+     * @param match the match that is over, see
+     * {@link GameLogicEngine#getWinnerID()},
+     * {@link GameLogicEngine#getLoserID()} and
+     * {@link GameLogicEngine#isForfeited()}
+     */
+    public void matchFinished(GameLogicEngine match);
+}
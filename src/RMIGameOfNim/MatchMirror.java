@@ -0,0 +1,123 @@
+package RMIGameOfNim;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The state of the match of a {@link ClientSession} as far as the messages of
+ * the server tell it: the marbles left and whether it is the player's turn.
+ * Every session keeps one, so a move that is out of turn or breaks the
+ * {@link NimRules} is turned down straight away rather than after a round
+ * trip to the server.
+ * <p>
+ * The server stays the judge of every move: the mirror only turns a move down
+ * once it has been told of the match and of the turn, and anything it cannot
+ * tell is sent. In a match of more than two players the count is only told
+ * to the player to move, so it may be higher than the real one and a move
+ * allowed here may still be turned down by the server, never the other way
+ * round.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MatchMirror implements GameEventListener {
+
+    private static final Pattern LAST_NUMBER = Pattern.compile("(\\d+)\\D*$");
+    private static final Pattern MARBLES_LEFT = Pattern.compile(Pattern.quote(NimRules.MARBLES_LEFT) + "(\\d+)");
+    private static final Pattern MARBLES_PICKED = Pattern.compile("^(\\d+)" + Pattern.quote(NimRules.MARBLES_PICKED));
+    private static final String[] MATCH_OVER = {NimRules.WON, NimRules.LOST, NimRules.GAVE_UP, NimRules.OUT_OF_TIME, NimRules.MATCH_ENDED, NimRules.LOBBY_CLOSED};
+
+    private boolean inMatch = false; //told of a match that has not ended since, the rest is only known while it is true
+    private long marbles = 0;
+    private boolean myTurn = false;
+
+    @Override
+    public synchronized void messageReceived(ClientSession session, String message) {
+        if (message.startsWith(NimRules.MATCH_FOUND)) {
+            inMatch = true;
+            marbles = lastNumber(message);
+            myTurn = false; //told next
+        } else if (message.startsWith(NimRules.YOUR_TURN) || message.contains(NimRules.IS_OUT)) {
+            myTurn = true;
+        } else if (message.startsWith(NimRules.OTHER_PLAYERS_TURN)) {
+            myTurn = false;
+        } else if (message.startsWith(NimRules.OTHER_PLAYER_TOOK)) {
+            Matcher left = MARBLES_LEFT.matcher(message);
+            if (left.find()) { //also learnt after resuming a session in the middle of a match
+                inMatch = true;
+                marbles = Long.parseLong(left.group(1));
+                myTurn = true;
+            }
+        } else if (message.startsWith(NimRules.CPU_TOOK)) {
+            inMatch = true;
+            marbles = lastNumber(message);
+            myTurn = marbles > 0;
+        } else if (message.startsWith(NimRules.INVALID_MOVE)) {
+            marbles = lastNumber(message); //still the player's turn
+        } else {
+            Matcher picked = MARBLES_PICKED.matcher(message);
+            if (picked.find()) {
+                marbles = Math.max(0, marbles - Long.parseLong(picked.group(1)));
+                myTurn = false;
+                return;
+            }
+            for (String over : MATCH_OVER) {
+                if (message.startsWith(over)) {
+                    inMatch = false;
+                    myTurn = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void connectionLost(ClientSession session, Exception cause) {
+        inMatch = false; //whatever was missed meanwhile, the server decides until the mirror has been told again
+    }
+
+    /**
+     * The turn passes on when the server says the move has been made, not when
+     * it is sent, so a reply overtaking that message cannot leave the player
+     * waiting for a turn they already have.
+     *
+     * @param move marbles the player wants to pick
+     * @return null if the move may be sent, otherwise the message the server
+     * would have answered with
+     */
+    public synchronized String check(long move) {
+        if (!inMatch) {
+            return null;
+        }
+        if (!myTurn) {
+            return NimRules.NOT_YOUR_TURN;
+        }
+        return NimRules.isLegalMove(move, marbles) ? null : NimRules.invalidMove(marbles);
+    }
+
+    /**
+     * @return true while the player is known to be in a match
+     */
+    public synchronized boolean isInMatch() {
+        return inMatch;
+    }
+
+    /**
+     * @return the marbles left as far as the player has been told, only
+     * meaningful while {@link #isInMatch()}
+     */
+    public synchronized long getMarbles() {
+        return marbles;
+    }
+
+    /**
+     * @return true if it is the player's turn as far as they have been told
+     */
+    public synchronized boolean isMyTurn() {
+        return inMatch && myTurn;
+    }
+
+    private static long lastNumber(String message) {
+        Matcher matcher = LAST_NUMBER.matcher(message);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+}
@@ -0,0 +1,250 @@
+package RMIGameOfNim;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rebuilds one match from the {@link MoveJournal} by feeding the recorded
+ * moves through a fresh {@link GameLogicEngine}, so the replay follows the
+ * same rules as the server did. After every move the marbles left are compared
+ * with the journal, and the outcome with the winner, number of moves and
+ * checksum recorded when the match finished. The first difference found is
+ * kept as the mismatch and the replay stops there. The rules and further
+ * players of a match for more than two are journaled right after its start
+ * and set up on the engine before the first move.
+ * <p>
+ * The engine is never started as a thread, the moves are applied on the
+ * calling thread one record at a time, so the state can be looked at between
+ * moves through {@link #getEngine()}. Either the records are handed to
+ * {@link #apply(JournalRecord)}, as the {@link ReplayEngine} does, or a replay
+ * opened with {@link #open(File, int)} reads them from the journal itself on
+ * {@link #step()} and {@link #fastForward(int)}.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MatchReplay implements Closeable {
+
+    private final JournalRecord started;
+    private JournalReader source = null; //only set when the replay reads the journal itself
+    private final GameLogicEngine engine;
+    private boolean finished = false;
+    private String mismatch = null;
+
+    /**
+     * @param started the {@link JournalRecord#MATCH_STARTED} record of the
+     * match
+     */
+    public MatchReplay(JournalRecord started) {
+        if (started.getType() != JournalRecord.MATCH_STARTED) {
+            throw new IllegalArgumentException("A replay has to begin with the start of the match, not " + started);
+        }
+        this.started = started;
+        this.engine = new GameLogicEngine(started.getMatchID(), null, started.getPlayerID(), started.getOpponentID(), started.getMarbles());
+        engine.setNextTurn(started.getPlayerID()); //the start is journaled with the player to move first
+        if (engine.getTotalMarbles() != started.getMarbles()) {
+            mismatch = "the match started with " + started.getMarbles() + " marbles, which the rules do not allow";
+        }
+    }
+
+    /**
+     * Streams the journal up to the start of the match, the moves are then
+     * read one at a time as the replay is stepped through
+     *
+     * @param directory the directory the {@link MoveJournal} wrote to
+     * @param matchID
+     * @return the replay before the first move, or null if the journal has no
+     * start of the match
+     * @throws IOException if the journal cannot be read
+     */
+    public static MatchReplay open(File directory, int matchID) throws IOException {
+        JournalReader reader = new JournalReader(directory);
+        JournalRecord record;
+        while ((record = reader.next()) != null) {
+            if (record.getType() == JournalRecord.MATCH_STARTED && record.getMatchID() == matchID) {
+                MatchReplay replay = new MatchReplay(record);
+                replay.source = reader;
+                return replay;
+            }
+        }
+        reader.close();
+        return null;
+    }
+
+    /**
+     * Reads the next record of the match from the journal and applies it
+     *
+     * @return false once the match has finished, the journal has ended or a
+     * mismatch has been found
+     * @throws IOException if the journal cannot be read
+     */
+    public boolean step() throws IOException {
+        if (source == null) {
+            throw new IllegalStateException("The replay was not opened on a journal");
+        }
+        if (finished || mismatch != null) {
+            return false;
+        }
+        JournalRecord record;
+        while ((record = source.next()) != null) {
+            if (record.getMatchID() != getMatchID()) {
+                continue;
+            }
+            if (record.getType() == JournalRecord.MATCH_STARTED) { //the server was restarted and the match number used again before this one finished
+                return false;
+            }
+            return apply(record) && !finished;
+        }
+        return false;
+    }
+
+    /**
+     * Steps over the given number of moves without stopping in between
+     *
+     * @param moves
+     * @return the number of moves actually applied
+     * @throws IOException if the journal cannot be read
+     */
+    public int fastForward(int moves) throws IOException {
+        int applied = 0;
+        while (applied < moves && step()) {
+            applied++;
+        }
+        return applied;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (source != null) {
+            source.close();
+        }
+    }
+
+    /**
+     * Applies the next record of this match
+     *
+     * @param record a {@link JournalRecord#MOVE},
+     * {@link JournalRecord#MATCH_FINISHED}, {@link JournalRecord#MATCH_RULES}
+     * or {@link JournalRecord#PLAYER_SEATED} of this match
+     * @return false if the record does not agree with the replay, see
+     * {@link #getMismatch()}
+     */
+    public boolean apply(JournalRecord record) {
+        if (mismatch != null) {
+            return false;
+        }
+        if (finished) {
+            return fail(record, "the match has already finished");
+        }
+        if (record.getType() == JournalRecord.MOVE) {
+            return move(record);
+        }
+        if (record.getType() == JournalRecord.MATCH_FINISHED) {
+            return finish(record);
+        }
+        if (record.getType() == JournalRecord.MATCH_RULES) {
+            try {
+                engine.setRules(record.getSeatCount(), record.isLastMoverWins());
+                return true;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return fail(record, e.getMessage());
+            }
+        }
+        if (record.getType() == JournalRecord.PLAYER_SEATED) {
+            if (engine.getSeatedCount() != record.getPlace() || !engine.seat(new Player(record.getPlayerID()))) {
+                return fail(record, "the match has " + engine.getSeatedCount() + " of " + engine.getSeatCount() + " seats taken");
+            }
+            return true;
+        }
+        return fail(record, "unexpected record type " + record.getType());
+    }
+
+    private boolean move(JournalRecord record) {
+        if (!engine.isFull()) {
+            return fail(record, "only " + engine.getSeatedCount() + " of " + engine.getSeatCount() + " seats are taken");
+        }
+        if (record.getAmount() == GameEngineRemoteInterface.GIVE_UP) { //giving up is always allowed
+            if (!engine.pickMarbles(record.getPlayerID(), record.getAmount())) {
+                return fail(record, "the player is not in the match");
+            }
+            return true;
+        }
+        if (!engine.pickMarbles(record.getPlayerID(), record.getAmount())) {
+            return fail(record, "the move is not allowed with " + engine.getCurrentMarbles() + " marbles left");
+        }
+        if (engine.getCurrentMarbles() != record.getMarbles()) {
+            return fail(record, engine.getCurrentMarbles() + " marbles are left after the move, the journal says " + record.getMarbles());
+        }
+        return true;
+    }
+
+    private boolean finish(JournalRecord record) {
+        int winner = engine.decideWinner(); //the only one left, or by the last move
+        if (winner == 0) {
+            return fail(record, "the match finished with " + engine.getCurrentMarbles() + " marbles left");
+        }
+        finished = true;
+        if (winner != record.getPlayerID()) {
+            return fail(record, "player #" + winner + " should have won");
+        }
+        if (engine.getCompletedMoves().size() != record.getMoveCount()) {
+            return fail(record, engine.getCompletedMoves().size() + " moves were replayed");
+        }
+        if (engine.getMoveChecksum() != record.getChecksum()) {
+            return fail(record, "the replayed moves have the checksum " + Integer.toHexString(engine.getMoveChecksum()));
+        }
+        return true;
+    }
+
+    private boolean fail(JournalRecord record, String reason) {
+        mismatch = record + ": " + reason;
+        return false;
+    }
+
+    /**
+     * @return the engine holding the state of the match as far as it has
+     * been replayed
+     */
+    public GameLogicEngine getEngine() {
+        return engine;
+    }
+
+    public int getMatchID() {
+        return started.getMatchID();
+    }
+
+    /**
+     * @return the record the match was started with
+     */
+    public JournalRecord getStarted() {
+        return started;
+    }
+
+    /**
+     * @return true once the outcome of the match has been applied
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return true if the match has finished and everything agreed with the
+     * journal
+     */
+    public boolean isVerified() {
+        return finished && mismatch == null;
+    }
+
+    /**
+     * @return the first difference to the journal, or null if there is none
+     */
+    public String getMismatch() {
+        return mismatch;
+    }
+
+    @Override
+    public String toString() {
+        return "match #" + getMatchID() + ": " + engine.getCompletedMoves().size() + " moves, " + engine.getCurrentMarbles() + " of " + engine.getTotalMarbles()
+                + " marbles left" + (mismatch != null ? ", MISMATCH " + mismatch : finished ? ", verified" : "");
+    }
+}
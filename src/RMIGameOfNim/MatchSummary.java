@@ -0,0 +1,105 @@
+package RMIGameOfNim;
+
+/**
+ * What a match looks like between two of its moves, as listed by the admin
+ * queries. A match publishes a new summary whenever it changes, holding its
+ * own lock, and never changes one it has published, so reading the summary
+ * of a match takes no lock and always shows a state the match really was in.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public final class MatchSummary {
+
+    private final int matchID;
+    private final int chosenMode;
+    private final int chosenDifficulty;
+    private final int seatCount;
+    private final int[] playerIDs; //in the order they sat down
+    private final boolean started;
+    private final boolean over;
+    private final long totalMarbles;
+    private final long currentMarbles;
+    private final int nextTurn;
+    private final int moves;
+
+    MatchSummary(int matchID, int chosenMode, int chosenDifficulty, int seatCount, int[] playerIDs, boolean started, boolean over,
+            long totalMarbles, long currentMarbles, int nextTurn, int moves) {
+        this.matchID = matchID;
+        this.chosenMode = chosenMode;
+        this.chosenDifficulty = chosenDifficulty;
+        this.seatCount = seatCount;
+        this.playerIDs = playerIDs;
+        this.started = started;
+        this.over = over;
+        this.totalMarbles = totalMarbles;
+        this.currentMarbles = currentMarbles;
+        this.nextTurn = nextTurn;
+        this.moves = moves;
+    }
+
+    public int getMatchID() {
+        return matchID;
+    }
+
+    public int getChosenMode() {
+        return chosenMode;
+    }
+
+    public int getChosenDifficulty() {
+        return chosenDifficulty;
+    }
+
+    /**
+     * @return the seated players in the order they sat down
+     */
+    public int[] getPlayerIDs() {
+        return playerIDs.clone();
+    }
+
+    /**
+     * @return true while the match is a lobby waiting for more players
+     */
+    public boolean isWaiting() {
+        return !started && !over;
+    }
+
+    /**
+     * @return true while the match is being played
+     */
+    public boolean isPlaying() {
+        return started && !over;
+    }
+
+    public boolean isOver() {
+        return over;
+    }
+
+    /**
+     * @return one line for the admin queries, i.e. "Match #12 human easy
+     * playing, Player #3 and Player #4, 7 of 14 marbles left after 3 moves,
+     * Player #4 to move"
+     */
+    public String format() {
+        StringBuilder line = new StringBuilder("Match #").append(matchID)
+                .append(chosenMode == GameEngineRemoteInterface.CPU_MODE ? " cpu " : " human ")
+                .append(chosenDifficulty == GameEngineRemoteInterface.HARD_DIFFICULTY ? "hard " : "easy ")
+                .append(over ? "over" : started ? "playing" : "waiting").append(", ");
+        for (int i = 0; i < playerIDs.length; i++) {
+            line.append(i == 0 ? "" : i == playerIDs.length - 1 ? " and " : ", ").append(nameOf(playerIDs[i]));
+        }
+        if (!started) {
+            return line.append(", ").append(playerIDs.length).append(" of ").append(seatCount).append(" seats taken").toString();
+        }
+        return line.append(", ").append(currentMarbles).append(" of ").append(totalMarbles).append(" marbles left after ").append(moves)
+                .append(moves == 1 ? " move" : " moves").append(over ? "" : ", " + nameOf(nextTurn) + " to move").toString();
+    }
+
+    private static String nameOf(int playerID) {
+        return playerID == Integer.MIN_VALUE ? "the computer" : "Player #" + playerID;
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,414 @@
+package RMIGameOfNim;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lobbies waiting for a second player, indexed by the rating of the player
+ * waiting in them. A lobby accepts any player whose rating is within its
+ * window, which starts at {@link ServerConfig#MATCHMAKING_WINDOW} points and
+ * widens by {@link ServerConfig#MATCHMAKING_WIDEN} points for every second the
+ * lobby has been waiting, so nobody waits forever for an equal opponent.
+ * <p>
+ * The lobbies of each difficulty and choice of total marbles are kept in
+ * buckets of {@link #BUCKET_WIDTH} rating points, ordered by how long they
+ * have been waiting within a bucket, so a lobby put back keeps its place. A
+ * player looking for a match
+ * searches the buckets outwards from their own rating, so the closest bucket
+ * with a willing lobby wins and the oldest lobby in it is taken. Within a
+ * bucket the older lobbies have the wider windows, so the search of a bucket
+ * stops at the first lobby whose window does not reach it. Each decision
+ * therefore looks at a fixed number of buckets and a handful of lobbies,
+ * however many are waiting.
+ * <p>
+ * Two lobbies that have both been waiting are paired by {@link #sweep(long)},
+ * which the server runs every second: the oldest lobby of every bucket looks
+ * for another one within its window whose players fit into its free seats.
+ * Lobbies whose opener chose the total marbles only take players who chose
+ * the same, the others only players who did not choose any, so every total
+ * has buckets of its own and lobbies for other totals are never looked at.
+ * <p>
+ * A lobby for more than two players is taken out of the index when a player
+ * is paired with it like any other; the server puts it back, at the average
+ * rating of its players, while it still has free seats.
+ * <p>
+ * Every method takes the lock of the matchmaker, the server additionally
+ * holds its matchmaking lock around pairing so a player cannot end up in two
+ * matches.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class Matchmaker {
+
+    public static final int BUCKET_WIDTH = 25;
+    static final int BUCKETS = 128; //ratings from 0 to 3200, anything outside goes in the first or last bucket
+
+    private final int window;
+    private final int widenPerSecond;
+    private final Map<GameLogicEngine, Lobby> lobbies = new HashMap<>();
+    private final List<Map<Long, Pool>> pools = new ArrayList<>(); //by difficulty, then by the total chosen, 0 for none
+    private long pairings = 0;
+    private long playersPaired = 0;
+    private long totalWaitNanos = 0;
+    private long totalRatingSpread = 0;
+    private int maxRatingSpread = 0;
+
+    private static final Comparator<Lobby> LONGEST_WAITING = new Comparator<Lobby>() {
+        @Override
+        public int compare(Lobby one, Lobby two) {
+            int order = Long.compare(one.sinceNanos - two.sinceNanos, 0); //nanoTime may wrap, only differences count
+            return order != 0 ? order : Integer.compare(one.match.getMatchID(), two.match.getMatchID());
+        }
+    };
+
+    /**
+     * A lobby in the index
+     */
+    private static final class Lobby {
+
+        final GameLogicEngine match;
+        final int rating;
+        final long sinceNanos;
+        final int bucket;
+        final Pool pool;
+
+        Lobby(GameLogicEngine match, int rating, long sinceNanos, Pool pool) {
+            this.match = match;
+            this.rating = rating;
+            this.sinceNanos = sinceNanos;
+            this.bucket = bucketOf(rating);
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * The lobbies of one difficulty and total, by rating. Buckets are created
+     * when first used, so a total only one lobby has chosen costs one bucket.
+     */
+    private static final class Pool {
+
+        final int difficulty;
+        final long marbles;
+        final List<TreeSet<Lobby>> byRating = new ArrayList<>(BUCKETS);
+        int size = 0;
+
+        Pool(int difficulty, long marbles) {
+            this.difficulty = difficulty;
+            this.marbles = marbles;
+            for (int i = 0; i < BUCKETS; i++) {
+                byRating.add(null);
+            }
+        }
+
+        /**
+         * @return the lobbies in the bucket longest waiting first, null if
+         * there have never been any
+         */
+        TreeSet<Lobby> get(int bucket) {
+            return byRating.get(bucket);
+        }
+
+        void add(Lobby lobby) {
+            TreeSet<Lobby> bucket = byRating.get(lobby.bucket);
+            if (bucket == null) {
+                bucket = new TreeSet<>(LONGEST_WAITING);
+                byRating.set(lobby.bucket, bucket);
+            }
+            bucket.add(lobby);
+            size++;
+        }
+
+        void remove(Lobby lobby) {
+            if (byRating.get(lobby.bucket).remove(lobby)) {
+                size--;
+            }
+        }
+    }
+
+    /**
+     * @param window rating points a new lobby accepts either way
+     * @param widenPerSecond rating points the window grows by per second of
+     * waiting
+     * @param difficulties number of difficulties, lobbies are only paired
+     * within the same one
+     */
+    public Matchmaker(int window, int widenPerSecond, int difficulties) {
+        this.window = window;
+        this.widenPerSecond = widenPerSecond;
+        for (int i = 0; i < difficulties; i++) {
+            pools.add(new HashMap<Long, Pool>());
+        }
+    }
+
+    /**
+     * Puts a lobby in the index, or moves it if it is in already. A lobby put
+     * back after a player joined it keeps its place by the time it has been
+     * waiting.
+     *
+     * @param match the match waiting for more players
+     * @param rating rating of the players waiting in it
+     * @param sinceNanos when the player started waiting, from
+     * {@link System#nanoTime()}
+     */
+    public synchronized void add(GameLogicEngine match, int rating, long sinceNanos) {
+        remove(match);
+        Map<Long, Pool> byTotal = pools.get(match.getChosenDifficulty());
+        Pool pool = byTotal.get(match.getCustomMarbles());
+        if (pool == null) {
+            pool = new Pool(match.getChosenDifficulty(), match.getCustomMarbles());
+            byTotal.put(pool.marbles, pool);
+        }
+        Lobby lobby = new Lobby(match, rating, sinceNanos, pool);
+        lobbies.put(match, lobby);
+        pool.add(lobby);
+    }
+
+    /**
+     * @param match
+     * @return true if the lobby is in the index
+     */
+    public synchronized boolean contains(GameLogicEngine match) {
+        return lobbies.containsKey(match);
+    }
+
+    /**
+     * Takes a lobby out of the index, i.e. because its player gave up
+     *
+     * @param match
+     * @return false if the lobby was not in the index
+     */
+    public synchronized boolean remove(GameLogicEngine match) {
+        Lobby lobby = lobbies.remove(match);
+        if (lobby == null) {
+            return false;
+        }
+        lobby.pool.remove(lobby);
+        if (lobby.pool.size == 0) { //a total nobody waits for any more
+            pools.get(lobby.pool.difficulty).remove(lobby.pool.marbles);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the closest lobby whose window reaches the rating and takes it out
+     * of the index. Lobbies that are over are skipped, they are taken out by
+     * {@link #remove(GameLogicEngine)} once their match has ended.
+     *
+     * @param difficulty
+     * @param marbles total marbles the player has chosen, 0 for none
+     * @param rating rating of the player looking for a match
+     * @param nowNanos
+     * @return the lobby to join, or null if none accepts the player
+     */
+    public synchronized GameLogicEngine pair(int difficulty, long marbles, int rating, long nowNanos) {
+        Pool pool = pools.get(difficulty).get(marbles);
+        if (pool == null) {
+            return null;
+        }
+        int centre = bucketOf(rating);
+        for (int offset = 0; offset < BUCKETS; offset++) { //closest buckets first
+            for (int side = offset == 0 ? 1 : -1; side <= 1; side += 2) {
+                int bucket = centre + side * offset;
+                if (bucket < 0 || bucket >= BUCKETS) {
+                    continue;
+                }
+                Lobby lobby = findIn(pool.get(bucket), bucket, rating, nowNanos);
+                if (lobby != null) {
+                    remove(lobby.match);
+                    paired(lobby, rating, nowNanos - lobby.sinceNanos, 0);
+                    return lobby.match;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the oldest lobby in the bucket whose window reaches the rating
+     */
+    private Lobby findIn(TreeSet<Lobby> bucket, int index, int rating, long nowNanos) {
+        if (bucket == null) {
+            return null;
+        }
+        int nearest = distanceToBucket(rating, index);
+        for (Lobby lobby : bucket) {
+            if (lobby.match.isGameOver()) { //given up but not cleaned up yet
+                continue;
+            }
+            int reach = windowAfter(nowNanos - lobby.sinceNanos);
+            if (reach < nearest) { //the lobbies after it have waited less, so their windows are narrower still
+                return null;
+            }
+            if (Math.abs(lobby.rating - rating) <= reach) {
+                return lobby;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pairs lobbies that have been waiting long enough for their windows to
+     * reach another waiting lobby. For every pair the older lobby is kept and
+     * the players of the younger one are to be moved into it; both are taken
+     * out of the index.
+     *
+     * @param nowNanos
+     * @return pairs of the lobby to keep and the lobby to give up
+     */
+    public synchronized List<GameLogicEngine[]> sweep(long nowNanos) {
+        List<GameLogicEngine[]> pairs = new ArrayList<>();
+        List<Pool> all = new ArrayList<>();
+        for (Map<Long, Pool> byTotal : pools) {
+            all.addAll(byTotal.values()); //pools emptied by pairing are dropped from the map meanwhile
+        }
+        for (Pool pool : all) {
+            if (pool.size < 2) { //nobody else waits for that total
+                continue;
+            }
+            for (TreeSet<Lobby> bucket : pool.byRating) {
+                Lobby oldest;
+                while ((oldest = oldestLive(bucket)) != null) {
+                    int reach = windowAfter(nowNanos - oldest.sinceNanos);
+                    Lobby partner = findPartner(pool, oldest, reach);
+                    if (partner == null) {
+                        break;
+                    }
+                    remove(oldest.match);
+                    remove(partner.match);
+                    Lobby older = partner.sinceNanos < oldest.sinceNanos ? partner : oldest;
+                    Lobby younger = older == oldest ? partner : oldest;
+                    paired(older, younger.rating, nowNanos - older.sinceNanos, nowNanos - younger.sinceNanos);
+                    pairs.add(new GameLogicEngine[]{older.match, younger.match});
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static Lobby oldestLive(TreeSet<Lobby> bucket) {
+        if (bucket == null) {
+            return null;
+        }
+        for (Lobby lobby : bucket) {
+            if (!lobby.match.isGameOver()) {
+                return lobby;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the closest other lobby within reach of the given one
+     */
+    private Lobby findPartner(Pool pool, Lobby lobby, int reach) {
+        for (int offset = 0; offset < BUCKETS; offset++) {
+            boolean inReach = false;
+            for (int side = offset == 0 ? 1 : -1; side <= 1; side += 2) {
+                int bucket = lobby.bucket + side * offset;
+                if (bucket < 0 || bucket >= BUCKETS || distanceToBucket(lobby.rating, bucket) > reach) {
+                    continue;
+                }
+                inReach = true;
+                TreeSet<Lobby> others = pool.get(bucket);
+                if (others == null) {
+                    continue;
+                }
+                for (Lobby other : others) {
+                    if (other != lobby && !other.match.isGameOver() && Math.abs(other.rating - lobby.rating) <= reach && fit(lobby.match, other.match)) {
+                        return other;
+                    }
+                }
+            }
+            if (!inReach) { //the buckets further out are further away still
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the players of both lobbies fit into one of them, both
+     * are of the same pool so they play with the same choice of marbles
+     */
+    private static boolean fit(GameLogicEngine one, GameLogicEngine two) {
+        return one.getSeatCount() == two.getSeatCount() && one.getSeatedCount() + two.getSeatedCount() <= one.getSeatCount();
+    }
+
+    private void paired(Lobby lobby, int rating, long waitedNanos, long otherWaitedNanos) {
+        int spread = Math.abs(lobby.rating - rating);
+        pairings++;
+        playersPaired += 2;
+        totalWaitNanos += waitedNanos + otherWaitedNanos;
+        totalRatingSpread += spread;
+        maxRatingSpread = Math.max(maxRatingSpread, spread);
+    }
+
+    /**
+     * @param waitedNanos
+     * @return how far from its own rating a lobby accepts a player after
+     * waiting this long
+     */
+    int windowAfter(long waitedNanos) {
+        long widened = window + widenPerSecond * TimeUnit.NANOSECONDS.toMillis(Math.max(0, waitedNanos)) / 1000;
+        return (int) Math.min(Integer.MAX_VALUE, widened);
+    }
+
+    static int bucketOf(int rating) {
+        return Math.max(0, Math.min(BUCKETS - 1, rating / BUCKET_WIDTH));
+    }
+
+    /**
+     * @return how far the rating is from the nearest rating that falls into
+     * the bucket, 0 if it falls into it
+     */
+    private static int distanceToBucket(int rating, int bucket) {
+        int low = bucket == 0 ? Integer.MIN_VALUE : bucket * BUCKET_WIDTH;
+        int high = bucket == BUCKETS - 1 ? Integer.MAX_VALUE : (bucket + 1) * BUCKET_WIDTH - 1;
+        return rating < low ? low - rating : rating > high ? rating - high : 0;
+    }
+
+    /**
+     * @return lobbies in the index
+     */
+    public synchronized int size() {
+        return lobbies.size();
+    }
+
+    /**
+     * @return matches made, a player joining a lobby or two lobbies put
+     * together
+     */
+    public synchronized long getPairings() {
+        return pairings;
+    }
+
+    /**
+     * @return the average time a paired player had been waiting, 0 for a
+     * player who joined a lobby straight away
+     */
+    public synchronized double getAverageWaitMillis() {
+        return playersPaired == 0 ? 0 : totalWaitNanos / 1e6 / playersPaired;
+    }
+
+    /**
+     * @return the average rating difference between paired players
+     */
+    public synchronized double getAverageRatingSpread() {
+        return pairings == 0 ? 0 : totalRatingSpread / (double) pairings;
+    }
+
+    public synchronized int getMaxRatingSpread() {
+        return maxRatingSpread;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d waiting, %d pairings, average wait %.0f ms, average rating spread %.0f (most %d)",
+                size(), pairings, getAverageWaitMillis(), getAverageRatingSpread(), maxRatingSpread);
+    }
+}
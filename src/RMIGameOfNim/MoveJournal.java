@@ -0,0 +1,377 @@
+package RMIGameOfNim;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of every match started, every move made and every
+ * outcome on the server, written to memory-mapped segment files in a
+ * directory. {@link JournalReader} reads it back.
+ * <p>
+ * The threads making moves only put the record into a lock free ring buffer,
+ * like the {@link AsyncServerLog}, and a single writer thread encodes the
+ * waiting records as one frame and copies it into the mapped segment. Unlike
+ * the log, records are never dropped: when the buffer is full the caller waits
+ * for the writer. Once copied into the mapping the data survives the process
+ * crashing; segments are forced to disk when they are full and on close.
+ * <p>
+ * File format, all numbers big-endian. Each segment "moves-N.journal" starts
+ * with a header (int magic "NIMJ", byte version, 3 bytes padding, long segment
+ * number, long base time in milliseconds) followed by frames. A frame is the
+ * payload length as a varint, the payload and the CRC32 of the payload as an
+ * int; a length of 0 marks the end of the segment. The payload starts with the
+ * frame time as a zig-zag varint relative to the segment base time, followed
+ * by the records: a type byte, the match id as a varint and the player, value,
+ * marbles and time since the previous record (or the frame time) as zig-zag
+ * varints. A move takes about 8 bytes. Giving up is a move of
+ * {@link GameEngineRemoteInterface#GIVE_UP}, in version 1 segments it was one
+ * of {@link Integer#MAX_VALUE}.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MoveJournal {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 16384;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+
+    static final int MAGIC = 0x4E494D4A; //"NIMJ"
+    static final byte VERSION = 2; //1 gave up with Integer.MAX_VALUE, still read
+    static final int HEADER_SIZE = 24;
+    static final String SEGMENT_PREFIX = "moves-";
+    static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAX_RECORD_SIZE = 1 + 5 + 5 + 10 + 10 + 10;
+    static final int MAX_FRAME_SIZE = 5 + 10 + DEFAULT_BATCH_SIZE * MAX_RECORD_SIZE + 4;
+
+    private final File directory;
+    private final int segmentSize;
+    private final AsyncServerLog log;
+    private final AtomicReferenceArray<JournalRecord> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); //next sequence to be claimed by a producer
+    private volatile long head = 0; //next sequence to be written by the writer
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile boolean running = true;
+    private volatile boolean failed = false;
+    private final Thread writer;
+
+    //only used by the writer thread
+    private final byte[] frame = new byte[MAX_FRAME_SIZE];
+    private final CRC32 crc = new CRC32();
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+    private long segmentBaseMillis;
+
+    /**
+     * Opens the journal with the default segment and buffer sizes
+     *
+     * @param directory created if missing
+     * @param log used to report write errors
+     * @throws IOException if the first segment cannot be created
+     */
+    public MoveJournal(File directory, AsyncServerLog log) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_BUFFER_SIZE, log);
+    }
+
+    /**
+     * Opens the journal. Existing segments are left untouched, writing starts
+     * in a new segment numbered after the last one.
+     *
+     * @param directory created if missing
+     * @param segmentSize size of every segment file in bytes
+     * @param bufferSize number of records that can be waiting for the writer,
+     * rounded up to a power of two
+     * @param log used to report write errors
+     * @throws IOException if the first segment cannot be created
+     */
+    public MoveJournal(File directory, int segmentSize, int bufferSize, AsyncServerLog log) throws IOException {
+        if (segmentSize < HEADER_SIZE + MAX_FRAME_SIZE + 1) {
+            throw new IllegalArgumentException("The segment size must be at least " + (HEADER_SIZE + MAX_FRAME_SIZE + 1) + " bytes");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.log = log;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        segmentNumber = lastSegmentNumber(directory);
+        openNextSegment();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "MoveJournal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a record for the journal. Only waits if the writer has fallen a
+     * whole buffer behind.
+     *
+     * @param record
+     * @return false if the journal has been closed or cannot be written
+     */
+    public boolean append(JournalRecord record) {
+        while (running && !failed) {
+            long sequence = tail.get();
+            if (sequence - head > mask) { //the writer is a whole buffer behind, wait for it rather than lose the move
+                LockSupport.unpark(writer);
+                Thread.yield();
+                continue;
+            }
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                slots.lazySet((int) sequence & mask, record);
+                if (sequence - head == (mask >> 1)) { //half full, wake the writer up early
+                    LockSupport.unpark(writer);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return records copied into the segments so far
+     */
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    /**
+     * @return bytes of frames copied into the segments so far, without the
+     * headers
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the directory holding the segments
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes the remaining records, forces the segment to disk and stops the
+     * writer thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writer loop: write a frame of up to a batch of records and park for the
+     * flush interval once the buffer is empty
+     */
+    private void write() {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FLUSH_INTERVAL_MILLIS);
+        while (true) {
+            boolean stopping = !running;
+            int records = 0;
+            try {
+                records = writeFrame();
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                log.append("The move journal could not be written and has been stopped: " + e);
+                return;
+            }
+            if (records < DEFAULT_BATCH_SIZE) { //caught up with the producers
+                if (stopping && tail.get() == head) {
+                    segment.force();
+                    return;
+                }
+                LockSupport.parkNanos(this, flushIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Encodes up to a batch of waiting records as one frame and copies it into
+     * the current segment, starting a new segment first if a frame of the
+     * largest size might not fit
+     *
+     * @return number of records written
+     * @throws IOException if a new segment is needed but cannot be created
+     */
+    private int writeFrame() throws IOException {
+        long sequence = head;
+        JournalRecord first = slots.get((int) sequence & mask);
+        if (first == null) { //nothing published yet
+            return 0;
+        }
+        if (segment.remaining() < MAX_FRAME_SIZE + 1) { //a full frame must fit, with a zero length left after it to mark the end
+            segment.force();
+            openNextSegment();
+        }
+        int position = 5; //leave room for the length, the payload is moved down behind it afterwards
+        long previousMillis = first.getTimeMillis();
+        position = writeZigZag(frame, position, previousMillis - segmentBaseMillis);
+        int records = 0;
+        while (records < DEFAULT_BATCH_SIZE) {
+            int index = (int) sequence & mask;
+            JournalRecord record = slots.get(index);
+            if (record == null) { //not claimed yet, or claimed but not yet published
+                break;
+            }
+            slots.lazySet(index, null);
+            sequence++;
+            head = sequence; //frees the slot for the producers
+            frame[position++] = (byte) record.getType();
+            position = writeVarint(frame, position, record.getMatchID() & 0xFFFFFFFFL);
+            position = writeZigZag(frame, position, record.getPlayerID());
+            position = writeZigZag(frame, position, record.getValue());
+            position = writeZigZag(frame, position, record.getMarbles());
+            position = writeZigZag(frame, position, record.getTimeMillis() - previousMillis);
+            previousMillis = record.getTimeMillis();
+            records++;
+        }
+        int payloadLength = position - 5;
+        int lengthBytes = varintSize(payloadLength);
+        int start = 5 - lengthBytes;
+        writeVarint(frame, start, payloadLength);
+        crc.reset();
+        crc.update(frame, 5, payloadLength);
+        int frameLength = lengthBytes + payloadLength + 4;
+        segment.put(frame, start, lengthBytes + payloadLength);
+        segment.putInt((int) crc.getValue());
+        recordsWritten.addAndGet(records);
+        bytesWritten.addAndGet(frameLength);
+        return records;
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentNumber++;
+        File file = new File(directory, segmentName(segmentNumber));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); //the mapping stays valid after the channel is closed
+        }
+        segmentBaseMillis = System.currentTimeMillis();
+        segment.putInt(MAGIC);
+        segment.put(VERSION);
+        segment.put(new byte[3]);
+        segment.putLong(segmentNumber);
+        segment.putLong(segmentBaseMillis);
+    }
+
+    /**
+     * @param number
+     * @return file name of the segment, numbered so they sort in order
+     */
+    static String segmentName(long number) {
+        return String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @param directory
+     * @return the segment files in the directory, oldest first
+     */
+    static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long lastSegmentNumber(File directory) {
+        File[] segments = listSegments(directory);
+        if (segments.length == 0) {
+            return 0;
+        }
+        String name = segments[segments.length - 1].getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    static int writeZigZag(byte[] buffer, int position, long value) {
+        return writeVarint(buffer, position, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @param buffer
+     * @param position
+     * @param value receives the decoded value in its first element
+     * @return the position after the varint
+     */
+    static int readVarint(byte[] buffer, int position, long[] value) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer[position++];
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        value[0] = result;
+        return position;
+    }
+
+    /**
+     * @param in
+     * @return the varint read from the stream
+     * @throws IOException if the stream ends within the varint
+     */
+    static long readVarint(DataInput in) throws IOException {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 64);
+        return result;
+    }
+
+    static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,117 @@
+package RMIGameOfNim;
+
+/**
+ * The rules of a move, shared by the {@link GameLogicEngine} deciding every
+ * move on the server and the {@link MatchMirror} of a client turning down a
+ * move it can tell is illegal before sending it. Both answer with the same
+ * words, so a player cannot tell which of them it was.
+ * <p>
+ * Also the words of every message about a match the mirror follows it by: the
+ * server writes them with the methods below and the mirror reads them with
+ * the same constants, so neither can change them without the other.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public final class NimRules {
+
+    public static final String ILLEGAL_MOVE = "Illegal move, try again."; //the reply to a move that has not been made
+    public static final String NOT_YOUR_TURN = "It is not currently your turn. Please wait for the other player to make their move!";
+
+    public static final String MATCH_FOUND = "Match found!";
+    public static final String COMPUTER_MATCH_STARTED = "Match with the computer has started.";
+    public static final String TOTAL_MARBLES = "The total amount of marbles is "; //followed by the count, last in the message
+    public static final String YOUR_TURN = "It is your turn."; //followed by the time left if the match has clocks
+    public static final String OTHER_PLAYERS_TURN = "It is the other players turn.";
+    public static final String IS_OUT = " is out, it is your turn."; //after the name of the player who is out
+    public static final String MARBLES_PICKED = " marbles picked."; //after the move, first in the message
+    public static final String OTHER_PLAYER_TOOK = "The other player has taken ";
+    public static final String MARBLES_LEFT = "There are now "; //followed by the count
+    public static final String CPU_TOOK = "The CPU has taken ";
+    public static final String CPU_TOTAL = "The total is now "; //followed by the count, last in the message
+    public static final String INVALID_MOVE = "This is an invalid move.";
+    public static final String WON = "You have won the game!";
+    public static final String LOST = "You have lost the game!";
+    public static final String GAVE_UP = "You have given up!";
+    public static final String OUT_OF_TIME = "You have run out of time!";
+    public static final String MATCH_ENDED = "The match has ended, you can now start a new game!";
+    public static final String LOBBY_CLOSED = "Your match lobby has been closed, please start a new game.";
+
+    private NimRules() {
+    }
+
+    /**
+     * Checks a move against the rules: at least one marble and at most half of
+     * the current marbles, or the last marble. Two comparisons whatever the
+     * number of marbles, and no arithmetic that could overflow.
+     *
+     * @param move
+     * @param currentMarbles
+     * @return true if the move is legal
+     */
+    public static boolean isLegalMove(long move, long currentMarbles) {
+        if (move == 1 && currentMarbles == 1) { //taking 1 is valid even when there are only 2 marbles left
+            return true;
+        }
+        return (move >= 1 && (move <= (currentMarbles / 2))); //if the move greater or equal to 1 and is smaller or equal to half of the current marbles
+    }
+
+    /**
+     * @param currentMarbles
+     * @return the most marbles a move may take, 0 once they are gone
+     */
+    public static long maxMove(long currentMarbles) {
+        return currentMarbles == 1 ? 1 : Math.max(0, currentMarbles / 2);
+    }
+
+    /**
+     * @param currentMarbles
+     * @return the message telling the player to move why their move was not
+     * made
+     */
+    public static String invalidMove(long currentMarbles) {
+        return INVALID_MOVE + "\nYou may only pick a number greater than one and smaller than half of the marbles left!\n" + TOTAL_MARBLES + currentMarbles;
+    }
+
+    /**
+     * @param totalMarbles
+     * @return the message telling the players a match has started
+     */
+    public static String matchFound(long totalMarbles) {
+        return MATCH_FOUND + "\n" + TOTAL_MARBLES + totalMarbles;
+    }
+
+    /**
+     * @param name of the player who is out
+     * @return the message telling the next player it is their turn
+     */
+    public static String playerOut(String name) {
+        return name + IS_OUT;
+    }
+
+    /**
+     * @param move
+     * @return the message telling the player their move has been made
+     */
+    public static String marblesPicked(long move) {
+        return move + MARBLES_PICKED + "\nIt is now the other players turn.";
+    }
+
+    /**
+     * @param move
+     * @param currentMarbles left after the move
+     * @return the message telling the next player of the move, followed by
+     * their time left if the match has clocks
+     */
+    public static String otherPlayerTook(long move, long currentMarbles) {
+        return OTHER_PLAYER_TOOK + move + " marbles.\n" + MARBLES_LEFT + currentMarbles + " marbles left.\nMake your move!";
+    }
+
+    /**
+     * @param move
+     * @param currentMarbles left after the move
+     * @return the message telling the player of the move of the computer
+     */
+    public static String cpuTook(long move, long currentMarbles) {
+        return CPU_TOOK + move + " marbles.\n" + CPU_TOTAL + currentMarbles;
+    }
+}
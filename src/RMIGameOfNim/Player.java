@@ -1,13 +1,21 @@
 package RMIGameOfNim;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Player class used to hold the information relevant to them, such as their ID,
  * their settings and if they are ready or in a match. Further this includes a
  * list of messages that is being used as a queue by the server to tell send
- * messages to the client GUI
+ * messages to the client GUI. Matches the player is watching are read through
+ * a cursor each, their events are not copied into the messages. A player
+ * registered with a session has a secret the client resumes the session with
+ * after losing the connection.
  *
  * @author Alexander.Keidel@go.edgehill.ac.uk
  */
@@ -16,9 +24,13 @@ public class Player {
     private int playerID;
     private int chosenMode = GameEngineRemoteInterface.HUMAN_MODE;
     private int chosenDifficulty = GameEngineRemoteInterface.EASY_DIFFICULYT;
+    private volatile long chosenMarbles = 0; //total marbles for the next matches, 0 to draw them for the difficulty
     private boolean ready = false;
     private boolean inMatch = false;
-    private List<String> messages = new LinkedList<>();
+    private final List<String> messages = Collections.synchronizedList(new LinkedList<String>()); //written by the match threads, read by the RMI threads
+    private volatile GameLogicEngine currentMatch = null; //the match the player has most recently been assigned to
+    private final List<MatchEventLog.Cursor> spectating = new CopyOnWriteArrayList<>(); //matches the player is watching, rarely changed
+    private volatile String sessionSecret = null; //part of the session token, null if the player was registered without a session
 
     public Player() {
     }
@@ -90,6 +102,21 @@ public class Player {
         this.chosenDifficulty = chosenDifficulty;
     }
 
+    /**
+     * @return the total marbles the player wants to play their next matches
+     * with, 0 for a number drawn for the difficulty
+     */
+    public long getChosenMarbles() {
+        return chosenMarbles;
+    }
+
+    /**
+     * @param chosenMarbles at least 2, or 0 to go back to the difficulty
+     */
+    public void setChosenMarbles(long chosenMarbles) {
+        this.chosenMarbles = chosenMarbles;
+    }
+
     /**
      * @return the messages
      */
@@ -101,6 +128,139 @@ public class Player {
         messages.add(message);
     }
 
+    /**
+     * Takes the oldest message off the queue
+     *
+     * @return the message, or null if there is none
+     */
+    public String pollMessage() {
+        synchronized (messages) {
+            return messages.isEmpty() ? null : messages.remove(0);
+        }
+    }
+
+    /**
+     * Takes every message off the queue at once
+     *
+     * @return the messages, oldest first
+     */
+    public List<String> drainMessages() {
+        synchronized (messages) {
+            List<String> drained = new ArrayList<>(messages);
+            messages.clear();
+            return drained;
+        }
+    }
+
+    /**
+     * Starts watching a match, instead of watching it from the start again if
+     * the player already is
+     *
+     * @param cursor
+     */
+    public void spectate(MatchEventLog.Cursor cursor) {
+        unspectate(cursor.getMatchID());
+        spectating.add(cursor);
+    }
+
+    /**
+     * @param matchID
+     * @return false if the player was not watching the match
+     */
+    public boolean unspectate(int matchID) {
+        for (MatchEventLog.Cursor cursor : spectating) {
+            if (cursor.getMatchID() == matchID) {
+                return spectating.remove(cursor);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of matches the player has stopped watching
+     */
+    public int unspectateAll() {
+        int count = spectating.size();
+        spectating.clear();
+        return count;
+    }
+
+    /**
+     * Takes the next event of the matches the player is watching, forgetting
+     * matches that are over once every event has been read
+     *
+     * @return the event, or null if there is none
+     */
+    public String pollSpectatorEvent() {
+        for (MatchEventLog.Cursor cursor : spectating) {
+            String event = cursor.next();
+            if (event != null) {
+                return event;
+            }
+            if (cursor.isFinished()) {
+                spectating.remove(cursor);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the matches the player is watching
+     */
+    public List<Integer> getSpectatedMatchIDs() {
+        List<Integer> matchIDs = new ArrayList<>(spectating.size());
+        for (MatchEventLog.Cursor cursor : spectating) {
+            matchIDs.add(cursor.getMatchID());
+        }
+        return matchIDs;
+    }
+
+    /**
+     * @return number of messages waiting to be collected
+     */
+    public int getPendingMessageCount() {
+        return messages.size();
+    }
+
+    /**
+     * @return the match the player has most recently been assigned to, which
+     * may be over already, or null
+     */
+    public GameLogicEngine getCurrentMatch() {
+        return currentMatch;
+    }
+
+    /**
+     * @param currentMatch the currentMatch to set
+     */
+    public void setCurrentMatch(GameLogicEngine currentMatch) {
+        this.currentMatch = currentMatch;
+    }
+
+    /**
+     * @return the secret of the player's session, or null if they have none
+     */
+    public String getSessionSecret() {
+        return sessionSecret;
+    }
+
+    /**
+     * @param sessionSecret
+     */
+    public void setSessionSecret(String sessionSecret) {
+        this.sessionSecret = sessionSecret;
+    }
+
+    /**
+     * @param secret
+     * @return true if it is the secret of the player's session, compared in
+     * a time that does not depend on how much of it is right
+     */
+    public boolean isSessionSecret(String secret) {
+        String own = sessionSecret;
+        return own != null && secret != null && MessageDigest.isEqual(own.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * @param playerID the playerID to set
      */
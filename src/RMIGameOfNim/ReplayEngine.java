@@ -0,0 +1,350 @@
+package RMIGameOfNim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the matches in the {@link MoveJournal} and checks every one of them
+ * against the outcome that was recorded, see {@link MatchReplay}.
+ * <p>
+ * The journal is streamed once, front to back, by a single reader. Only the
+ * matches that are still going at the current point of the journal are held
+ * in memory, a match is dropped as soon as its outcome has been checked. With
+ * more than one thread the reader hands the records over in batches to worker
+ * threads, each match always to the same worker, so the moves of a match stay
+ * in order while different matches are replayed in parallel.
+ * <p>
+ * Usage: java -cp DistributedGameOfNim.jar RMIGameOfNim.ReplayEngine
+ * [journal.dir=journal] [match=N] [from=millis] [to=millis] [threads=N]
+ * [moves=N]
+ * <p>
+ * With match= the single match is replayed move by move and printed, moves=
+ * fast forwards over that many moves first. Without it every match started
+ * between from and to is replayed and the report is printed; matches still
+ * going at the end of the range are counted as unfinished.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ReplayEngine {
+
+    private static final int BATCH_SIZE = 512;
+    private static final int QUEUE_BATCHES = 64;
+    private static final int MAX_REPORTED_MISMATCHES = 10;
+    private static final List<JournalRecord> END = new ArrayList<>(); //tells a worker the journal has been read
+
+    private final File directory;
+    private final long fromMillis;
+    private final long toMillis;
+    private final int threads;
+
+    /**
+     * @param directory the directory the {@link MoveJournal} wrote to
+     * @param fromMillis first record to replay, in milliseconds since the epoch
+     * @param toMillis last record to replay, in milliseconds since the epoch
+     * @param threads number of threads replaying matches, 1 replays on the
+     * calling thread
+     */
+    public ReplayEngine(File directory, long fromMillis, long toMillis, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        this.directory = directory;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.threads = threads;
+    }
+
+    /**
+     * Replays every match started within the time range
+     *
+     * @return what has been replayed and what did not match
+     * @throws IOException if the journal cannot be read
+     * @throws InterruptedException if interrupted while waiting for the
+     * workers
+     */
+    public Report replay() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        try (JournalReader reader = new JournalReader(directory, fromMillis, toMillis)) {
+            if (threads == 1) {
+                Worker worker = new Worker(null);
+                JournalRecord record;
+                while ((record = reader.next()) != null) {
+                    worker.replay(record);
+                }
+                worker.finish();
+                report.add(worker.report);
+            } else {
+                replayInParallel(reader, report);
+            }
+            report.recordsRead = reader.getRecordsRead();
+            report.corruptFrames = reader.getCorruptFrames();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void replayInParallel(JournalReader reader, Report report) throws IOException, InterruptedException {
+        Worker[] workers = new Worker[threads];
+        Thread[] workerThreads = new Thread[threads];
+        List<List<JournalRecord>> batches = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(new ArrayBlockingQueue<List<JournalRecord>>(QUEUE_BATCHES));
+            workerThreads[i] = new Thread(workers[i], "ReplayEngine-" + i);
+            workerThreads[i].start();
+            batches.add(new ArrayList<JournalRecord>(BATCH_SIZE));
+        }
+        try {
+            JournalRecord record;
+            while ((record = reader.next()) != null) {
+                int index = (record.getMatchID() & Integer.MAX_VALUE) % threads;
+                List<JournalRecord> batch = batches.get(index);
+                batch.add(record);
+                if (batch.size() == BATCH_SIZE) {
+                    workers[index].queue.put(batch);
+                    batches.set(index, new ArrayList<JournalRecord>(BATCH_SIZE));
+                }
+            }
+            for (int i = 0; i < threads; i++) {
+                if (!batches.get(i).isEmpty()) {
+                    workers[i].queue.put(batches.get(i));
+                }
+            }
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                workers[i].queue.put(END);
+            }
+            for (int i = 0; i < threads; i++) {
+                workerThreads[i].join();
+                report.add(workers[i].report);
+            }
+        }
+    }
+
+    /**
+     * Replays the matches it is handed, either directly or from its queue on
+     * its own thread
+     */
+    private static class Worker implements Runnable {
+
+        private final BlockingQueue<List<JournalRecord>> queue;
+        private final Map<Integer, MatchReplay> live = new HashMap<>();
+        private final Report report = new Report();
+
+        Worker(BlockingQueue<List<JournalRecord>> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<JournalRecord> batch = queue.take();
+                    if (batch == END) {
+                        break;
+                    }
+                    for (JournalRecord record : batch) {
+                        replay(record);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finish();
+        }
+
+        void replay(JournalRecord record) {
+            if (record.getType() == JournalRecord.MATCH_STARTED) {
+                if (live.put(record.getMatchID(), new MatchReplay(record)) != null) { //the server was restarted and the number used again
+                    report.unfinished++;
+                }
+                report.matches++;
+                return;
+            }
+            MatchReplay replay = live.get(record.getMatchID());
+            if (replay == null) { //started before the range, or given up while the opponent was joining
+                report.orphanRecords++;
+                return;
+            }
+            if (record.getType() == JournalRecord.MOVE) {
+                report.moves++;
+            }
+            if (!replay.apply(record)) {
+                live.remove(record.getMatchID());
+                report.mismatch(replay);
+            } else if (replay.isFinished()) {
+                live.remove(record.getMatchID());
+                report.verified++;
+            }
+        }
+
+        void finish() {
+            report.unfinished += live.size();
+            live.clear();
+        }
+    }
+
+    /**
+     * The result of a replay
+     */
+    public static class Report {
+
+        private long matches;
+        private long verified;
+        private long mismatches;
+        private long unfinished;
+        private long moves;
+        private long orphanRecords;
+        private long recordsRead;
+        private long corruptFrames;
+        private long elapsedNanos;
+        private final List<String> mismatchDetails = new ArrayList<>();
+
+        void mismatch(MatchReplay replay) {
+            mismatches++;
+            if (mismatchDetails.size() < MAX_REPORTED_MISMATCHES) {
+                mismatchDetails.add(replay.getMismatch());
+            }
+        }
+
+        void add(Report other) {
+            matches += other.matches;
+            verified += other.verified;
+            mismatches += other.mismatches;
+            unfinished += other.unfinished;
+            moves += other.moves;
+            orphanRecords += other.orphanRecords;
+            for (String detail : other.mismatchDetails) {
+                if (mismatchDetails.size() < MAX_REPORTED_MISMATCHES) {
+                    mismatchDetails.add(detail);
+                }
+            }
+        }
+
+        /**
+         * @return matches started within the range
+         */
+        public long getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return matches whose every move and outcome agreed with the journal
+         */
+        public long getVerified() {
+            return verified;
+        }
+
+        /**
+         * @return matches that did not replay as recorded
+         */
+        public long getMismatches() {
+            return mismatches;
+        }
+
+        /**
+         * @return matches without an outcome within the range
+         */
+        public long getUnfinished() {
+            return unfinished;
+        }
+
+        /**
+         * @return moves replayed, including giving up
+         */
+        public long getMoves() {
+            return moves;
+        }
+
+        /**
+         * @return records of matches that started before the range
+         */
+        public long getOrphanRecords() {
+            return orphanRecords;
+        }
+
+        public long getRecordsRead() {
+            return recordsRead;
+        }
+
+        /**
+         * @return frames skipped because their checksum did not match
+         */
+        public long getCorruptFrames() {
+            return corruptFrames;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return the first few mismatches found
+         */
+        public List<String> getMismatchDetails() {
+            return mismatchDetails;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1, elapsedNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("%d matches, %d verified, %d mismatched, %d unfinished, %d moves, %d records (%d orphaned, %d corrupt frames) in %.1f ms, %.0f records/s",
+                    matches, verified, mismatches, unfinished, moves, recordsRead, orphanRecords, corruptFrames, elapsedNanos / 1e6, recordsRead / seconds));
+            for (String detail : mismatchDetails) {
+                builder.append("\n  ").append(detail);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * @param args see the class description
+     */
+    public static void main(String[] args) {
+        try {
+            ServerConfig config = ServerConfig.fromArgs(args);
+            File directory = new File(config.get(ServerConfig.JOURNAL_DIR));
+            if (config.get("match") != null) {
+                replayMatch(directory, config.getInt("match", 0), config.getInt("moves", 0));
+                return;
+            }
+            ReplayEngine engine = new ReplayEngine(directory, config.getLong("from", Long.MIN_VALUE), config.getLong("to", Long.MAX_VALUE),
+                    config.getInt("threads", Runtime.getRuntime().availableProcessors()));
+            Report report = engine.replay();
+            System.out.println(report);
+            System.exit(report.getMismatches() == 0 ? 0 : 1);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not replay the journal: " + e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            System.exit(2);
+        }
+    }
+
+    private static void replayMatch(File directory, int matchID, int skip) throws IOException {
+        try (MatchReplay replay = MatchReplay.open(directory, matchID)) {
+            if (replay == null) {
+                System.err.println("The journal has no match #" + matchID);
+                System.exit(1);
+                return;
+            }
+            System.out.println(replay.getStarted());
+            if (skip > 0) {
+                System.out.println("skipped " + replay.fastForward(skip) + " moves: " + replay);
+            }
+            while (replay.step()) {
+                System.out.println(replay);
+            }
+            System.out.println(replay);
+            System.exit(replay.isVerified() ? 0 : 1);
+        }
+    }
+}
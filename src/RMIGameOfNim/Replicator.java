@@ -0,0 +1,467 @@
+package RMIGameOfNim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The primary's side of hot-standby replication: streams every change of the
+ * server state to a {@link StandbyServer} in another process, which takes
+ * over the RMI binding if this one dies.
+ * <p>
+ * A standby connecting gets a snapshot of the server first and from then on
+ * every record of the {@link MoveJournal} (matches started, moves, results)
+ * and every player registered, with the secret of their session. That is
+ * what a restore is made of, so the standby keeps a journal directory of its
+ * own that restores to the state of this server. The threads making moves
+ * only put the change into a queue; a sender thread writes whatever has
+ * queued up as one batch, and a thread of its own reads the acknowledgements
+ * of the standby, timing how long a change took to be acknowledged.
+ * <p>
+ * With replication.ack=async nobody waits for the standby and a failover may
+ * lose the last moves. With "received" or "written" a remote call does not
+ * return before the standby has received, or written to its journal, every
+ * change made up to the end of the call, so a move a client has seen
+ * accepted survives a failover. If the standby does not answer within
+ * replication.ackTimeout the call returns anyway.
+ * <p>
+ * Stream format, all numbers big-endian: int magic "NIMR", byte version, byte
+ * ack mode; the snapshot (byte 1, the file name as UTF, long length, the
+ * bytes); then batches (byte 2, int number of changes, the changes, long
+ * number of changes sent so far). A change is a journal record (byte type,
+ * long time, int match and player, long value and marbles) or a registration (byte
+ * {@link #SESSION}, int player, the secret as UTF, empty for none). A batch
+ * without changes is sent as a heartbeat when there is nothing to send. The
+ * standby answers every batch with the number of changes it has taken on, as
+ * a long.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class Replicator {
+
+    public static final String ACK_ASYNC = "async";
+    public static final String ACK_RECEIVED = "received";
+    public static final String ACK_WRITTEN = "written";
+    public static final int DEFAULT_HEARTBEAT_MILLIS = 250;
+    public static final int DEFAULT_ACK_TIMEOUT_MILLIS = 1000;
+
+    static final int MAGIC = 0x4E494D52; //"NIMR"
+    static final byte VERSION = 2;
+    static final byte SNAPSHOT = 1, BATCH = 2;
+    static final byte SESSION = 0x10; //a change that is a registration rather than a journal record
+    static final int BATCH_SIZE = MoveJournal.DEFAULT_BATCH_SIZE;
+    static final int MAX_BACKLOG = 1 << 20; //changes queued for a standby that has stopped reading before it is dropped
+
+    private final GameServer server;
+    private final int port;
+    private final byte ackMode;
+    private final long ackTimeoutNanos;
+    private final long heartbeatNanos;
+    private final AsyncServerLog log;
+    private final ConcurrentLinkedQueue<Change> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong appended = new AtomicLong(); //changes queued for the standby connected now
+    private volatile long sent = 0; //changes written to the standby, only changed by the sender
+    private volatile long acknowledged = 0; //changes the standby has taken on
+    private final Object acks = new Object(); //waited on for the standby to catch up
+    private final LatencyHistogram lag = new LatencyHistogram(); //from queueing a change until the standby acknowledged it
+    private final AtomicLong timeouts = new AtomicLong(); //calls that stopped waiting for the standby
+    private volatile boolean streaming = false; //a standby is connected and changes are queued for it
+    private volatile Socket standby; //null while none is connected
+    private volatile Thread sender;
+    private volatile boolean stopped = false;
+    private ServerSocket listener;
+
+    /**
+     * A change of the server state on its way to the standby
+     */
+    private static final class Change {
+
+        final JournalRecord record; //null for a registration
+        final int playerID;
+        final String secret;
+        final long queuedNanos = System.nanoTime();
+
+        Change(JournalRecord record, int playerID, String secret) {
+            this.record = record;
+            this.playerID = playerID;
+            this.secret = secret;
+        }
+    }
+
+    /**
+     * A batch that has been sent, kept until it is acknowledged
+     */
+    private static final class Batch {
+
+        final long last; //changes sent up to and including this batch
+        final long oldestNanos; //when its first change was queued
+
+        Batch(long last, long oldestNanos) {
+            this.last = last;
+            this.oldestNanos = oldestNanos;
+        }
+    }
+
+    /**
+     * @param server
+     * @param port the standby connects to, on every address of the host
+     * @param ackMode {@link #ACK_ASYNC}, {@link #ACK_RECEIVED} or
+     * {@link #ACK_WRITTEN}
+     * @param ackTimeoutMillis how long a call waits for the standby
+     * @param heartbeatMillis how often a batch is sent when nothing changes
+     * @param log
+     */
+    public Replicator(GameServer server, int port, String ackMode, int ackTimeoutMillis, int heartbeatMillis, AsyncServerLog log) {
+        this.server = server;
+        this.port = port;
+        this.ackMode = ackModeOf(ackMode);
+        this.ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        this.log = log;
+    }
+
+    /**
+     * @param name
+     * @return 0 for async, 1 for received or 2 for written
+     * @throws IllegalArgumentException for any other name
+     */
+    static byte ackModeOf(String name) {
+        switch (name) {
+            case ACK_ASYNC:
+                return 0;
+            case ACK_RECEIVED:
+                return 1;
+            case ACK_WRITTEN:
+                return 2;
+            default:
+                throw new IllegalArgumentException("The replication ack mode must be " + ACK_ASYNC + ", " + ACK_RECEIVED + " or " + ACK_WRITTEN);
+        }
+    }
+
+    /**
+     * Opens the port and waits for a standby on a background thread
+     *
+     * @throws IOException if the port cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        listener = new ServerSocket(port);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "Replicator-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Closes the port and the connection to the standby
+     */
+    public synchronized void stop() {
+        stopped = true;
+        close(listener);
+        close(standby);
+    }
+
+    private void accept() {
+        while (!stopped) {
+            final Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                if (!stopped) {
+                    log.append("The replication port has been closed: " + e.getMessage());
+                }
+                return;
+            }
+            Socket previous = standby;
+            if (previous != null) { //a standby reconnecting, the old connection is dead
+                close(previous);
+                Thread old = sender;
+                try {
+                    old.join(TimeUnit.NANOSECONDS.toMillis(heartbeatNanos) * 4);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    stream(socket);
+                }
+            }, "Replicator");
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    /**
+     * Queues a record of the journal for the standby, does nothing while
+     * there is none
+     *
+     * @param record
+     */
+    void append(JournalRecord record) {
+        if (streaming) {
+            queue(new Change(record, 0, null));
+        }
+    }
+
+    /**
+     * Queues a registration for the standby, does nothing while there is none
+     *
+     * @param playerID
+     * @param secret the secret of the player's session, null for none
+     */
+    void registered(int playerID, String secret) {
+        if (streaming) {
+            queue(new Change(null, playerID, secret));
+        }
+    }
+
+    private void queue(Change change) {
+        queue.add(change);
+        if (appended.incrementAndGet() - sent > MAX_BACKLOG) { //the standby is not reading, let it start over
+            close(standby);
+        }
+        if (ackMode != 0) { //somebody is going to wait for it, send it now
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * Waits for the standby to acknowledge every change queued so far, unless
+     * the ack mode is async or no standby is connected
+     *
+     * @return false if the standby did not answer in time
+     */
+    boolean awaitAcknowledged() {
+        if (ackMode == 0 || !streaming) {
+            return true;
+        }
+        long target = appended.get();
+        long deadline = System.nanoTime() + ackTimeoutNanos;
+        synchronized (acks) {
+            while (acknowledged < target && streaming) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    timeouts.incrementAndGet();
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(acks, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the snapshot and then the changes to a standby until the
+     * connection breaks
+     */
+    private void stream(Socket socket) {
+        String address = socket.getRemoteSocketAddress().toString();
+        final ArrayDeque<Batch> unacknowledged = new ArrayDeque<>(); //shared with the thread reading the acknowledgements
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            synchronized (acks) { //the changes before the snapshot are in it
+                queue.clear();
+                appended.set(0);
+                sent = 0;
+                acknowledged = 0;
+                standby = socket;
+                streaming = true;
+            }
+            long start = System.nanoTime();
+            File snapshot = server.takeSnapshot();
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(ackMode);
+            out.writeByte(SNAPSHOT);
+            out.writeUTF(snapshot.getName());
+            out.writeLong(snapshot.length());
+            try (InputStream file = new FileInputStream(snapshot)) {
+                byte[] buffer = new byte[1 << 16];
+                for (int read; (read = file.read(buffer)) > 0;) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            out.flush();
+            log.append("Standby " + address + " connected, sent " + snapshot.getName() + " in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, replicating with ack=" + getAckMode());
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readAcks(in, unacknowledged);
+                }
+            }, "Replicator-acks");
+            reader.setDaemon(true);
+            reader.start();
+            long lastSent = System.nanoTime();
+            while (!stopped && standby == socket) {
+                if (queue.isEmpty() && System.nanoTime() - lastSent < heartbeatNanos) {
+                    LockSupport.parkNanos(this, ackMode != 0 ? heartbeatNanos : TimeUnit.MILLISECONDS.toNanos(MoveJournal.DEFAULT_FLUSH_INTERVAL_MILLIS));
+                    continue;
+                }
+                sendBatch(out, unacknowledged);
+                lastSent = System.nanoTime();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!stopped && standby == socket) {
+                log.append("Lost the standby " + address + ": " + e.getMessage());
+            }
+        } finally {
+            synchronized (acks) {
+                if (standby == socket) {
+                    streaming = false;
+                    standby = null;
+                    queue.clear();
+                }
+                acks.notifyAll(); //nobody waits for a standby that is gone
+            }
+            close(socket);
+        }
+    }
+
+    /**
+     * Writes up to a batch of the queued changes, or a heartbeat if there
+     * are none
+     *
+     * @param unacknowledged the batch is added to it before it is sent
+     */
+    private void sendBatch(DataOutputStream out, ArrayDeque<Batch> unacknowledged) throws IOException {
+        Change[] batch = new Change[BATCH_SIZE];
+        int count = 0;
+        for (Change change; count < BATCH_SIZE && (change = queue.poll()) != null;) {
+            batch[count++] = change;
+        }
+        out.writeByte(BATCH);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            Change change = batch[i];
+            if (change.record == null) {
+                out.writeByte(SESSION);
+                out.writeInt(change.playerID);
+                out.writeUTF(change.secret == null ? "" : change.secret);
+                continue;
+            }
+            JournalRecord record = change.record;
+            out.writeByte(record.getType());
+            out.writeLong(record.getTimeMillis());
+            out.writeInt(record.getMatchID());
+            out.writeInt(record.getPlayerID());
+            out.writeLong(record.getValue());
+            out.writeLong(record.getMarbles());
+        }
+        out.writeLong(sent + count);
+        if (count > 0) {
+            synchronized (unacknowledged) {
+                unacknowledged.add(new Batch(sent + count, batch[0].queuedNanos));
+            }
+        }
+        out.flush();
+        sent += count;
+    }
+
+    /**
+     * Takes in the acknowledgements of the standby, wakes up the calls
+     * waiting for them and times the batches
+     */
+    private void readAcks(DataInputStream in, ArrayDeque<Batch> unacknowledged) {
+        try {
+            while (true) {
+                long count = in.readLong();
+                long now = System.nanoTime();
+                synchronized (unacknowledged) {
+                    while (!unacknowledged.isEmpty() && unacknowledged.peek().last <= count) {
+                        lag.record(now - unacknowledged.poll().oldestNanos);
+                    }
+                }
+                synchronized (acks) {
+                    if (count > acknowledged) {
+                        acknowledged = count;
+                        acks.notifyAll();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            //the sender notices the broken connection as well
+        }
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //closing anyway
+            }
+        }
+    }
+
+    /**
+     * @return the ack mode as configured
+     */
+    public String getAckMode() {
+        return ackMode == 0 ? ACK_ASYNC : ackMode == 1 ? ACK_RECEIVED : ACK_WRITTEN;
+    }
+
+    /**
+     * @return true while a standby is connected
+     */
+    public boolean isStandbyConnected() {
+        return streaming;
+    }
+
+    /**
+     * @return changes queued for the standby that it has not acknowledged
+     * yet
+     */
+    public long getLag() {
+        return streaming ? Math.max(0, appended.get() - acknowledged) : 0;
+    }
+
+    /**
+     * @return how long changes took to be acknowledged by the standby, see
+     * {@link LatencyHistogram#summary()}
+     */
+    public String getLagSummary() {
+        return lag.summary();
+    }
+
+    /**
+     * @return calls that returned without the standby acknowledging them in
+     * time
+     */
+    public long getAckTimeouts() {
+        return timeouts.get();
+    }
+
+    @Override
+    public String toString() {
+        Socket connected = standby;
+        InetAddress address = connected == null ? null : connected.getInetAddress();
+        return (address == null ? "no standby" : "standby " + address.getHostAddress() + ":" + connected.getPort()) + ", ack=" + getAckMode()
+                + ", " + sent + " changes sent, " + getLag() + " behind, " + getAckTimeouts() + " ack timeouts, lag " + lag.summary();
+    }
+}
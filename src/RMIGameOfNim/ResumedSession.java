@@ -0,0 +1,84 @@
+package RMIGameOfNim;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a client gets back when it resumes its session after losing the
+ * connection, see {@link GameEngineRemoteInterface#resume(String)}: the
+ * player it is again, the match that player is in and every message that had
+ * not been delivered yet, so reconnecting takes a single call.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ResumedSession implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    static final char TOKEN_SEPARATOR = '.';
+
+    private final int playerNumber;
+    private final int matchID;
+    private final ArrayList<String> messages;
+
+    /**
+     * @param playerNumber
+     * @param matchID the match the player is in, 0 for none
+     * @param messages oldest first
+     */
+    public ResumedSession(int playerNumber, int matchID, List<String> messages) {
+        this.playerNumber = playerNumber;
+        this.matchID = matchID;
+        this.messages = new ArrayList<>(messages);
+    }
+
+    /**
+     * @return the player number the session was registered with
+     */
+    public int getPlayerNumber() {
+        return playerNumber;
+    }
+
+    /**
+     * @return the match the player is in, 0 if they are in none
+     */
+    public int getMatchID() {
+        return matchID;
+    }
+
+    /**
+     * @return the messages that were waiting for the player, oldest first
+     */
+    public List<String> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @param token a session token
+     * @return the number of the player the session belongs to, or -1 if it
+     * is not a session token
+     */
+    public static int playerNumberOf(String token) {
+        int separator = token == null ? -1 : token.indexOf(TOKEN_SEPARATOR);
+        try {
+            return separator <= 0 ? -1 : Integer.parseInt(token.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param token a session token
+     * @return the secret of the session, or null if it is not a session token
+     */
+    static String secretOf(String token) {
+        int separator = token == null ? -1 : token.indexOf(TOKEN_SEPARATOR);
+        return separator < 0 ? null : token.substring(separator + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Player #" + playerNumber + (matchID == 0 ? "" : " in match #" + matchID) + ", " + messages.size() + " messages";
+    }
+}
@@ -0,0 +1,342 @@
+package RMIGameOfNim;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Settings used to start a {@link GameServer}. Values are read, in increasing
+ * order of priority, from the nim.* system properties, an optional properties
+ * file given with --config=path and finally key=value command line arguments,
+ * i.e. "port=2000 log.sink=file:server.log".
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ServerConfig {
+
+    public static final String PORT = "port";
+    public static final String SERVICE_NAME = "service";
+    public static final String LOG_SINK = "log.sink";
+    public static final String LOG_BUFFER_SIZE = "log.bufferSize";
+    public static final String JOURNAL_DIR = "journal.dir";
+    public static final String JOURNAL_SEGMENT_SIZE = "journal.segmentSize";
+    public static final String SNAPSHOT_INTERVAL = "snapshot.interval";
+    public static final String RESTORE = "restore";
+    public static final String MATCHMAKING_WINDOW = "matchmaking.window";
+    public static final String MATCHMAKING_WIDEN = "matchmaking.widen";
+    public static final String MATCH_SEATS = "match.seats";
+    public static final String MATCH_LAST_MOVER_WINS = "match.lastMoverWins";
+    public static final String CLOCK_TIME = "clock.time";
+    public static final String CLOCK_INCREMENT = "clock.increment";
+    public static final String CLOCK_TICK = "clock.tick";
+    public static final String DRAIN_TIMEOUT = "drain.timeout";
+    public static final String DRAIN_FLUSH_TIMEOUT = "drain.flushTimeout";
+    public static final String REPLICATION_PORT = "replication.port";
+    public static final String REPLICATION_PRIMARY = "replication.primary";
+    public static final String REPLICATION_ACK = "replication.ack";
+    public static final String REPLICATION_ACK_TIMEOUT = "replication.ackTimeout";
+    public static final String REPLICATION_HEARTBEAT = "replication.heartbeat";
+    public static final String NONE = "none"; //value turning an optional feature off, i.e. journal.dir=none
+    public static final String CONFIG_FILE_ARGUMENT = "--config=";
+
+    private final Properties properties = new Properties();
+
+    /**
+     * Creates a configuration from the defaults and the nim.* system
+     * properties only
+     */
+    public ServerConfig() {
+        properties.setProperty(PORT, "" + System.getProperty("nim." + PORT, "" + java.rmi.registry.Registry.REGISTRY_PORT));
+        properties.setProperty(SERVICE_NAME, System.getProperty("nim." + SERVICE_NAME, GameEngineRemoteInterface.SERVICE_NAME));
+        properties.setProperty(LOG_SINK, System.getProperty("nim." + LOG_SINK, LogSinks.STDOUT));
+        properties.setProperty(LOG_BUFFER_SIZE, System.getProperty("nim." + LOG_BUFFER_SIZE, "" + AsyncServerLog.DEFAULT_BUFFER_SIZE));
+        properties.setProperty(JOURNAL_DIR, System.getProperty("nim." + JOURNAL_DIR, "journal"));
+        properties.setProperty(JOURNAL_SEGMENT_SIZE, System.getProperty("nim." + JOURNAL_SEGMENT_SIZE, "" + MoveJournal.DEFAULT_SEGMENT_SIZE));
+        properties.setProperty(SNAPSHOT_INTERVAL, System.getProperty("nim." + SNAPSHOT_INTERVAL, "60"));
+        properties.setProperty(RESTORE, System.getProperty("nim." + RESTORE, "true"));
+        properties.setProperty(MATCHMAKING_WINDOW, System.getProperty("nim." + MATCHMAKING_WINDOW, "100"));
+        properties.setProperty(MATCHMAKING_WIDEN, System.getProperty("nim." + MATCHMAKING_WIDEN, "25"));
+        properties.setProperty(MATCH_SEATS, System.getProperty("nim." + MATCH_SEATS, "" + GameLogicEngine.MIN_SEATS));
+        properties.setProperty(MATCH_LAST_MOVER_WINS, System.getProperty("nim." + MATCH_LAST_MOVER_WINS, "false"));
+        properties.setProperty(CLOCK_TIME, System.getProperty("nim." + CLOCK_TIME, "0"));
+        properties.setProperty(CLOCK_INCREMENT, System.getProperty("nim." + CLOCK_INCREMENT, "0"));
+        properties.setProperty(CLOCK_TICK, System.getProperty("nim." + CLOCK_TICK, "" + TurnClocks.DEFAULT_TICK_MILLIS));
+        properties.setProperty(DRAIN_TIMEOUT, System.getProperty("nim." + DRAIN_TIMEOUT, "60"));
+        properties.setProperty(DRAIN_FLUSH_TIMEOUT, System.getProperty("nim." + DRAIN_FLUSH_TIMEOUT, "5"));
+        properties.setProperty(REPLICATION_PORT, System.getProperty("nim." + REPLICATION_PORT, "0"));
+        properties.setProperty(REPLICATION_PRIMARY, System.getProperty("nim." + REPLICATION_PRIMARY, NONE));
+        properties.setProperty(REPLICATION_ACK, System.getProperty("nim." + REPLICATION_ACK, Replicator.ACK_ASYNC));
+        properties.setProperty(REPLICATION_ACK_TIMEOUT, System.getProperty("nim." + REPLICATION_ACK_TIMEOUT, "" + Replicator.DEFAULT_ACK_TIMEOUT_MILLIS));
+        properties.setProperty(REPLICATION_HEARTBEAT, System.getProperty("nim." + REPLICATION_HEARTBEAT, "" + Replicator.DEFAULT_HEARTBEAT_MILLIS));
+    }
+
+    /**
+     * Builds the configuration for the given command line arguments
+     *
+     * @param args "--config=file" and / or "key=value" pairs, a leading "--" on
+     * the key is optional
+     * @return the configuration
+     * @throws IOException if the configuration file cannot be read
+     * @throws IllegalArgumentException if an argument is not of the form
+     * key=value
+     */
+    public static ServerConfig fromArgs(String[] args) throws IOException {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) { //load the file first so the other arguments override it
+            if (arg.startsWith(CONFIG_FILE_ARGUMENT)) {
+                config.load(arg.substring(CONFIG_FILE_ARGUMENT.length()));
+            }
+        }
+        for (String arg : args) {
+            if (arg.startsWith(CONFIG_FILE_ARGUMENT)) {
+                continue;
+            }
+            String pair = arg.startsWith("--") ? arg.substring(2) : arg;
+            int separator = pair.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got \"" + arg + "\"");
+            }
+            config.properties.setProperty(pair.substring(0, separator), pair.substring(separator + 1));
+        }
+        return config;
+    }
+
+    /**
+     * Loads the given properties file on top of the current values
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void load(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            properties.load(in);
+        }
+    }
+
+    /**
+     * @return port the RMI registry is created on
+     */
+    public int getPort() {
+        return getInt(PORT);
+    }
+
+    /**
+     * @return name the server is bound under in the registry
+     */
+    public String getServiceName() {
+        return properties.getProperty(SERVICE_NAME);
+    }
+
+    /**
+     * @return description of the log sink, see {@link LogSinks#fromSpec}
+     */
+    public String getLogSink() {
+        return properties.getProperty(LOG_SINK);
+    }
+
+    /**
+     * @return size of the {@link AsyncServerLog} ring buffer
+     */
+    public int getLogBufferSize() {
+        return getInt(LOG_BUFFER_SIZE);
+    }
+
+    /**
+     * @return directory of the move journal, or null if journaling is off
+     */
+    public String getJournalDir() {
+        String dir = properties.getProperty(JOURNAL_DIR);
+        return dir == null || dir.isEmpty() || NONE.equals(dir) ? null : dir;
+    }
+
+    /**
+     * @return size of every move journal segment in bytes
+     */
+    public int getJournalSegmentSize() {
+        return getInt(JOURNAL_SEGMENT_SIZE);
+    }
+
+    /**
+     * @return seconds between two snapshots of the server state, 0 for none
+     */
+    public int getSnapshotInterval() {
+        return getInt(SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * @return true if the server should restore its state from the newest
+     * snapshot and the journal when it starts
+     */
+    public boolean isRestore() {
+        return Boolean.parseBoolean(properties.getProperty(RESTORE));
+    }
+
+    /**
+     * @return rating points either way a new lobby accepts an opponent from
+     */
+    public int getMatchmakingWindow() {
+        return getInt(MATCHMAKING_WINDOW);
+    }
+
+    /**
+     * @return rating points the window of a lobby grows by per second it has
+     * been waiting
+     */
+    public int getMatchmakingWiden() {
+        return getInt(MATCHMAKING_WIDEN);
+    }
+
+    /**
+     * @return players in a match between players, kept within
+     * {@link GameLogicEngine#MIN_SEATS} and {@link GameLogicEngine#MAX_SEATS}
+     */
+    public int getMatchSeats() {
+        return Math.max(GameLogicEngine.MIN_SEATS, Math.min(GameLogicEngine.MAX_SEATS, getInt(MATCH_SEATS)));
+    }
+
+    /**
+     * @return true if the player taking the last marble wins, otherwise the
+     * player after them does
+     */
+    public boolean isLastMoverWins() {
+        return Boolean.parseBoolean(properties.getProperty(MATCH_LAST_MOVER_WINS));
+    }
+
+    /**
+     * @return seconds every player has for a whole match, 0 for matches
+     * without clocks
+     */
+    public int getClockTime() {
+        return getInt(CLOCK_TIME);
+    }
+
+    /**
+     * @return seconds added to a player's time for every move they make
+     */
+    public int getClockIncrement() {
+        return getInt(CLOCK_INCREMENT);
+    }
+
+    /**
+     * @return milliseconds between two ticks of the {@link TurnClocks}, how
+     * accurately a player runs out of time
+     */
+    public int getClockTick() {
+        return getInt(CLOCK_TICK);
+    }
+
+    /**
+     * @return seconds the matches going on get to finish when the server is
+     * drained, before the player to move in each of them loses
+     */
+    public int getDrainTimeout() {
+        return getInt(DRAIN_TIMEOUT);
+    }
+
+    /**
+     * @return seconds a drained server waits for the players to collect
+     * their last messages
+     */
+    public int getDrainFlushTimeout() {
+        return getInt(DRAIN_FLUSH_TIMEOUT);
+    }
+
+    /**
+     * @return the port a standby connects to for the changes of this server,
+     * 0 if there is no replication
+     */
+    public int getReplicationPort() {
+        return getInt(REPLICATION_PORT);
+    }
+
+    /**
+     * @return host:port of the replication port of the primary a standby
+     * follows, or null if this is not a standby
+     */
+    public String getReplicationPrimary() {
+        String primary = properties.getProperty(REPLICATION_PRIMARY);
+        return primary == null || primary.isEmpty() || NONE.equals(primary) ? null : primary;
+    }
+
+    /**
+     * @return what a remote call waits for before it returns:
+     * {@link Replicator#ACK_ASYNC}, {@link Replicator#ACK_RECEIVED} or
+     * {@link Replicator#ACK_WRITTEN}
+     */
+    public String getReplicationAck() {
+        return properties.getProperty(REPLICATION_ACK).trim();
+    }
+
+    /**
+     * @return milliseconds a remote call waits for the standby at most
+     */
+    public int getReplicationAckTimeout() {
+        return getInt(REPLICATION_ACK_TIMEOUT);
+    }
+
+    /**
+     * @return milliseconds between two batches when nothing changes, a
+     * standby hearing nothing for four of them checks on the primary
+     */
+    public int getReplicationHeartbeat() {
+        return getInt(REPLICATION_HEARTBEAT);
+    }
+
+    /**
+     * @param key
+     * @return the raw value for the key, or null if it is not set
+     */
+    public String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value for the key as an integer, or the default if missing
+     */
+    public int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : getInt(key);
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value for the key as a long, or the default if missing
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a number but is \"" + value + "\"");
+        }
+    }
+
+    /**
+     * @param key
+     * @param value
+     */
+    public void set(String key, String value) {
+        properties.setProperty(key, value);
+    }
+
+    private int getInt(String key) {
+        String value = properties.getProperty(key);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a number but is \"" + value + "\"");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return properties.toString();
+    }
+}
@@ -0,0 +1,323 @@
+package RMIGameOfNim;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters kept by a {@link GameServer} and published over JMX. Everything that
+ * changes on a hot path (remote calls, matches, threads) is a
+ * {@link StripedCounter}, so keeping the metrics adds no contention between the
+ * RMI threads. Values that are only needed when somebody looks, such as the
+ * pending messages, are worked out when they are read.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    public static final String REGISTER_PLAYER = "registerPlayer";
+    public static final String EXECUTE_COMMAND = "executeCommand";
+    public static final String MAKE_MOVE = "makeMove";
+    public static final String COMMUNICATE_WITH_SERVER = "communicateWithServer";
+    public static final String TEST = "test";
+    public static final String REGISTER_SESSION = "registerSession";
+    public static final String RESUME = "resume";
+    private static final String[] REMOTE_METHODS = {REGISTER_PLAYER, EXECUTE_COMMAND, MAKE_MOVE, COMMUNICATE_WITH_SERVER, TEST, REGISTER_SESSION, RESUME};
+    private static final String[] DIFFICULTIES = {"easy", "hard"}; //indexed by EASY_DIFFICULYT and HARD_DIFFICULTY
+
+    /**
+     * Used by matches that are not run by a server, i.e. in the benchmarks
+     */
+    static final ServerMetrics DETACHED = new ServerMetrics(null);
+
+    private final GameServer server;
+    private final StripedCounter registeredPlayers = new StripedCounter();
+    private final StripedCounter matchesCreated = new StripedCounter();
+    private final StripedCounter matchesFinished = new StripedCounter();
+    private final StripedCounter[] waitingMatches = {new StripedCounter(), new StripedCounter()};
+    private final StripedCounter engineThreads = new StripedCounter();
+    private final StripedCounter cpuPlayerThreads = new StripedCounter();
+    private final Map<String, StripedCounter> remoteCalls = new LinkedHashMap<>();
+    private final long[] callsAtLastSample = new long[REMOTE_METHODS.length];
+    private long lastSampleNanos = System.nanoTime();
+    private Map<String, Double> lastRates = Collections.emptyMap();
+    private ObjectName registeredName;
+
+    /**
+     * @param server server whose players are inspected for the pending
+     * messages, may be null
+     */
+    public ServerMetrics(GameServer server) {
+        this.server = server;
+        for (String method : REMOTE_METHODS) { //filled once, only read afterwards
+            remoteCalls.put(method, new StripedCounter());
+        }
+    }
+
+    /**
+     * Publishes the metrics in the platform MBean server
+     *
+     * @param serviceName used as the name key, so several servers in one JVM
+     * do not clash
+     * @throws JMException if the name is taken or invalid
+     */
+    public synchronized void register(String serviceName) throws JMException {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("RMIGameOfNim:type=GameServer,name=" + ObjectName.quote(serviceName));
+        mbeans.registerMBean(this, name);
+        registeredName = name;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server again
+     */
+    public synchronized void unregister() {
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                //already gone
+            }
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Counts one call of a remote method
+     *
+     * @param method one of the constants of this class
+     */
+    void remoteCall(String method) {
+        remoteCalls.get(method).increment();
+    }
+
+    void playerRegistered() {
+        registeredPlayers.increment();
+    }
+
+    /**
+     * @param difficulty difficulty of the new lobby
+     */
+    void lobbyOpened(int difficulty) {
+        matchesCreated.increment();
+        waitingMatches[difficulty].increment();
+    }
+
+    /**
+     * @param difficulty difficulty of the lobby that has been left, either
+     * because a second player joined or the first one gave up
+     */
+    void lobbyClosed(int difficulty) {
+        waitingMatches[difficulty].decrement();
+    }
+
+    void cpuMatchCreated() {
+        matchesCreated.increment();
+    }
+
+    /**
+     * A match created with both players, i.e. by a tournament
+     */
+    void pairedMatchCreated() {
+        matchesCreated.increment();
+    }
+
+    void matchFinished() {
+        matchesFinished.increment();
+    }
+
+    void engineThreadStarted() {
+        engineThreads.increment();
+    }
+
+    void engineThreadStopped() {
+        engineThreads.decrement();
+    }
+
+    void cpuPlayerThreadStarted() {
+        cpuPlayerThreads.increment();
+    }
+
+    void cpuPlayerThreadStopped() {
+        cpuPlayerThreads.decrement();
+    }
+
+    @Override
+    public long getRegisteredPlayers() {
+        return registeredPlayers.sum();
+    }
+
+    @Override
+    public long getLiveMatches() {
+        return Math.max(0, matchesCreated.sum() - matchesFinished.sum() - getWaitingMatches());
+    }
+
+    @Override
+    public long getWaitingMatches() {
+        long waiting = 0;
+        for (StripedCounter counter : waitingMatches) {
+            waiting += counter.sum();
+        }
+        return waiting;
+    }
+
+    @Override
+    public long getFinishedMatches() {
+        return matchesFinished.sum();
+    }
+
+    @Override
+    public Map<String, Long> getMatchmakingQueueDepth() {
+        Map<String, Long> depth = new LinkedHashMap<>();
+        for (int i = 0; i < DIFFICULTIES.length; i++) {
+            depth.put(DIFFICULTIES[i], waitingMatches[i].sum());
+        }
+        return depth;
+    }
+
+    @Override
+    public double getMatchmakingAverageWaitMillis() {
+        return server == null ? 0 : server.getMatchmaker().getAverageWaitMillis();
+    }
+
+    @Override
+    public double getMatchmakingAverageRatingSpread() {
+        return server == null ? 0 : server.getMatchmaker().getAverageRatingSpread();
+    }
+
+    @Override
+    public long getPendingMessagesTotal() {
+        long total = 0;
+        if (server != null) {
+            for (Player player : server.getRegisteredPlayers()) {
+                total += player.getPendingMessageCount();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long getPendingMessagesMax() {
+        long max = 0;
+        if (server != null) {
+            for (Player player : server.getRegisteredPlayers()) {
+                max = Math.max(max, player.getPendingMessageCount());
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Long> getRemoteCalls() {
+        Map<String, Long> calls = new LinkedHashMap<>();
+        for (String method : REMOTE_METHODS) {
+            calls.put(method, remoteCalls.get(method).sum());
+        }
+        return calls;
+    }
+
+    @Override
+    public synchronized Map<String, Double> getRemoteCallsPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - lastSampleNanos;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) { //reading more often returns the previous rates rather than noise
+            Map<String, Double> rates = new LinkedHashMap<>();
+            for (int i = 0; i < REMOTE_METHODS.length; i++) {
+                long calls = remoteCalls.get(REMOTE_METHODS[i]).sum();
+                rates.put(REMOTE_METHODS[i], (calls - callsAtLastSample[i]) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+                callsAtLastSample[i] = calls;
+            }
+            lastRates = rates;
+            lastSampleNanos = now;
+        }
+        return lastRates;
+    }
+
+    @Override
+    public long getEngineThreads() {
+        return engineThreads.sum();
+    }
+
+    @Override
+    public long getCpuPlayerThreads() {
+        return cpuPlayerThreads.sum();
+    }
+
+    @Override
+    public long getRunningTurnClocks() {
+        TurnClocks clocks = server == null ? null : server.getTurnClocks();
+        return clocks == null ? 0 : clocks.getRunning();
+    }
+
+    @Override
+    public long getTurnTimeouts() {
+        TurnClocks clocks = server == null ? null : server.getTurnClocks();
+        return clocks == null ? 0 : clocks.getTimedOut();
+    }
+
+    @Override
+    public Map<String, String> getCommandLatency() {
+        return server == null ? Collections.<String, String>emptyMap() : summarise(server.getCommandLatencies().getTotals());
+    }
+
+    @Override
+    public Map<String, String> getCommandLatencyWindow() {
+        return server == null ? Collections.<String, String>emptyMap() : summarise(server.getCommandLatencies().getWindow());
+    }
+
+    @Override
+    public void resetCommandLatencyWindow() {
+        if (server != null) {
+            server.getCommandLatencies().snapshotWindow();
+        }
+    }
+
+    @Override
+    public String getReplication() {
+        Replicator replicator = server == null ? null : server.getReplicator();
+        return replicator == null ? "off" : replicator.toString();
+    }
+
+    @Override
+    public long getReplicationLag() {
+        Replicator replicator = server == null ? null : server.getReplicator();
+        return replicator == null ? 0 : replicator.getLag();
+    }
+
+    @Override
+    public String getDrainProgress() {
+        return server == null ? "Not draining" : server.getDrainProgress();
+    }
+
+    @Override
+    public void drain(final int timeoutSeconds) {
+        if (server == null) {
+            return;
+        }
+        new Thread(new Runnable() { //the JMX client does not wait for the matches
+            @Override
+            public void run() {
+                server.drain(timeoutSeconds);
+            }
+        }, "GameServer-drain").start();
+    }
+
+    private static Map<String, String> summarise(Map<String, LatencyHistogram> histograms) {
+        Map<String, String> summaries = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            summaries.put(entry.getKey(), entry.getValue().summary());
+        }
+        return summaries;
+    }
+
+    @Override
+    public String toString() {
+        return "players=" + getRegisteredPlayers() + " live=" + getLiveMatches() + " waiting=" + getMatchmakingQueueDepth()
+                + " finished=" + getFinishedMatches() + " engineThreads=" + getEngineThreads() + " cpuThreads=" + getCpuPlayerThreads();
+    }
+}
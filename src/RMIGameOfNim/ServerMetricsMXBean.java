@@ -0,0 +1,132 @@
+package RMIGameOfNim;
+
+import java.util.Map;
+
+/**
+ * Live state of a {@link GameServer}, published over JMX under
+ * RMIGameOfNim:type=GameServer,name="&lt;service name&gt;" so it can be watched
+ * with JConsole, VisualVM or any other JMX client.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * @return number of players registered since the server started
+     */
+    public long getRegisteredPlayers();
+
+    /**
+     * @return matches with two players that are still being played
+     */
+    public long getLiveMatches();
+
+    /**
+     * @return match lobbies waiting for a second player
+     */
+    public long getWaitingMatches();
+
+    /**
+     * @return matches that have been won, lost or given up
+     */
+    public long getFinishedMatches();
+
+    /**
+     * @return lobbies waiting for a second player, by difficulty ("easy",
+     * "hard")
+     */
+    public Map<String, Long> getMatchmakingQueueDepth();
+
+    /**
+     * @return the average time paired players had waited for an opponent,
+     * in milliseconds
+     */
+    public double getMatchmakingAverageWaitMillis();
+
+    /**
+     * @return the average rating difference between paired players
+     */
+    public double getMatchmakingAverageRatingSpread();
+
+    /**
+     * @return messages queued for all players but not yet collected
+     */
+    public long getPendingMessagesTotal();
+
+    /**
+     * @return largest number of messages queued for a single player
+     */
+    public long getPendingMessagesMax();
+
+    /**
+     * @return remote calls made since the server started, by method name
+     */
+    public Map<String, Long> getRemoteCalls();
+
+    /**
+     * @return remote calls per second by method name, averaged since the
+     * previous read but over at least one second
+     */
+    public Map<String, Double> getRemoteCallsPerSecond();
+
+    /**
+     * @return threads currently running a {@link GameLogicEngine}
+     */
+    public long getEngineThreads();
+
+    /**
+     * @return threads currently running a {@link ComputerControlledPlayer}
+     */
+    public long getCpuPlayerThreads();
+
+    /**
+     * @return turn clocks running on the {@link TurnClocks} wheel
+     */
+    public long getRunningTurnClocks();
+
+    /**
+     * @return turns lost because the player ran out of time
+     */
+    public long getTurnTimeouts();
+
+    /**
+     * @return latency summary of every command since the start, by command
+     */
+    public Map<String, String> getCommandLatency();
+
+    /**
+     * @return latency summary of every command in the current window, by
+     * command
+     */
+    public Map<String, String> getCommandLatencyWindow();
+
+    /**
+     * Ends the current latency window and starts a new one
+     */
+    public void resetCommandLatencyWindow();
+
+    /**
+     * @return the standby following the server, the changes sent and not yet
+     * acknowledged and how long acknowledgements took, or "off"
+     */
+    public String getReplication();
+
+    /**
+     * @return changes the standby has not acknowledged yet, 0 without one
+     */
+    public long getReplicationLag();
+
+    /**
+     * @return how far draining the server has got, "Not draining" until it
+     * is shut down
+     */
+    public String getDrainProgress();
+
+    /**
+     * Shuts the server down gracefully in the background, see
+     * {@link GameServer#drain(int)}
+     *
+     * @param timeoutSeconds how long the matches going on may take to finish
+     */
+    public void drain(int timeoutSeconds);
+}
@@ -0,0 +1,583 @@
+package RMIGameOfNim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point in time copy of the state of a {@link GameServer}: the registered
+ * players with their sessions and undelivered messages, the
+ * {@link Leaderboard} and every match that has not finished, including whose
+ * turn it is and the moves made so far.
+ * <p>
+ * A snapshot is taken while the server keeps running. Nothing is stopped:
+ * each player's messages are copied under the lock of that player's message
+ * list, and each match under the lock of the match, which is the lock a move
+ * takes, so every match is copied between two moves. Different matches are
+ * copied at slightly different times, which is why the time the snapshot was
+ * started is stored with it: on restore every record of the
+ * {@link MoveJournal} from that time on is applied on top. Applying a move
+ * twice is harmless, since the marbles only ever go down a move is only
+ * applied if it leaves fewer marbles than the match has. The leaderboard is
+ * copied in one go before the matches; a match that has ended since is kept
+ * as if it were going, so its result is applied from the journal.
+ * <p>
+ * Snapshots are written next to the journal as "snapshot-TIME.snapshot", first
+ * to a temporary file that is then renamed, so a snapshot is either complete
+ * or not there. Only the newest {@link #KEEP} are kept. Format, all numbers
+ * varints unless stated otherwise: int magic "NIMS", byte version, long start
+ * time, player count, match count; the players (id, mode and difficulty bytes,
+ * the total marbles they chose or 0, the session secret and the messages as UTF-8 with their length, an empty
+ * secret for none); the leaderboard (id, wins,
+ * losses, forfeits, rating); the matches (id, mode and difficulty bytes, seats,
+ * byte 1 if the last mover wins, byte 1 if the total marbles were chosen, the seated players as zig-zag varints in the
+ * order they sat down, started byte, total marbles, current marbles, next turn
+ * as zig-zag, the moves, int checksum of the moves, the players who gave up as
+ * zig-zag); int CRC32 of everything before it.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public final class ServerSnapshot {
+
+    public static final int KEEP = 2;
+    static final int MAGIC = 0x4E494D53; //"NIMS"
+    static final byte VERSION = 6;
+    static final String PREFIX = "snapshot-";
+    static final String SUFFIX = ".snapshot";
+
+    private final File file;
+    private final long takenMillis;
+    private int playerCount;
+    private int matchCount;
+    private final Map<Integer, PlayerState> players = new LinkedHashMap<>();
+    private final Map<Integer, MatchState> matches = new LinkedHashMap<>();
+    private final Leaderboard leaderboard = new Leaderboard(); //the results in the journal tail are recorded on it in order, as the ratings depend on it
+    private long tailRecords;
+
+    private ServerSnapshot(File file, long takenMillis) {
+        this.file = file;
+        this.takenMillis = takenMillis;
+    }
+
+    /**
+     * A registered player as it was when the snapshot was taken
+     */
+    static final class PlayerState {
+
+        final int playerID;
+        final int chosenMode;
+        final int chosenDifficulty;
+        final long chosenMarbles;
+        final String sessionSecret; //null if the player has no session
+        final List<String> messages;
+
+        PlayerState(int playerID, int chosenMode, int chosenDifficulty, long chosenMarbles, String sessionSecret, List<String> messages) {
+            this.playerID = playerID;
+            this.chosenMode = chosenMode;
+            this.chosenDifficulty = chosenDifficulty;
+            this.chosenMarbles = chosenMarbles;
+            this.sessionSecret = sessionSecret;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * A match that had not finished when the snapshot was taken, brought up
+     * to date with the journal on restore
+     */
+    static final class MatchState {
+
+        final int matchID;
+        int chosenMode;
+        int chosenDifficulty;
+        int seatCount = GameLogicEngine.MIN_SEATS;
+        boolean lastMoverWins = false;
+        boolean customMarbles = false; //chosen by the player who opened it, kept for a lobby
+        final List<Integer> seatIDs = new ArrayList<>(); //in the order they sat down, which is the turn order once started
+        boolean started;
+        long totalMarbles;
+        long currentMarbles;
+        int nextTurn;
+        final List<Long> moves = new ArrayList<>();
+        int checksum;
+        final List<Integer> givenUp = new ArrayList<>(); //counted when the result is applied
+
+        MatchState(int matchID) {
+            this.matchID = matchID;
+        }
+
+        /**
+         * Applies a move journaled after the snapshot was started, unless
+         * the snapshot already has it
+         *
+         */
+        void apply(JournalRecord move) {
+            if (move.getAmount() == GameEngineRemoteInterface.GIVE_UP) {
+                if (!givenUp.contains(move.getPlayerID())) {
+                    givenUp.add(move.getPlayerID());
+                    if (nextTurn == move.getPlayerID()) {
+                        nextTurn = playerAfter(move.getPlayerID());
+                    }
+                }
+                return;
+            }
+            if (started && move.getMarbles() < currentMarbles) {
+                currentMarbles = move.getMarbles();
+                moves.add(move.getAmount());
+                checksum = GameLogicEngine.nextChecksum(checksum, move.getPlayerID(), move.getAmount());
+                nextTurn = playerAfter(move.getPlayerID());
+            }
+        }
+
+        /**
+         * @return the next player in turn order who has not given up
+         */
+        int playerAfter(int playerID) {
+            int seat = seatIDs.indexOf(playerID);
+            for (int i = 1; i < seatIDs.size(); i++) {
+                int next = seatIDs.get((seat + i) % seatIDs.size());
+                if (!givenUp.contains(next)) {
+                    return next;
+                }
+            }
+            return playerID;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the server into the directory and deletes all but
+     * the newest {@link #KEEP} snapshots
+     *
+     * @param server
+     * @param directory normally the journal directory
+     * @return the snapshot file
+     * @throws IOException if it cannot be written
+     */
+    static File take(GameServer server, File directory) throws IOException {
+        long takenMillis = server.currentTimeMillis(); //anything journaled from now on is applied on top when restoring
+        File target = new File(directory, String.format("%s%016d%s", PREFIX, takenMillis, SUFFIX));
+        File temporary = new File(directory, target.getName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(temporary);
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+            byte[] varint = new byte[10];
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(takenMillis);
+            writeVarint(out, varint, server.getPlayerCount());
+            writeVarint(out, varint, server.getMatchCount());
+            writePlayers(out, varint, server.getRegisteredPlayers());
+            long results = writeStandings(out, varint, server.getLeaderboard());
+            writeMatches(out, varint, server.getLiveMatches(), results);
+            out.flush();
+            out.writeInt((int) crc.getValue()); //of everything before it
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        File[] snapshots = list(directory);
+        for (int i = 0; i < snapshots.length - KEEP; i++) {
+            snapshots[i].delete();
+        }
+        return target;
+    }
+
+    private static void writePlayers(DataOutputStream out, byte[] varint, Collection<Player> players) throws IOException {
+        List<Player> copy = new ArrayList<>(players); //the count has to come first, players register while it is written
+        writeVarint(out, varint, copy.size());
+        for (Player player : copy) {
+            String[] messages;
+            synchronized (player.getMessages()) {
+                messages = player.getMessages().toArray(new String[0]);
+            }
+            writeVarint(out, varint, player.getPlayerID());
+            out.writeByte(player.getChosenMode());
+            out.writeByte(player.getChosenDifficulty());
+            writeVarint(out, varint, player.getChosenMarbles());
+            String secret = player.getSessionSecret();
+            writeString(out, varint, secret == null ? "" : secret);
+            writeVarint(out, varint, messages.length);
+            for (String message : messages) {
+                writeString(out, varint, message);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, byte[] varint, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, varint, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) MoveJournal.readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of results the copy of the leaderboard includes
+     */
+    private static long writeStandings(DataOutputStream out, byte[] varint, Leaderboard leaderboard) throws IOException {
+        List<Leaderboard.Standing> standings = new ArrayList<>();
+        long results = leaderboard.copyStandings(standings);
+        writeVarint(out, varint, standings.size());
+        for (Leaderboard.Standing standing : standings) {
+            writeVarint(out, varint, standing.getPlayerID());
+            writeVarint(out, varint, standing.getWins());
+            writeVarint(out, varint, standing.getLosses());
+            writeVarint(out, varint, standing.getForfeits());
+            writeVarint(out, varint, standing.getRating());
+        }
+        return results;
+    }
+
+    private static void writeMatches(DataOutputStream out, byte[] varint, Collection<GameLogicEngine> liveMatches, long results) throws IOException {
+        List<MatchState> states = new ArrayList<>(liveMatches.size());
+        for (GameLogicEngine match : liveMatches) {
+            MatchState state = capture(match, results);
+            if (state != null) {
+                states.add(state);
+            }
+        }
+        writeVarint(out, varint, states.size());
+        for (MatchState state : states) {
+            writeVarint(out, varint, state.matchID);
+            out.writeByte(state.chosenMode);
+            out.writeByte(state.chosenDifficulty);
+            writeVarint(out, varint, state.seatCount);
+            out.writeByte(state.lastMoverWins ? 1 : 0);
+            out.writeByte(state.customMarbles ? 1 : 0);
+            writeVarint(out, varint, state.seatIDs.size());
+            for (int playerID : state.seatIDs) {
+                writeZigZag(out, varint, playerID);
+            }
+            out.writeByte(state.started ? 1 : 0);
+            writeVarint(out, varint, state.totalMarbles);
+            writeVarint(out, varint, state.currentMarbles);
+            writeZigZag(out, varint, state.nextTurn);
+            writeVarint(out, varint, state.moves.size());
+            for (long move : state.moves) {
+                writeVarint(out, varint, move);
+            }
+            out.writeInt(state.checksum);
+            writeVarint(out, varint, state.givenUp.size());
+            for (int playerID : state.givenUp) {
+                writeZigZag(out, varint, playerID);
+            }
+        }
+    }
+
+    /**
+     * Copies the state of a match between two moves
+     *
+     * @param results the number of results in the copy of the leaderboard
+     * @return null if the match is over and its result is on the copy of the
+     * leaderboard
+     */
+    private static MatchState capture(GameLogicEngine match, long results) {
+        synchronized (match) { //the lock every move and the result take
+            if (match.isGameOver() && match.getResultNumber() <= results) {
+                return null;
+            }
+            MatchState state = new MatchState(match.getMatchID());
+            state.chosenMode = match.getChosenMode();
+            state.chosenDifficulty = match.getChosenDifficulty();
+            state.seatCount = match.getSeatCount();
+            state.lastMoverWins = match.isLastMoverWins();
+            state.customMarbles = match.getCustomMarbles() != 0;
+            for (Player player : match.getSeatedPlayers()) {
+                state.seatIDs.add(player.getPlayerID());
+            }
+            state.started = match.isStarted();
+            state.totalMarbles = match.getTotalMarbles();
+            state.currentMarbles = match.getCurrentMarbles();
+            state.nextTurn = match.getNextTurn();
+            state.moves.addAll(match.getCompletedMoves());
+            state.checksum = match.getMoveChecksum();
+            state.givenUp.addAll(match.getGivenUpIDs());
+            return state;
+        }
+    }
+
+    /**
+     * Reads the newest snapshot in the directory and applies the journal
+     * records made since it was started
+     *
+     * @param directory normally the journal directory
+     * @return the state to restore, or null if there is no snapshot
+     * @throws IOException if the snapshot or the journal cannot be read
+     */
+    static ServerSnapshot load(File directory) throws IOException {
+        File[] snapshots = list(directory);
+        if (snapshots.length == 0) {
+            return null;
+        }
+        ServerSnapshot snapshot = read(snapshots[snapshots.length - 1]);
+        try (JournalReader reader = new JournalReader(directory, snapshot.takenMillis, Long.MAX_VALUE)) {
+            JournalRecord record;
+            while ((record = reader.next()) != null) {
+                snapshot.applyJournal(record);
+            }
+            snapshot.tailRecords = reader.getRecordsRead();
+        }
+        return snapshot;
+    }
+
+    private static ServerSnapshot read(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a server snapshot");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException(file + " has version " + version + ", expected " + VERSION);
+            }
+            ServerSnapshot snapshot = new ServerSnapshot(file, in.readLong());
+            snapshot.playerCount = (int) MoveJournal.readVarint(in);
+            snapshot.matchCount = (int) MoveJournal.readVarint(in);
+            int players = (int) MoveJournal.readVarint(in);
+            for (int i = 0; i < players; i++) {
+                int playerID = (int) MoveJournal.readVarint(in);
+                int mode = in.readByte();
+                int difficulty = in.readByte();
+                long marbles = MoveJournal.readVarint(in);
+                String secret = readString(in);
+                int count = (int) MoveJournal.readVarint(in);
+                List<String> messages = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    messages.add(readString(in));
+                }
+                snapshot.players.put(playerID, new PlayerState(playerID, mode, difficulty, marbles, secret.isEmpty() ? null : secret, messages));
+            }
+            int standings = (int) MoveJournal.readVarint(in);
+            for (int i = 0; i < standings; i++) {
+                int playerID = (int) MoveJournal.readVarint(in);
+                snapshot.leaderboard.restore(playerID, (int) MoveJournal.readVarint(in), (int) MoveJournal.readVarint(in), (int) MoveJournal.readVarint(in),
+                        (int) MoveJournal.readVarint(in));
+            }
+            int matches = (int) MoveJournal.readVarint(in);
+            for (int i = 0; i < matches; i++) {
+                MatchState state = new MatchState((int) MoveJournal.readVarint(in));
+                state.chosenMode = in.readByte();
+                state.chosenDifficulty = in.readByte();
+                state.seatCount = (int) MoveJournal.readVarint(in);
+                state.lastMoverWins = in.readByte() != 0;
+                state.customMarbles = in.readByte() != 0;
+                int seated = (int) MoveJournal.readVarint(in);
+                for (int j = 0; j < seated; j++) {
+                    state.seatIDs.add((int) MoveJournal.decodeZigZag(MoveJournal.readVarint(in)));
+                }
+                state.started = in.readByte() != 0;
+                state.totalMarbles = MoveJournal.readVarint(in);
+                state.currentMarbles = MoveJournal.readVarint(in);
+                state.nextTurn = (int) MoveJournal.decodeZigZag(MoveJournal.readVarint(in));
+                int moves = (int) MoveJournal.readVarint(in);
+                for (int j = 0; j < moves; j++) {
+                    state.moves.add(MoveJournal.readVarint(in));
+                }
+                state.checksum = in.readInt();
+                int givenUp = (int) MoveJournal.readVarint(in);
+                for (int j = 0; j < givenUp; j++) {
+                    state.givenUp.add((int) MoveJournal.decodeZigZag(MoveJournal.readVarint(in)));
+                }
+                snapshot.matches.put(state.matchID, state);
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException(file + " is damaged, the checksum does not match");
+            }
+            return snapshot;
+        } catch (EOFException e) {
+            throw new IOException(file + " is incomplete", e);
+        }
+    }
+
+    /**
+     * Brings the state up to date with a record journaled after the snapshot
+     * was started
+     */
+    private void applyJournal(JournalRecord record) {
+        MatchState state = matches.get(record.getMatchID());
+        switch (record.getType()) {
+            case JournalRecord.MATCH_STARTED:
+                if (state == null) { //created after the snapshot
+                    state = new MatchState(record.getMatchID());
+                    state.chosenMode = record.getOpponentID() == Integer.MIN_VALUE ? GameEngineRemoteInterface.CPU_MODE : GameEngineRemoteInterface.HUMAN_MODE;
+                    state.chosenDifficulty = record.getMarbles() > 20 ? GameEngineRemoteInterface.HARD_DIFFICULTY : GameEngineRemoteInterface.EASY_DIFFICULYT; //only a guess for older journals, the rules say which
+                    matches.put(state.matchID, state);
+                    matchCount = Math.max(matchCount, state.matchID);
+                }
+                if (!state.started) { //the seats in turn order, any further ones follow
+                    state.started = true;
+                    state.totalMarbles = record.getMarbles();
+                    state.currentMarbles = record.getMarbles();
+                    state.nextTurn = record.getPlayerID();
+                    state.seatIDs.clear();
+                    state.seatIDs.add(record.getPlayerID());
+                    state.seatIDs.add(record.getOpponentID());
+                }
+                addPlayer(record.getPlayerID());
+                addPlayer(record.getOpponentID());
+                break;
+            case JournalRecord.MATCH_RULES:
+                if (state != null) {
+                    state.seatCount = record.getSeatCount();
+                    state.lastMoverWins = record.isLastMoverWins();
+                    if (record.getDifficulty() >= 0) {
+                        state.chosenDifficulty = record.getDifficulty();
+                    }
+                }
+                break;
+            case JournalRecord.PLAYER_SEATED:
+                if (state != null && !state.seatIDs.contains(record.getPlayerID())) {
+                    state.seatIDs.add(record.getPlayerID());
+                }
+                addPlayer(record.getPlayerID());
+                break;
+            case JournalRecord.MOVE:
+                if (state != null) {
+                    state.apply(record);
+                }
+                break;
+            case JournalRecord.MATCH_FINISHED:
+                if (state != null) { //otherwise the result is already on the leaderboard
+                    recordResult(state, record.getPlayerID());
+                    matches.remove(record.getMatchID());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Records the result of a match that finished after the snapshot was
+     * started, the winner having beaten every other player
+     */
+    private void recordResult(MatchState state, int winnerID) {
+        if (state.seatIDs.size() < 2) {
+            return;
+        }
+        int[] losers = new int[state.seatIDs.size() - 1];
+        boolean[] gaveUp = new boolean[losers.length];
+        for (int i = 0, seat = 0; seat < state.seatIDs.size() && i < losers.length; seat++) {
+            int loserID = state.seatIDs.get(seat);
+            if (loserID != winnerID) {
+                losers[i] = loserID;
+                gaveUp[i++] = state.givenUp.contains(loserID);
+            }
+        }
+        if (losers.length == 1) {
+            leaderboard.recordResult(winnerID, losers[0], gaveUp[0]);
+        } else {
+            leaderboard.recordResults(winnerID, losers, gaveUp);
+        }
+    }
+
+    /**
+     * Adds a player that registered after the snapshot was started, known
+     * only from the journal
+     */
+    private void addPlayer(int playerID) {
+        if (playerID > 0 && !players.containsKey(playerID)) {
+            players.put(playerID, new PlayerState(playerID, GameEngineRemoteInterface.HUMAN_MODE, GameEngineRemoteInterface.EASY_DIFFICULYT, 0, null, new ArrayList<String>()));
+            playerCount = Math.max(playerCount, playerID);
+        }
+    }
+
+    /**
+     * @param directory
+     * @return the snapshots in the directory, oldest first
+     */
+    static File[] list(File directory) {
+        File[] snapshots = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        if (snapshots == null) {
+            return new File[0];
+        }
+        Arrays.sort(snapshots);
+        return snapshots;
+    }
+
+    private static void writeVarint(DataOutputStream out, byte[] buffer, long value) throws IOException {
+        out.write(buffer, 0, MoveJournal.writeVarint(buffer, 0, value));
+    }
+
+    private static void writeZigZag(DataOutputStream out, byte[] buffer, long value) throws IOException {
+        out.write(buffer, 0, MoveJournal.writeZigZag(buffer, 0, value));
+    }
+
+    /**
+     * @return the snapshot file the state was read from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return when the snapshot was started, in milliseconds since the epoch
+     */
+    public long getTakenMillis() {
+        return takenMillis;
+    }
+
+    int getPlayerCount() {
+        return playerCount;
+    }
+
+    int getMatchCount() {
+        return matchCount;
+    }
+
+    Collection<PlayerState> getPlayers() {
+        return players.values();
+    }
+
+    Collection<MatchState> getMatches() {
+        return matches.values();
+    }
+
+    /**
+     * @return the leaderboard as it was, with the results of the journal tail
+     */
+    Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    /**
+     * @return journal records applied on top of the snapshot
+     */
+    public long getTailRecords() {
+        return tailRecords;
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + ": " + players.size() + " players, " + matches.size() + " matches, " + tailRecords + " journal records applied";
+    }
+}
@@ -0,0 +1,212 @@
+package RMIGameOfNim;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link GameServer} on a single thread under a virtual clock, so
+ * that everything it does is decided by a seed. The threads that drive a
+ * server otherwise, one per match, one per computer player, the wheel of the
+ * {@link TurnClocks} and the sweeps of the {@link Matchmaker}, become tasks
+ * on one queue ordered by their virtual time and then by the order they were
+ * scheduled in. Every match draws its marbles and first player from a
+ * {@link Random} seeded with the seed of the simulation and the match number.
+ * The clock jumps straight to the next task, so minutes of play take only as
+ * long as the work done in them, and a seed that goes wrong does so again
+ * every time it is run.
+ * <p>
+ * Only to be used from one thread. Nothing run by it may block: the clients
+ * of a simulated server are tasks as well and call it directly rather than
+ * over RMI. As an {@link Executor} it runs a task after those due now, which
+ * is where a tournament handles the results of its matches.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public final class Simulation implements Executor {
+
+    public static final long STEP_MILLIS = 10; //how often a match or computer player looks at its state, as its thread would keep doing
+
+    /**
+     * Something that is run again and again, like the loop of a thread
+     */
+    public interface Task {
+
+        /**
+         * @return false once the task is done and should not run again
+         */
+        boolean step();
+    }
+
+    /**
+     * The clocks of the matches on the virtual time: a timeout is a task due
+     * when the player's time is up
+     */
+    private final class VirtualClocks extends TurnClocks {
+
+        VirtualClocks(long timeMillis, long incrementMillis) {
+            super(timeMillis, incrementMillis, TurnClocks.DEFAULT_TICK_MILLIS);
+        }
+
+        @Override
+        public synchronized void start() {
+            //the queue of the simulation turns instead of a wheel
+        }
+
+        @Override
+        Timeout schedule(GameLogicEngine match, int turn, long delayMillis) {
+            final Timeout timeout = newTimeout(match, turn, nowNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+            Simulation.this.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expired(timeout);
+                }
+            }, delayMillis);
+            return timeout;
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return Simulation.this.currentTimeMillis();
+        }
+    }
+
+    private final long seed;
+    private final TreeMap<Long, ArrayDeque<Runnable>> queue = new TreeMap<>(); //the tasks due at every instant in the order they were scheduled, most tasks share their instant with others
+    private long nowNanos = 0;
+    private int pending = 0;
+    private long tasksRun = 0;
+
+    /**
+     * @param seed decides every random choice of the simulated server and,
+     * through {@link #newRandom(long)}, of its clients
+     */
+    public Simulation(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the virtual time in nanoseconds, starting at 0, in place of
+     * {@link System#nanoTime()}
+     */
+    public long nanoTime() {
+        return nowNanos;
+    }
+
+    /**
+     * @return the virtual time in milliseconds
+     */
+    public long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nowNanos);
+    }
+
+    /**
+     * Runs a task once the virtual time has moved on by the delay, after every
+     * task already due by then
+     *
+     * @param task
+     * @param delayMillis 0 to run it after the tasks due now
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        Long at = nowNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        ArrayDeque<Runnable> due = queue.get(at);
+        if (due == null) {
+            due = new ArrayDeque<>();
+            queue.put(at, due);
+        }
+        due.add(task);
+        pending++;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        schedule(task, 0);
+    }
+
+    /**
+     * Steps a task now and then every period until it says it is done
+     *
+     * @param task
+     * @param periodMillis virtual time between two steps
+     */
+    public void repeat(final Task task, final long periodMillis) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (task.step()) {
+                    schedule(this, periodMillis);
+                }
+            }
+        }, 0);
+    }
+
+    /**
+     * @param stream tells apart the users of the seed, i.e. the match number
+     * @return a random number generator that gives the same numbers for the
+     * same seed and stream, and unrelated ones for different streams
+     */
+    public Random newRandom(long stream) {
+        long mixed = seed + (stream + 1) * 0x9E3779B97F4A7C15L; //SplitMix64, so neighbouring streams do not start alike
+        mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(mixed ^ (mixed >>> 31));
+    }
+
+    /**
+     * @param timeMillis every player's time for the whole match
+     * @param incrementMillis
+     * @return clocks whose timeouts are tasks of this simulation
+     */
+    TurnClocks newTurnClocks(long timeMillis, long incrementMillis) {
+        return new VirtualClocks(timeMillis, incrementMillis);
+    }
+
+    /**
+     * Runs the tasks in order of their time, moving the clock to each of them
+     *
+     * @param untilMillis virtual time to stop at, the clock is left there
+     * @return false if the queue ran empty before
+     */
+    public boolean runUntil(long untilMillis) {
+        long untilNanos = TimeUnit.MILLISECONDS.toNanos(untilMillis);
+        Map.Entry<Long, ArrayDeque<Runnable>> next;
+        while ((next = queue.firstEntry()) != null && next.getKey() <= untilNanos) {
+            nowNanos = next.getKey();
+            ArrayDeque<Runnable> due = next.getValue();
+            for (Runnable task; (task = due.poll()) != null;) { //tasks scheduled for now by these run after them
+                pending--;
+                tasksRun++;
+                task.run();
+            }
+            queue.remove(nowNanos);
+        }
+        nowNanos = Math.max(nowNanos, untilNanos);
+        return pending > 0;
+    }
+
+    /**
+     * @return tasks run so far
+     */
+    public long getTasksRun() {
+        return tasksRun;
+    }
+
+    /**
+     * @return tasks waiting
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    @Override
+    public String toString() {
+        return "seed=" + seed + " time=" + TurnClocks.format(currentTimeMillis()) + " tasks=" + tasksRun;
+    }
+}
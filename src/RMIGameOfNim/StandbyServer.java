@@ -0,0 +1,254 @@
+package RMIGameOfNim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.rmi.registry.LocateRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Entry point for a hot standby of a {@link GameServer} running in another
+ * process on the same host. It connects to the replication port of the
+ * primary, see {@link Replicator}, and writes what it is sent into a journal
+ * directory of its own: the snapshot the primary starts with and the journal
+ * records after it, which restore to the state of the primary, and the
+ * sessions of the players registered since. Once the primary is gone, the
+ * stream has broken and its registry no longer answers, the standby restores
+ * a server from that directory and binds it on the port of the primary, so
+ * clients resume their sessions there. A stream that breaks while the
+ * primary still answers is connected again from a fresh snapshot.
+ * <p>
+ * Usage: java -cp DistributedGameOfNim.jar RMIGameOfNim.StandbyServer
+ * replication.primary=localhost:1199 journal.dir=standby [port=1099]
+ * [other settings of the server taking over, see {@link ServerConfig}]
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class StandbyServer {
+
+    private final ServerConfig config;
+    private final AsyncServerLog log;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final File directory;
+    private final int timeoutMillis; //silence after which the primary is checked on
+    private final Map<Integer, String> sessions = new ConcurrentHashMap<>(); //players registered on the primary, with their secrets or "" for none
+    private MoveJournal journal; //opened with the first snapshot
+    private boolean synced = false; //a snapshot has been received, there is something to take over with
+    private long changes = 0; //taken on from the current stream
+    private long records = 0; //appended to the journal from every stream
+
+    /**
+     * @param config of the server that takes over, with the address of the
+     * primary in replication.primary
+     * @param log
+     */
+    public StandbyServer(ServerConfig config, AsyncServerLog log) {
+        this.config = config;
+        this.log = log;
+        String primary = config.getReplicationPrimary();
+        int separator = primary == null ? -1 : primary.lastIndexOf(':');
+        if (separator <= 0 || config.getJournalDir() == null) {
+            throw new IllegalArgumentException("A standby needs replication.primary=host:port and a journal.dir of its own");
+        }
+        primaryHost = primary.substring(0, separator);
+        primaryPort = Integer.parseInt(primary.substring(separator + 1));
+        directory = new File(config.getJournalDir());
+        timeoutMillis = config.getReplicationHeartbeat() * 4;
+    }
+
+    /**
+     * @param args the command line arguments, see {@link ServerConfig}
+     */
+    public static void main(String[] args) {
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Invalid configuration: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        final AsyncServerLog log = new AsyncServerLog(LogSinks.fromSpec(config.getLogSink()), config.getLogBufferSize());
+        try {
+            final GameServer server = new StandbyServer(config, log).standBy();
+            final int drainTimeout = config.getDrainTimeout();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    log.append("Server shutting down");
+                    server.drain(drainTimeout);
+                    log.close(); //flush whatever is still queued
+                }
+            }, "StandbyServer-shutdown"));
+            log.append("Server Started, waiting for players");
+        } catch (Exception e) {
+            System.err.println("Error when starting the standby");
+            e.printStackTrace();
+            log.close();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replicates the primary until it is gone and then takes over
+     *
+     * @return the server that has taken over, bound and restored
+     * @throws Exception if the server cannot be started
+     */
+    public GameServer standBy() throws Exception {
+        log.append("Standing by for the primary at " + primaryHost + ":" + primaryPort + ", journal in " + directory.getAbsolutePath());
+        log.append(isPrimaryAlive() ? "The primary answers on port " + config.getPort() //loads the classes of the check before it counts
+                : "The primary does not answer on port " + config.getPort() + " yet");
+        long lostNanos;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(primaryHost, primaryPort), timeoutMillis);
+                socket.setTcpNoDelay(true);
+                replicate(socket);
+            } catch (IOException e) {
+                if (synced) {
+                    log.append("Lost the primary: " + e);
+                }
+            }
+            lostNanos = System.nanoTime();
+            if (synced && !isPrimaryAlive()) {
+                break;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(synced ? 10 : 1000)); //not started yet, or only the stream broke
+        }
+        return takeOver(lostNanos);
+    }
+
+    /**
+     * Receives the snapshot and then the changes until the stream breaks
+     */
+    private void replicate(Socket socket) throws IOException {
+        socket.setSoTimeout(0); //the primary takes the snapshot first
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != Replicator.MAGIC || in.readByte() != Replicator.VERSION) {
+            throw new IOException("Not the replication stream of a game server");
+        }
+        byte ackMode = in.readByte();
+        if (in.readByte() != Replicator.SNAPSHOT) {
+            throw new IOException("The stream does not start with a snapshot");
+        }
+        receiveSnapshot(in);
+        socket.setSoTimeout(timeoutMillis); //from here on there is a batch at least every heartbeat
+        if (journal == null) {
+            journal = new MoveJournal(directory, config.getJournalSegmentSize(), MoveJournal.DEFAULT_BUFFER_SIZE, log);
+        }
+        synced = true;
+        changes = 0;
+        log.append("Replicating from " + primaryHost + ":" + primaryPort + " with ack=" + (ackMode == 0 ? Replicator.ACK_ASYNC
+                : ackMode == 1 ? Replicator.ACK_RECEIVED : Replicator.ACK_WRITTEN));
+        while (true) {
+            if (in.readByte() != Replicator.BATCH) {
+                throw new IOException("Expected a batch of changes");
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                byte type = in.readByte();
+                if (type == Replicator.SESSION) {
+                    sessions.put(in.readInt(), in.readUTF());
+                } else {
+                    JournalRecord record = new JournalRecord(type, in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readLong());
+                    if (!journal.append(record)) {
+                        throw new IOException("The journal of the standby cannot be written");
+                    }
+                    records++;
+                }
+                changes++;
+            }
+            long sent = in.readLong();
+            if (sent != changes) {
+                throw new IOException("The stream has lost changes, " + changes + " taken on of " + sent);
+            }
+            if (ackMode == 2) { //written: wait for the journal to have every record
+                while (journal.getRecordsWritten() < records) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                }
+            }
+            out.writeLong(changes);
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes the snapshot into the directory, first to a temporary file that
+     * is then renamed like the primary does, and keeps only the newest
+     */
+    private void receiveSnapshot(DataInputStream in) throws IOException {
+        String name = new File(in.readUTF()).getName();
+        long length = in.readLong();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the journal directory " + directory);
+        }
+        File target = new File(directory, name);
+        File temporary = new File(directory, name + ".tmp");
+        byte[] buffer = new byte[1 << 16];
+        try (OutputStream file = new FileOutputStream(temporary)) {
+            while (length > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (read < 0) {
+                    throw new EOFException("The snapshot is incomplete");
+                }
+                file.write(buffer, 0, read);
+                length -= read;
+            }
+        }
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        File[] snapshots = ServerSnapshot.list(directory);
+        for (int i = 0; i < snapshots.length - ServerSnapshot.KEEP; i++) {
+            snapshots[i].delete();
+        }
+    }
+
+    /**
+     * The primary runs its registry in its own process and unbinds itself
+     * last when it shuts down, so a lookup that is answered tells it is alive
+     *
+     * @return true if the registry of the primary still hands out the server
+     */
+    private boolean isPrimaryAlive() {
+        try {
+            LocateRegistry.getRegistry(primaryHost, config.getPort()).lookup(config.getServiceName());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gives the players registered since the snapshot their sessions back,
+     * restores a server from the directory and binds it on the port of the
+     * primary
+     *
+     * @param lostNanos when the stream broke
+     */
+    private GameServer takeOver(long lostNanos) throws Exception {
+        journal.close(); //the server opens its own journal in the same directory
+        config.set(ServerConfig.RESTORE, "true");
+        GameServer server = new GameServer(config, log);
+        for (Map.Entry<Integer, String> session : sessions.entrySet()) { //before the restore, which keeps them
+            server.adoptSession(session.getKey(), session.getValue().isEmpty() ? null : session.getValue());
+        }
+        server.start();
+        log.append("Took over from the primary in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lostNanos) + " ms after the stream broke, "
+                + sessions.size() + " sessions registered since the snapshot");
+        return server;
+    }
+}
@@ -0,0 +1,90 @@
+package RMIGameOfNim;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that many threads can update at the same time without contending on
+ * a single memory location. Every thread adds to one of several stripes, each
+ * on its own cache line, and the stripes are only summed up when the value is
+ * read. Updates are cheap, reading is a little more expensive, so this is meant
+ * for statistics that are written on hot paths and read now and again.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class StripedCounter {
+
+    private static final int PADDING = 16; //longs per stripe, 128 bytes keep stripes apart even when cache lines are fetched in pairs
+    private static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Adds one
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Subtracts one
+     */
+    public void decrement() {
+        add(-1);
+    }
+
+    /**
+     * @param delta amount to add, may be negative
+     */
+    public void add(long delta) {
+        cells.addAndGet(stripe(), delta);
+    }
+
+    /**
+     * @return the current total. Updates made while summing may or may not be
+     * included.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the current total and starts again from zero, without losing
+     * updates made while doing so
+     *
+     * @return the total before the reset
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.getAndSet(i * PADDING, 0);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    /**
+     * Spreads the threads over the stripes using their id, threads started one
+     * after another end up on different stripes
+     */
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * @param processors
+     * @return twice the processor count rounded up to a power of two, so the
+     * stripe can be found with a mask
+     */
+    private static int stripesFor(int processors) {
+        return Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+    }
+}
@@ -0,0 +1,51 @@
+package RMIGameOfNim;
+
+import java.util.Calendar;
+
+/**
+ * Formats time stamps as HH:MM for the message logs. The formatted value is
+ * cached for the current minute, so a {@link Calendar} is only built once a
+ * minute instead of for every message. Safe to share between threads.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class TimeOfDayFormat {
+
+    private volatile CachedMinute cached = new CachedMinute(-1, "");
+
+    /**
+     * @return the current time of day in HH:MM format
+     */
+    public String now() {
+        return format(System.currentTimeMillis());
+    }
+
+    /**
+     * @param millis time stamp as returned by {@link System#currentTimeMillis()}
+     * @return String containing the time of day in HH:MM format
+     */
+    public String format(long millis) {
+        long minute = millis / 60000;
+        CachedMinute current = cached;
+        if (current.minute != minute) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(millis);
+            int hour = calendar.get(Calendar.HOUR_OF_DAY);
+            int minuteOfHour = calendar.get(Calendar.MINUTE);
+            current = new CachedMinute(minute, (hour < 10 ? "0" : "") + hour + ":" + (minuteOfHour < 10 ? "0" : "") + minuteOfHour);
+            cached = current;
+        }
+        return current.text;
+    }
+
+    private static final class CachedMinute {
+
+        private final long minute;
+        private final String text;
+
+        private CachedMinute(long minute, String text) {
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package RMIGameOfNim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A knockout or Swiss tournament between registered players, played as
+ * ordinary matches on the {@link GameServer}.
+ * <p>
+ * Players enter while the tournament is open and are seeded by their rating
+ * when it starts. Every round is created in one go: the pairings are worked
+ * out, all matches are created and only then started. The tournament is a
+ * {@link MatchListener} of its matches, a finished match hands its result to
+ * the tournament thread of the server, and once the last match of a round has
+ * come in the next round is created on that thread. Nothing polls the matches.
+ * <p>
+ * Knockout: the entrants are placed in a bracket of the next power of two, the
+ * best seeds meeting the worst, and the missing entrants are byes that let
+ * their opponent through. The winners keep their place in the bracket for the
+ * next round. Swiss: a fixed number of rounds in which everybody plays
+ * somebody with the same number of points, avoiding rematches where the next
+ * few players allow it; with an odd number the lowest placed player who has
+ * not had one gets a bye, worth a win. The players are put in order of their
+ * points with a counting sort, so, as for the knockout, working out a round is
+ * linear in the entrants.
+ * <p>
+ * A player who gives up a match loses it. A player who has left the
+ * tournament, or is still playing another match when the round starts, loses
+ * by walkover and the opponent goes through without a match. A player waiting
+ * in a lobby is taken out of it.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class Tournament implements MatchListener {
+
+    public static final int KNOCKOUT = 0;
+    public static final int SWISS = 1;
+    private static final int REMATCH_LOOKAHEAD = 8; //players looked at to avoid a rematch in a Swiss round
+
+    private final int tournamentID;
+    private final int format;
+    private final int difficulty;
+    private final int creatorID;
+    private final GameServer server;
+    private final Executor events; //the thread results are handled on
+    private int rounds; //planned for a Swiss tournament, worked out from the entrants for a knockout
+    private final List<Entrant> entrants = new ArrayList<>(); //in the order of their seed once started
+    private final Map<Integer, Entrant> byPlayer = new HashMap<>();
+    private final Map<GameLogicEngine, Pairing> live = new HashMap<>(); //matches of the current round
+    private Entrant[] bracket; //knockout: the entrants still in, in bracket order, null for a bye
+    private int round = 0;
+    private boolean started = false;
+    private Entrant champion = null;
+    private long roundNanos = 0; //time taken to pair and create the last round
+
+    /**
+     * One player in the tournament
+     */
+    private static final class Entrant {
+
+        final Player player;
+        final int rating; //when the tournament started
+        int points = 0;
+        int played = 0;
+        boolean withdrawn = false;
+        boolean eliminated = false;
+        boolean hadBye = false;
+        final Set<Integer> opponents = new HashSet<>(); //Swiss only
+
+        Entrant(Player player, int rating) {
+            this.player = player;
+            this.rating = rating;
+        }
+
+        int id() {
+            return player.getPlayerID();
+        }
+    }
+
+    /**
+     * Two entrants paired in a round, index is the pair's place in a knockout
+     * bracket
+     */
+    private static final class Pairing {
+
+        final Entrant one;
+        final Entrant two;
+        final int index;
+
+        Pairing(Entrant one, Entrant two, int index) {
+            this.one = one;
+            this.two = two;
+            this.index = index;
+        }
+    }
+
+    /**
+     * @param tournamentID
+     * @param format {@link #KNOCKOUT} or {@link #SWISS}
+     * @param difficulty difficulty of every match
+     * @param rounds rounds of a Swiss tournament, 0 for as many as a knockout
+     * of the same entrants would have
+     * @param creator the player who opened it, the only one who can start it
+     * @param server
+     * @param events the thread the results are handled on
+     */
+    public Tournament(int tournamentID, int format, int difficulty, int rounds, Player creator, GameServer server, Executor events) {
+        if (format != KNOCKOUT && format != SWISS) {
+            throw new IllegalArgumentException("Unknown tournament format " + format);
+        }
+        this.tournamentID = tournamentID;
+        this.format = format;
+        this.difficulty = difficulty;
+        this.rounds = rounds;
+        this.creatorID = creator.getPlayerID();
+        this.server = server;
+        this.events = events;
+        enter(creator);
+    }
+
+    /**
+     * @param player
+     * @return false if the tournament has started or the player has entered
+     * already
+     */
+    public synchronized boolean enter(Player player) {
+        if (started || byPlayer.containsKey(player.getPlayerID())) {
+            return false;
+        }
+        Entrant entrant = new Entrant(player, server.getLeaderboard().getRating(player.getPlayerID()));
+        entrants.add(entrant);
+        byPlayer.put(entrant.id(), entrant);
+        return true;
+    }
+
+    /**
+     * Takes the player out of the tournament, any later pairing is lost by
+     * walkover
+     *
+     * @param playerID
+     * @return the tournament match the player is playing, to be given up by
+     * the caller, or null
+     */
+    public synchronized GameLogicEngine withdraw(int playerID) {
+        Entrant entrant = byPlayer.get(playerID);
+        if (entrant == null || entrant.withdrawn) {
+            return null;
+        }
+        entrant.withdrawn = true;
+        if (!started) {
+            entrants.remove(entrant);
+            byPlayer.remove(playerID);
+            return null;
+        }
+        for (Map.Entry<GameLogicEngine, Pairing> match : live.entrySet()) {
+            if (match.getValue().one == entrant || match.getValue().two == entrant) {
+                return match.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Seeds the entrants and creates the first round
+     *
+     * @param playerID the player asking, only the creator may start it
+     * @return why it has not started, or null if it has
+     */
+    public synchronized String start(int playerID) {
+        if (playerID != creatorID) {
+            return "Only Player #" + creatorID + " can start tournament #" + tournamentID + ".";
+        }
+        if (started) {
+            return "Tournament #" + tournamentID + " has already started.";
+        }
+        if (entrants.size() < 2) {
+            return "Tournament #" + tournamentID + " needs at least two players.";
+        }
+        started = true;
+        Collections.sort(entrants, new Comparator<Entrant>() { //once, the rounds keep to this order
+            @Override
+            public int compare(Entrant a, Entrant b) {
+                return a.rating != b.rating ? Integer.compare(b.rating, a.rating) : Integer.compare(a.id(), b.id());
+            }
+        });
+        int size = Integer.highestOneBit(entrants.size() - 1) << 1; //next power of two
+        int knockoutRounds = Integer.numberOfTrailingZeros(size);
+        if (format == KNOCKOUT) {
+            rounds = knockoutRounds;
+            bracket = new Entrant[size];
+            int[] order = bracketOrder(size);
+            for (int slot = 0; slot < size; slot++) {
+                bracket[slot] = order[slot] < entrants.size() ? entrants.get(order[slot]) : null;
+            }
+        } else if (rounds <= 0) {
+            rounds = knockoutRounds;
+        }
+        nextRound();
+        return null;
+    }
+
+    /**
+     * @param size a power of two
+     * @return the seed (0 the best) in every slot of a bracket, so that the
+     * best seeds meet the worst and the two best can only meet in the final
+     */
+    static int[] bracketOrder(int size) {
+        int[] order = {0};
+        while (order.length < size) {
+            int[] next = new int[order.length * 2];
+            for (int i = 0; i < order.length; i++) {
+                next[2 * i] = order[i];
+                next[2 * i + 1] = next.length - 1 - order[i];
+            }
+            order = next;
+        }
+        return order;
+    }
+
+    @Override
+    public void matchFinished(final GameLogicEngine match) {
+        events.execute(new Runnable() { //called holding the lock of the match, the round is created elsewhere
+            @Override
+            public void run() {
+                resultReceived(match);
+            }
+        });
+    }
+
+    private synchronized void resultReceived(GameLogicEngine match) {
+        Pairing pairing = live.remove(match);
+        if (pairing == null) {
+            return;
+        }
+        int winnerID = match.getWinnerID();
+        if (winnerID == pairing.one.id()) {
+            won(pairing.one, pairing.two, pairing.index);
+        } else if (winnerID == pairing.two.id()) {
+            won(pairing.two, pairing.one, pairing.index);
+        } else { //ended without a result, the one who did not leave goes through
+            Entrant present = pairing.one.withdrawn || match.getLoserID() == pairing.one.id() ? pairing.two : pairing.one;
+            Entrant absent = present == pairing.one ? pairing.two : pairing.one;
+            won(present, absent, pairing.index);
+            present.player.addMessage("Tournament #" + tournamentID + " round " + round + ": match #" + match.getMatchID() + " ended without a result, you win by walkover.");
+        }
+        if (live.isEmpty()) {
+            nextRound();
+        }
+    }
+
+    /**
+     * Records a result, whether played or by walkover
+     */
+    private void won(Entrant winner, Entrant loser, int index) {
+        winner.points++;
+        winner.played++;
+        if (loser != null) {
+            loser.played++;
+        }
+        if (format == KNOCKOUT) {
+            bracket[index] = winner; //the next round is half as big, so the pair's index is the winner's slot in it
+            if (loser != null) {
+                loser.eliminated = true;
+                loser.player.addMessage("You are out of tournament #" + tournamentID + " after round " + round + ".");
+            }
+        }
+    }
+
+    /**
+     * Creates rounds until one has matches to wait for, or the tournament is
+     * over
+     */
+    private void nextRound() {
+        while (live.isEmpty()) {
+            long start = System.nanoTime();
+            if (format == KNOCKOUT && round > 0) {
+                bracket = Arrays.copyOf(bracket, bracket.length / 2);
+            }
+            if (round == rounds) {
+                finish();
+                return;
+            }
+            if (server.isDraining()) { //no new matches, the tournament is left unfinished
+                for (Entrant entrant : entrants) {
+                    entrant.player.addMessage("Tournament #" + tournamentID + " has been stopped after round " + round + ", the server is shutting down.");
+                }
+                return;
+            }
+            round++;
+            List<Pairing> pairings = format == KNOCKOUT ? pairKnockout() : pairSwiss();
+            List<GameLogicEngine> matches = new ArrayList<>(pairings.size());
+            for (Pairing pairing : pairings) {
+                GameLogicEngine match = play(pairing);
+                if (match != null) {
+                    matches.add(match);
+                }
+            }
+            roundNanos = System.nanoTime() - start; //the threads of the matches are not counted
+            server.startPairedMatches(matches); //all created before any of them can finish
+        }
+    }
+
+    private List<Pairing> pairKnockout() {
+        List<Pairing> pairings = new ArrayList<>(bracket.length / 2);
+        for (int i = 0; i < bracket.length / 2; i++) {
+            Entrant one = bracket[2 * i];
+            Entrant two = bracket[2 * i + 1];
+            if (one == null || two == null) { //a bye, the other one goes through
+                Entrant through = one == null ? two : one;
+                bracket[i] = through;
+                if (through != null) {
+                    through.player.addMessage("Tournament #" + tournamentID + " round " + round + ": you have a bye and go through.");
+                }
+            } else {
+                pairings.add(new Pairing(one, two, i));
+            }
+        }
+        return pairings;
+    }
+
+    private List<Pairing> pairSwiss() {
+        List<Entrant> standing = byPoints(false);
+        if (standing.size() % 2 == 1) { //the lowest placed player without a bye sits this one out
+            int bye = standing.size() - 1;
+            while (bye > 0 && standing.get(bye).hadBye) {
+                bye--;
+            }
+            Entrant entrant = standing.remove(bye);
+            entrant.hadBye = true;
+            won(entrant, null, 0);
+            entrant.player.addMessage("Tournament #" + tournamentID + " round " + round + ": you have a bye, which counts as a win.");
+        }
+        List<Pairing> pairings = new ArrayList<>(standing.size() / 2);
+        boolean[] paired = new boolean[standing.size()];
+        for (int i = 0; i < standing.size(); i++) {
+            if (paired[i]) {
+                continue;
+            }
+            Entrant one = standing.get(i);
+            int partner = -1;
+            for (int j = i + 1, looked = 0; j < standing.size() && looked < REMATCH_LOOKAHEAD; j++) {
+                if (paired[j]) {
+                    continue;
+                }
+                if (partner < 0) {
+                    partner = j; //if every one of them is a rematch, the closest it is
+                }
+                if (!one.opponents.contains(standing.get(j).id())) {
+                    partner = j;
+                    break;
+                }
+                looked++;
+            }
+            paired[i] = true;
+            paired[partner] = true;
+            Entrant two = standing.get(partner);
+            one.opponents.add(two.id());
+            two.opponents.add(one.id());
+            pairings.add(new Pairing(one, two, pairings.size()));
+        }
+        return pairings;
+    }
+
+    /**
+     * @param all true to include the players who have left
+     * @return the entrants with the most points first, in the order of their
+     * seed within the same points
+     */
+    private List<Entrant> byPoints(boolean all) {
+        int[] count = new int[round + 1]; //nobody has more points than rounds played
+        for (Entrant entrant : entrants) {
+            if (all || !entrant.withdrawn) {
+                count[entrant.points]++;
+            }
+        }
+        int[] offset = new int[round + 1];
+        int total = 0;
+        for (int points = round; points >= 0; points--) {
+            offset[points] = total;
+            total += count[points];
+        }
+        Entrant[] sorted = new Entrant[total];
+        for (Entrant entrant : entrants) {
+            if (all || !entrant.withdrawn) {
+                sorted[offset[entrant.points]++] = entrant;
+            }
+        }
+        return new ArrayList<>(Arrays.asList(sorted));
+    }
+
+    /**
+     * Creates the match of a pairing, or settles it by walkover
+     *
+     * @return the match, not yet started, or null if there is none to play
+     */
+    private GameLogicEngine play(Pairing pairing) {
+        Entrant absent = pairing.one.withdrawn || server.isBusy(pairing.one.player) ? pairing.one
+                : pairing.two.withdrawn || server.isBusy(pairing.two.player) ? pairing.two : null;
+        GameLogicEngine match = null;
+        if (absent == null) {
+            match = server.createPairedMatch(pairing.one.player, pairing.two.player, difficulty, this);
+            absent = match == null ? pairing.two : null; //started another match just now
+        }
+        if (absent != null) {
+            Entrant present = absent == pairing.one ? pairing.two : pairing.one;
+            won(present, absent, pairing.index);
+            present.player.addMessage("Tournament #" + tournamentID + " round " + round + ": Player #" + absent.id() + " is not there, you win by walkover.");
+            return null;
+        }
+        live.put(match, pairing);
+        String announcement = "Tournament #" + tournamentID + " round " + round + " of " + rounds + ": you play Player #";
+        pairing.one.player.addMessage(announcement + pairing.two.id() + " in match #" + match.getMatchID() + ".");
+        pairing.two.player.addMessage(announcement + pairing.one.id() + " in match #" + match.getMatchID() + ".");
+        return match;
+    }
+
+    private void finish() {
+        if (format == KNOCKOUT) {
+            champion = bracket.length > 0 ? bracket[0] : null;
+        } else {
+            List<Entrant> standing = byPoints(false);
+            champion = standing.isEmpty() ? null : standing.get(0);
+        }
+        String result = "Tournament #" + tournamentID + " is over, " + (champion == null ? "nobody is left." : "Player #" + champion.id() + " has won it!");
+        for (Entrant entrant : entrants) {
+            entrant.player.addMessage(result);
+        }
+        server.tournamentFinished(this);
+    }
+
+    public int getTournamentID() {
+        return tournamentID;
+    }
+
+    public synchronized boolean isStarted() {
+        return started;
+    }
+
+    public synchronized boolean isFinished() {
+        return round == rounds && live.isEmpty() && started;
+    }
+
+    /**
+     * @return the winner, 0 until the tournament is over
+     */
+    public synchronized int getChampionID() {
+        return champion == null ? 0 : champion.id();
+    }
+
+    public synchronized int getEntrantCount() {
+        return entrants.size();
+    }
+
+    public synchronized int getRound() {
+        return round;
+    }
+
+    /**
+     * @return matches of the current round still going
+     */
+    public synchronized int getLiveMatchCount() {
+        return live.size();
+    }
+
+    /**
+     * @return the time it took to pair and create the matches of the last
+     * round, before their threads were started, in nanoseconds
+     */
+    public synchronized long getRoundNanos() {
+        return roundNanos;
+    }
+
+    /**
+     * @param playerID the player asking
+     * @return the state of the tournament and where the player stands
+     */
+    public synchronized String describe(int playerID) {
+        StringBuilder builder = new StringBuilder("Tournament #" + tournamentID + ", " + (format == KNOCKOUT ? "knockout" : "Swiss")
+                + ", " + entrants.size() + " entrants: ");
+        if (!started) {
+            builder.append("open, Player #").append(creatorID).append(" can start it with \"tournament start\".");
+        } else if (isFinished()) {
+            builder.append("over, won by ").append(champion == null ? "nobody" : "Player #" + champion.id()).append('.');
+        } else {
+            builder.append("round ").append(round).append(" of ").append(rounds).append(", ").append(live.size()).append(" matches going, created in ")
+                    .append(TimeUnit.NANOSECONDS.toMicros(roundNanos)).append(" us.");
+        }
+        Entrant entrant = byPlayer.get(playerID);
+        if (entrant != null) {
+            builder.append("\nYou have ").append(entrant.points).append(" points from ").append(entrant.played).append(" matches")
+                    .append(entrant.withdrawn ? " and have left." : entrant.eliminated ? " and are out." : ".");
+        }
+        if (format == SWISS && started) {
+            List<Entrant> standing = byPoints(true);
+            for (int i = 0; i < Math.min(Leaderboard.DEFAULT_TOP, standing.size()); i++) {
+                builder.append('\n').append(i + 1).append(". Player #").append(standing.get(i).id()).append(": ").append(standing.get(i).points).append(" points");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,255 @@
+package RMIGameOfNim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The clocks of every match on a server. Each player of a match starts with
+ * the same time, which runs down while it is their turn; a move adds the
+ * increment to it, a player whose time runs out has lost the match as if
+ * they had given up.
+ * <p>
+ * However many matches are going, only the clock of the player to move is
+ * running in each of them, and all of those end on one thread turning a hashed
+ * timing wheel: a ring of {@link #WHEEL_SIZE} slots, one per tick, every
+ * timeout kept in the slot of the tick it ends on together with the number
+ * of turns of the wheel still to go. Starting and stopping a clock do not
+ * depend on the number of clocks. A match hands its timeouts over through a
+ * queue the thread takes them from once per tick, and a clock that is
+ * stopped is only marked, the thread drops it when it gets to its slot.
+ * <p>
+ * A {@link Simulation} replaces the wheel and the time by overriding
+ * {@link #start()}, {@link #schedule(GameLogicEngine, int, long)} and
+ * {@link #currentTimeMillis()}.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class TurnClocks {
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    static final int WHEEL_SIZE = 512; //a power of two, ticks are mapped onto slots with a mask
+
+    private final long timeMillis, incrementMillis;
+    private final long tickNanos;
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE]; //the first timeout of every slot, only used by the thread
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>(); //started since the last tick
+    private final AtomicLong running = new AtomicLong(); //timeouts on the wheel or about to be
+    private final StripedCounter timedOut = new StripedCounter();
+    private final long startNanos = System.nanoTime();
+    private long tick = 0; //ticks done, only used by the thread
+    private volatile boolean stopped = false;
+    private Thread thread;
+
+    /**
+     * A clock that is running, ends the turn of a match unless it is stopped
+     * before
+     */
+    static final class Timeout {
+
+        private final GameLogicEngine match;
+        private final int turn;
+        private final long deadlineNanos;
+        private long rounds; //turns of the wheel to wait, only used by the thread
+        private Timeout next; //in the same slot, only used by the thread
+        private volatile boolean stopped = false;
+
+        Timeout(GameLogicEngine match, int turn, long deadlineNanos) {
+            this.match = match;
+            this.turn = turn;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Stops the clock, it is taken off the wheel once its slot comes up
+         */
+        void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * @param timeMillis every player's time for the whole match
+     * @param incrementMillis added to a player's time for every move they
+     * make, 0 for none
+     * @param tickMillis how often the wheel turns, the accuracy of the clocks
+     */
+    public TurnClocks(long timeMillis, long incrementMillis, long tickMillis) {
+        if (timeMillis <= 0 || incrementMillis < 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("A clock needs a positive time and tick and no negative increment");
+        }
+        this.timeMillis = timeMillis;
+        this.incrementMillis = incrementMillis;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    }
+
+    /**
+     * Starts the thread turning the wheel, clocks started before only end
+     * from here on
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                turn();
+            }
+        }, "TurnClocks");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the thread, clocks that are running do not end any more
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Starts the clock of the player to move in a match
+     *
+     * @param match told by {@link GameLogicEngine#turnTimedOut(int)} once the
+     * time is up
+     * @param turn the turn of the match the clock runs for
+     * @param delayMillis the time the player has left
+     * @return the clock, to be stopped once the player has moved
+     */
+    Timeout schedule(GameLogicEngine match, int turn, long delayMillis) {
+        Timeout timeout = newTimeout(match, turn, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return a timeout counted as running until it is passed to
+     * {@link #expired(Timeout)}
+     */
+    Timeout newTimeout(GameLogicEngine match, int turn, long deadlineNanos) {
+        running.incrementAndGet();
+        return new Timeout(match, turn, deadlineNanos);
+    }
+
+    /**
+     * Ends the turn of a timeout that is due, unless it has been stopped
+     */
+    void expired(Timeout timeout) {
+        running.decrementAndGet();
+        if (!timeout.stopped) {
+            try {
+                if (timeout.match.turnTimedOut(timeout.turn)) {
+                    timedOut.increment();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(); //the other clocks keep running
+            }
+        }
+    }
+
+    private void turn() {
+        while (!stopped) {
+            long wait = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return; //stopped
+                }
+                continue;
+            }
+            for (Timeout timeout; (timeout = added.poll()) != null;) {
+                place(timeout);
+            }
+            expire((int) (tick & (WHEEL_SIZE - 1)));
+            tick++;
+        }
+    }
+
+    /**
+     * Puts a timeout into the slot of the tick it ends on, one that ends in a
+     * tick already gone into the slot being expired now
+     */
+    private void place(Timeout timeout) {
+        if (timeout.stopped) {
+            running.decrementAndGet();
+            return;
+        }
+        long ticks = Math.max(tick, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1); //the tick whose end is past the deadline
+        timeout.rounds = (ticks - tick) / WHEEL_SIZE;
+        int slot = (int) (ticks & (WHEEL_SIZE - 1));
+        timeout.next = wheel[slot];
+        wheel[slot] = timeout;
+    }
+
+    /**
+     * Ends the timeouts of a slot that are due, drops the ones that have been
+     * stopped and leaves the others for a later turn of the wheel
+     */
+    private void expire(int slot) {
+        Timeout previous = null;
+        for (Timeout timeout = wheel[slot]; timeout != null; timeout = timeout.next) {
+            if (!timeout.stopped && timeout.rounds > 0) {
+                timeout.rounds--;
+                previous = timeout;
+                continue;
+            }
+            if (previous == null) { //taken off the wheel
+                wheel[slot] = timeout.next;
+            } else {
+                previous.next = timeout.next;
+            }
+            expired(timeout);
+        }
+    }
+
+    /**
+     * @return the time on this clock in milliseconds, only differences
+     * between two readings mean anything
+     */
+    long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * @return every player's time for the whole match in milliseconds
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return milliseconds added to a player's time for every move
+     */
+    public long getIncrementMillis() {
+        return incrementMillis;
+    }
+
+    /**
+     * @return clocks that are running, including stopped ones the wheel has
+     * not got to yet
+     */
+    public long getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return turns that have ended because the player ran out of time
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /**
+     * @param millis
+     * @return the time as seconds with one decimal, i.e. "12.3 seconds"
+     */
+    static String format(long millis) {
+        long tenths = Math.max(0, millis) / 100;
+        return tenths / 10 + "." + tenths % 10 + (tenths == 10 ? " second" : " seconds");
+    }
+}
@@ -0,0 +1,108 @@
+package RMIGameOfNim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the ranks of the {@link Leaderboard} against counting the players
+ * with more wins, with players sharing a rank and with more wins than its
+ * tree started out with.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class LeaderboardTest {
+
+    @Test
+    public void playersWithTheSameWinsShareARank() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.recordResult(1, 3, false);
+        leaderboard.recordResult(2, 3, true);
+        leaderboard.recordResult(1, 4, false);
+        leaderboard.recordResult(2, 4, false);
+        leaderboard.recordResult(3, 4, false);
+
+        assertEquals(1, leaderboard.rank(1));
+        assertEquals(1, leaderboard.rank(2));
+        assertEquals(3, leaderboard.rank(3));
+        assertEquals(4, leaderboard.rank(4));
+        assertEquals(0, leaderboard.rank(5));
+        assertNull(leaderboard.placing(5));
+
+        List<Leaderboard.Standing> top = leaderboard.top(Leaderboard.DEFAULT_TOP);
+        assertEquals(4, top.size());
+        assertEquals(1, top.get(0).getPlayerID()); //as many wins as player 2, the lower number first
+        assertEquals(2, top.get(1).getPlayerID());
+        assertEquals(3, top.get(2).getPlayerID());
+        assertEquals(4, top.get(3).getPlayerID());
+
+        Leaderboard.Placing placing = leaderboard.placing(3);
+        assertEquals(3, placing.getRank());
+        assertEquals(4, placing.getRanked());
+        assertEquals(1, placing.getStanding().getWins());
+        assertEquals(2, placing.getStanding().getLosses());
+        assertEquals(1, placing.getStanding().getForfeits());
+    }
+
+    @Test
+    public void computerIsNotRanked() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.recordResult(1, Integer.MIN_VALUE, false);
+        leaderboard.recordResult(Integer.MIN_VALUE, 1, false);
+
+        assertEquals(1, leaderboard.size());
+        assertEquals(1, leaderboard.rank(1));
+        assertEquals(Leaderboard.INITIAL_RATING, leaderboard.getRating(1));
+    }
+
+    @Test
+    public void ranksStayRightAsTheWinsOutgrowTheTree() {
+        Leaderboard leaderboard = new Leaderboard();
+        Map<Integer, Integer> wins = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            int winnerID = 1 + (int) Math.abs(random.nextGaussian() * 5); //a few players win almost every match
+            int loserID = 1 + random.nextInt(200);
+            if (winnerID == loserID) {
+                continue;
+            }
+            leaderboard.recordResult(winnerID, loserID, false);
+            wins.put(winnerID, (wins.containsKey(winnerID) ? wins.get(winnerID) : 0) + 1);
+            if (!wins.containsKey(loserID)) {
+                wins.put(loserID, 0);
+            }
+        }
+        leaderboard.restore(500, 100000, 0, 0, Leaderboard.INITIAL_RATING); //grows the tree by several doublings at once
+        wins.put(500, 100000);
+
+        assertEquals(wins.size(), leaderboard.size());
+        for (int playerID : wins.keySet()) {
+            assertEquals("rank of player #" + playerID, expectedRank(wins, playerID), leaderboard.rank(playerID));
+        }
+        List<Leaderboard.Standing> top = leaderboard.top(wins.size());
+        List<Integer> ranks = new ArrayList<>();
+        for (Leaderboard.Standing standing : top) {
+            assertEquals(wins.get(standing.getPlayerID()).intValue(), standing.getWins());
+            ranks.add(leaderboard.rank(standing.getPlayerID()));
+        }
+        assertEquals(500, top.get(0).getPlayerID());
+        for (int i = 1; i < ranks.size(); i++) {
+            assertEquals(true, ranks.get(i - 1) <= ranks.get(i));
+        }
+    }
+
+    private static int expectedRank(Map<Integer, Integer> wins, int playerID) {
+        int better = 0;
+        for (int other : wins.values()) {
+            if (other > wins.get(playerID)) {
+                better++;
+            }
+        }
+        return better + 1;
+    }
+}
@@ -0,0 +1,164 @@
+package RMIGameOfNim;
+
+import java.rmi.server.UnicastRemoteObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Follows matches on a simulated server with a {@link MatchMirror} for every
+ * player, fed the messages the server really sends. After every step the
+ * mirrors have to agree with the match, and a move a mirror turns down has
+ * to be turned down by the server with the same words.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MatchMirrorTest {
+
+    private Simulation simulation;
+    private GameServer server;
+    private long virtualMillis = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.set(ServerConfig.JOURNAL_DIR, "none");
+        config.set(ServerConfig.SNAPSHOT_INTERVAL, "0");
+        config.set(ServerConfig.LOG_SINK, LogSinks.NONE);
+        simulation = new Simulation(1);
+        server = new GameServer(config, new AsyncServerLog(LogSinks.fromSpec(LogSinks.NONE), config.getLogBufferSize()), simulation);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(server, true);
+    }
+
+    @Test
+    public void mirrorsFollowAMatchBetweenPlayers() throws Exception {
+        int one = server.registerPlayer();
+        int two = server.registerPlayer();
+        MatchMirror mirrorOne = new MatchMirror();
+        MatchMirror mirrorTwo = new MatchMirror();
+        server.executeCommand(one, "start");
+        server.executeCommand(two, "start");
+        run();
+        GameLogicEngine match = server.findPlayerById(one).getCurrentMatch();
+        assertNotNull(match);
+
+        while (!match.isGameOver()) {
+            deliver(one, mirrorOne);
+            deliver(two, mirrorTwo);
+            assertAgrees(match, one, mirrorOne);
+            assertAgrees(match, two, mirrorTwo);
+            int mover = match.getNextTurn();
+            MatchMirror moving = mover == one ? mirrorOne : mirrorTwo;
+            int waiter = mover == one ? two : one;
+            assertTurnedDownAlike(waiter, mover == one ? mirrorTwo : mirrorOne, 1);
+            if (match.getCurrentMarbles() > 3) {
+                assertTurnedDownAlike(mover, moving, match.getCurrentMarbles()); //too many
+            }
+            assertNull(moving.check(1));
+            assertEquals("", server.executeCommand(mover, "1"));
+            run();
+        }
+        deliver(one, mirrorOne);
+        deliver(two, mirrorTwo);
+        assertFalse(mirrorOne.isInMatch());
+        assertFalse(mirrorTwo.isInMatch());
+    }
+
+    @Test
+    public void mirrorFollowsAMatchAgainstTheComputer() throws Exception {
+        int player = server.registerPlayer();
+        MatchMirror mirror = new MatchMirror();
+        server.executeCommand(player, "cpu");
+        server.executeCommand(player, "start");
+        run();
+        GameLogicEngine match = server.findPlayerById(player).getCurrentMatch();
+        assertNotNull(match);
+
+        while (!match.isGameOver()) {
+            deliver(player, mirror);
+            assertAgrees(match, player, mirror);
+            if (match.getNextTurn() == player && match.getCurrentMarbles() > 0) {
+                if (match.getCurrentMarbles() > 3) {
+                    assertTurnedDownAlike(player, mirror, match.getCurrentMarbles());
+                }
+                assertNull(mirror.check(1));
+                assertEquals("", server.executeCommand(player, "1"));
+            } else {
+                assertTurnedDownAlike(player, mirror, 1);
+            }
+            run();
+        }
+        deliver(player, mirror);
+        assertFalse(mirror.isInMatch());
+    }
+
+    @Test
+    public void mirrorsLeaveAMatchGivenUp() throws Exception {
+        int one = server.registerPlayer();
+        int two = server.registerPlayer();
+        MatchMirror mirrorOne = new MatchMirror();
+        MatchMirror mirrorTwo = new MatchMirror();
+        server.executeCommand(one, "start");
+        server.executeCommand(two, "start");
+        run();
+        deliver(one, mirrorOne);
+        deliver(two, mirrorTwo);
+        assertTrue(mirrorOne.isInMatch());
+        assertTrue(mirrorTwo.isInMatch());
+
+        server.executeCommand(one, "exit");
+        run();
+        deliver(one, mirrorOne);
+        deliver(two, mirrorTwo);
+        assertFalse(mirrorOne.isInMatch());
+        assertFalse(mirrorTwo.isInMatch());
+        assertNull(mirrorTwo.check(1)); //out of a match the server decides
+    }
+
+    /**
+     * Lets the simulated server run for a second
+     */
+    private void run() {
+        simulation.runUntil(virtualMillis += 1000);
+    }
+
+    /**
+     * Feeds the mirror every message waiting for the player, as a session
+     * polling the server would
+     */
+    private void deliver(int playerID, MatchMirror mirror) throws Exception {
+        String message;
+        while (!(message = server.communicateWithServer(playerID)).isEmpty()) {
+            mirror.messageReceived(null, message);
+        }
+    }
+
+    private static void assertAgrees(GameLogicEngine match, int playerID, MatchMirror mirror) {
+        assertTrue(mirror.isInMatch());
+        assertEquals(match.getCurrentMarbles(), mirror.getMarbles());
+        assertEquals(match.getNextTurn() == playerID && match.getCurrentMarbles() > 0, mirror.isMyTurn());
+    }
+
+    /**
+     * Sends a move the mirror turns down, the server has to turn it down as
+     * well and tell the player the same
+     */
+    private void assertTurnedDownAlike(int playerID, MatchMirror mirror, long move) throws Exception {
+        String expected = mirror.check(move);
+        assertNotNull("the mirror lets " + move + " through", expected);
+        assertEquals(NimRules.ILLEGAL_MOVE, server.executeCommand(playerID, Long.toString(move)));
+        String told = server.communicateWithServer(playerID);
+        assertEquals(expected, told);
+        mirror.messageReceived(null, told);
+    }
+}
@@ -0,0 +1,112 @@
+package RMIGameOfNim;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pairs players with the lobbies of a {@link Matchmaker} under a made up
+ * clock: a lobby put back keeps its place, the windows widen while the
+ * lobbies wait and the difficulties are kept apart.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class MatchmakerTest {
+
+    private static final int EASY = GameEngineRemoteInterface.EASY_DIFFICULYT;
+    private static final int HARD = GameEngineRemoteInterface.HARD_DIFFICULTY;
+    private static final long START = TimeUnit.SECONDS.toNanos(1000);
+
+    private final Matchmaker matchmaker = new Matchmaker(100, 25, 2);
+
+    @Test
+    public void playerJoinsTheClosestLobbyWithinItsWindow() {
+        GameLogicEngine far = lobby(1, false);
+        GameLogicEngine near = lobby(2, false);
+        matchmaker.add(far, 1420, START);
+        matchmaker.add(near, 1480, START);
+
+        assertNull(matchmaker.pair(EASY, 0, 1700, START)); //out of both windows
+        assertSame(near, matchmaker.pair(EASY, 0, 1500, START));
+        assertFalse(matchmaker.contains(near));
+        assertSame(far, matchmaker.pair(EASY, 0, 1500, START));
+        assertEquals(0, matchmaker.size());
+        assertEquals(2, matchmaker.getPairings());
+    }
+
+    @Test
+    public void lobbyPutBackKeepsItsPlace() {
+        GameLogicEngine older = lobby(1, false);
+        GameLogicEngine younger = lobby(2, false);
+        matchmaker.add(older, 1500, START);
+        matchmaker.add(younger, 1500, seconds(10));
+        matchmaker.add(older, 1500, START); //put back after a player joined it, behind the younger one if it lost its place
+
+        //after 20 s the older lobby reaches 600 points and the younger one 350, a player 400 points away is only within reach of the older
+        assertSame(older, matchmaker.pair(EASY, 0, 1900, seconds(20)));
+        assertNull(matchmaker.pair(EASY, 0, 1900, seconds(20)));
+        assertTrue(matchmaker.contains(younger));
+    }
+
+    @Test
+    public void sweepPairsLobbiesOnceTheirWindowsMeet() {
+        GameLogicEngine older = lobby(1, false);
+        GameLogicEngine younger = lobby(2, false);
+        GameLogicEngine other = lobby(3, true);
+        matchmaker.add(older, 1500, START);
+        matchmaker.add(other, 1500, START); //another difficulty, never paired with the easy ones
+        matchmaker.add(younger, 1800, seconds(2));
+        matchmaker.add(older, 1500, START);
+
+        assertTrue(matchmaker.sweep(seconds(5)).isEmpty()); //the older lobby reaches 225 points
+        List<GameLogicEngine[]> pairs = matchmaker.sweep(seconds(8)); //and then 300
+        assertEquals(1, pairs.size());
+        assertSame(older, pairs.get(0)[0]);
+        assertSame(younger, pairs.get(0)[1]);
+        assertEquals(1, matchmaker.size());
+        assertSame(other, matchmaker.pair(HARD, 0, 1500, seconds(8)));
+    }
+
+    @Test
+    public void lobbiesThatAreOverAreSkipped() {
+        GameLogicEngine over = lobby(1, false);
+        GameLogicEngine waiting = lobby(2, false);
+        matchmaker.add(over, 1500, START);
+        matchmaker.add(waiting, 1500, seconds(1));
+        over.endNow(NimRules.LOBBY_CLOSED);
+
+        assertSame(waiting, matchmaker.pair(EASY, 0, 1500, seconds(1)));
+        assertTrue(matchmaker.contains(over));
+    }
+
+    @Test
+    public void lobbyForAChosenTotalOnlyTakesPlayersWhoChoseIt() {
+        GameLogicEngine chosen = lobby(1, false);
+        assertTrue(chosen.setTotalMarbles(Long.MAX_VALUE));
+        GameLogicEngine drawn = lobby(2, false);
+        GameLogicEngine other = lobby(3, false);
+        assertTrue(other.setTotalMarbles(1000));
+        matchmaker.add(chosen, 1500, START);
+        matchmaker.add(drawn, 1500, seconds(1));
+        matchmaker.add(other, 1500, seconds(2));
+
+        assertNull(matchmaker.pair(EASY, 2000, 1500, seconds(2)));
+        assertTrue(matchmaker.sweep(seconds(60)).isEmpty()); //in reach of each other, but every total is a pool of its own
+        assertSame(drawn, matchmaker.pair(EASY, 0, 1500, seconds(60)));
+        assertSame(chosen, matchmaker.pair(EASY, Long.MAX_VALUE, 1500, seconds(60)));
+        assertSame(other, matchmaker.pair(EASY, 1000, 1500, seconds(60)));
+    }
+
+    private static GameLogicEngine lobby(int matchID, boolean hard) {
+        return new GameLogicEngine(matchID, null, matchID, hard, false);
+    }
+
+    private static long seconds(long seconds) {
+        return START + TimeUnit.SECONDS.toNanos(seconds);
+    }
+}
@@ -0,0 +1,64 @@
+package RMIGameOfNim;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link NimRules} against the rules written out, up to
+ * {@link Long#MAX_VALUE} marbles, and the moves the computer makes from
+ * 64-bit counts.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class NimRulesTest {
+
+    @Test
+    public void smallCountsFollowTheRules() {
+        for (long marbles = 1; marbles <= 64; marbles++) {
+            for (long move = -2; move <= marbles + 2; move++) {
+                boolean legal = (marbles == 1 && move == 1) || (move >= 1 && 2 * move <= marbles);
+                assertEquals(move + " of " + marbles, legal, NimRules.isLegalMove(move, marbles));
+            }
+            assertEquals(marbles == 1 ? 1 : marbles / 2, NimRules.maxMove(marbles));
+        }
+        assertEquals(0, NimRules.maxMove(0));
+    }
+
+    @Test
+    public void movesAreCheckedWithoutOverflowAt64Bits() {
+        long marbles = Long.MAX_VALUE;
+        assertTrue(NimRules.isLegalMove(1, marbles));
+        assertTrue(NimRules.isLegalMove(marbles / 2, marbles));
+        assertFalse(NimRules.isLegalMove(marbles / 2 + 1, marbles));
+        assertFalse(NimRules.isLegalMove(marbles, marbles));
+        assertFalse(NimRules.isLegalMove(0, marbles));
+        assertFalse(NimRules.isLegalMove(Long.MIN_VALUE, marbles));
+        assertEquals(marbles / 2, NimRules.maxMove(marbles));
+        assertFalse(NimRules.isLegalMove(GameEngineRemoteInterface.GIVE_UP, marbles)); //giving up is never a move, however many are left
+    }
+
+    @Test
+    public void computerMakesLegalWinningMovesFrom64BitCounts() {
+        GameLogicEngine match = new GameLogicEngine(1, null, 1, false, true);
+        ComputerControlledPlayer cpu = new ComputerControlledPlayer(Long.MAX_VALUE, match);
+        Random random = new Random(3);
+        for (int game = 0; game < 100; game++) {
+            long marbles = game == 0 ? Long.MAX_VALUE : 2 + (random.nextLong() >>> 1) % (Long.MAX_VALUE - 2);
+            int moves = 0;
+            while (marbles > 0) {
+                long move = cpu.makeSmartMove(marbles);
+                assertTrue(move + " of " + marbles, NimRules.isLegalMove(move, marbles));
+                long leave = marbles == 1 ? 0 : ComputerControlledPlayer.leaveFor(marbles, false);
+                if (leave > 0 && NimRules.isLegalMove(marbles - leave, marbles)) { //a winning move is there to be made
+                    assertEquals(0, (marbles - move) & (marbles - move + 1)); //leaves 2 to the power of n minus 1
+                }
+                marbles -= move;
+                moves++;
+            }
+            assertTrue(moves <= 2 * 64);
+        }
+    }
+}
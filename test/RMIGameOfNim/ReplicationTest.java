@@ -0,0 +1,261 @@
+package RMIGameOfNim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replicates a primary {@link GameServer} to a {@link StandbyServer} with two
+ * local JVMs: the primary is a {@link HeadlessGameServer} in a process of its
+ * own with replication.ack=written, the standby runs in the JVM of the test.
+ * Checked are the snapshot the standby is handed when it connects, that a
+ * move is in the journal of the standby once the primary has answered it,
+ * and that the standby takes over with the sessions and moves of the primary
+ * once its process has been killed.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ReplicationTest {
+
+    private static final Pattern SNAPSHOT_SENT = Pattern.compile("connected, sent (\\S+) in");
+    private static final Pattern MATCH_LINE = Pattern.compile("Match #(\\d+) .* marbles left after (\\d+) move");
+    private static final int FIRST_PORT = 2336;
+    private static int nextPort = FIRST_PORT; //every test has ports of its own, the ones before may still be closing
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int port;
+    private int replicationPort;
+    private String url;
+    private File primaryDir;
+    private File standbyDir;
+    private Process primary;
+    private final BlockingQueue<String> primaryLines = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> standbyLines = new LinkedBlockingQueue<>();
+    private final ExecutorService standbyThread = Executors.newSingleThreadExecutor();
+    private Future<GameServer> takenOver;
+    private GameEngineRemoteInterface server;
+
+    @Before
+    public void setUp() throws Exception {
+        port = nextPort;
+        replicationPort = nextPort + 1;
+        nextPort += 2;
+        url = "rmi://localhost:" + port + "/" + GameEngineRemoteInterface.SERVICE_NAME;
+        primaryDir = folder.newFolder("primary");
+        standbyDir = folder.newFolder("standby");
+        List<String> command = new ArrayList<>(Arrays.asList(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), HeadlessGameServer.class.getName(), "port=" + port,
+                "replication.port=" + replicationPort, "replication.ack=" + Replicator.ACK_WRITTEN, "replication.ackTimeout=30000",
+                "journal.dir=" + primaryDir, "log.sink=stdout", "snapshot.interval=0", "restore=false", "matchmaking.window=1000000"));
+        primary = new ProcessBuilder(command).redirectErrorStream(true).start();
+        pump();
+        await(primaryLines, "Server Started", 30);
+        server = (GameEngineRemoteInterface) Naming.lookup(url);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        primary.destroyForcibly();
+        primary.waitFor();
+        if (takenOver != null) {
+            takenOver.get(30, TimeUnit.SECONDS).drain(0); //closes its registry and journal
+        }
+        standbyThread.shutdownNow();
+    }
+
+    @Test
+    public void standbyIsHandedTheSnapshotOfThePrimary() throws Exception {
+        String one = server.registerSession();
+        String two = server.registerSession();
+        play(one, two);
+        standBy();
+        Matcher sent = SNAPSHOT_SENT.matcher(await(primaryLines, "connected, sent", 30));
+        assertTrue(sent.find());
+        File snapshot = new File(standbyDir, sent.group(1));
+        assertTrue(snapshot.isFile());
+        assertArrayEquals(Files.readAllBytes(new File(primaryDir, sent.group(1)).toPath()), Files.readAllBytes(snapshot.toPath()));
+    }
+
+    @Test
+    public void moveIsWrittenByTheStandbyBeforeItIsAnswered() throws Exception {
+        String one = server.registerSession();
+        String two = server.registerSession();
+        standBy();
+        for (int moves = 1; moves <= 5; moves++) {
+            play(one, two);
+            assertEquals(moves, movesJournaledBy(standbyDir)); //no waiting, the answer came after the standby had written it
+        }
+    }
+
+    @Test
+    public void standbyTakesOverOnceThePrimaryHasDied() throws Exception {
+        String one = server.registerSession();
+        String two = server.registerSession();
+        play(one, two); //in the snapshot
+        standBy();
+        for (int i = 0; i < 3; i++) {
+            play(one, two); //replicated
+        }
+        String before = server.executeCommand(ResumedSession.playerNumberOf(one), "matches");
+        primary.destroyForcibly();
+        assertNotNull(takenOver.get(30, TimeUnit.SECONDS));
+        server = (GameEngineRemoteInterface) Naming.lookup(url);
+        assertNotNull(server.resume(one));
+        assertNotNull(server.resume(two));
+        String after = server.executeCommand(ResumedSession.playerNumberOf(one), "matches");
+        assertEquals(movesByMatch(before), movesByMatch(after));
+        assertEquals(3, movesJournaledBy(standbyDir)); //the first one is in the snapshot
+        play(one, two); //the match goes on where it was, or a new one starts
+    }
+
+    /**
+     * Starts the standby on a thread of its own and waits for it to replicate
+     */
+    private void standBy() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.set(ServerConfig.PORT, "" + port);
+        config.set(ServerConfig.JOURNAL_DIR, standbyDir.getPath());
+        config.set(ServerConfig.REPLICATION_PRIMARY, "localhost:" + replicationPort);
+        config.set(ServerConfig.SNAPSHOT_INTERVAL, "0");
+        config.set(ServerConfig.MATCHMAKING_WINDOW, "1000000");
+        config.set(ServerConfig.DRAIN_FLUSH_TIMEOUT, "0"); //the players of the test do not collect their messages
+        final StandbyServer standby = new StandbyServer(config, new AsyncServerLog(new LogSink() {
+            @Override
+            public void write(String batch, int lines) {
+                standbyLines.addAll(Arrays.asList(batch.split("\n")));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, config.getLogBufferSize()));
+        takenOver = standbyThread.submit(new Callable<GameServer>() {
+            @Override
+            public GameServer call() throws Exception {
+                return standby.standBy();
+            }
+        });
+        await(standbyLines, "Replicating from", 30);
+    }
+
+    /**
+     * Makes a move of 1 for whichever of the two players has the turn,
+     * starting a match for a player who is not in one. A match has at least 2
+     * marbles, so it may be over after any move.
+     */
+    private void play(String one, String two) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!move(ResumedSession.playerNumberOf(one)) && !move(ResumedSession.playerNumberOf(two))) {
+            assertTrue("Nobody could make a move", System.nanoTime() - deadline < 0);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return true if the player has made a move of 1
+     */
+    private boolean move(int playerID) throws Exception {
+        String reply = server.executeCommand(playerID, "1");
+        if (reply.startsWith("You are not currently in a match")) {
+            server.executeCommand(playerID, "start");
+        }
+        return reply.isEmpty();
+    }
+
+    /**
+     * @return the moves in the journal of the directory
+     */
+    private static int movesJournaledBy(File directory) throws IOException {
+        int moves = 0;
+        JournalReader reader = new JournalReader(directory);
+        try {
+            for (JournalRecord record; (record = reader.next()) != null;) {
+                moves += record.getType() == JournalRecord.MOVE ? 1 : 0;
+            }
+        } finally {
+            reader.close();
+        }
+        return moves;
+    }
+
+    /**
+     * @param listing the answer to the "matches" command
+     * @return the moves made in every match that has started
+     */
+    private static List<Integer> movesByMatch(String listing) {
+        List<Integer> moves = new ArrayList<>();
+        Matcher matcher = MATCH_LINE.matcher(listing);
+        while (matcher.find()) {
+            moves.add(Integer.parseInt(matcher.group(2)));
+        }
+        return moves;
+    }
+
+    /**
+     * Reads the output of the primary on a background thread
+     */
+    private void pump() {
+        final Process process = primary;
+        Thread pump = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    for (String line; (line = reader.readLine()) != null;) {
+                        primaryLines.add(line);
+                    }
+                } catch (IOException e) {
+                    //the process has gone
+                }
+            }
+        }, "ReplicationTest-primary");
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    /**
+     * @return the first line containing the text
+     * @throws IllegalStateException if none came within the time
+     */
+    private static String await(BlockingQueue<String> lines, String text, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (true) {
+            String line = lines.poll(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (line == null) {
+                throw new IllegalStateException("Gave up waiting for \"" + text + "\"");
+            }
+            if (line.contains(text)) {
+                return line;
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package RMIGameOfNim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes a {@link MoveJournal} and a {@link ServerSnapshot} and reads them
+ * back, with the last frame of the journal torn as if the server had died
+ * while copying it.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class ServerSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ServerConfig config;
+    private AsyncServerLog log;
+    private final List<GameServer> servers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot();
+        config = new ServerConfig();
+        config.set(ServerConfig.JOURNAL_DIR, directory.getPath());
+        config.set(ServerConfig.SNAPSHOT_INTERVAL, "0");
+        config.set(ServerConfig.LOG_SINK, LogSinks.NONE);
+        log = new AsyncServerLog(LogSinks.fromSpec(LogSinks.NONE), config.getLogBufferSize());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (GameServer server : servers) {
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+        log.close();
+    }
+
+    @Test
+    public void journalIsReadBackUpToATornFrame() throws Exception {
+        MoveJournal journal = new MoveJournal(directory, log);
+        for (int i = 1; i <= 10; i++) {
+            journal.append(JournalRecord.move(1, 7, 1, 100 - i));
+        }
+        long intact = awaitWritten(journal, 10);
+        for (int i = 11; i <= 20; i++) {
+            journal.append(JournalRecord.move(1, 7, 1, 100 - i));
+        }
+        long written = awaitWritten(journal, 20);
+        journal.close();
+        tear(intact, written);
+
+        try (JournalReader reader = new JournalReader(directory)) {
+            for (int i = 1; i <= 10; i++) {
+                JournalRecord record = reader.next();
+                assertEquals(JournalRecord.MOVE, record.getType());
+                assertEquals(1, record.getMatchID());
+                assertEquals(7, record.getPlayerID());
+                assertEquals(1, record.getAmount());
+                assertEquals(100 - i, record.getMarbles());
+            }
+            assertNull(reader.next());
+            assertEquals(10, reader.getRecordsRead());
+            assertEquals(1, reader.getCorruptFrames());
+        }
+    }
+
+    @Test
+    public void snapshotIsRestoredWithTheJournalUpToATornFrame() throws Exception {
+        GameServer server = newServer();
+        GameLogicEngine easy = match(server, 1, false);
+        GameLogicEngine hard = match(server, 2, true);
+        assertEquals(true, easy.pickMarbles(easy.getNextTurn(), 1));
+        ServerSnapshot.take(server, directory);
+
+        MoveJournal journal = new MoveJournal(directory, log);
+        journal.append(move(easy)); //made after the snapshot, restored from the journal
+        journal.append(JournalRecord.matchStarted(3, 5, 6, 15)); //a hard match with a total an easy one could have
+        journal.append(JournalRecord.matchRules(3, GameEngineRemoteInterface.HARD_DIFFICULTY, 2, false));
+        long intact = awaitWritten(journal, 3);
+        journal.append(JournalRecord.move(hard.getMatchID(), hard.getNextTurn(), 1, hard.getCurrentMarbles() - 1)); //torn, lost
+        long written = awaitWritten(journal, 4);
+        journal.close();
+        tear(intact, written);
+
+        ServerSnapshot snapshot = ServerSnapshot.load(directory);
+        assertNotNull(snapshot);
+        assertEquals(3, snapshot.getTailRecords());
+        GameServer restored = newServer();
+        restored.rebuild(snapshot);
+
+        assertRestored(easy, restored.findPlayerById(easy.getPlayerOne().getPlayerID()).getCurrentMatch());
+        assertRestored(hard, restored.findPlayerById(hard.getPlayerOne().getPlayerID()).getCurrentMatch());
+        GameLogicEngine started = restored.findPlayerById(5).getCurrentMatch();
+        assertNotNull(started);
+        assertEquals(15, started.getCurrentMarbles());
+        assertEquals(5, started.getNextTurn());
+        assertEquals(GameEngineRemoteInterface.HARD_DIFFICULTY, started.getChosenDifficulty());
+    }
+
+    private GameServer newServer() throws Exception {
+        GameServer server = new GameServer(config, log);
+        servers.add(server);
+        return server;
+    }
+
+    /**
+     * A match between two new players with nobody to move yet, put into the
+     * server without its thread like a restored one
+     */
+    private static GameLogicEngine match(GameServer server, int matchID, boolean hard) throws Exception {
+        Player one = server.findPlayerById(server.registerPlayer());
+        Player two = server.findPlayerById(server.registerPlayer());
+        GameLogicEngine match = new GameLogicEngine(matchID, server, one, hard, false);
+        long total = match.getTotalMarbles();
+        match.restore(Collections.singletonList(two), total, total, one.getPlayerID(), Collections.<Long>emptyList(), 0, Collections.<Integer>emptyList());
+        server.adopt(match);
+        return match;
+    }
+
+    /**
+     * Makes a move of one marble and returns its record, the server is not
+     * started so the match does not journal it itself
+     */
+    private static JournalRecord move(GameLogicEngine match) {
+        int playerID = match.getNextTurn();
+        assertEquals(true, match.pickMarbles(playerID, 1));
+        return JournalRecord.move(match.getMatchID(), playerID, 1, match.getCurrentMarbles());
+    }
+
+    private static void assertRestored(GameLogicEngine expected, GameLogicEngine actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getMatchID(), actual.getMatchID());
+        assertEquals(expected.getCurrentMarbles(), actual.getCurrentMarbles());
+        assertEquals(expected.getNextTurn(), actual.getNextTurn());
+        assertEquals(expected.getCompletedMoves(), actual.getCompletedMoves());
+        assertEquals(expected.getMoveChecksum(), actual.getMoveChecksum());
+        assertEquals(expected.getChosenDifficulty(), actual.getChosenDifficulty());
+    }
+
+    /**
+     * @return the bytes of frames written once the journal has written the
+     * records
+     */
+    private static long awaitWritten(MoveJournal journal, long records) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (journal.getRecordsWritten() < records && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(records, journal.getRecordsWritten());
+        return journal.getBytesWritten();
+    }
+
+    /**
+     * Zeroes the frames written from one offset to another in the only
+     * segment, all but their first bytes, as if the server had died half way
+     * through copying them
+     */
+    private void tear(long from, long to) throws IOException {
+        File[] segments = MoveJournal.listSegments(directory);
+        assertEquals(1, segments.length);
+        try (RandomAccessFile segment = new RandomAccessFile(segments[0], "rw")) {
+            segment.seek(MoveJournal.HEADER_SIZE + from + 3); //past the length of the first frame and into its payload
+            segment.write(new byte[(int) (to - from - 3)]);
+        }
+    }
+}
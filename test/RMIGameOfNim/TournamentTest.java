@@ -0,0 +1,114 @@
+package RMIGameOfNim;
+
+import java.rmi.server.UnicastRemoteObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays knockout tournaments between two players on a simulated server, so a
+ * match can be given up before its task has started it
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class TournamentTest {
+
+    private Simulation simulation;
+    private GameServer server;
+    private long virtualMillis = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.set(ServerConfig.JOURNAL_DIR, "none");
+        config.set(ServerConfig.SNAPSHOT_INTERVAL, "0");
+        config.set(ServerConfig.LOG_SINK, LogSinks.NONE);
+        simulation = new Simulation(1);
+        server = new GameServer(config, new AsyncServerLog(LogSinks.fromSpec(LogSinks.NONE), config.getLogBufferSize()), simulation);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        UnicastRemoteObject.unexportObject(server, true);
+    }
+
+    @Test
+    public void exitBeforeTheMatchHasStartedForfeitsIt() throws Exception {
+        int one = server.registerPlayer();
+        int two = server.registerPlayer();
+        Tournament tournament = knockout(one, two);
+        GameLogicEngine match = server.findPlayerById(one).getCurrentMatch();
+        assertNotNull(match);
+        assertFalse(match.isStarted());
+
+        server.executeCommand(one, "exit");
+        int three = server.registerPlayer();
+        server.executeCommand(three, "start"); //would take the free seat of a lobby
+        run();
+        assertTrue(match.isGameOver());
+        assertEquals(two, match.getWinnerID());
+        assertTrue(match.isForfeited());
+        assertNotSame(match, server.findPlayerById(three).getCurrentMatch());
+        assertTrue(tournament.isFinished());
+        assertEquals(two, tournament.getChampionID());
+    }
+
+    @Test
+    public void leavingBeforeTheMatchHasStartedForfeitsIt() throws Exception {
+        int one = server.registerPlayer();
+        int two = server.registerPlayer();
+        Tournament tournament = knockout(one, two);
+        GameLogicEngine match = server.findPlayerById(two).getCurrentMatch();
+        assertFalse(match.isStarted());
+
+        server.executeCommand(two, "tournament leave");
+        run();
+        assertTrue(match.isGameOver());
+        assertEquals(one, match.getWinnerID());
+        assertTrue(tournament.isFinished());
+        assertEquals(one, tournament.getChampionID());
+    }
+
+    @Test
+    public void winnerOfThePlayedMatchGoesThrough() throws Exception {
+        int one = server.registerPlayer();
+        int two = server.registerPlayer();
+        Tournament tournament = knockout(one, two);
+        GameLogicEngine match = server.findPlayerById(one).getCurrentMatch();
+        run();
+        assertTrue(match.isStarted());
+        while (!match.isGameOver()) {
+            assertEquals("", server.executeCommand(match.getNextTurn(), "1"));
+            run();
+        }
+        assertTrue(tournament.isFinished());
+        assertEquals(match.getWinnerID(), tournament.getChampionID());
+    }
+
+    /**
+     * Starts a knockout tournament between the two players, the match of its
+     * only round is made but not run yet
+     */
+    private Tournament knockout(int one, int two) throws Exception {
+        server.executeCommand(one, "tournament knockout");
+        server.executeCommand(two, "tournament join");
+        server.executeCommand(one, "tournament start");
+        Tournament tournament = server.getTournament(one);
+        assertNotNull(tournament);
+        assertTrue(tournament.isStarted());
+        return tournament;
+    }
+
+    /**
+     * Lets the simulated server run for a second
+     */
+    private void run() {
+        simulation.runUntil(virtualMillis += 1000);
+    }
+}
@@ -0,0 +1,121 @@
+package RMIGameOfNim;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the timing wheel of {@link TurnClocks} against a match that only
+ * notes the turns whose time is up.
+ *
+ * @author Alexander.Keidel@go.edgehill.ac.uk
+ */
+public class TurnClocksTest {
+
+    private TurnClocks clocks;
+    private final List<Integer> timedOut = new CopyOnWriteArrayList<>();
+    private final List<Long> timedOutNanos = new CopyOnWriteArrayList<>();
+    private final CountDownLatch expired = new CountDownLatch(1);
+
+    private final GameLogicEngine match = new GameLogicEngine(1, null, 1, false, false) {
+        @Override
+        boolean turnTimedOut(int turn) {
+            timedOut.add(turn);
+            timedOutNanos.add(System.nanoTime());
+            expired.countDown();
+            return true;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        if (clocks != null) {
+            clocks.stop();
+        }
+    }
+
+    @Test
+    public void clockEndsTheTurnOnceTheTimeIsUp() throws Exception {
+        clocks = new TurnClocks(1000, 0, 10);
+        clocks.start();
+        long start = System.nanoTime();
+        clocks.schedule(match, 3, 100);
+        assertEquals(1, clocks.getRunning());
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(timedOutNanos.get(0) - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(3, timedOut.get(0).intValue());
+        assertEquals(1, awaitTimedOut(1));
+        assertEquals(0, clocks.getRunning());
+    }
+
+    @Test
+    public void stoppedClockDoesNotEndTheTurn() throws Exception {
+        clocks = new TurnClocks(1000, 0, 10);
+        clocks.start();
+        TurnClocks.Timeout moved = clocks.schedule(match, 1, 30);
+        clocks.schedule(match, 2, 100);
+        moved.stop();
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50); //the stopped one would have come first
+        assertEquals(1, timedOut.size());
+        assertEquals(2, timedOut.get(0).intValue());
+        assertEquals(1, awaitTimedOut(1));
+        assertEquals(0, clocks.getRunning());
+    }
+
+    @Test
+    public void clocksEndInTheOrderOfTheirTime() throws Exception {
+        clocks = new TurnClocks(1000, 0, 5);
+        clocks.schedule(match, 3, 150);
+        clocks.schedule(match, 1, 50);
+        clocks.schedule(match, 2, 100);
+        clocks.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (timedOut.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(3, timedOut.size());
+        assertEquals(1, timedOut.get(0).intValue());
+        assertEquals(2, timedOut.get(1).intValue());
+        assertEquals(3, timedOut.get(2).intValue());
+    }
+
+    @Test
+    public void clockLongerThanATurnOfTheWheelWaitsForItsRound() throws Exception {
+        clocks = new TurnClocks(1000, 0, 1);
+        clocks.start();
+        long delayMillis = TurnClocks.WHEEL_SIZE + 200; //comes round in its slot once before it is due
+        long start = System.nanoTime();
+        clocks.schedule(match, 1, delayMillis);
+
+        assertTrue(expired.await(10, TimeUnit.SECONDS));
+        assertTrue(timedOutNanos.get(0) - start >= TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    @Test
+    public void timeIsShownInTenthsOfSeconds() {
+        assertEquals("12.3 seconds", TurnClocks.format(12345));
+        assertEquals("1.0 second", TurnClocks.format(1000));
+        assertEquals("0.0 seconds", TurnClocks.format(-5));
+    }
+
+    /**
+     * @return the turns counted as timed out, which the wheel only counts
+     * once the match has been told
+     */
+    private long awaitTimedOut(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (clocks.getTimedOut() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return clocks.getTimedOut();
+    }
+}